@@ -0,0 +1,491 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Single-pass loader of a provenance log (binary segments, JSON lines, or
+ * both) into a W3CProvGraph.
+ *
+ * Records are added to the graph as they are read. A relation whose endpoints
+ * are both in the graph is added at once; otherwise it is buffered until the
+ * missing endpoint is read (e.g., an entity written to a later segment). At
+ * most maxPending relations are buffered: when the buffer is full, the oldest
+ * buffered relation is dropped and counted. Relations still buffered at the end
+ * of the log refer to objects that were never written, and are not added.
+ *
+ * Memory use is thus the graph itself plus the bounded buffer, whatever the
+ * size of the log. Progress and throughput can be reported periodically, which
+ * is useful for logs of several gigabytes.
+ *
+ * The graph is loaded in bulk (see W3CProvGraph.beginBulkLoad()): relations
+ * closing cycles are found and dropped once the whole log is read, and are
+ * reported by getCycleReport(). Alternatively, relations can be oriented by
+ * timestamp (see setOrientByTime()).
+ *
+ * Usage: ProvGraphLoader path [maxPending] [-t]
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class ProvGraphLoader implements ProvLogVisitor {
+
+    public static final int DEFAULT_MAX_PENDING = 1_000_000;
+    public static final long DEFAULT_PROGRESS_INTERVAL_MS = 10_000;
+
+    /* records between checks of the progress clock */
+    private static final long PROGRESS_CHECK_MASK = (1 << 16) - 1;
+
+    private final W3CProvGraph graph;
+    private final int maxPending;
+
+    /* buffered relations by the UUID of a missing endpoint */
+    private final Map<String, List<PendingRelation>> pending = new HashMap<String, List<PendingRelation>>();
+    /* buffered relations, oldest first; may hold resolved relations */
+    private final ArrayDeque<PendingRelation> pendingOrder = new ArrayDeque<PendingRelation>();
+    private int pendingCount = 0;
+
+    private final ProvLogReader binaryReader = new ProvLogReader();
+    private final ProvJsonLogReader jsonReader = new ProvJsonLogReader();
+    private final ProvLogPositions positions = new ProvLogPositions();
+
+    private boolean orientByTime = false;
+    private W3CProvCycleReport cycleReport = null;
+
+    private PrintStream progress = null;
+    private long progressIntervalNanos;
+    private long totalBytes = 0;
+    private long startNanos;
+    private long lastReportNanos;
+
+    private long records = 0;
+    private long nodes = 0;
+    private long relations = 0;
+    private long deferredRelations = 0;
+    private long droppedRelations = 0;
+    private long lastTs = 0;
+
+    public ProvGraphLoader() {
+        this(new W3CProvGraph(), DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Create a loader adding to a graph.
+     *
+     * @param graph
+     * @param maxPending maximum number of buffered relations
+     */
+    public ProvGraphLoader(W3CProvGraph graph, int maxPending) {
+        if (maxPending < 0) {
+            throw new IllegalArgumentException(
+                    "maxPending must not be negative");
+        }
+        this.graph = graph;
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * Report progress and throughput periodically while loading.
+     *
+     * @param out        stream to report to, or null not to report
+     * @param intervalMs interval between reports
+     */
+    public void setProgress(PrintStream out, long intervalMs) {
+        this.progress = out;
+        this.progressIntervalNanos = intervalMs * 1_000_000L;
+    }
+
+    /**
+     * Drop relations from an older to a newer object rather than look for
+     * cycles when adding the loaded relations to the graph.
+     *
+     * @param orientByTime
+     */
+    public void setOrientByTime(boolean orientByTime) {
+        this.orientByTime = orientByTime;
+    }
+
+    /**
+     * Load a log: a binary segment file, a JSON log file, or a log directory
+     * (its binary segments, then its JSON segments).
+     *
+     * @param path
+     * @return provenance graph
+     * @throws IOException
+     */
+    public W3CProvGraph load(File path) throws IOException {
+        totalBytes += sizeOf(path);
+        startNanos = System.nanoTime();
+        lastReportNanos = startNanos;
+        boolean bulk = !graph.isBulkLoading();
+        if (bulk) {
+            graph.beginBulkLoad(orientByTime);
+        }
+        ProvLogVisitor visitor = positions.newRecords(this);
+        try {
+            if (path.isDirectory()) {
+                binaryReader.read(path, visitor);
+                jsonReader.read(path, visitor);
+            } else if (isBinarySegment(path)) {
+                binaryReader.read(path, visitor);
+            } else {
+                jsonReader.read(path, visitor);
+            }
+        } finally {
+            if (bulk) {
+                cycleReport = graph.endBulkLoad();
+            }
+        }
+        if (progress != null) {
+            report();
+        }
+        return graph;
+    }
+
+    public void entity(String uuid, String name, String value, long ts) {
+        lastTs = Math.max(lastTs, ts);
+        addNode(new W3CProvGraphNode(uuid, "entity", value, millis(ts)));
+    }
+
+    public void activity(String uuid, String name, String value, long ts) {
+        lastTs = Math.max(lastTs, ts);
+        /* activities are described by their listener's name */
+        addNode(new W3CProvGraphNode(uuid, "activity",
+                value.isEmpty() ? name : value, millis(ts)));
+    }
+
+    public void relation(String type, String from, String to, long ts) {
+        lastTs = Math.max(lastTs, ts);
+        record();
+        PendingRelation relation = new PendingRelation(type, from, to,
+                millis(ts));
+        if (!tryAdd(relation)) {
+            deferredRelations++;
+            pendingOrder.add(relation);
+            if (pendingCount > maxPending) {
+                dropOldest();
+            }
+        }
+    }
+
+    private void addNode(W3CProvGraphNode node) {
+        record();
+        graph.addNode(node);
+        nodes++;
+        if (pendingCount == 0) {
+            return;
+        }
+        List<PendingRelation> waiting = pending.remove(node.getUuid());
+        if (waiting == null) {
+            return;
+        }
+        for (PendingRelation relation : waiting) {
+            relation.missing = null;
+            pendingCount--;
+            tryAdd(relation);
+        }
+        if (pendingOrder.size() > 2 * Math.max(pendingCount, 1024)) {
+            compact();
+        }
+    }
+
+    /**
+     * Add a relation if both endpoints are in the graph, or buffer it under a
+     * missing endpoint.
+     *
+     * @param relation
+     * @return true if added
+     */
+    private boolean tryAdd(PendingRelation relation) {
+        W3CProvGraphNode from = graph.getNode(relation.from);
+        W3CProvGraphNode to = graph.getNode(relation.to);
+        if (from != null && to != null) {
+            graph.addEdge(from, to,
+                    new W3CProvGraphEdge(relation.type, "", relation.ts));
+            relations++;
+            return true;
+        }
+        relation.missing = from == null ? relation.from : relation.to;
+        List<PendingRelation> waiting = pending.get(relation.missing);
+        if (waiting == null) {
+            waiting = new ArrayList<PendingRelation>(2);
+            pending.put(relation.missing, waiting);
+        }
+        waiting.add(relation);
+        pendingCount++;
+        return false;
+    }
+
+    private void dropOldest() {
+        for (;;) {
+            PendingRelation relation = pendingOrder.poll();
+            if (relation == null) {
+                return;
+            }
+            if (relation.missing == null) {
+                continue;
+            }
+            List<PendingRelation> waiting = pending.get(relation.missing);
+            waiting.remove(relation);
+            if (waiting.isEmpty()) {
+                pending.remove(relation.missing);
+            }
+            relation.missing = null;
+            pendingCount--;
+            droppedRelations++;
+            return;
+        }
+    }
+
+    /**
+     * Remove resolved relations from the buffer order.
+     */
+    private void compact() {
+        ArrayDeque<PendingRelation> order = new ArrayDeque<PendingRelation>(
+                pendingCount + 16);
+        for (PendingRelation relation : pendingOrder) {
+            if (relation.missing != null) {
+                order.add(relation);
+            }
+        }
+        pendingOrder.clear();
+        pendingOrder.addAll(order);
+    }
+
+    private void record() {
+        records++;
+        if (progress != null && (records & PROGRESS_CHECK_MASK) == 0) {
+            long now = System.nanoTime();
+            if (now - lastReportNanos >= progressIntervalNanos) {
+                lastReportNanos = now;
+                report();
+            }
+        }
+    }
+
+    private void report() {
+        double seconds = Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+        long bytes = getBytes();
+        progress.printf(
+                "Loaded %s records, %.1f of %.1f MB (%.0f%%) in %.1f s: "
+                        + "%.0f records/s, %.1f MB/s; %s nodes, %s relations, "
+                        + "%s pending, %s dropped\n",
+                records, bytes / 1e6, totalBytes / 1e6,
+                totalBytes == 0 ? 100.0 : 100.0 * bytes / totalBytes, seconds,
+                records / seconds, bytes / 1e6 / seconds, nodes, relations,
+                pendingCount, droppedRelations);
+    }
+
+    public W3CProvGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Number of records read, counting each member of a collection.
+     *
+     * @return count
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Number of bytes read.
+     *
+     * @return count
+     */
+    public long getBytes() {
+        return binaryReader.getBytes() + jsonReader.getBytes();
+    }
+
+    /**
+     * Timestamp of the last record read.
+     *
+     * @return hybrid logical clock timestamp, or 0 if no record was read
+     */
+    public long getLastTs() {
+        return lastTs;
+    }
+
+    /**
+     * Positions reached in the segments read, e.g., to append the records
+     * written after them to a W3CProvGraphSnapshot of the graph later.
+     *
+     * @return positions
+     */
+    public ProvLogPositions getPositions() {
+        return positions;
+    }
+
+    /**
+     * Number of relations added to the graph.
+     *
+     * @return count
+     */
+    public long getRelations() {
+        return relations;
+    }
+
+    /**
+     * Number of relations read before one of their endpoints.
+     *
+     * @return count
+     */
+    public long getDeferredRelations() {
+        return deferredRelations;
+    }
+
+    /**
+     * Number of relations dropped because the buffer was full.
+     *
+     * @return count
+     */
+    public long getDroppedRelations() {
+        return droppedRelations;
+    }
+
+    /**
+     * Relations dropped by the last load because they closed cycles (or went
+     * against time, see setOrientByTime()).
+     *
+     * @return report, or null if the graph was already being loaded in bulk
+     */
+    public W3CProvCycleReport getCycleReport() {
+        return cycleReport;
+    }
+
+    /**
+     * Number of relations still waiting for an endpoint; at the end of a log,
+     * their endpoints were never written.
+     *
+     * @return count
+     */
+    public long getPendingRelations() {
+        return pendingCount;
+    }
+
+    /**
+     * Display information about the load.
+     */
+    public void pp() {
+        System.out.printf("Number of records: %s (%s bytes)\n", records,
+                getBytes());
+        System.out.printf("Number of relations added: %s\n", relations);
+        System.out.printf("Number of deferred relations: %s\n",
+                deferredRelations);
+        System.out.printf("Number of dropped relations: %s\n",
+                droppedRelations);
+        System.out.printf("Number of unresolved relations: %s\n",
+                pendingCount);
+        System.out.printf("Number of torn segments: %s\n",
+                binaryReader.getTornSegments());
+        System.out.printf("Number of malformed JSON lines: %s\n",
+                jsonReader.getMalformedLines());
+        if (cycleReport != null) {
+            cycleReport.pp();
+        }
+    }
+
+    private static String millis(long ts) {
+        return String.valueOf(ProvLogReader.millisOf(ts));
+    }
+
+    static boolean isBinarySegment(File file) throws IOException {
+        if (file.length() < 4) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == ProvLogReader.MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long sizeOf(File path) {
+        if (!path.isDirectory()) {
+            return path.length();
+        }
+        long size = 0;
+        File[] files = path.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith(ProvLogReader.SEGMENT_PREFIX)
+                        && (name.endsWith(ProvLogReader.SEGMENT_SUFFIX)
+                                || name.endsWith(
+                                        ProvJsonLogReader.SEGMENT_SUFFIX))) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String path = null;
+        int maxPending = DEFAULT_MAX_PENDING;
+        boolean orientByTime = false;
+        boolean usage = false;
+        /* -t may appear anywhere among the positional arguments */
+        int positional = 0;
+        for (String arg : args) {
+            if (arg.equals("-t")) {
+                orientByTime = true;
+            } else if (positional == 0) {
+                path = arg;
+                positional++;
+            } else if (positional == 1) {
+                try {
+                    maxPending = Integer.parseInt(arg);
+                } catch (NumberFormatException e) {
+                    usage = true;
+                }
+                positional++;
+            } else {
+                usage = true;
+            }
+        }
+        if (path == null || usage) {
+            System.err.println("Usage: ProvGraphLoader path [maxPending] [-t]");
+            System.exit(1);
+        }
+        ProvGraphLoader loader = new ProvGraphLoader(new W3CProvGraph(),
+                maxPending);
+        loader.setOrientByTime(orientByTime);
+        loader.setProgress(System.out, DEFAULT_PROGRESS_INTERVAL_MS);
+        loader.load(new File(path)).pp();
+        loader.pp();
+    }
+
+    /**
+     * A relation read before one of its endpoints.
+     */
+    private static final class PendingRelation {
+        private final String type;
+        private final String from;
+        private final String to;
+        private final String ts;
+        /* UUID of the endpoint waited for, or null once resolved or dropped */
+        private String missing;
+
+        private PendingRelation(String type, String from, String to,
+                String ts) {
+            this.type = type;
+            this.from = from;
+            this.to = to;
+            this.ts = ts;
+        }
+    }
+
+}
@@ -0,0 +1,379 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Streaming reader for provenance logs written in the JSON format by
+ * ProvLogWriter in onos-app-provsdn (one JSON object per line), and for the
+ * JSON lines that ProvManager writes to the debug log.
+ *
+ * Lines are parsed one at a time, so memory use does not depend on the size
+ * of the log. A line's JSON object starts at its first '{', so lines copied
+ * from the controller's log (with a log prefix) can be read as well; lines
+ * without an object are skipped, and lines that cannot be parsed are counted
+ * and skipped. Records are passed to a ProvLogVisitor as by ProvLogReader,
+ * with hybrid logical clock timestamps (from "hlc", or from "ts" in older
+ * logs).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class ProvJsonLogReader {
+
+    public static final String SEGMENT_SUFFIX = ".jsonl";
+
+    private final Map<String, String> fields = new HashMap<String, String>();
+    private final List<String> members = new ArrayList<String>();
+    private final StringBuilder sb = new StringBuilder();
+    private String line;
+    private int pos;
+
+    private long records = 0;
+    private long malformed = 0;
+    private long bytes = 0;
+
+    /**
+     * Read all records of a JSON log file, or of all JSON segment files in a
+     * directory.
+     *
+     * @param path    file or log directory
+     * @param visitor
+     * @return number of records read
+     * @throws IOException
+     */
+    public long read(File path, ProvLogVisitor visitor) throws IOException {
+        long before = records;
+        for (Path file : listSegments(path.toPath())) {
+            readFile(file, visitor);
+        }
+        return records - before;
+    }
+
+    /**
+     * Number of records read so far.
+     *
+     * @return count
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Number of lines skipped because they could not be parsed.
+     *
+     * @return count
+     */
+    public long getMalformedLines() {
+        return malformed;
+    }
+
+    /**
+     * Number of bytes read so far.
+     *
+     * @return count
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    private void readFile(Path file, ProvLogVisitor visitor)
+            throws IOException {
+        InputStream in = new FileInputStream(file.toFile()) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytes += n;
+                }
+                return n;
+            }
+        };
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), 1 << 16);
+        visitor.segment(file.getFileName().toString());
+        try {
+            String l;
+            while ((l = reader.readLine()) != null) {
+                int start = l.indexOf('{');
+                if (start < 0) {
+                    continue;
+                }
+                if (!parse(l, start)) {
+                    malformed++;
+                    continue;
+                }
+                if (visit(visitor)) {
+                    records++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Pass the parsed object to the visitor.
+     *
+     * @param visitor
+     * @return false if the object is not a provenance record
+     */
+    private boolean visit(ProvLogVisitor visitor) {
+        String type = fields.get("w3cProvType");
+        if (type == null) {
+            /* segment header of a cluster node */
+            String node = fields.get("node");
+            if (node != null) {
+                visitor.node(node);
+            }
+            return false;
+        }
+        long ts = timestamp();
+        if (type.equals("entity")) {
+            visitor.entity(get("uuid"), get("name"), get("value"), ts);
+        } else if (type.equals("activity")) {
+            visitor.activity(get("uuid"), get("name"), get("value"), ts);
+        } else if (type.equals("hadMembers")) {
+            String collection = get("from");
+            for (String member : members) {
+                visitor.relation("hadMember", collection, member, ts);
+            }
+        } else {
+            visitor.relation(type, get("from"), get("to"), ts);
+        }
+        return true;
+    }
+
+    private String get(String key) {
+        String value = fields.get(key);
+        return value == null ? "" : value;
+    }
+
+    private long timestamp() {
+        try {
+            String hlc = fields.get("hlc");
+            if (hlc != null) {
+                return Long.parseLong(hlc);
+            }
+            String ts = fields.get("ts");
+            if (ts != null) {
+                return Long.parseLong(ts) << ProvLogReader.HLC_LOGICAL_BITS;
+            }
+        } catch (NumberFormatException e) {
+        }
+        return 0;
+    }
+
+    /**
+     * Parse a flat JSON object whose values are strings, numbers or arrays of
+     * strings (only the "members" array is kept).
+     *
+     * @param l     line
+     * @param start position of the opening brace
+     * @return false if the line is not such an object
+     */
+    private boolean parse(String l, int start) {
+        fields.clear();
+        members.clear();
+        line = l;
+        pos = start + 1;
+        skipSpace();
+        if (peek() == '}') {
+            return true;
+        }
+        for (;;) {
+            skipSpace();
+            String key = string();
+            if (key == null) {
+                return false;
+            }
+            skipSpace();
+            if (peek() != ':') {
+                return false;
+            }
+            pos++;
+            skipSpace();
+            char c = peek();
+            if (c == '"') {
+                String value = string();
+                if (value == null) {
+                    return false;
+                }
+                fields.put(key, value);
+            } else if (c == '[') {
+                pos++;
+                if (!array(key.equals("members"))) {
+                    return false;
+                }
+            } else {
+                int begin = pos;
+                while (pos < line.length() && line.charAt(pos) != ','
+                        && line.charAt(pos) != '}') {
+                    pos++;
+                }
+                fields.put(key, line.substring(begin, pos).trim());
+            }
+            skipSpace();
+            c = peek();
+            pos++;
+            if (c == '}') {
+                return true;
+            }
+            if (c != ',') {
+                return false;
+            }
+        }
+    }
+
+    private boolean array(boolean keep) {
+        skipSpace();
+        if (peek() == ']') {
+            pos++;
+            return true;
+        }
+        for (;;) {
+            skipSpace();
+            String value = string();
+            if (value == null) {
+                return false;
+            }
+            if (keep) {
+                members.add(value);
+            }
+            skipSpace();
+            char c = peek();
+            pos++;
+            if (c == ']') {
+                return true;
+            }
+            if (c != ',') {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Parse a string literal.
+     *
+     * @return string, or null if there is no well-formed string literal
+     */
+    private String string() {
+        if (peek() != '"') {
+            return null;
+        }
+        pos++;
+        int begin = pos;
+        /* fast path: no escapes */
+        while (pos < line.length()) {
+            char c = line.charAt(pos);
+            if (c == '"') {
+                return line.substring(begin, pos++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            pos++;
+        }
+        sb.setLength(0);
+        sb.append(line, begin, pos);
+        while (pos < line.length()) {
+            char c = line.charAt(pos++);
+            if (c == '"') {
+                return sb.toString();
+            }
+            if (c != '\\') {
+                sb.append(c);
+                continue;
+            }
+            if (pos >= line.length()) {
+                return null;
+            }
+            char e = line.charAt(pos++);
+            switch (e) {
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'b':
+                sb.append('\b');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'u':
+                if (pos + 4 > line.length()) {
+                    return null;
+                }
+                try {
+                    sb.append((char) Integer
+                            .parseInt(line.substring(pos, pos + 4), 16));
+                } catch (NumberFormatException ex) {
+                    return null;
+                }
+                pos += 4;
+                break;
+            default:
+                sb.append(e);
+            }
+        }
+        return null;
+    }
+
+    private char peek() {
+        return pos < line.length() ? line.charAt(pos) : '\0';
+    }
+
+    private void skipSpace() {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    /**
+     * JSON log files in a directory (oldest segment first), or the given
+     * file.
+     *
+     * @param path
+     * @return files
+     * @throws IOException
+     */
+    private static List<Path> listSegments(Path path) throws IOException {
+        List<Path> segments = new ArrayList<Path>();
+        if (!Files.isDirectory(path)) {
+            segments.add(path);
+            return segments;
+        }
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path,
+                ProvLogReader.SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX);
+        try {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+}
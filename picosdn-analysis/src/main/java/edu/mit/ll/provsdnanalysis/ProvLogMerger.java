@@ -0,0 +1,387 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Merge of the provenance logs written by the nodes of an ONOS cluster into a
+ * single, causally ordered provenance graph.
+ *
+ * Each node writes its own log (a subdirectory named after the node), in the
+ * binary or the JSON format, with records stamped by the node's hybrid
+ * logical clock. Logs are read as by ProvGraphLoader: binary segments with
+ * ProvLogReader and JSON segments with ProvJsonLogReader. Merging orders the
+ * records of all nodes by timestamp, breaking ties by node, so a record is
+ * replayed after every record it causally depends on. Objects with the same
+ * UUID in several logs are the same object; an entity read on another node
+ * than the one that created it appears there as an alternate of the original
+ * (an alternateOf relation), which becomes a cross-node relation in the merged
+ * graph.
+ *
+ * Nodes write their logs independently; merging happens offline.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class ProvLogMerger {
+
+    private static final byte ENTITY = 0;
+    private static final byte ACTIVITY = 1;
+    private static final byte RELATION = 2;
+
+    private final List<String> nodes = new ArrayList<String>();
+    private final List<Record> records = new ArrayList<Record>();
+    /* node that first wrote each entity or activity */
+    private final Map<String, Integer> homes = new HashMap<String, Integer>();
+    private final ProvLogReader binaryReader = new ProvLogReader();
+    private final ProvJsonLogReader jsonReader = new ProvJsonLogReader();
+    private boolean sorted = true;
+    private long crossNodeRelations = 0;
+    private long causalityViolations = 0;
+    private W3CProvCycleReport cycleReport = null;
+
+    /**
+     * Add the log of one node.
+     *
+     * The node is named by the node records of its segments or, for logs
+     * without node records, by the log directory.
+     *
+     * @param path segment file or log directory of the node
+     * @return number of records read
+     * @throws IOException if the path is neither a segment file nor a
+     *                     directory holding segments
+     */
+    public long add(File path) throws IOException {
+        if (path.isDirectory() ? !hasSegments(path) : !path.isFile()) {
+            throw new IOException("No provenance log in " + path);
+        }
+        final int node = nodes.size();
+        nodes.add(path.getName());
+        ProvLogVisitor visitor = new ProvLogVisitor() {
+            public void node(String nodeId) {
+                nodes.set(node, nodeId);
+            }
+
+            public void entity(String uuid, String name, String value,
+                    long ts) {
+                addObject(ENTITY, node, uuid, name, value, ts);
+            }
+
+            public void activity(String uuid, String name, String value,
+                    long ts) {
+                addObject(ACTIVITY, node, uuid, name, value, ts);
+            }
+
+            public void relation(String type, String from, String to,
+                    long ts) {
+                records.add(new Record(RELATION, node, ts, records.size(),
+                        type, from, to));
+            }
+        };
+        long count;
+        if (path.isDirectory()) {
+            count = binaryReader.read(path, visitor)
+                    + jsonReader.read(path, visitor);
+        } else if (ProvGraphLoader.isBinarySegment(path)) {
+            count = binaryReader.read(path, visitor);
+        } else {
+            count = jsonReader.read(path, visitor);
+        }
+        sorted = false;
+        return count;
+    }
+
+    /**
+     * Add the logs of all nodes under a directory: each subdirectory holding
+     * segments is the log of one node. A directory that holds segments itself
+     * is the log of a single node.
+     *
+     * @param directory
+     * @return number of records read
+     * @throws IOException if there is no log under the directory
+     */
+    public long addAll(File directory) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        Arrays.sort(children);
+        long count = 0;
+        int before = nodes.size();
+        for (File child : children) {
+            if (child.isDirectory() && hasSegments(child)) {
+                count += add(child);
+            }
+        }
+        if (hasSegments(directory)) {
+            count += add(directory);
+        }
+        if (nodes.size() == before) {
+            throw new IOException("No provenance logs under " + directory);
+        }
+        return count;
+    }
+
+    /**
+     * Replay the records of all nodes in causal order. The visitor's node
+     * method is called whenever the node of the next record changes.
+     *
+     * @param visitor
+     */
+    public void replay(ProvLogVisitor visitor) {
+        sort();
+        int node = -1;
+        for (Record record : records) {
+            if (record.node != node) {
+                node = record.node;
+                visitor.node(nodes.get(node));
+            }
+            if (record.kind == ENTITY) {
+                visitor.entity(record.a, record.b, record.c, record.ts);
+            } else if (record.kind == ACTIVITY) {
+                visitor.activity(record.a, record.b, record.c, record.ts);
+            } else {
+                visitor.relation(record.a, record.b, record.c, record.ts);
+            }
+        }
+    }
+
+    /**
+     * Build the merged provenance graph.
+     *
+     * All nodes are added before any relation, since a relation may refer to
+     * a node from another log. Nodes and relations are loaded in bulk (see
+     * W3CProvGraph.beginBulkLoad()), in causal order; relations that would
+     * close a cycle are dropped and reported by getCycleReport().
+     *
+     * @return provenance graph
+     */
+    public W3CProvGraph toGraph() {
+        sort();
+        W3CProvGraph graph = new W3CProvGraph();
+        graph.beginBulkLoad(false);
+        for (Record record : records) {
+            if (record.kind == ENTITY) {
+                graph.addNode(new W3CProvGraphNode(record.a, "entity",
+                        record.c, millis(record)));
+            } else if (record.kind == ACTIVITY) {
+                /* activities are described by their listener's name */
+                graph.addNode(new W3CProvGraphNode(record.a, "activity",
+                        record.c.isEmpty() ? record.b : record.c,
+                        millis(record)));
+            }
+        }
+        for (Record record : records) {
+            if (record.kind != RELATION) {
+                continue;
+            }
+            W3CProvGraphNode from = graph.getNode(record.b);
+            W3CProvGraphNode to = graph.getNode(record.c);
+            if (from != null && to != null) {
+                graph.addEdge(from, to,
+                        new W3CProvGraphEdge(record.a, "", millis(record)));
+            }
+        }
+        cycleReport = graph.endBulkLoad();
+        return graph;
+    }
+
+    /**
+     * Merge the logs of all nodes under a directory into one graph.
+     *
+     * @param directory
+     * @return provenance graph
+     * @throws IOException
+     */
+    public static W3CProvGraph loadGraph(File directory) throws IOException {
+        ProvLogMerger merger = new ProvLogMerger();
+        merger.addAll(directory);
+        W3CProvGraph graph = merger.toGraph();
+        merger.pp();
+        return graph;
+    }
+
+    /**
+     * Names of the nodes whose logs were added, in the order added.
+     *
+     * @return node ids
+     */
+    public List<String> getNodes() {
+        return Collections.unmodifiableList(nodes);
+    }
+
+    /**
+     * Number of records of all nodes.
+     *
+     * @return count
+     */
+    public long getRecords() {
+        return records.size();
+    }
+
+    /**
+     * Number of relations from an object written by one node to an object
+     * first written by another node.
+     *
+     * @return count
+     */
+    public long getCrossNodeRelations() {
+        sort();
+        return crossNodeRelations;
+    }
+
+    /**
+     * Number of cross-node relations ordered before the object they refer to,
+     * e.g., because a node's clock was not moved past the original. Such
+     * relations are still added to the merged graph.
+     *
+     * @return count
+     */
+    public long getCausalityViolations() {
+        sort();
+        return causalityViolations;
+    }
+
+    /**
+     * Relations dropped by the last toGraph() to break cycles.
+     *
+     * @return report, or null before toGraph()
+     */
+    public W3CProvCycleReport getCycleReport() {
+        return cycleReport;
+    }
+
+    /**
+     * Display information about the merge.
+     */
+    public void pp() {
+        System.out.printf("Number of cluster nodes: %s %s\n", nodes.size(),
+                nodes);
+        System.out.printf("Number of records: %s\n", records.size());
+        System.out.printf("Number of cross-node relations: %s\n",
+                getCrossNodeRelations());
+        System.out.printf("Number of causality violations: %s\n",
+                getCausalityViolations());
+        System.out.printf("Number of torn segments: %s\n",
+                binaryReader.getTornSegments());
+        System.out.printf("Number of malformed JSON lines: %s\n",
+                jsonReader.getMalformedLines());
+        if (cycleReport != null) {
+            cycleReport.pp();
+        }
+    }
+
+    private void addObject(byte kind, int node, String uuid, String name,
+            String value, long ts) {
+        records.add(new Record(kind, node, ts, records.size(), uuid, name,
+                value));
+        if (!homes.containsKey(uuid)) {
+            homes.put(uuid, node);
+        }
+    }
+
+    /**
+     * Sort records by timestamp, node and position in the node's log, and
+     * count cross-node relations.
+     */
+    private void sort() {
+        if (sorted) {
+            return;
+        }
+        Collections.sort(records, new Comparator<Record>() {
+            public int compare(Record r1, Record r2) {
+                if (r1.ts != r2.ts) {
+                    return r1.ts < r2.ts ? -1 : 1;
+                }
+                if (r1.node != r2.node) {
+                    return r1.node < r2.node ? -1 : 1;
+                }
+                return r1.seq < r2.seq ? -1 : (r1.seq == r2.seq ? 0 : 1);
+            }
+        });
+
+        /* timestamp at which each object was first written */
+        Map<String, Long> written = new HashMap<String, Long>();
+        crossNodeRelations = 0;
+        causalityViolations = 0;
+        for (Record record : records) {
+            if (record.kind != RELATION) {
+                if (!written.containsKey(record.a)) {
+                    written.put(record.a, record.ts);
+                }
+                continue;
+            }
+            Integer home = homes.get(record.c);
+            if (home == null || home == record.node) {
+                continue;
+            }
+            crossNodeRelations++;
+            Long ts = written.get(record.c);
+            if (ts == null || ts >= record.ts) {
+                causalityViolations++;
+            }
+        }
+        sorted = true;
+    }
+
+    private static String millis(Record record) {
+        return String.valueOf(ProvLogReader.millisOf(record.ts));
+    }
+
+    /**
+     * Whether a directory holds binary or JSON segments.
+     *
+     * @param directory
+     * @return true if it holds segments
+     */
+    private static boolean hasSegments(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return false;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (name.startsWith(ProvLogReader.SEGMENT_PREFIX)
+                    && (name.endsWith(ProvLogReader.SEGMENT_SUFFIX) || name
+                            .endsWith(ProvJsonLogReader.SEGMENT_SUFFIX))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * One record of a node's log: an entity or activity (uuid, name, value) or
+     * a relation (type, from, to).
+     */
+    private static final class Record {
+        private final byte kind;
+        private final int node;
+        private final long ts;
+        private final int seq;
+        private final String a;
+        private final String b;
+        private final String c;
+
+        private Record(byte kind, int node, long ts, int seq, String a,
+                String b, String c) {
+            this.kind = kind;
+            this.node = node;
+            this.ts = ts;
+            this.seq = seq;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+    }
+
+}
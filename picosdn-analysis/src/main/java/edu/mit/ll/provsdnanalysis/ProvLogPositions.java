@@ -0,0 +1,180 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Positions reached in the segments of provenance logs: the number of records
+ * read from each segment, by the cluster node that wrote the segment and the
+ * segment's file name.
+ *
+ * Segments are only ever appended to, so a log can be read again from where an
+ * earlier read stopped by skipping as many records of each segment (see
+ * newRecords()). Unlike a timestamp, a position does not depend on the clocks
+ * of the nodes: the records a node appends are new even if their timestamps
+ * are older than those already read from other nodes.
+ *
+ * A record that ends a segment torn (e.g., being written when the controller
+ * stopped) is not read, and so is read once it is complete. Records are
+ * counted as passed to visitors, so a collection membership counts once per
+ * member.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class ProvLogPositions {
+
+    /* records read by segment key (see key()), boxed to be advanced in place */
+    private final Map<String, long[]> positions = new HashMap<String, long[]>();
+    private long newRecords = 0;
+
+    public ProvLogPositions() {
+    }
+
+    /**
+     * Copy positions, e.g., to advance them without changing the original
+     * until the records read are stored.
+     *
+     * @param other
+     */
+    public ProvLogPositions(ProvLogPositions other) {
+        for (Map.Entry<String, long[]> entry : other.positions.entrySet()) {
+            positions.put(entry.getKey(), entry.getValue().clone());
+        }
+    }
+
+    /**
+     * Get a visitor passing only the records after the positions to another
+     * visitor, and advancing the positions past them.
+     *
+     * @param visitor
+     * @return visitor to pass to a log reader
+     */
+    public ProvLogVisitor newRecords(final ProvLogVisitor visitor) {
+        return new ProvLogVisitor() {
+            private String segment = "";
+            private String node = "";
+            /* position of the segment, once its first record is read */
+            private long[] position = null;
+            private long read = 0;
+
+            public void segment(String name) {
+                segment = name;
+                node = "";
+                position = null;
+                read = 0;
+                visitor.segment(name);
+            }
+
+            public void node(String nodeId) {
+                node = nodeId;
+                visitor.node(nodeId);
+            }
+
+            public void entity(String uuid, String name, String value,
+                    long ts) {
+                if (next()) {
+                    visitor.entity(uuid, name, value, ts);
+                }
+            }
+
+            public void activity(String uuid, String name, String value,
+                    long ts) {
+                if (next()) {
+                    visitor.activity(uuid, name, value, ts);
+                }
+            }
+
+            public void relation(String type, String from, String to,
+                    long ts) {
+                if (next()) {
+                    visitor.relation(type, from, to, ts);
+                }
+            }
+
+            private boolean next() {
+                if (position == null) {
+                    String key = key(node, segment);
+                    position = positions.get(key);
+                    if (position == null) {
+                        position = new long[1];
+                        positions.put(key, position);
+                    }
+                }
+                if (++read <= position[0]) {
+                    return false;
+                }
+                position[0] = read;
+                newRecords++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Get the number of records read from a segment.
+     *
+     * @param node    node that wrote the segment, or "" if not written by a
+     *                cluster node
+     * @param segment file name of the segment
+     * @return count
+     */
+    public long get(String node, String segment) {
+        long[] position = positions.get(key(node, segment));
+        return position == null ? 0 : position[0];
+    }
+
+    /**
+     * Number of segments read from.
+     *
+     * @return count
+     */
+    public int size() {
+        return positions.size();
+    }
+
+    /**
+     * Number of records passed on by newRecords() visitors.
+     *
+     * @return count
+     */
+    public long getNewRecords() {
+        return newRecords;
+    }
+
+    /**
+     * Get the positions by segment key, to be stored.
+     *
+     * @return number of records read by key
+     */
+    Map<String, Long> toMap() {
+        Map<String, Long> map = new HashMap<String, Long>();
+        for (Map.Entry<String, long[]> entry : positions.entrySet()) {
+            map.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return map;
+    }
+
+    /**
+     * Set a stored position.
+     *
+     * @param key      segment key, as in toMap()
+     * @param position number of records read
+     */
+    void put(String key, long position) {
+        long[] current = positions.get(key);
+        if (current == null) {
+            positions.put(key, new long[] { position });
+        } else {
+            current[0] = position;
+        }
+    }
+
+    /* file names have no '/', so keys are unambiguous */
+    private static String key(String node, String segment) {
+        return node + "/" + segment;
+    }
+
+}
@@ -0,0 +1,312 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Reader for the binary provenance log written by ProvLogWriter in
+ * onos-app-provsdn.
+ *
+ * The format constants below must match ProvLogWriter. Segments are read in
+ * sequence order; reading a segment stops at its end marker or at the first
+ * record whose checksum does not match (e.g., a record that was being written
+ * when the controller stopped). Only segments of the current VERSION are read.
+ *
+ * Timestamps are passed to visitors as hybrid logical clock timestamps:
+ * milliseconds in the upper bits and a logical counter in the lower
+ * HLC_LOGICAL_BITS bits (see millisOf). Segments written by a cluster node
+ * start with a node record, which is passed to visitors before the segment's
+ * other records.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class ProvLogReader {
+
+    public static final int MAGIC = 0x50524f56; // "PROV"
+    public static final short VERSION = 3;
+    public static final int SEGMENT_HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    public static final byte TYPE_ENTITY = 1;
+    public static final byte TYPE_ACTIVITY = 2;
+    public static final byte TYPE_RELATION = 3;
+    public static final byte TYPE_MEMBERSHIP = 4;
+    public static final byte TYPE_NODE = 5;
+
+    public static final int HLC_LOGICAL_BITS = 16;
+
+    public static final String SEGMENT_PREFIX = "prov-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+
+    /* relation names indexed by relation type code (W3CProvRelationType) */
+    static final String[] RELATION_TYPES = { "", "used",
+            "wasGeneratedBy", "wasDerivedFrom", "wasInformedBy",
+            "wasAssociatedWith", "actedOnBehalfOf", "invalidates",
+            "wasRevisionOf", "hadMember", "alternateOf" };
+
+    /**
+     * Callback for each record read from the log.
+     */
+    public interface ProvLogVisitor {
+
+        /**
+         * Called before the records of each segment file.
+         *
+         * @param name file name of the segment
+         */
+        public default void segment(String name) {
+        }
+
+        /**
+         * Called before the records of a segment written by a cluster node.
+         *
+         * @param nodeId
+         */
+        public default void node(String nodeId) {
+        }
+
+        public void entity(String uuid, String name, String value, long ts);
+
+        public void activity(String uuid, String name, String value, long ts);
+
+        public void relation(String type, String from, String to, long ts);
+
+    }
+
+    private final CRC32 crc = new CRC32();
+    /* dictionary-coded names of the segment being read */
+    private final List<String> names = new ArrayList<String>();
+    private long records = 0;
+    private long tornSegments = 0;
+    private long bytes = 0;
+
+    /**
+     * Read all records of a segment file, or of all segment files in a
+     * directory.
+     *
+     * @param path    segment file or log directory
+     * @param visitor
+     * @return number of records read
+     * @throws IOException
+     */
+    public long read(File path, ProvLogVisitor visitor) throws IOException {
+        long before = records;
+        for (Path segment : listSegments(path.toPath())) {
+            readSegment(segment, visitor);
+        }
+        return records - before;
+    }
+
+    /**
+     * Load a provenance graph from a segment file or log directory.
+     *
+     * @param path segment file or log directory
+     * @return provenance graph
+     * @throws IOException
+     * @see ProvGraphLoader
+     */
+    public static W3CProvGraph loadGraph(File path) throws IOException {
+        return new ProvGraphLoader().load(path);
+    }
+
+    /**
+     * Physical part of a hybrid logical clock timestamp.
+     *
+     * @param ts timestamp passed to a ProvLogVisitor
+     * @return milliseconds since the Unix epoch
+     */
+    public static long millisOf(long ts) {
+        return ts >>> HLC_LOGICAL_BITS;
+    }
+
+    /**
+     * Number of records read so far.
+     *
+     * @return count
+     */
+    public long getRecords() {
+        return records;
+    }
+
+    /**
+     * Number of bytes of segments read so far.
+     *
+     * @return count
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of segments whose tail was cut short by a corrupt record.
+     *
+     * @return count
+     */
+    public long getTornSegments() {
+        return tornSegments;
+    }
+
+    private void readSegment(Path segment, ProvLogVisitor visitor)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(segment,
+                StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel
+                    .map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < SEGMENT_HEADER_SIZE
+                    || buffer.getInt() != MAGIC) {
+                throw new IOException("Not a provenance log segment: "
+                        + segment);
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported provenance log version "
+                        + version + ": " + segment);
+            }
+            buffer.getShort();
+            buffer.getLong();
+            names.clear();
+            bytes += SEGMENT_HEADER_SIZE;
+            visitor.segment(segment.getFileName().toString());
+
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length <= 0) {
+                    break;
+                }
+                if (length > buffer.remaining()
+                        || !checksumMatches(buffer, length, checksum)) {
+                    tornSegments++;
+                    break;
+                }
+                ByteBuffer payload = buffer.slice();
+                payload.limit(length);
+                buffer.position(buffer.position() + length);
+                readRecord(payload, visitor);
+                records++;
+                bytes += RECORD_HEADER_SIZE + length;
+            }
+        }
+    }
+
+    private boolean checksumMatches(ByteBuffer buffer, int length,
+            int checksum) {
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        crc.reset();
+        crc.update(payload);
+        return (int) crc.getValue() == checksum;
+    }
+
+    private void readRecord(ByteBuffer payload, ProvLogVisitor visitor)
+            throws IOException {
+        byte type = payload.get();
+        if (type == TYPE_ENTITY || type == TYPE_ACTIVITY) {
+            String uuid = readUuid(payload);
+            long ts = payload.getLong();
+            String name = readName(payload);
+            String value = readString(payload);
+            if (type == TYPE_ENTITY) {
+                visitor.entity(uuid, name, value, ts);
+            } else {
+                visitor.activity(uuid, name, value, ts);
+            }
+        } else if (type == TYPE_RELATION) {
+            byte code = payload.get();
+            if (code <= 0 || code >= RELATION_TYPES.length) {
+                throw new IOException("Unknown relation type " + code);
+            }
+            String from = readUuid(payload);
+            String to = readUuid(payload);
+            visitor.relation(RELATION_TYPES[code], from, to,
+                    payload.getLong());
+        } else if (type == TYPE_MEMBERSHIP) {
+            /* one hadMember relation per member of the collection */
+            String collection = readUuid(payload);
+            long ts = payload.getLong();
+            int count = payload.getInt();
+            for (int i = 0; i < count; i++) {
+                visitor.relation("hadMember", collection, readUuid(payload),
+                        ts);
+            }
+        } else if (type == TYPE_NODE) {
+            visitor.node(readString(payload));
+        } else {
+            throw new IOException("Unknown record type " + type);
+        }
+    }
+
+    /**
+     * Read a dictionary-coded name: a negative reference defines the next
+     * name inline, otherwise it refers to an earlier definition.
+     *
+     * @param payload
+     * @return name
+     * @throws IOException
+     */
+    private String readName(ByteBuffer payload) throws IOException {
+        int ref = payload.getInt();
+        if (ref < 0) {
+            String name = readString(payload);
+            if (-ref - 1 != names.size()) {
+                throw new IOException("Out of order name definition " + ref);
+            }
+            names.add(name);
+            return name;
+        }
+        if (ref >= names.size()) {
+            throw new IOException("Undefined name " + ref);
+        }
+        return names.get(ref);
+    }
+
+    private static String readUuid(ByteBuffer payload) {
+        long msb = payload.getLong();
+        long lsb = payload.getLong();
+        return new UUID(msb, lsb).toString();
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        if (length < 0) {
+            return "";
+        }
+        byte[] b = new byte[length];
+        payload.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static List<Path> listSegments(Path path) throws IOException {
+        List<Path> segments = new ArrayList<Path>();
+        if (!Files.isDirectory(path)) {
+            segments.add(path);
+            return segments;
+        }
+        DirectoryStream<Path> stream = Files.newDirectoryStream(path,
+                SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX);
+        try {
+            for (Path segment : stream) {
+                segments.add(segment);
+            }
+        } finally {
+            stream.close();
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+}
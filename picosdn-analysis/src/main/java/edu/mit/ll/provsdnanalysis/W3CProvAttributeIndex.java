@@ -0,0 +1,674 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Secondary indexes over the nodes of a W3CProvCompactGraph, for finding the
+ * starting points of an investigation (e.g., "what touched device
+ * of:0000000000000001 between T1 and T2") without scanning every node.
+ *
+ * - Type index: a BitSet of the nodes of each type.
+ *
+ * - Time index: node ids sorted by timestamp, searched by binary search.
+ *
+ * - Token index: node values are split into tokens (runs of letters, digits
+ * and ".:_-/", lower-cased), each mapped to the sorted ids of the distinct
+ * values containing it. A token with colons is also indexed from after each
+ * colon, so that "ETH_DST:00:00:00:00:00:01" is found by the MAC address and
+ * "of:0000000000000001" by the device number. Each distinct value is
+ * tokenized once, however many nodes share it.
+ *
+ * Queries are built with token(), type(), between(), value() and
+ * valueEquals() and composed
+ * with and() and or(). An AND evaluates its most selective operand first and
+ * then tests each remaining candidate against the other operands, rather than
+ * materializing them, once there are fewer candidates than they would match.
+ *
+ * The index reflects the graph as it was when built, and must be rebuilt
+ * after nodes are added. Queries may run concurrently.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvAttributeIndex {
+
+    private static final int[] NO_VALUES = new int[0];
+
+    private final W3CProvCompactGraph graph;
+    private final int nodeCount;
+
+    /* nodes by type code */
+    private final BitSet[] types = new BitSet[3];
+    /* node ids by timestamp, and their timestamps */
+    private final int[] byTs;
+    private final long[] sortedTs;
+    /* nodes of value id i are valueNodes[valueOffsets[i] to [i+1]] */
+    private final int[] valueOffsets;
+    private final int[] valueNodes;
+    /* sorted value ids by token */
+    private final Map<String, int[]> tokens = new HashMap<String, int[]>();
+
+    /**
+     * Build the indexes of a graph.
+     *
+     * @param graph
+     */
+    public W3CProvAttributeIndex(W3CProvCompactGraph graph) {
+        this.graph = graph;
+        this.nodeCount = graph.getNodeCount();
+        for (int t = 0; t < types.length; t++) {
+            types[t] = new BitSet(nodeCount);
+        }
+        long[] ts = new long[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            types[graph.getTypeCode(node)].set(node);
+            ts[node] = graph.getTs(node);
+        }
+        this.byTs = sortByTs(ts);
+        this.sortedTs = new long[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            sortedTs[i] = ts[byTs[i]];
+        }
+
+        int valueCount = graph.values().size();
+        this.valueOffsets = new int[valueCount + 1];
+        this.valueNodes = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            valueOffsets[graph.getValueId(node) + 1]++;
+        }
+        for (int i = 0; i < valueCount; i++) {
+            valueOffsets[i + 1] += valueOffsets[i];
+        }
+        int[] next = Arrays.copyOf(valueOffsets, valueCount);
+        for (int node = 0; node < nodeCount; node++) {
+            valueNodes[next[graph.getValueId(node)]++] = node;
+        }
+        indexTokens(valueCount);
+    }
+
+    /*
+     * Queries
+     */
+
+    /**
+     * Query for the nodes whose value contains a token (e.g., a device id,
+     * MAC or IP address, flow id or application name), or all tokens of a
+     * string. A string without tokens (e.g., "" or "!!") matches no node.
+     *
+     * @param token
+     * @return query
+     */
+    public Query token(String token) {
+        List<String> parts = new ArrayList<String>();
+        tokenize(token, parts);
+        if (parts.isEmpty()) {
+            /* not and() of no tokens, which would match every node */
+            return or();
+        }
+        if (parts.size() == 1) {
+            return new TokenQuery(parts.get(0));
+        }
+        Query[] queries = new Query[parts.size()];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new TokenQuery(parts.get(i));
+        }
+        return and(queries);
+    }
+
+    /**
+     * Query for the nodes of a type.
+     *
+     * @param type "agent", "activity" or "entity"
+     * @return query
+     */
+    public Query type(String type) {
+        for (byte code = 0; code < types.length; code++) {
+            if (W3CProvCompactGraph.typeName(code).equals(type)) {
+                return new TypeQuery(code);
+            }
+        }
+        throw new IllegalArgumentException("Unknown node type " + type);
+    }
+
+    /**
+     * Query for the nodes with a timestamp in a range.
+     *
+     * @param from earliest timestamp, inclusive
+     * @param to   latest timestamp, inclusive
+     * @return query
+     */
+    public Query between(long from, long to) {
+        return new TimeQuery(from, to);
+    }
+
+    /**
+     * Query for the nodes whose value contains a string anywhere, as
+     * W3CProvCompactGraph.getNodesByValue() does. This scans the distinct
+     * values unless it is combined with more selective queries.
+     *
+     * @param value
+     * @return query
+     */
+    public Query value(String value) {
+        return new ValueQuery(value);
+    }
+
+    /**
+     * Query for the nodes whose value is exactly a string, with the index.
+     *
+     * @param value
+     * @return query
+     */
+    public Query valueEquals(String value) {
+        return new ExactValueQuery(graph.values().indexOf(value));
+    }
+
+    /**
+     * Query for the nodes matching every one of several queries.
+     *
+     * @param queries
+     * @return query
+     */
+    public Query and(Query... queries) {
+        return new AndQuery(queries);
+    }
+
+    /**
+     * Query for the nodes matching any of several queries.
+     *
+     * @param queries
+     * @return query
+     */
+    public Query or(Query... queries) {
+        return new OrQuery(queries);
+    }
+
+    /**
+     * Find the nodes matching a query.
+     *
+     * @param query
+     * @return node ids
+     */
+    public BitSet find(Query query) {
+        checkCurrent();
+        return query.evaluate();
+    }
+
+    /**
+     * Get nodes that contain a token, with the index.
+     *
+     * @param token
+     * @return node ids
+     */
+    public BitSet getNodesByToken(String token) {
+        return find(token(token));
+    }
+
+    /**
+     * Get nodes with a timestamp in a range, with the index.
+     *
+     * @param from earliest timestamp, inclusive
+     * @param to   latest timestamp, inclusive
+     * @return node ids
+     */
+    public BitSet getNodesBetween(long from, long to) {
+        return find(between(from, to));
+    }
+
+    /**
+     * Latest timestamp of the indexed nodes.
+     *
+     * @return timestamp, or Long.MIN_VALUE if there are no nodes
+     */
+    public long getLastTs() {
+        return nodeCount == 0 ? Long.MIN_VALUE : sortedTs[nodeCount - 1];
+    }
+
+    /**
+     * Pretty print statistics about the index.
+     */
+    public void pp() {
+        long postings = 0;
+        for (int[] ids : tokens.values()) {
+            postings += ids.length;
+        }
+        System.out.printf("Number of tokens: %s\n", tokens.size());
+        System.out.printf("Number of token postings: %s\n", postings);
+        if (nodeCount > 0) {
+            System.out.printf("Timestamps: %s to %s\n", sortedTs[0],
+                    sortedTs[nodeCount - 1]);
+        }
+    }
+
+    /**
+     * Query over the nodes of a graph, built by a W3CProvAttributeIndex.
+     */
+    public abstract static class Query {
+
+        private Query() {
+        }
+
+        /**
+         * Upper bound on the number of nodes matched, used to order the
+         * evaluation of AND queries.
+         */
+        abstract int estimate();
+
+        /**
+         * Find all nodes matched.
+         */
+        abstract BitSet evaluate();
+
+        /**
+         * Whether a node is matched.
+         */
+        abstract boolean matches(int node);
+
+        /**
+         * Keep the candidates that are matched.
+         */
+        BitSet filter(BitSet candidates) {
+            if (candidates.cardinality() >= estimate()) {
+                BitSet matched = evaluate();
+                matched.and(candidates);
+                return matched;
+            }
+            BitSet matched = new BitSet();
+            for (int node = candidates.nextSetBit(0); node >= 0; node = candidates
+                    .nextSetBit(node + 1)) {
+                if (matches(node)) {
+                    matched.set(node);
+                }
+            }
+            return matched;
+        }
+    }
+
+    private final class TokenQuery extends Query {
+
+        private final int[] valueIds;
+        private final int estimate;
+
+        private TokenQuery(String token) {
+            int[] ids = tokens.get(token);
+            this.valueIds = ids == null ? NO_VALUES : ids;
+            int count = 0;
+            for (int id : valueIds) {
+                count += valueOffsets[id + 1] - valueOffsets[id];
+            }
+            this.estimate = count;
+        }
+
+        @Override
+        int estimate() {
+            return estimate;
+        }
+
+        @Override
+        BitSet evaluate() {
+            BitSet nodes = new BitSet(nodeCount);
+            for (int id : valueIds) {
+                for (int i = valueOffsets[id]; i < valueOffsets[id + 1]; i++) {
+                    nodes.set(valueNodes[i]);
+                }
+            }
+            return nodes;
+        }
+
+        @Override
+        boolean matches(int node) {
+            return Arrays.binarySearch(valueIds, graph.getValueId(node)) >= 0;
+        }
+    }
+
+    private final class TypeQuery extends Query {
+
+        private final byte type;
+
+        private TypeQuery(byte type) {
+            this.type = type;
+        }
+
+        @Override
+        int estimate() {
+            return types[type].cardinality();
+        }
+
+        @Override
+        BitSet evaluate() {
+            return (BitSet) types[type].clone();
+        }
+
+        @Override
+        boolean matches(int node) {
+            return types[type].get(node);
+        }
+    }
+
+    private final class TimeQuery extends Query {
+
+        private final long from;
+        private final long to;
+        private final int start;
+        private final int end;
+
+        private TimeQuery(long from, long to) {
+            this.from = from;
+            this.to = to;
+            this.start = firstAtOrAfter(from);
+            this.end = to == Long.MAX_VALUE ? nodeCount
+                    : Math.max(start, firstAtOrAfter(to + 1));
+        }
+
+        @Override
+        int estimate() {
+            return end - start;
+        }
+
+        @Override
+        BitSet evaluate() {
+            BitSet nodes = new BitSet(nodeCount);
+            for (int i = start; i < end; i++) {
+                nodes.set(byTs[i]);
+            }
+            return nodes;
+        }
+
+        @Override
+        boolean matches(int node) {
+            long ts = graph.getTs(node);
+            return ts >= from && ts <= to;
+        }
+    }
+
+    private final class ValueQuery extends Query {
+
+        private final String value;
+
+        private ValueQuery(String value) {
+            this.value = value;
+        }
+
+        @Override
+        int estimate() {
+            return nodeCount;
+        }
+
+        @Override
+        BitSet evaluate() {
+            BitSet all = new BitSet(nodeCount);
+            all.set(0, nodeCount);
+            return graph.getNodesByValue(value, all);
+        }
+
+        @Override
+        boolean matches(int node) {
+            return graph.getValue(node).contains(value);
+        }
+
+        @Override
+        BitSet filter(BitSet candidates) {
+            /* searches each distinct value once */
+            return graph.getNodesByValue(value, candidates);
+        }
+    }
+
+    private final class ExactValueQuery extends Query {
+
+        private final int valueId;
+
+        private ExactValueQuery(int valueId) {
+            this.valueId = valueId;
+        }
+
+        @Override
+        int estimate() {
+            return valueId < 0 || valueId + 1 >= valueOffsets.length ? 0
+                    : valueOffsets[valueId + 1] - valueOffsets[valueId];
+        }
+
+        @Override
+        BitSet evaluate() {
+            BitSet nodes = new BitSet(nodeCount);
+            if (estimate() > 0) {
+                for (int i = valueOffsets[valueId]; i < valueOffsets[valueId
+                        + 1]; i++) {
+                    nodes.set(valueNodes[i]);
+                }
+            }
+            return nodes;
+        }
+
+        @Override
+        boolean matches(int node) {
+            return valueId >= 0 && graph.getValueId(node) == valueId;
+        }
+    }
+
+    private final class AndQuery extends Query {
+
+        private final Query[] queries;
+
+        private AndQuery(Query[] queries) {
+            this.queries = queries.clone();
+            Arrays.sort(this.queries, Comparator.comparingInt(Query::estimate));
+        }
+
+        @Override
+        int estimate() {
+            return queries.length == 0 ? nodeCount : queries[0].estimate();
+        }
+
+        @Override
+        BitSet evaluate() {
+            if (queries.length == 0) {
+                BitSet all = new BitSet(nodeCount);
+                all.set(0, nodeCount);
+                return all;
+            }
+            BitSet nodes = queries[0].evaluate();
+            for (int i = 1; i < queries.length && !nodes.isEmpty(); i++) {
+                nodes = queries[i].filter(nodes);
+            }
+            return nodes;
+        }
+
+        @Override
+        boolean matches(int node) {
+            for (Query query : queries) {
+                if (!query.matches(node)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final class OrQuery extends Query {
+
+        private final Query[] queries;
+        private final int estimate;
+
+        private OrQuery(Query[] queries) {
+            this.queries = queries.clone();
+            long sum = 0;
+            for (Query query : queries) {
+                sum += query.estimate();
+            }
+            this.estimate = (int) Math.min(sum, nodeCount);
+        }
+
+        @Override
+        int estimate() {
+            return estimate;
+        }
+
+        @Override
+        BitSet evaluate() {
+            BitSet nodes = new BitSet(nodeCount);
+            for (Query query : queries) {
+                nodes.or(query.evaluate());
+            }
+            return nodes;
+        }
+
+        @Override
+        boolean matches(int node) {
+            for (Query query : queries) {
+                if (query.matches(node)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        BitSet filter(BitSet candidates) {
+            BitSet nodes = new BitSet(nodeCount);
+            for (Query query : queries) {
+                nodes.or(query.filter(candidates));
+            }
+            return nodes;
+        }
+    }
+
+    /*
+     * Building
+     */
+
+    private void indexTokens(int valueCount) {
+        Map<String, int[]> postings = new HashMap<String, int[]>();
+        List<String> parts = new ArrayList<String>();
+        for (int id = 0; id < valueCount; id++) {
+            if (valueOffsets[id] == valueOffsets[id + 1]) {
+                continue; // e.g., the name of a named node
+            }
+            parts.clear();
+            tokenize(graph.values().get(id), parts);
+            for (String token : parts) {
+                /* [0] is the count; ids increase, so skip repeats */
+                int[] ids = postings.get(token);
+                if (ids == null) {
+                    ids = new int[4];
+                    postings.put(token, ids);
+                } else if (ids[0] > 0 && ids[ids[0]] == id) {
+                    continue;
+                } else if (ids[0] + 1 == ids.length) {
+                    ids = Arrays.copyOf(ids, ids.length << 1);
+                    postings.put(token, ids);
+                }
+                ids[++ids[0]] = id;
+            }
+        }
+        for (Map.Entry<String, int[]> e : postings.entrySet()) {
+            int[] ids = e.getValue();
+            tokens.put(e.getKey(), Arrays.copyOfRange(ids, 1, ids[0] + 1));
+        }
+    }
+
+    /**
+     * Split a value into lower-case tokens, adding the suffixes of tokens
+     * after each colon.
+     */
+    static void tokenize(String value, List<String> parts) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTokenChar(value.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isTokenChar(value.charAt(i))) {
+                i++;
+            }
+            /* trailing punctuation (e.g., "of:1." at the end of a sentence) */
+            int end = i;
+            while (end > start && isTrailing(value.charAt(end - 1))) {
+                end--;
+            }
+            if (end > start) {
+                String token = value.substring(start, end)
+                        .toLowerCase(Locale.ROOT);
+                parts.add(token);
+                for (int c = token.indexOf(':'); c >= 0 && c + 1 < token
+                        .length(); c = token.indexOf(':', c + 1)) {
+                    parts.add(token.substring(c + 1));
+                }
+            }
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == ':'
+                || c == '_' || c == '-' || c == '/';
+    }
+
+    private static boolean isTrailing(char c) {
+        return c == '.' || c == ':' || c == '-' || c == '/';
+    }
+
+    /**
+     * Sort node ids by timestamp, keeping equal timestamps in id order
+     * (bottom-up merge sort; nodes loaded from a log are nearly sorted).
+     */
+    private static int[] sortByTs(long[] ts) {
+        int n = ts.length;
+        int[] a = new int[n];
+        for (int i = 0; i < n; i++) {
+            a[i] = i;
+        }
+        int[] b = new int[n];
+        for (int width = 1; width < n; width <<= 1) {
+            for (int lo = 0; lo < n; lo += width << 1) {
+                int mid = Math.min(lo + width, n);
+                int hi = Math.min(lo + (width << 1), n);
+                if (mid == hi || ts[a[mid - 1]] <= ts[a[mid]]) {
+                    System.arraycopy(a, lo, b, lo, hi - lo);
+                    continue;
+                }
+                int i = lo;
+                int j = mid;
+                for (int k = lo; k < hi; k++) {
+                    if (j >= hi || (i < mid && ts[a[i]] <= ts[a[j]])) {
+                        b[k] = a[i++];
+                    } else {
+                        b[k] = a[j++];
+                    }
+                }
+            }
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private int firstAtOrAfter(long ts) {
+        int lo = 0;
+        int hi = nodeCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedTs[mid] < ts) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private void checkCurrent() {
+        if (graph.getNodeCount() != nodeCount) {
+            throw new IllegalStateException(
+                    "Graph changed since the index was built");
+        }
+    }
+
+}
@@ -0,0 +1,827 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Compact representation of a W3C PROV provenance graph for analysis.
+ *
+ * Where W3CProvGraph keeps an object per node and per edge, this graph keeps
+ * primitive arrays indexed by int node id: a byte-coded type, a long timestamp,
+ * the UUID as two longs, and the id of the value in a W3CProvValueDictionary.
+ * Edges are kept in compressed sparse row (CSR) form, both outgoing (with a
+ * byte-coded type and a long timestamp) and incoming, so that a node costs
+ * about 30 bytes and an edge about 20 bytes plus the distinct values.
+ *
+ * The query methods of W3CProvGraph are provided with the same results, on
+ * node ids and BitSets of node ids instead of node objects. Non-dependency
+ * edges (revision and invalidation) are skipped by the traces rather than
+ * stashed, so queries do not modify the graph.
+ *
+ * Edges are added to a staging area, and the CSR arrays are rebuilt from it
+ * before the next query, so graphs are best built in bulk (see of()), or
+ * reloaded from a W3CProvGraphSnapshot, which skips the rebuild. As in
+ * W3CProvGraph, loops are discarded and a later edge between the same nodes
+ * replaces an earlier one. Unlike W3CProvGraph, edges closing a cycle are
+ * kept: traces visit each node once, so they terminate regardless.
+ *
+ * Once built, the graph may be queried from several threads at once, as long
+ * as no thread adds nodes or edges meanwhile; backwardForwardTrace() itself
+ * runs in parallel (see W3CProvParallelTrace). For many ancestry questions on
+ * one graph, build a W3CProvReachabilityIndex after loading.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvCompactGraph {
+
+    public static final byte AGENT = 0;
+    public static final byte ACTIVITY = 1;
+    public static final byte ENTITY = 2;
+
+    private static final String[] NODE_TYPES = { "agent", "activity",
+            "entity" };
+
+    private static final int MAX_EDGE_TYPES = 128;
+
+    /* flag of nodes whose id is not a canonical UUID but a name */
+    private static final byte NAMED = (byte) 0x80;
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* nodes */
+    private int nodeCount = 0;
+    private byte[] nodeTypes = new byte[MIN_CAPACITY];
+    private long[] nodeTs = new long[MIN_CAPACITY];
+    private int[] nodeValues = new int[MIN_CAPACITY];
+    /* msb and lsb of each node's UUID, or 0 and the name's value id */
+    private long[] nodeIds = new long[2 * MIN_CAPACITY];
+    private final W3CProvValueDictionary values = new W3CProvValueDictionary();
+
+    /* node id + 1 by UUID, open addressing with linear probing */
+    private int[] slots;
+    private int mask;
+    private int threshold;
+    private final Map<String, Integer> named = new HashMap<String, Integer>();
+    /* UUID parsed by addNode() */
+    private final long[] parsed = new long[2];
+
+    /* edge types by code, coded as in the binary provenance log */
+    private final List<String> edgeTypes = new ArrayList<String>(
+            Arrays.asList(ProvLogReader.RELATION_TYPES));
+    private final boolean[] nonDependency = new boolean[MAX_EDGE_TYPES];
+
+    /* outgoing edges of node v are edges outOffsets[v] to outOffsets[v+1] */
+    private int builtNodes = 0;
+    private int[] outOffsets = new int[1];
+    private int[] outTargets = new int[0];
+    private byte[] outTypes = new byte[0];
+    private long[] outTs = new long[0];
+    /* incoming edges of node v: their sources and edge indexes */
+    private int[] inOffsets = new int[1];
+    private int[] inSources = new int[0];
+    private int[] inEdges = new int[0];
+
+    /* edges added since the CSR arrays were last built */
+    private int stagedCount = 0;
+    private int[] stagedFrom = new int[MIN_CAPACITY];
+    private int[] stagedTo = new int[MIN_CAPACITY];
+    private byte[] stagedTypes = new byte[MIN_CAPACITY];
+    private long[] stagedTs = new long[MIN_CAPACITY];
+    private volatile boolean dirty = false;
+
+    public W3CProvCompactGraph() {
+        allocateSlots(MIN_CAPACITY);
+        nonDependency[edgeTypeCode("wasRevisionOf")] = true;
+        nonDependency[edgeTypeCode("invalidates")] = true;
+    }
+
+    /**
+     * Build a compact copy of a provenance graph.
+     *
+     * @param graph
+     * @return compact graph
+     */
+    public static W3CProvCompactGraph of(W3CProvGraph graph) {
+        W3CProvCompactGraph compact = new W3CProvCompactGraph();
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            compact.addNode(node);
+        }
+        for (W3CProvGraphEdge edge : graph.getEdges()) {
+            compact.addEdge(compact.getNode(graph.getEdgeSource(edge).getUuid()),
+                    compact.getNode(graph.getEdgeTarget(edge).getUuid()),
+                    edge.getType(), parseTs(edge.getTs()));
+        }
+        compact.build();
+        return compact;
+    }
+
+    /**
+     * Add a node to the graph.
+     *
+     * @param node
+     * @return node id
+     */
+    public int addNode(W3CProvGraphNode node) {
+        return addNode(node.getUuid(), node.getType(), node.getValue(),
+                parseTs(node.getTs()));
+    }
+
+    /**
+     * Add a node to the graph, unless a node with the same UUID is already in
+     * the graph.
+     *
+     * @param uuid
+     * @param type  "agent", "activity" or "entity"
+     * @param value
+     * @param ts
+     * @return id of the added or existing node
+     */
+    public int addNode(String uuid, String type, String value, long ts) {
+        byte code = nodeTypeCode(type);
+        int existing = getNode(uuid);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (nodeCount == MAX_CAPACITY) {
+            throw new IllegalStateException("Compact graph is full");
+        }
+        if (nodeCount == nodeTypes.length) {
+            int capacity = nodeTypes.length << 1;
+            nodeTypes = Arrays.copyOf(nodeTypes, capacity);
+            nodeTs = Arrays.copyOf(nodeTs, capacity);
+            nodeValues = Arrays.copyOf(nodeValues, capacity);
+            nodeIds = Arrays.copyOf(nodeIds, 2 * capacity);
+        }
+        int id = nodeCount++;
+        nodeTs[id] = ts;
+        nodeValues[id] = values.intern(value);
+        if (W3CProvGraphNodeIndex.parse(uuid, parsed)) {
+            nodeTypes[id] = code;
+            nodeIds[2 * id] = parsed[0];
+            nodeIds[2 * id + 1] = parsed[1];
+            slots[findSlot(parsed[0], parsed[1])] = id + 1;
+            if (nodeCount - named.size() > threshold) {
+                growSlots();
+            }
+        } else {
+            nodeTypes[id] = (byte) (code | NAMED);
+            nodeIds[2 * id] = 0;
+            nodeIds[2 * id + 1] = values.intern(uuid);
+            named.put(uuid, id);
+        }
+        dirty = true;
+        return id;
+    }
+
+    /**
+     * Add an edge to the graph. Loops are discarded; an edge between two nodes
+     * already connected replaces the existing edge.
+     *
+     * @param from node id
+     * @param to   node id
+     * @param type relation type
+     * @param ts
+     */
+    public void addEdge(int from, int to, String type, long ts) {
+        checkNode(from);
+        checkNode(to);
+        byte code = edgeTypeCode(type);
+        if (from == to) {
+            return;
+        }
+        if (stagedCount == stagedFrom.length) {
+            int capacity = stagedFrom.length << 1;
+            stagedFrom = Arrays.copyOf(stagedFrom, capacity);
+            stagedTo = Arrays.copyOf(stagedTo, capacity);
+            stagedTypes = Arrays.copyOf(stagedTypes, capacity);
+            stagedTs = Arrays.copyOf(stagedTs, capacity);
+        }
+        stagedFrom[stagedCount] = from;
+        stagedTo[stagedCount] = to;
+        stagedTypes[stagedCount] = code;
+        stagedTs[stagedCount] = ts;
+        stagedCount++;
+        dirty = true;
+    }
+
+    /**
+     * Get a node id by UUID.
+     *
+     * @param uuid
+     * @return node id, or -1 if there is no such node
+     */
+    public int getNode(String uuid) {
+        if (!W3CProvGraphNodeIndex.isCanonical(uuid)) {
+            Integer id = named.get(uuid);
+            return id == null ? -1 : id;
+        }
+        return slots[findSlot(W3CProvGraphNodeIndex.msbOf(uuid),
+                W3CProvGraphNodeIndex.lsbOf(uuid))] - 1;
+    }
+
+    /**
+     * Number of nodes.
+     *
+     * @return count
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Number of edges.
+     *
+     * @return count
+     */
+    public int getEdgeCount() {
+        build();
+        return outOffsets[builtNodes];
+    }
+
+    /**
+     * Get all nodes of provenance graph
+     *
+     * @return node ids
+     */
+    public BitSet getNodes() {
+        BitSet nodes = new BitSet(nodeCount);
+        nodes.set(0, nodeCount);
+        return nodes;
+    }
+
+    public String getUuid(int node) {
+        checkNode(node);
+        if ((nodeTypes[node] & NAMED) != 0) {
+            return values.get((int) nodeIds[2 * node + 1]);
+        }
+        return new UUID(nodeIds[2 * node], nodeIds[2 * node + 1]).toString();
+    }
+
+    public byte getTypeCode(int node) {
+        checkNode(node);
+        return (byte) (nodeTypes[node] & ~NAMED);
+    }
+
+    public String getType(int node) {
+        return NODE_TYPES[getTypeCode(node)];
+    }
+
+    public String getValue(int node) {
+        checkNode(node);
+        return values.get(nodeValues[node]);
+    }
+
+    public long getTs(int node) {
+        checkNode(node);
+        return nodeTs[node];
+    }
+
+    /**
+     * Id of a node's value in the graph's value dictionary.
+     *
+     * @param node node id
+     * @return value id
+     */
+    int getValueId(int node) {
+        checkNode(node);
+        return nodeValues[node];
+    }
+
+    W3CProvValueDictionary values() {
+        return values;
+    }
+
+    static String typeName(byte code) {
+        return NODE_TYPES[code];
+    }
+
+    /**
+     * Edge type names, indexed by edge type code.
+     *
+     * @return edge types
+     */
+    List<String> edgeTypes() {
+        return Collections.unmodifiableList(edgeTypes);
+    }
+
+    /**
+     * Get a node as a W3CProvGraphNode (e.g., to add to a W3CProvGraph).
+     *
+     * @param node node id
+     * @return node
+     */
+    public W3CProvGraphNode toNode(int node) {
+        return new W3CProvGraphNode(getUuid(node), getType(node),
+                getValue(node), String.valueOf(getTs(node)));
+    }
+
+    /**
+     * Index of the first outgoing edge of a node. The outgoing edges of node v
+     * are the edges from firstOutEdge(v) to firstOutEdge(v + 1), exclusive.
+     *
+     * @param node node id, or the number of nodes
+     * @return edge index
+     */
+    public int firstOutEdge(int node) {
+        build();
+        if (node < 0 || node > nodeCount) {
+            throw new IndexOutOfBoundsException("No node " + node);
+        }
+        return outOffsets[node];
+    }
+
+    public int getEdgeTarget(int edge) {
+        build();
+        return outTargets[edge];
+    }
+
+    public String getEdgeType(int edge) {
+        build();
+        return edgeTypes.get(outTypes[edge]);
+    }
+
+    public long getEdgeTs(int edge) {
+        build();
+        return outTs[edge];
+    }
+
+    /**
+     * Get nodes that contain a specific string value. For AND queries, use this
+     * repeatedly to find two or more values contained within the node's value.
+     * Each distinct value is searched once, however many nodes share it; for
+     * repeated lookups of tokens such as device ids or addresses, see
+     * W3CProvAttributeIndex.
+     *
+     * @param value
+     * @param nodes node ids
+     * @return node ids
+     */
+    public BitSet getNodesByValue(String value, BitSet nodes) {
+        BitSet checked = new BitSet(values.size());
+        BitSet matching = new BitSet(values.size());
+        BitSet returnNodes = new BitSet(nodeCount);
+        for (int node = nodes.nextSetBit(0); node >= 0
+                && node < nodeCount; node = nodes.nextSetBit(node + 1)) {
+            int id = nodeValues[node];
+            if (!checked.get(id)) {
+                checked.set(id);
+                if (values.get(id).contains(value)) {
+                    matching.set(id);
+                }
+            }
+            if (matching.get(id)) {
+                returnNodes.set(node);
+            }
+        }
+        return returnNodes;
+    }
+
+    /**
+     * Perform a common ancestry trace with one or more pieces of evidence.
+     *
+     * @param evidenceSet node ids
+     * @return List with sets of agents, activities, and entities
+     */
+    public List<BitSet> commonAncestryTrace(BitSet evidenceSet) {
+        build();
+        List<BitSet> commonAncestorsList = new ArrayList<BitSet>();
+        BitSet commonAncestors = getNodes();
+        for (int evidence = evidenceSet.nextSetBit(0); evidence >= 0
+                && !commonAncestors.isEmpty(); evidence = evidenceSet
+                        .nextSetBit(evidence + 1)) {
+            commonAncestors.and(reachable(evidence, true, true));
+        }
+        commonAncestorsList.add(filterAgents(commonAncestors));
+        commonAncestorsList.add(filterActivities(commonAncestors));
+        commonAncestorsList.add(filterEntities(commonAncestors));
+        return commonAncestorsList;
+    }
+
+    /**
+     * Get ancestry of node (i.e., all things that went into affecting this
+     * node).
+     *
+     * @param node node id
+     * @return node ids
+     */
+    public BitSet getAncestryOfNode(int node) {
+        build();
+        return reachable(node, true, false);
+    }
+
+    /**
+     * Get descendants of node (i.e., all things this node affected).
+     *
+     * @param node node id
+     * @return node ids
+     */
+    public BitSet getDescendantsOfNode(int node) {
+        build();
+        return reachable(node, false, false);
+    }
+
+    /**
+     * Perform an entity-centric backward-forward trace, with the same results
+     * as W3CProvGraph.backwardForwardTrace(), in parallel on the common
+     * fork/join pool.
+     *
+     * @param node node of interest
+     * @return read-only map of ancestor, descendants
+     */
+    public Map<Integer, BitSet> backwardForwardTrace(int node) {
+        return new W3CProvParallelTrace(this).backwardForwardTrace(node);
+    }
+
+    public BitSet filterEntities(BitSet nodes) {
+        return filter(nodes, ENTITY);
+    }
+
+    public BitSet filterActivities(BitSet nodes) {
+        return filter(nodes, ACTIVITY);
+    }
+
+    public BitSet filterAgents(BitSet nodes) {
+        return filter(nodes, AGENT);
+    }
+
+    /**
+     * Approximate number of bytes used by the graph's arrays, including the
+     * value dictionary.
+     *
+     * @return bytes
+     */
+    public long estimateBytes() {
+        build();
+        return nodeTypes.length + 8L * nodeTs.length + 4L * nodeValues.length
+                + 8L * nodeIds.length + 4L * slots.length
+                + 4L * (outOffsets.length + outTargets.length)
+                + outTypes.length + 8L * outTs.length
+                + 4L * (inOffsets.length + inSources.length + inEdges.length)
+                + values.estimateBytes();
+    }
+
+    /**
+     * Display information about the provenance graph.
+     */
+    public void pp() {
+        System.out.printf("Number of nodes: %s\n", getNodeCount());
+        System.out.printf("Number of edges: %s\n", getEdgeCount());
+        System.out.printf("Number of distinct values: %s\n", values.size());
+        System.out.printf("Approximate size: %.1f MB\n",
+                estimateBytes() / 1e6);
+    }
+
+    /**
+     * Get the nodes reachable from a node, excluding the node itself.
+     *
+     * @param node             node id
+     * @param outgoing         follow outgoing (true) or incoming edges
+     * @param dependenciesOnly skip non-dependency edges
+     * @return node ids
+     */
+    BitSet reachable(int node, boolean outgoing,
+            boolean dependenciesOnly) {
+        checkNode(node);
+        BitSet seen = new BitSet(nodeCount);
+        int[] stack = new int[MIN_CAPACITY];
+        int top = 0;
+        stack[top++] = node;
+        seen.set(node);
+        while (top > 0) {
+            int v = stack[--top];
+            int[] offsets = outgoing ? outOffsets : inOffsets;
+            for (int i = offsets[v]; i < offsets[v + 1]; i++) {
+                int edge = outgoing ? i : inEdges[i];
+                if (dependenciesOnly && nonDependency[outTypes[edge]]) {
+                    continue;
+                }
+                int next = outgoing ? outTargets[i] : inSources[i];
+                if (!seen.get(next)) {
+                    seen.set(next);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top << 1);
+                    }
+                    stack[top++] = next;
+                }
+            }
+        }
+        /* only reached again through a cycle */
+        seen.clear(node);
+        return seen;
+    }
+
+    private BitSet filter(BitSet nodes, byte type) {
+        BitSet filter = new BitSet(nodeCount);
+        for (int node = nodes.nextSetBit(0); node >= 0
+                && node < nodeCount; node = nodes.nextSetBit(node + 1)) {
+            if ((nodeTypes[node] & ~NAMED) == type) {
+                filter.set(node);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * Build the CSR arrays from the edges added so far. Queries do so when
+     * needed, but the graph should be built before it is queried from several
+     * threads.
+     */
+    public void build() {
+        if (dirty) {
+            synchronized (this) {
+                if (dirty) {
+                    rebuild();
+                }
+            }
+        }
+    }
+
+    /* CSR arrays of a built graph, for traversals within the package */
+
+    int[] outOffsets() {
+        return outOffsets;
+    }
+
+    int[] outTargets() {
+        return outTargets;
+    }
+
+    byte[] outTypes() {
+        return outTypes;
+    }
+
+    int[] inOffsets() {
+        return inOffsets;
+    }
+
+    int[] inSources() {
+        return inSources;
+    }
+
+    int[] inEdges() {
+        return inEdges;
+    }
+
+    boolean isDependency(int edge) {
+        return !nonDependency[outTypes[edge]];
+    }
+
+    boolean isDependencyType(int code) {
+        return !nonDependency[code];
+    }
+
+    /**
+     * Write the built graph, with its UUID index and CSR arrays, to a
+     * snapshot.
+     */
+    void save(W3CProvGraphSnapshot.Output out) throws IOException {
+        build();
+        int n = nodeCount;
+        int edges = outOffsets[n];
+        out.putInt(n);
+        out.putBytes(nodeTypes, n);
+        out.putLongs(nodeTs, n);
+        out.putInts(nodeValues, n);
+        out.putLongs(nodeIds, 2 * n);
+        out.putInt(slots.length);
+        out.putInts(slots, slots.length);
+        out.putInt(edgeTypes.size());
+        for (String type : edgeTypes) {
+            out.putString(type);
+        }
+        out.putInt(edges);
+        out.putInts(outOffsets, n + 1);
+        out.putInts(outTargets, edges);
+        out.putBytes(outTypes, edges);
+        out.putLongs(outTs, edges);
+        out.putInts(inOffsets, n + 1);
+        out.putInts(inSources, edges);
+        out.putInts(inEdges, edges);
+        values.save(out);
+    }
+
+    /**
+     * Read a built graph from a snapshot (see save()).
+     *
+     * @param in
+     * @return graph
+     * @throws IOException
+     */
+    static W3CProvCompactGraph load(W3CProvGraphSnapshot.Input in)
+            throws IOException {
+        W3CProvCompactGraph graph = new W3CProvCompactGraph();
+        graph.restore(in);
+        return graph;
+    }
+
+    private void restore(W3CProvGraphSnapshot.Input in) throws IOException {
+        int n = in.getInt();
+        int capacity = Math.max(n, MIN_CAPACITY);
+        nodeTypes = in.getBytes(new byte[capacity], n);
+        nodeTs = in.getLongs(new long[capacity], n);
+        nodeValues = in.getInts(new int[capacity], n);
+        nodeIds = in.getLongs(new long[2 * capacity], 2 * n);
+        allocateSlots(in.getInt());
+        in.getInts(slots, slots.length);
+        edgeTypes.clear();
+        for (int count = in.getInt(); count > 0; count--) {
+            edgeTypes.add(in.getString());
+        }
+        Arrays.fill(nonDependency, false);
+        nonDependency[edgeTypeCode("wasRevisionOf")] = true;
+        nonDependency[edgeTypeCode("invalidates")] = true;
+        int edges = in.getInt();
+        outOffsets = in.getInts(new int[n + 1], n + 1);
+        outTargets = in.getInts(new int[edges], edges);
+        outTypes = in.getBytes(new byte[edges], edges);
+        outTs = in.getLongs(new long[edges], edges);
+        inOffsets = in.getInts(new int[n + 1], n + 1);
+        inSources = in.getInts(new int[edges], edges);
+        inEdges = in.getInts(new int[edges], edges);
+        values.restore(in);
+        for (int id = 0; id < n; id++) {
+            if ((nodeTypes[id] & NAMED) != 0) {
+                named.put(values.get((int) nodeIds[2 * id + 1]), id);
+            }
+        }
+        nodeCount = n;
+        builtNodes = n;
+        dirty = false;
+    }
+
+    /**
+     * Rebuild the CSR arrays from the built edges followed by the staged
+     * edges, keeping the last edge added between any two nodes.
+     */
+    private void rebuild() {
+        int n = nodeCount;
+        long total = (long) outOffsets[builtNodes] + stagedCount;
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Compact graph is full");
+        }
+
+        /* count edges by source, then place them in order of addition */
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < builtNodes; v++) {
+            offsets[v + 1] = outOffsets[v + 1] - outOffsets[v];
+        }
+        for (int i = 0; i < stagedCount; i++) {
+            offsets[stagedFrom[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] targets = new int[(int) total];
+        byte[] types = new byte[(int) total];
+        long[] ts = new long[(int) total];
+        int[] cursor = Arrays.copyOf(offsets, n);
+        for (int v = 0; v < builtNodes; v++) {
+            int count = outOffsets[v + 1] - outOffsets[v];
+            System.arraycopy(outTargets, outOffsets[v], targets, cursor[v],
+                    count);
+            System.arraycopy(outTypes, outOffsets[v], types, cursor[v], count);
+            System.arraycopy(outTs, outOffsets[v], ts, cursor[v], count);
+            cursor[v] += count;
+        }
+        for (int i = 0; i < stagedCount; i++) {
+            int c = cursor[stagedFrom[i]]++;
+            targets[c] = stagedTo[i];
+            types[c] = stagedTypes[i];
+            ts[c] = stagedTs[i];
+        }
+
+        /* drop duplicates in place, a later edge replacing an earlier one */
+        int[] last = cursor;
+        Arrays.fill(last, -1);
+        int w = 0;
+        int start = offsets[0];
+        for (int v = 0; v < n; v++) {
+            int end = offsets[v + 1];
+            offsets[v] = w;
+            for (int i = start; i < end; i++) {
+                int t = targets[i];
+                if (last[t] >= offsets[v]) {
+                    types[last[t]] = types[i];
+                    ts[last[t]] = ts[i];
+                } else {
+                    targets[w] = t;
+                    types[w] = types[i];
+                    ts[w] = ts[i];
+                    last[t] = w++;
+                }
+            }
+            start = end;
+        }
+        offsets[n] = w;
+
+        outOffsets = offsets;
+        outTargets = w == total ? targets : Arrays.copyOf(targets, w);
+        outTypes = w == total ? types : Arrays.copyOf(types, w);
+        outTs = w == total ? ts : Arrays.copyOf(ts, w);
+
+        /* incoming edges, sorted by source */
+        inOffsets = new int[n + 1];
+        for (int e = 0; e < w; e++) {
+            inOffsets[outTargets[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            inOffsets[v + 1] += inOffsets[v];
+        }
+        inSources = new int[w];
+        inEdges = new int[w];
+        Arrays.fill(cursor, 0);
+        for (int v = 0; v < n; v++) {
+            for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                int t = outTargets[e];
+                int c = inOffsets[t] + cursor[t]++;
+                inSources[c] = v;
+                inEdges[c] = e;
+            }
+        }
+
+        builtNodes = n;
+        stagedCount = 0;
+        stagedFrom = new int[MIN_CAPACITY];
+        stagedTo = new int[MIN_CAPACITY];
+        stagedTypes = new byte[MIN_CAPACITY];
+        stagedTs = new long[MIN_CAPACITY];
+        dirty = false;
+    }
+
+    private byte nodeTypeCode(String type) {
+        for (byte code = 0; code < NODE_TYPES.length; code++) {
+            if (NODE_TYPES[code].equals(type)) {
+                return code;
+            }
+        }
+        throw new IllegalArgumentException("Unknown node type " + type);
+    }
+
+    private byte edgeTypeCode(String type) {
+        int code = edgeTypes.indexOf(type);
+        if (code < 0) {
+            if (edgeTypes.size() == MAX_EDGE_TYPES) {
+                throw new IllegalStateException("Too many edge types");
+            }
+            code = edgeTypes.size();
+            edgeTypes.add(type);
+        }
+        return (byte) code;
+    }
+
+    private void checkNode(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IndexOutOfBoundsException("No node " + node);
+        }
+    }
+
+    /**
+     * Find the slot of a UUID, or the empty slot where it would go.
+     */
+    private int findSlot(long m, long l) {
+        for (int slot = W3CProvGraphNodeIndex.hashOf(m, l)
+                & mask;; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0 || (nodeIds[2 * id] == m && nodeIds[2 * id + 1] == l)) {
+                return slot;
+            }
+        }
+    }
+
+    private void growSlots() {
+        if (slots.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Compact graph is full");
+        }
+        allocateSlots(slots.length << 1);
+        for (int id = 0; id < nodeCount; id++) {
+            if ((nodeTypes[id] & NAMED) == 0) {
+                slots[findSlot(nodeIds[2 * id], nodeIds[2 * id + 1])] = id + 1;
+            }
+        }
+    }
+
+    private void allocateSlots(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static long parseTs(String ts) {
+        try {
+            return Long.parseLong(ts);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
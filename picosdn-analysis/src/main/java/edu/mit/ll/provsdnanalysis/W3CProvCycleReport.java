@@ -0,0 +1,131 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Edges dropped by a bulk load of a W3CProvGraph (see
+ * W3CProvGraph.endBulkLoad()) so that the graph stays acyclic, with the
+ * records they came from.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvCycleReport {
+
+    /* dropped edges displayed by pp() */
+    private static final int MAX_DISPLAYED = 20;
+
+    private final boolean orientedByTime;
+    private final List<DroppedEdge> dropped = new ArrayList<DroppedEdge>();
+    private int cycles = 0;
+    private long duplicates = 0;
+
+    W3CProvCycleReport(boolean orientedByTime) {
+        this.orientedByTime = orientedByTime;
+    }
+
+    void cycle() {
+        cycles++;
+    }
+
+    void duplicate() {
+        duplicates++;
+    }
+
+    void drop(W3CProvGraphNode from, W3CProvGraphNode to,
+            W3CProvGraphEdge edge) {
+        dropped.add(new DroppedEdge(from, to, edge));
+    }
+
+    /**
+     * Whether edges were oriented by timestamp rather than checked for
+     * cycles; dropped edges then go from an older to a newer node.
+     *
+     * @return true if oriented by timestamp
+     */
+    public boolean isOrientedByTime() {
+        return orientedByTime;
+    }
+
+    /**
+     * Number of strongly connected components of more than one node among
+     * the loaded edges, i.e., of groups of nodes on cycles; 0 when oriented by
+     * timestamp.
+     *
+     * @return count
+     */
+    public int getCycleCount() {
+        return cycles;
+    }
+
+    /**
+     * Number of edges replaced by a later edge between the same nodes.
+     *
+     * @return count
+     */
+    public long getDuplicateCount() {
+        return duplicates;
+    }
+
+    public List<DroppedEdge> getDroppedEdges() {
+        return Collections.unmodifiableList(dropped);
+    }
+
+    /**
+     * Display the dropped edges.
+     */
+    public void pp() {
+        System.out.printf("Number of cycles: %s\n", orientedByTime
+                ? "not checked (oriented by timestamp)" : cycles);
+        System.out.printf("Number of replaced duplicate edges: %s\n",
+                duplicates);
+        System.out.printf("Number of dropped edges: %s\n", dropped.size());
+        for (int i = 0; i < dropped.size() && i < MAX_DISPLAYED; i++) {
+            System.out.printf("  %s\n", dropped.get(i));
+        }
+        if (dropped.size() > MAX_DISPLAYED) {
+            System.out.printf("  ... and %s more\n",
+                    dropped.size() - MAX_DISPLAYED);
+        }
+    }
+
+    /**
+     * An edge that was not added, with its endpoints.
+     */
+    public static final class DroppedEdge {
+
+        private final W3CProvGraphNode from;
+        private final W3CProvGraphNode to;
+        private final W3CProvGraphEdge edge;
+
+        private DroppedEdge(W3CProvGraphNode from, W3CProvGraphNode to,
+                W3CProvGraphEdge edge) {
+            this.from = from;
+            this.to = to;
+            this.edge = edge;
+        }
+
+        public W3CProvGraphNode getFrom() {
+            return from;
+        }
+
+        public W3CProvGraphNode getTo() {
+            return to;
+        }
+
+        public W3CProvGraphEdge getEdge() {
+            return edge;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s(%s, ts=%s) -%s(ts=%s)-> %s(%s, ts=%s)",
+                    from.getType(), from.getUuid(), from.getTs(),
+                    edge.getType(), edge.getTs(), to.getType(), to.getUuid(),
+                    to.getTs());
+        }
+    }
+
+}
@@ -1,41 +1,54 @@
 package edu.mit.ll.provsdnanalysis;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.StringWriter;
-import java.io.Writer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 import org.jgrapht.graph.DirectedAcyclicGraph;
-import org.jgrapht.io.Attribute;
-import org.jgrapht.io.ComponentAttributeProvider;
-import org.jgrapht.io.ComponentNameProvider;
-import org.jgrapht.io.DOTExporter;
-import org.jgrapht.io.DefaultAttribute;
-import org.jgrapht.io.ExportException;
-import org.jgrapht.io.GraphExporter;
 
 /**
  * Representation of W3C PROV provenance graph for ProvSDN v2.0.
  *
+ * Nodes are indexed by UUID alongside the graph, so looking up a node takes
+ * constant time rather than a scan of all nodes. A node's UUID must not change
+ * while it is in the graph.
+ *
+ * Queries that follow only dependency edges do so through a W3CProvGraphView
+ * rather than by removing other edges, so queries do not modify the graph and
+ * may run concurrently as long as the graph is not modified meanwhile.
+ *
+ * Large graphs are best loaded in bulk (see beginBulkLoad()), which checks for
+ * cycles once for all edges rather than on every edge.
+ *
  * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
  * @version 2.0
  */
 public class W3CProvGraph {
 
+    /* edge types that are not dependencies (e.g., revision, invalidation) */
+    private static final Set<String> NON_DEPENDENCY_TYPES = new HashSet<String>(
+            Arrays.asList("wasRevisionOf", "invalidates"));
+
+    /* largest graph generateDot() renders; dot takes too long beyond */
+    public static final int RENDER_LIMIT = 5000;
+
     private DirectedAcyclicGraph<W3CProvGraphNode, W3CProvGraphEdge> g;
-    private Stack<W3CProvGraphStashedEdge> stashedEdges = new Stack<W3CProvGraphStashedEdge>();
+    private W3CProvGraphNodeIndex index = new W3CProvGraphNodeIndex();
+    private W3CProvGraphView dependencies;
+    /* nodes and edges staged since beginBulkLoad(), or null */
+    private W3CProvGraphBulkLoad bulkLoad = null;
 
     public W3CProvGraph() {
         this.g = new DirectedAcyclicGraph<W3CProvGraphNode, W3CProvGraphEdge>(
                 null);
+        this.dependencies = new W3CProvGraphView(g, NON_DEPENDENCY_TYPES);
     }
 
     /**
@@ -44,9 +57,49 @@ public class W3CProvGraph {
      * @param nodeToAdd
      */
     public void addNode(W3CProvGraphNode nodeToAdd) {
-        if (getNode(nodeToAdd.getUuid()) == null) {
-            g.addVertex(nodeToAdd);
+        if (index.putIfAbsent(nodeToAdd) == null) {
+            if (bulkLoad != null) {
+                bulkLoad.addNode(nodeToAdd);
+            } else {
+                g.addVertex(nodeToAdd);
+            }
+        }
+    }
+
+    /**
+     * Start loading nodes and edges in bulk, checking for cycles once at the
+     * end rather than on every edge (see W3CProvGraphBulkLoad).
+     *
+     * Until endBulkLoad(), added nodes can be found by getNode(), but added
+     * nodes and edges are otherwise not in the graph.
+     *
+     * @param orientByTime drop edges from older to newer nodes rather than
+     *                     look for cycles
+     */
+    public void beginBulkLoad(boolean orientByTime) {
+        if (bulkLoad != null) {
+            throw new IllegalStateException("Already loading in bulk");
         }
+        bulkLoad = new W3CProvGraphBulkLoad(orientByTime);
+    }
+
+    public boolean isBulkLoading() {
+        return bulkLoad != null;
+    }
+
+    /**
+     * Add the nodes and edges loaded since beginBulkLoad() to the graph,
+     * dropping edges that would close cycles.
+     *
+     * @return dropped edges
+     */
+    public W3CProvCycleReport endBulkLoad() {
+        if (bulkLoad == null) {
+            throw new IllegalStateException("Not loading in bulk");
+        }
+        W3CProvGraphBulkLoad load = bulkLoad;
+        bulkLoad = null;
+        return load.finish(this, g);
     }
 
     /**
@@ -56,12 +109,7 @@ public class W3CProvGraph {
      * @return node or null
      */
     public W3CProvGraphNode getNode(String uuid) {
-        for (W3CProvGraphNode node : g.vertexSet()) {
-            if (node.getUuid().equals(uuid)) {
-                return node;
-            }
-        }
-        return null;
+        return index.get(uuid);
     }
 
     /**
@@ -82,9 +130,32 @@ public class W3CProvGraph {
         return g.edgeSet();
     }
 
+    /**
+     * Get the node an edge comes from (i.e., the node that depends on the
+     * other).
+     *
+     * @param edge
+     * @return node
+     */
+    public W3CProvGraphNode getEdgeSource(W3CProvGraphEdge edge) {
+        return g.getEdgeSource(edge);
+    }
+
+    /**
+     * Get the node an edge goes to.
+     *
+     * @param edge
+     * @return node
+     */
+    public W3CProvGraphNode getEdgeTarget(W3CProvGraphEdge edge) {
+        return g.getEdgeTarget(edge);
+    }
+
     /**
      * Get nodes that contain a specific string value. For AND queries, use this
      * repeatedly to find two or more values contained within the node's value.
+     * This scans every node; for indexed token, type and time range queries,
+     * use a W3CProvAttributeIndex of the compact graph.
      * 
      * @return nodes
      */
@@ -108,30 +179,33 @@ public class W3CProvGraph {
     public List<Set<W3CProvGraphNode>> commonAncestryTrace(
             Set<W3CProvGraphNode> evidenceSet) {
 
-        stashNonDependencyEdges();
-
         List<Set<W3CProvGraphNode>> commonAncestorsList = new ArrayList<Set<W3CProvGraphNode>>();
-        Set<W3CProvGraphNode> commonAncestors = new HashSet<W3CProvGraphNode>();
-
-        // start out by adding every node in graph to commonAncestors
-        for (W3CProvGraphNode node : g.vertexSet()) {
-            commonAncestors.add(node);
-        }
+        Set<W3CProvGraphNode> commonAncestors = null;
 
         /*
          * for each piece of evidence, get its ancestry and intersect with
-         * commonAncestors
+         * commonAncestors (every node in graph if there is no evidence)
          */
         for (W3CProvGraphNode evidence : evidenceSet) {
-            commonAncestors.retainAll(g.getDescendants(evidence));
+            Set<W3CProvGraphNode> ancestry = dependencies
+                    .getAncestryOfNode(evidence);
+            if (commonAncestors == null) {
+                commonAncestors = ancestry;
+            } else {
+                commonAncestors.retainAll(ancestry);
+            }
+            if (commonAncestors.isEmpty()) {
+                break;
+            }
+        }
+        if (commonAncestors == null) {
+            commonAncestors = g.vertexSet();
         }
 
         commonAncestorsList.add(filterAgents(commonAncestors));
         commonAncestorsList.add(filterActivities(commonAncestors));
         commonAncestorsList.add(filterEntities(commonAncestors));
 
-        unstashNonDependencyEdges();
-
         return commonAncestorsList;
 
     }
@@ -142,8 +216,6 @@ public class W3CProvGraph {
      */
     public void networkActivitySummarization() {
 
-        stashNonDependencyEdges();
-
         // get all activities
         Set<W3CProvGraphNode> activities = filterActivities(g.vertexSet());
 
@@ -152,7 +224,8 @@ public class W3CProvGraph {
 
             // are there any data plane packet ancestors? (packets)
             Set<W3CProvGraphNode> packets = new HashSet<W3CProvGraphNode>();
-            Set<W3CProvGraphNode> ancestors = getAncestryOfNode(activity);
+            Set<W3CProvGraphNode> ancestors = dependencies
+                    .getAncestryOfNode(activity);
             for (W3CProvGraphNode ancestor : ancestors) {
                 if (isInboundPacket(ancestor)) {
                     packets.add(ancestor);
@@ -163,9 +236,8 @@ public class W3CProvGraph {
             // (immediatePackets)
             Set<W3CProvGraphNode> immediatePackets = new HashSet<W3CProvGraphNode>();
 
-            Set<W3CProvGraphEdge> edges = g.outgoingEdgesOf(activity);
-            for (W3CProvGraphEdge edge : edges) {
-                W3CProvGraphNode target = g.getEdgeTarget(edge);
+            for (W3CProvGraphNode target : dependencies
+                    .getTargetsOf(activity)) {
                 if (isInboundPacket(target)) {
                     immediatePackets.add(target);
                 }
@@ -174,9 +246,8 @@ public class W3CProvGraph {
             // are there any immediate flow rule / forwarding objective
             // descendants? (immediateFlows)
             Set<W3CProvGraphNode> immediateFlows = new HashSet<W3CProvGraphNode>();
-            edges = g.edgesOf(activity);
-            for (W3CProvGraphEdge edge : edges) {
-                W3CProvGraphNode source = g.getEdgeSource(edge);
+            for (W3CProvGraphNode source : dependencies
+                    .getSourcesOf(activity)) {
                 if (isFlowRule(source) || isForwardingObjective(source)) {
                     immediateFlows.add(source);
                 }
@@ -184,8 +255,6 @@ public class W3CProvGraph {
 
         }
 
-        unstashNonDependencyEdges();
-
     }
 
     /**
@@ -268,7 +337,8 @@ public class W3CProvGraph {
     /**
      * Add an edge to the graph. If edge already exists, the existing edge is
      * removed and the new edge is added. Loops and duplicate edges are
-     * discarded.
+     * discarded, and so are edges that would close a cycle. When loading in
+     * bulk, the edge is only staged.
      *
      * @param from
      * @param to
@@ -280,6 +350,10 @@ public class W3CProvGraph {
         if (from.getUuid().equals(to.getUuid())) {
             return;
         }
+        if (bulkLoad != null) {
+            bulkLoad.addEdge(from, to, edge);
+            return;
+        }
         // don't allow duplicate edges
         if (!g.containsEdge(from, to)) {
             try {
@@ -294,49 +368,78 @@ public class W3CProvGraph {
     }
 
     /**
-     * Remove an edge from the provenance graph.
+     * Get the edges from and to a node.
      *
      * @param node
+     * @return edges
      */
-    private void removeEdge(W3CProvGraphEdge edge) {
-        g.removeEdge(edge);
+    Set<W3CProvGraphEdge> edgesOf(W3CProvGraphNode node) {
+        return g.edgesOf(node);
     }
 
     /**
-     * Remove a node from the provenance graph.
+     * Get the edges from a node.
      *
      * @param node
+     * @return edges
      */
-    private void removeNode(W3CProvGraphNode node) {
-        g.removeVertex(node);
+    Set<W3CProvGraphEdge> outgoingEdgesOf(W3CProvGraphNode node) {
+        return g.outgoingEdgesOf(node);
     }
 
     /**
-     * Temporarily stash non-dependency edges (e.g., revision relations,
-     * invalidation relations, etc.) from the provenance graph so as to perform
-     * backward-forward dependency tracing correctly.
+     * Remove edges from the provenance graph.
+     *
+     * @param edges
+     * @return number of edges removed
      */
-    public void stashNonDependencyEdges() {
-        for (W3CProvGraphEdge edge : g.edgeSet()) {
-            if (edge.getType().equals("wasRevisionOf")
-                    || edge.getType().equals("invalidates")) {
-                W3CProvGraphNode from = g.getEdgeSource(edge);
-                W3CProvGraphNode to = g.getEdgeTarget(edge);
-                stashedEdges.push(new W3CProvGraphStashedEdge(from, to, edge));
-                removeEdge(edge);
+    int removeEdges(Collection<W3CProvGraphEdge> edges) {
+        int removed = 0;
+        for (W3CProvGraphEdge edge : edges) {
+            if (g.removeEdge(edge)) {
+                removed++;
             }
         }
+        return removed;
     }
 
     /**
-     * Add stashed non-dependency edges back into the provenance graph.
+     * Remove nodes, and their edges, from the provenance graph.
+     *
+     * @param nodes
+     * @return number of nodes removed
      */
-    public void unstashNonDependencyEdges() {
-        while (!stashedEdges.isEmpty()) {
-            W3CProvGraphStashedEdge stashedEdge = stashedEdges.pop();
-            addEdge(stashedEdge.getFrom(), stashedEdge.getTo(),
-                    stashedEdge.getEdge());
+    int removeNodes(Collection<W3CProvGraphNode> nodes) {
+        int removed = 0;
+        for (W3CProvGraphNode node : nodes) {
+            if (g.removeVertex(node)) {
+                index.remove(node.getUuid());
+                removed++;
+            }
         }
+        return removed;
+    }
+
+    /**
+     * Get a view of the provenance graph following only dependency edges
+     * (i.e., not revision or invalidation relations), as used for
+     * backward-forward dependency tracing.
+     *
+     * @return view
+     */
+    public W3CProvGraphView getDependencyView() {
+        return dependencies;
+    }
+
+    /**
+     * Get a view of the provenance graph following every edge except those of
+     * some types.
+     *
+     * @param excludedTypes edge types not to follow
+     * @return view
+     */
+    public W3CProvGraphView getView(Set<String> excludedTypes) {
+        return new W3CProvGraphView(g, excludedTypes);
     }
 
     /**
@@ -346,25 +449,29 @@ public class W3CProvGraph {
      * For each ancestor (i.e., a potential root cause), generate that
      * ancestor's set of descendants (i.e., what it affected).
      *
+     * Ancestors are traced one after another; on large graphs, trace a
+     * W3CProvCompactGraph instead, which does so in parallel.
+     *
      * @param node node of interest
      * @return map of ancestor, descendants
      */
     public Map<W3CProvGraphNode, Set<W3CProvGraphNode>> backwardForwardTrace(
             W3CProvGraphNode node) {
 
-        stashNonDependencyEdges();
-
         HashMap<W3CProvGraphNode, Set<W3CProvGraphNode>> results = new HashMap<W3CProvGraphNode, Set<W3CProvGraphNode>>();
 
-        Set<W3CProvGraphNode> ancestors = filterEntities(g.getAncestors(node));
+        /*
+         * Note that W3C PROV has opposite definitions from jGraphT, so these
+         * are jGraphT ancestors and their jGraphT descendants.
+         */
+        Set<W3CProvGraphNode> ancestors = filterEntities(
+                dependencies.getDescendantsOfNode(node));
         for (W3CProvGraphNode ancestor : ancestors) {
             Set<W3CProvGraphNode> descendants = filterEntities(
-                    g.getDescendants(ancestor));
+                    dependencies.getAncestryOfNode(ancestor));
             results.put(ancestor, descendants);
         }
 
-        unstashNonDependencyEdges();
-
         return results;
     }
 
@@ -378,17 +485,12 @@ public class W3CProvGraph {
 
     /**
      * Remove any nodes that do not have any edges connecting to them.
+     *
+     * To run several of the preprocessing passes, fuse them in one
+     * W3CProvGraphTransform rather than calling each in turn.
      */
     public void removeOrphanNodes() {
-        HashSet<W3CProvGraphNode> setToRemove = new HashSet<W3CProvGraphNode>();
-        for (W3CProvGraphNode node : g.vertexSet()) {
-            if (g.edgesOf(node).size() == 0) {
-                setToRemove.add(node);
-            }
-        }
-        for (W3CProvGraphNode node : setToRemove) {
-            removeNode(node);
-        }
+        new W3CProvGraphTransform(this).removeOrphanNodes().apply();
     }
 
     /**
@@ -404,68 +506,15 @@ public class W3CProvGraph {
      * being able to receive an entity.
      */
     public void removeActivitiesWithoutEffect() {
-        HashSet<W3CProvGraphNode> setToRemove = new HashSet<W3CProvGraphNode>();
-        for (W3CProvGraphNode activity : filterActivities(g.vertexSet())) {
-            Set<W3CProvGraphEdge> edges = g.edgesOf(activity);
-            Boolean remove = true;
-            for (W3CProvGraphEdge edge : edges) {
-                if (edge.getType().equals("wasGeneratedBy")
-                        || edge.getType().equals("invalidates")) {
-                    remove = false;
-                    break;
-                }
-            }
-            if (remove) {
-                setToRemove.add(activity);
-            }
-
-        }
-        for (W3CProvGraphNode node : setToRemove) {
-            removeNode(node);
-        }
+        new W3CProvGraphTransform(this).removeActivitiesWithoutEffect()
+                .apply();
     }
 
     /**
      * Add agency for each event listener to the app that called it.
      */
     public void addAppAgency() {
-
-        Map<W3CProvGraphNode, W3CProvGraphNode> agentMap = new LinkedHashMap<W3CProvGraphNode, W3CProvGraphNode>();
-
-        Set<W3CProvGraphNode> activities = filterActivities(g.vertexSet());
-
-        for (W3CProvGraphNode activity : activities) {
-
-            String value = activity.getValue();
-            String app = value.substring(0, value.indexOf("$"));
-
-            // remove special characters so dot doesn't complain
-            W3CProvGraphNode agent = new W3CProvGraphNode(
-                    app.replaceAll("[^a-zA-Z0-9]", ""), "agent", app,
-                    app.replaceAll("[^a-zA-Z0-9]", ""));
-
-            agentMap.put(activity, agent);
-
-        }
-
-        /*
-         * iterate through agents and add nodes + relations
-         */
-        for (Map.Entry<W3CProvGraphNode, W3CProvGraphNode> entry : agentMap
-                .entrySet()) {
-            addNode(entry.getValue());
-
-            /* attempt to add edge */
-            W3CProvGraphEdge edge = new W3CProvGraphEdge("wasAssociatedWith",
-                    "", "0");
-            W3CProvGraphNode from = getNode(entry.getKey().getUuid());
-            W3CProvGraphNode to = getNode(entry.getValue().getUuid());
-            if (from != null && to != null) {
-                addEdge(from, to, edge);
-            }
-
-        }
-
+        new W3CProvGraphTransform(this).addAppAgency().apply();
     }
 
     /**
@@ -474,21 +523,7 @@ public class W3CProvGraph {
      * explosion.
      */
     public void removePacketFlowDependency() {
-
-        Set<W3CProvGraphNode> nodes = g.vertexSet();
-        for (W3CProvGraphNode node : nodes) {
-            if (isInboundPacket(node)) {
-                // get outgoing edges from packet
-                Set<W3CProvGraphEdge> edges = g.outgoingEdgesOf(node);
-                // remove any edges that are derivations
-                for (W3CProvGraphEdge edge : edges) {
-                    if (edge.getType().equals("wasDerivedFrom")) {
-                        removeEdge(edge);
-                    }
-                }
-            }
-        }
-
+        new W3CProvGraphTransform(this).removePacketFlowDependency().apply();
     }
 
     /**
@@ -497,50 +532,7 @@ public class W3CProvGraph {
      * dependency explosion.
      */
     public void addSwitchportAgency() {
-
-        Map<W3CProvGraphNode, W3CProvGraphNode> agentMap = new LinkedHashMap<W3CProvGraphNode, W3CProvGraphNode>();
-
-        /*
-         * Iterate through nodes to find packets; note that we cannot add nodes
-         * to graph in this loop because it throws off iterator, so store them
-         * and add later
-         */
-        Set<W3CProvGraphNode> nodes = g.vertexSet();
-        for (W3CProvGraphNode node : nodes) {
-            if (isInboundPacket(node)) {
-
-                String value = node.getValue();
-                String port = value.substring(value.indexOf("=") + 1,
-                        value.indexOf(","));
-
-                // remove special characters so dot doesn't complain
-                W3CProvGraphNode agent = new W3CProvGraphNode(
-                        port.replaceAll("[^a-zA-Z0-9]", ""), "agent", port,
-                        port.replaceAll("[^a-zA-Z0-9]", ""));
-
-                agentMap.put(node, agent);
-
-            }
-        }
-
-        /*
-         * iterate through agents and add nodes + relations
-         */
-        for (Map.Entry<W3CProvGraphNode, W3CProvGraphNode> entry : agentMap
-                .entrySet()) {
-            addNode(entry.getValue());
-
-            /* attempt to add edge */
-            W3CProvGraphEdge edge = new W3CProvGraphEdge("wasAttributedTo", "",
-                    "0");
-            W3CProvGraphNode from = getNode(entry.getKey().getUuid());
-            W3CProvGraphNode to = getNode(entry.getValue().getUuid());
-            if (from != null && to != null) {
-                addEdge(from, to, edge);
-            }
-
-        }
-
+        new W3CProvGraphTransform(this).addSwitchportAgency().apply();
     }
 
     /**
@@ -550,11 +542,7 @@ public class W3CProvGraph {
      * @return
      */
     private boolean isInboundPacket(W3CProvGraphNode node) {
-        if (node.getValue().contains("DefaultInboundPacket")) {
-            return true;
-        } else {
-            return false;
-        }
+        return W3CProvGraphTransform.isInboundPacket(node);
     }
 
     /**
@@ -586,92 +574,21 @@ public class W3CProvGraph {
     }
 
     /**
-     * Generate graphviz/dot output of provenance graph.
+     * Generate graphviz/dot output of provenance graph, streamed to
+     * prov-graph.dot, and render it to PDF and SVG unless it has more than
+     * RENDER_LIMIT nodes (see W3CProvGraphExporter to export large graphs in
+     * pages or other formats).
      */
     public void generateDot() {
-
-        ComponentNameProvider<W3CProvGraphNode> nodeIdProvider = new ComponentNameProvider<W3CProvGraphNode>() {
-            public String getName(W3CProvGraphNode node) {
-                return "node" + node.getUuid().toString().replace("-", "");
-            }
-        };
-
-        ComponentNameProvider<W3CProvGraphNode> nodeLabelProvider = new ComponentNameProvider<W3CProvGraphNode>() {
-            public String getName(W3CProvGraphNode node) {
-                if (node.getType().equals("activity")) {
-                    return node.getValue().replace("$", "\n") + "\nts="
-                            + node.getTs();
-                } else if (node.getType().equals("entity")) {
-                    return node.getValue().replace(",", "\n") + "\nts="
-                            + node.getTs();
-                } else {
-                    return node.getValue();
-                }
-            }
-        };
-
-        ComponentNameProvider<W3CProvGraphEdge> edgeLabelProvider = new ComponentNameProvider<W3CProvGraphEdge>() {
-            public String getName(W3CProvGraphEdge edge) {
-                return edge.getType();
-            }
-        };
-
-        ComponentAttributeProvider<W3CProvGraphNode> nodeAttributeProvider = new ComponentAttributeProvider<W3CProvGraphNode>() {
-            public Map<String, Attribute> getComponentAttributes(
-                    W3CProvGraphNode node) {
-                Map<String, Attribute> map = new LinkedHashMap<String, Attribute>();
-                map.put("style", DefaultAttribute.createAttribute("filled"));
-                map.put("penwidth", DefaultAttribute.createAttribute("1"));
-                map.put("fontsize", DefaultAttribute.createAttribute("12"));
-                if (node.getType().equals("agent")) {
-                    map.put("shape", DefaultAttribute.createAttribute("house"));
-                    map.put("fillcolor",
-                            DefaultAttribute.createAttribute("rosybrown1"));
-                } else if (node.getType().equals("activity")) {
-                    map.put("shape", DefaultAttribute.createAttribute("box"));
-                    map.put("fillcolor", DefaultAttribute
-                            .createAttribute("lightsteelblue1"));
-                } else if (node.getType().equals("entity")) {
-                    map.put("shape",
-                            DefaultAttribute.createAttribute("ellipse"));
-                    map.put("fillcolor",
-                            DefaultAttribute.createAttribute("khaki1"));
-                }
-                return map;
-            }
-        };
-
-        ComponentAttributeProvider<W3CProvGraphEdge> edgeAttributeProvider = new ComponentAttributeProvider<W3CProvGraphEdge>() {
-            public Map<String, Attribute> getComponentAttributes(
-                    W3CProvGraphEdge edge) {
-                Map<String, Attribute> map = new LinkedHashMap<String, Attribute>();
-                map.put("fontsize", DefaultAttribute.createAttribute("12"));
-                return map;
-            }
-        };
-
-        GraphExporter<W3CProvGraphNode, W3CProvGraphEdge> exporter = new DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>(
-                nodeIdProvider, nodeLabelProvider, edgeLabelProvider,
-                nodeAttributeProvider, edgeAttributeProvider);
         try {
             // write out to DOT
-            FileWriter fw = new FileWriter("prov-graph.dot");
-            Writer writer = new StringWriter();
-            /* graph-wide attributes */
-            ((DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>) exporter)
-                    .putGraphAttribute("ratio", "compress");
-            ((DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>) exporter)
-                    .putGraphAttribute("nodesep", "0.2");
-            ((DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>) exporter)
-                    .putGraphAttribute("ranksep", "1");
-            ((DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>) exporter)
-                    .putGraphAttribute("margin", "0");
-            ((DOTExporter<W3CProvGraphNode, W3CProvGraphEdge>) exporter)
-                    .putGraphAttribute("rankdir", "BT");
-
-            exporter.exportGraph(g, writer);
-            fw.write(writer.toString());
-            fw.close();
+            W3CProvGraphExporter.writeDot(this, Paths.get("prov-graph.dot"));
+            if (g.vertexSet().size() > RENDER_LIMIT) {
+                System.out.printf(
+                        "Not rendering prov-graph.dot: %s nodes (limit %s)\n",
+                        g.vertexSet().size(), RENDER_LIMIT);
+                return;
+            }
             // write out to PDF
             String stringExec = "dot -Tpdf prov-graph.dot -o prov-graph.pdf";
             Runtime.getRuntime()
@@ -682,51 +599,6 @@ public class W3CProvGraph {
         } catch (IOException e1) {
             // TODO Auto-generated catch block
             e1.printStackTrace();
-        } catch (ExportException e) {
-            // TODO Auto-generated catch block
-            e.printStackTrace();
-        }
-
-    }
-
-    /**
-     * Representation of a stashed edge in the provenance graph.
-     */
-    public class W3CProvGraphStashedEdge {
-        private W3CProvGraphNode from;
-        private W3CProvGraphNode to;
-        private W3CProvGraphEdge edge;
-
-        public W3CProvGraphStashedEdge(W3CProvGraphNode from,
-                W3CProvGraphNode to, W3CProvGraphEdge edge) {
-            super();
-            this.from = from;
-            this.to = to;
-            this.edge = edge;
-        }
-
-        public W3CProvGraphNode getFrom() {
-            return from;
-        }
-
-        public void setFrom(W3CProvGraphNode from) {
-            this.from = from;
-        }
-
-        public W3CProvGraphNode getTo() {
-            return to;
-        }
-
-        public void setTo(W3CProvGraphNode to) {
-            this.to = to;
-        }
-
-        public W3CProvGraphEdge getEdge() {
-            return edge;
-        }
-
-        public void setEdge(W3CProvGraphEdge edge) {
-            this.edge = edge;
         }
 
     }
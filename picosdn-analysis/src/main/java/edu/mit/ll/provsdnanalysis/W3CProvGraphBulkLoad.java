@@ -0,0 +1,342 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jgrapht.graph.DirectedAcyclicGraph;
+
+/**
+ * Nodes and edges staged by W3CProvGraph.beginBulkLoad(), inserted into the
+ * graph at once by finish().
+ *
+ * Inserting an edge into a DirectedAcyclicGraph is cheap only if its source
+ * comes before its target in the graph's topological order; otherwise the
+ * order is repaired by a search, or an exception is thrown if the edge would
+ * close a cycle. Provenance records arrive oldest first, so nodes are added
+ * oldest first while edges go from newer to older nodes: nearly every edge
+ * needs a repair. Here, duplicates are dropped (the later edge replacing the
+ * earlier), an order in which every remaining edge goes forward is computed
+ * once, cycles are broken in the process, and nodes are then added in that
+ * order so that no edge insertion needs a search or throws.
+ *
+ * The order is either:
+ *
+ * - the topological order of the strongly connected components of the staged
+ * edges (Tarjan's algorithm), nodes of a component being ordered from the
+ * newest (by timestamp, then by arrival) to the oldest; the edges of a
+ * component from an older to a newer node are dropped, which breaks all its
+ * cycles and drops only edges on cycles; or
+ *
+ * - with orientByTime, the nodes from the newest to the oldest: every edge
+ * from an older to a newer node is dropped, without looking for cycles.
+ *
+ * Edges to nodes already in the graph before the bulk load are added
+ * afterwards, one at a time, with the usual cycle check.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+class W3CProvGraphBulkLoad {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final boolean orientByTime;
+
+    /* staged nodes by id, in order of arrival */
+    private final List<W3CProvGraphNode> nodes = new ArrayList<W3CProvGraphNode>();
+    private final Map<W3CProvGraphNode, Integer> ids = new IdentityHashMap<W3CProvGraphNode, Integer>();
+
+    /* edges between staged nodes, in order of arrival */
+    private int edgeCount = 0;
+    private int[] from = new int[MIN_CAPACITY];
+    private int[] to = new int[MIN_CAPACITY];
+    private W3CProvGraphEdge[] edges = new W3CProvGraphEdge[MIN_CAPACITY];
+
+    /* edges with an endpoint that was in the graph before the bulk load */
+    private final List<W3CProvGraphNode> deferredFrom = new ArrayList<W3CProvGraphNode>();
+    private final List<W3CProvGraphNode> deferredTo = new ArrayList<W3CProvGraphNode>();
+    private final List<W3CProvGraphEdge> deferred = new ArrayList<W3CProvGraphEdge>();
+
+    W3CProvGraphBulkLoad(boolean orientByTime) {
+        this.orientByTime = orientByTime;
+    }
+
+    void addNode(W3CProvGraphNode node) {
+        ids.put(node, nodes.size());
+        nodes.add(node);
+    }
+
+    void addEdge(W3CProvGraphNode source, W3CProvGraphNode target,
+            W3CProvGraphEdge edge) {
+        Integer s = ids.get(source);
+        Integer t = ids.get(target);
+        if (s == null || t == null) {
+            deferredFrom.add(source);
+            deferredTo.add(target);
+            deferred.add(edge);
+            return;
+        }
+        if (edgeCount == edges.length) {
+            int capacity = edges.length << 1;
+            from = Arrays.copyOf(from, capacity);
+            to = Arrays.copyOf(to, capacity);
+            edges = Arrays.copyOf(edges, capacity);
+        }
+        from[edgeCount] = s;
+        to[edgeCount] = t;
+        edges[edgeCount] = edge;
+        edgeCount++;
+    }
+
+    /**
+     * Insert the staged nodes and edges into the graph.
+     *
+     * @param graph
+     * @param g     the graph's DAG
+     * @return dropped edges
+     */
+    W3CProvCycleReport finish(W3CProvGraph graph,
+            DirectedAcyclicGraph<W3CProvGraphNode, W3CProvGraphEdge> g) {
+        int n = nodes.size();
+        W3CProvCycleReport report = new W3CProvCycleReport(orientByTime);
+
+        /* edges by source in order of arrival; later duplicates replace */
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < edgeCount; i++) {
+            offsets[from[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] order = new int[edgeCount];
+        int[] cursor = Arrays.copyOf(offsets, n);
+        for (int i = 0; i < edgeCount; i++) {
+            order[cursor[from[i]]++] = i;
+        }
+        int[] owner = cursor;
+        Arrays.fill(owner, -1);
+        int[] last = new int[n];
+        int w = 0;
+        int start = 0;
+        for (int v = 0; v < n; v++) {
+            int end = offsets[v + 1];
+            offsets[v] = w;
+            for (int p = start; p < end; p++) {
+                int t = to[order[p]];
+                if (owner[t] == v) {
+                    order[last[t]] = order[p];
+                    report.duplicate();
+                } else {
+                    owner[t] = v;
+                    last[t] = w;
+                    order[w++] = order[p];
+                }
+            }
+            start = end;
+        }
+        offsets[n] = w;
+        int[] targets = new int[w];
+        for (int p = 0; p < w; p++) {
+            targets[p] = to[order[p]];
+        }
+
+        /* rank of each node in an order where kept edges go forward */
+        long[] ts = new long[n];
+        for (int v = 0; v < n; v++) {
+            ts[v] = parseTs(nodes.get(v).getTs());
+        }
+        int[] rank = new int[n];
+        if (orientByTime) {
+            int[] all = new int[n];
+            for (int v = 0; v < n; v++) {
+                all[v] = v;
+            }
+            rankNewestFirst(all, 0, n, ts, rank, 0);
+        } else {
+            rankComponents(offsets, targets, ts, rank, report);
+        }
+
+        /* nodes in rank order, so every kept edge is inserted forward */
+        W3CProvGraphNode[] ranked = new W3CProvGraphNode[n];
+        for (int v = 0; v < n; v++) {
+            ranked[rank[v]] = nodes.get(v);
+        }
+        for (W3CProvGraphNode node : ranked) {
+            g.addVertex(node);
+        }
+        for (int v = 0; v < n; v++) {
+            for (int p = offsets[v]; p < offsets[v + 1]; p++) {
+                int e = order[p];
+                if (rank[v] < rank[targets[p]]) {
+                    g.addEdge(nodes.get(v), nodes.get(targets[p]), edges[e]);
+                } else {
+                    report.drop(nodes.get(v), nodes.get(targets[p]), edges[e]);
+                }
+            }
+        }
+
+        /* edges to nodes loaded before, with the usual checks */
+        for (int i = 0; i < deferred.size(); i++) {
+            graph.addEdge(deferredFrom.get(i), deferredTo.get(i),
+                    deferred.get(i));
+        }
+        /* the last edge between two nodes is kept, or dropped */
+        Map<W3CProvGraphNode, Set<W3CProvGraphNode>> seen = new IdentityHashMap<W3CProvGraphNode, Set<W3CProvGraphNode>>();
+        for (int i = deferred.size() - 1; i >= 0; i--) {
+            W3CProvGraphNode source = deferredFrom.get(i);
+            W3CProvGraphNode target = deferredTo.get(i);
+            if (!seen.computeIfAbsent(source,
+                    k -> Collections.newSetFromMap(
+                            new IdentityHashMap<W3CProvGraphNode, Boolean>()))
+                    .add(target)) {
+                report.duplicate();
+            } else if (g.getEdge(source, target) == null) {
+                report.drop(source, target, deferred.get(i));
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Rank nodes by strongly connected component, in topological order, and
+     * within a component from the newest to the oldest.
+     */
+    private void rankComponents(int[] offsets, int[] targets, long[] ts,
+            int[] rank, W3CProvCycleReport report) {
+        int n = nodes.size();
+        int[] component = new int[n];
+        int count = findComponents(offsets, targets, component);
+
+        /* components are numbered in reverse topological order */
+        int[] memberOffsets = new int[count + 1];
+        for (int v = 0; v < n; v++) {
+            memberOffsets[count - component[v]]++;
+        }
+        for (int c = 0; c < count; c++) {
+            memberOffsets[c + 1] += memberOffsets[c];
+        }
+        int[] members = new int[n];
+        int[] cursor = Arrays.copyOf(memberOffsets, count);
+        for (int v = 0; v < n; v++) {
+            members[cursor[count - 1 - component[v]]++] = v;
+        }
+        for (int c = 0; c < count; c++) {
+            int first = memberOffsets[c];
+            int size = memberOffsets[c + 1] - first;
+            if (size > 1) {
+                report.cycle();
+            }
+            rankNewestFirst(members, first, size, ts, rank, first);
+        }
+    }
+
+    /**
+     * Rank nodes from the newest to the oldest, nodes with the same timestamp
+     * from the last to arrive to the first; ranks start at base.
+     */
+    private static void rankNewestFirst(int[] ids, int first, int size,
+            long[] ts, int[] rank, int base) {
+        if (size == 1) {
+            rank[ids[first]] = base;
+            return;
+        }
+        boolean sorted = true;
+        for (int i = first + 1; i < first + size && sorted; i++) {
+            sorted = ts[ids[i - 1]] < ts[ids[i]] || (ts[ids[i - 1]] == ts[ids[i]]
+                    && ids[i - 1] < ids[i]);
+        }
+        if (sorted) {
+            /* records usually arrive in time order */
+            for (int i = 0; i < size; i++) {
+                rank[ids[first + i]] = base + size - 1 - i;
+            }
+            return;
+        }
+        Integer[] boxed = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            boxed[i] = ids[first + i];
+        }
+        Arrays.sort(boxed, (a, b) -> ts[a] != ts[b] ? Long.compare(ts[b], ts[a])
+                : Integer.compare(b, a));
+        for (int i = 0; i < size; i++) {
+            rank[boxed[i]] = base + i;
+        }
+    }
+
+    /**
+     * Find strongly connected components (Tarjan's algorithm, iteratively),
+     * numbered in reverse topological order.
+     *
+     * @return number of components
+     */
+    private static int findComponents(int[] offsets, int[] targets,
+            int[] component) {
+        int n = component.length;
+        int[] index = new int[n];
+        int[] low = new int[n];
+        int[] next = new int[n];
+        int[] call = new int[n];
+        int[] stack = new int[n];
+        BitSet onStack = new BitSet(n);
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int count = 0;
+        int sp = 0;
+        for (int s = 0; s < n; s++) {
+            if (index[s] >= 0) {
+                continue;
+            }
+            int top = 0;
+            call[0] = s;
+            index[s] = low[s] = counter++;
+            next[s] = offsets[s];
+            stack[sp++] = s;
+            onStack.set(s);
+            while (top >= 0) {
+                int v = call[top];
+                if (next[v] < offsets[v + 1]) {
+                    int w = targets[next[v]++];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        next[w] = offsets[w];
+                        stack[sp++] = w;
+                        onStack.set(w);
+                        call[++top] = w;
+                    } else if (onStack.get(w)) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack.clear(w);
+                        component[w] = count;
+                    } while (w != v);
+                    count++;
+                }
+                if (--top >= 0) {
+                    int u = call[top];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long parseTs(String ts) {
+        try {
+            return Long.parseLong(ts);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+}
@@ -0,0 +1,651 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming export of a W3CProvCompactGraph, or of part of it (e.g., the
+ * result of a backwardForwardTrace()), to files.
+ *
+ * Nodes and edges are written as they are visited, through buffered file
+ * channels, so the output is never held in memory. Three formats are
+ * supported:
+ *
+ * - DOT, with the labels and styles of W3CProvGraph.generateDot(), for
+ * graphviz.
+ *
+ * - GraphML, with node type, value and time and edge type and time as data,
+ * for graph tools (e.g., Gephi, NetworkX).
+ *
+ * - Columns: a directory with one file per column of a nodes table (id, type,
+ * ts, uuid, value) and an edges table (source, target, type, ts), for loading
+ * into data frames. Numeric columns are little-endian int8, int32 or int64
+ * arrays (e.g., numpy.fromfile(path, "<i4")); string columns have one value
+ * per line, with newlines and backslashes escaped. Type codes are listed in
+ * node-types and edge-types. Node ids are those of the graph, also when only
+ * part of the graph is exported.
+ *
+ * Graphs too large to render or load at once can be paged (see writePages()):
+ * nodes are split into clusters of connected nodes of bounded size, each
+ * written to its own file. Each edge is written with the cluster of the node
+ * it comes from; in DOT and GraphML, nodes of other clusters it leads to are
+ * written as external nodes (dashed in DOT), so every file stands alone.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphExporter {
+
+    public enum Format {
+        DOT(".dot"), GRAPHML(".graphml"), COLUMNS("");
+
+        private final String extension;
+
+        private Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final String[] GRAPH_ATTRIBUTES = { "ratio=compress",
+            "nodesep=0.2", "ranksep=1", "margin=0", "rankdir=BT" };
+
+    private final W3CProvCompactGraph graph;
+
+    public W3CProvGraphExporter(W3CProvCompactGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Nodes of a backward-forward trace: the node, its ancestors and their
+     * descendants.
+     *
+     * @param node   traced node id
+     * @param traced result of backwardForwardTrace(node)
+     * @return node ids
+     */
+    public static BitSet nodesOf(int node, Map<Integer, BitSet> traced) {
+        BitSet nodes = new BitSet();
+        nodes.set(node);
+        for (Map.Entry<Integer, BitSet> entry : traced.entrySet()) {
+            nodes.set(entry.getKey());
+            nodes.or(entry.getValue());
+        }
+        return nodes;
+    }
+
+    /**
+     * Export the whole graph.
+     *
+     * @param format
+     * @param path   file, or directory for columns
+     * @throws IOException
+     */
+    public void write(Format format, Path path) throws IOException {
+        write(format, path, graph.getNodes());
+    }
+
+    /**
+     * Export the subgraph induced by some nodes.
+     *
+     * @param format
+     * @param path   file, or directory for columns
+     * @param nodes  node ids
+     * @throws IOException
+     */
+    public void write(Format format, Path path, BitSet nodes)
+            throws IOException {
+        graph.build();
+        write(format, path, nodes, nodes);
+    }
+
+    /**
+     * Export the subgraph induced by some nodes in pages of at most maxNodes
+     * nodes of connected nodes, named prov-graph-00000 and so on (with the
+     * extension of the format) in a directory.
+     *
+     * @param format
+     * @param directory
+     * @param nodes     node ids
+     * @param maxNodes  maximum number of nodes per page, external nodes aside
+     * @return the files (or directories for columns) written, in order
+     * @throws IOException
+     */
+    public List<Path> writePages(Format format, Path directory, BitSet nodes,
+            int maxNodes) throws IOException {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("Pages need at least one node");
+        }
+        graph.build();
+        int[] pages = new int[graph.getNodeCount()];
+        int pageCount = paginate(nodes, maxNodes, pages);
+
+        /* nodes of page p are members[offsets[p] to [p+1]], in id order */
+        int[] offsets = new int[pageCount + 1];
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                .nextSetBit(v + 1)) {
+            offsets[pages[v] + 1]++;
+        }
+        for (int p = 0; p < pageCount; p++) {
+            offsets[p + 1] += offsets[p];
+        }
+        int[] members = new int[offsets[pageCount]];
+        int[] cursor = new int[pageCount];
+        System.arraycopy(offsets, 0, cursor, 0, pageCount);
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                .nextSetBit(v + 1)) {
+            members[cursor[pages[v]]++] = v;
+        }
+
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<Path>(pageCount);
+        BitSet page = new BitSet(graph.getNodeCount());
+        for (int p = 0; p < pageCount; p++) {
+            page.clear();
+            for (int i = offsets[p]; i < offsets[p + 1]; i++) {
+                page.set(members[i]);
+            }
+            Path file = directory.resolve(String.format("prov-graph-%05d%s", p,
+                    format.getExtension()));
+            write(format, file, page, nodes);
+            files.add(file);
+        }
+        return files;
+    }
+
+    /**
+     * Stream a W3CProvGraph to a DOT file without copying it.
+     *
+     * @param graph
+     * @param file
+     * @throws IOException
+     */
+    static void writeDot(W3CProvGraph graph, Path file) throws IOException {
+        try (Writer out = openText(file)) {
+            dotHeader(out);
+            for (W3CProvGraphNode node : graph.getNodes()) {
+                dotNode(out, node.getUuid(), node.getType(), node.getValue(),
+                        node.getTs(), false);
+            }
+            for (W3CProvGraphEdge edge : graph.getEdges()) {
+                dotEdge(out, graph.getEdgeSource(edge).getUuid(),
+                        graph.getEdgeTarget(edge).getUuid(), edge.getType());
+            }
+            out.write("}\n");
+        }
+    }
+
+    /**
+     * Write the nodes of a set with their outgoing edges to nodes of a scope;
+     * targets in the scope but not in the set are external nodes.
+     */
+    private void write(Format format, Path path, BitSet nodes, BitSet scope)
+            throws IOException {
+        switch (format) {
+        case DOT:
+            writeDot(path, nodes, scope);
+            break;
+        case GRAPHML:
+            writeGraphML(path, nodes, scope);
+            break;
+        case COLUMNS:
+            writeColumns(path, nodes, scope);
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown format " + format);
+        }
+    }
+
+    private void writeDot(Path file, BitSet nodes, BitSet scope)
+            throws IOException {
+        BitSet external = externalNodes(nodes, scope);
+        try (Writer out = openText(file)) {
+            dotHeader(out);
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                dotNode(out, graph.getUuid(v), graph.getType(v),
+                        graph.getValue(v), String.valueOf(graph.getTs(v)),
+                        false);
+            }
+            for (int v = external.nextSetBit(0); v >= 0; v = external
+                    .nextSetBit(v + 1)) {
+                dotNode(out, graph.getUuid(v), graph.getType(v),
+                        graph.getValue(v), String.valueOf(graph.getTs(v)),
+                        true);
+            }
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                String uuid = graph.getUuid(v);
+                for (int e = graph.firstOutEdge(v); e < graph
+                        .firstOutEdge(v + 1); e++) {
+                    int target = graph.getEdgeTarget(e);
+                    if (scope.get(target)) {
+                        dotEdge(out, uuid, graph.getUuid(target),
+                                graph.getEdgeType(e));
+                    }
+                }
+            }
+            out.write("}\n");
+        }
+    }
+
+    private void writeGraphML(Path file, BitSet nodes, BitSet scope)
+            throws IOException {
+        BitSet external = externalNodes(nodes, scope);
+        try (Writer out = openText(file)) {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            out.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n");
+            out.write("  <key id=\"type\" for=\"node\" attr.name=\"type\" attr.type=\"string\"/>\n");
+            out.write("  <key id=\"value\" for=\"node\" attr.name=\"value\" attr.type=\"string\"/>\n");
+            out.write("  <key id=\"ts\" for=\"node\" attr.name=\"ts\" attr.type=\"long\"/>\n");
+            out.write("  <key id=\"external\" for=\"node\" attr.name=\"external\" attr.type=\"boolean\">\n");
+            out.write("    <default>false</default>\n");
+            out.write("  </key>\n");
+            out.write("  <key id=\"etype\" for=\"edge\" attr.name=\"type\" attr.type=\"string\"/>\n");
+            out.write("  <key id=\"ets\" for=\"edge\" attr.name=\"ts\" attr.type=\"long\"/>\n");
+            out.write("  <graph id=\"prov\" edgedefault=\"directed\">\n");
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                graphMLNode(out, v, false);
+            }
+            for (int v = external.nextSetBit(0); v >= 0; v = external
+                    .nextSetBit(v + 1)) {
+                graphMLNode(out, v, true);
+            }
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                String uuid = xml(graph.getUuid(v));
+                for (int e = graph.firstOutEdge(v); e < graph
+                        .firstOutEdge(v + 1); e++) {
+                    int target = graph.getEdgeTarget(e);
+                    if (!scope.get(target)) {
+                        continue;
+                    }
+                    out.write("    <edge source=\"");
+                    out.write(uuid);
+                    out.write("\" target=\"");
+                    out.write(xml(graph.getUuid(target)));
+                    out.write("\"><data key=\"etype\">");
+                    out.write(xml(graph.getEdgeType(e)));
+                    out.write("</data><data key=\"ets\">");
+                    out.write(Long.toString(graph.getEdgeTs(e)));
+                    out.write("</data></edge>\n");
+                }
+            }
+            out.write("  </graph>\n");
+            out.write("</graphml>\n");
+        }
+    }
+
+    private void graphMLNode(Writer out, int v, boolean external)
+            throws IOException {
+        out.write("    <node id=\"");
+        out.write(xml(graph.getUuid(v)));
+        out.write("\"><data key=\"type\">");
+        out.write(graph.getType(v));
+        out.write("</data><data key=\"value\">");
+        out.write(xml(graph.getValue(v)));
+        out.write("</data><data key=\"ts\">");
+        out.write(Long.toString(graph.getTs(v)));
+        if (external) {
+            out.write("</data><data key=\"external\">true");
+        }
+        out.write("</data></node>\n");
+    }
+
+    /**
+     * Write the node and edge tables; edges lead to nodes of the scope, which
+     * may be in other pages.
+     */
+    private void writeColumns(Path directory, BitSet nodes, BitSet scope)
+            throws IOException {
+        Files.createDirectories(directory);
+        try (Writer types = openText(directory.resolve("node-types"))) {
+            for (byte code = W3CProvCompactGraph.AGENT; code <= W3CProvCompactGraph.ENTITY; code++) {
+                types.write(W3CProvCompactGraph.typeName(code));
+                types.write('\n');
+            }
+        }
+        try (Writer types = openText(directory.resolve("edge-types"))) {
+            for (String type : graph.edgeTypes()) {
+                types.write(type);
+                types.write('\n');
+            }
+        }
+        try (ColumnWriter ids = new ColumnWriter(directory.resolve("nodes.id"));
+                ColumnWriter types = new ColumnWriter(
+                        directory.resolve("nodes.type"));
+                ColumnWriter ts = new ColumnWriter(
+                        directory.resolve("nodes.ts"));
+                Writer uuids = openText(directory.resolve("nodes.uuid"));
+                Writer values = openText(directory.resolve("nodes.value"))) {
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                ids.putInt(v);
+                types.putByte(graph.getTypeCode(v));
+                ts.putLong(graph.getTs(v));
+                writeLine(uuids, graph.getUuid(v));
+                writeLine(values, graph.getValue(v));
+            }
+        }
+        int[] outTargets = graph.outTargets();
+        byte[] outTypes = graph.outTypes();
+        try (ColumnWriter sources = new ColumnWriter(
+                directory.resolve("edges.source"));
+                ColumnWriter targets = new ColumnWriter(
+                        directory.resolve("edges.target"));
+                ColumnWriter types = new ColumnWriter(
+                        directory.resolve("edges.type"));
+                ColumnWriter ts = new ColumnWriter(
+                        directory.resolve("edges.ts"))) {
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                for (int e = graph.firstOutEdge(v); e < graph
+                        .firstOutEdge(v + 1); e++) {
+                    if (scope.get(outTargets[e])) {
+                        sources.putInt(v);
+                        targets.putInt(outTargets[e]);
+                        types.putByte(outTypes[e]);
+                        ts.putLong(graph.getEdgeTs(e));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Targets of edges from a set of nodes that are in the scope but not in
+     * the set.
+     */
+    private BitSet externalNodes(BitSet nodes, BitSet scope) {
+        BitSet external = new BitSet();
+        if (nodes == scope) {
+            return external;
+        }
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                .nextSetBit(v + 1)) {
+            for (int e = graph.firstOutEdge(v); e < graph
+                    .firstOutEdge(v + 1); e++) {
+                int target = graph.getEdgeTarget(e);
+                if (scope.get(target) && !nodes.get(target)) {
+                    external.set(target);
+                }
+            }
+        }
+        return external;
+    }
+
+    /**
+     * Assign nodes to pages of at most maxNodes nodes, filling pages in
+     * breadth-first order over edges of either direction, so each page holds
+     * connected nodes and a connected component spans consecutive pages.
+     *
+     * @return number of pages
+     */
+    private int paginate(BitSet nodes, int maxNodes, int[] pages) {
+        int[] outOffsets = graph.outOffsets();
+        int[] outTargets = graph.outTargets();
+        int[] inOffsets = graph.inOffsets();
+        int[] inSources = graph.inSources();
+        BitSet visited = new BitSet(pages.length);
+        int[] queue = new int[nodes.cardinality()];
+        int tail = 0;
+        int page = -1;
+        int filled = maxNodes;
+        for (int root = nodes.nextSetBit(0); root >= 0; root = nodes
+                .nextSetBit(root + 1)) {
+            if (visited.get(root)) {
+                continue;
+            }
+            int head = tail;
+            visited.set(root);
+            queue[tail++] = root;
+            while (head < tail) {
+                int v = queue[head++];
+                if (filled == maxNodes) {
+                    page++;
+                    filled = 0;
+                }
+                pages[v] = page;
+                filled++;
+                for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                    int w = outTargets[e];
+                    if (nodes.get(w) && !visited.get(w)) {
+                        visited.set(w);
+                        queue[tail++] = w;
+                    }
+                }
+                for (int e = inOffsets[v]; e < inOffsets[v + 1]; e++) {
+                    int w = inSources[e];
+                    if (nodes.get(w) && !visited.get(w)) {
+                        visited.set(w);
+                        queue[tail++] = w;
+                    }
+                }
+            }
+        }
+        return page + 1;
+    }
+
+    private static Writer openText(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(
+                Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(),
+                        BUFFER_SIZE),
+                BUFFER_SIZE);
+    }
+
+    private static void dotHeader(Writer out) throws IOException {
+        out.write("digraph G {\n");
+        for (String attribute : GRAPH_ATTRIBUTES) {
+            out.write("  ");
+            out.write(attribute);
+            out.write(";\n");
+        }
+    }
+
+    private static void dotNode(Writer out, String uuid, String type,
+            String value, String ts, boolean external) throws IOException {
+        String label;
+        String shape;
+        String color;
+        if (type.equals("activity")) {
+            label = value.replace("$", "\n") + "\nts=" + ts;
+            shape = "box";
+            color = "lightsteelblue1";
+        } else if (type.equals("entity")) {
+            label = value.replace(",", "\n") + "\nts=" + ts;
+            shape = "ellipse";
+            color = "khaki1";
+        } else {
+            label = value;
+            shape = "house";
+            color = "rosybrown1";
+        }
+        out.write("  ");
+        out.write(dotId(uuid));
+        out.write(" [ label=\"");
+        out.write(dot(label));
+        out.write(external ? "\" style=\"filled,dashed\"" : "\" style=\"filled\"");
+        out.write(" penwidth=\"1\" fontsize=\"12\" shape=\"");
+        out.write(shape);
+        out.write("\" fillcolor=\"");
+        out.write(color);
+        out.write("\" ];\n");
+    }
+
+    private static void dotEdge(Writer out, String from, String to,
+            String type) throws IOException {
+        out.write("  ");
+        out.write(dotId(from));
+        out.write(" -> ");
+        out.write(dotId(to));
+        out.write(" [ label=\"");
+        out.write(dot(type));
+        out.write("\" fontsize=\"12\" ];\n");
+    }
+
+    /**
+     * DOT id of a node: "node" and its UUID without dashes, or its name for
+     * named nodes, quoted.
+     */
+    private static String dotId(String uuid) {
+        return "\"node" + dot(uuid.replace("-", "")) + "\"";
+    }
+
+    /**
+     * Escape a DOT quoted string; newlines become centered line breaks.
+     */
+    private static String dot(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escaped;
+            if (c == '"') {
+                escaped = "\\\"";
+            } else if (c == '\\') {
+                escaped = "\\\\";
+            } else if (c == '\n') {
+                escaped = "\\n";
+            } else if (c == '\r') {
+                escaped = "";
+            } else {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(s.length() + 16).append(s, 0, i);
+            }
+            sb.append(escaped);
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    /**
+     * Escape XML character data, dropping characters XML cannot represent.
+     * Carriage returns are written as character references so they survive
+     * parsing.
+     */
+    private static String xml(String s) {
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escaped;
+            if (c == '&') {
+                escaped = "&amp;";
+            } else if (c == '<') {
+                escaped = "&lt;";
+            } else if (c == '>') {
+                escaped = "&gt;";
+            } else if (c == '"') {
+                escaped = "&quot;";
+            } else if (c == '\r') {
+                /* parsers would normalize a literal CR to a newline */
+                escaped = "&#13;";
+            } else if (c < 0x20 && c != '\t' && c != '\n') {
+                escaped = "";
+            } else {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(s.length() + 16).append(s, 0, i);
+            }
+            sb.append(escaped);
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    /**
+     * Write a value of a string column on one line.
+     */
+    private static void writeLine(Writer out, String value)
+            throws IOException {
+        if (value.indexOf('\n') >= 0 || value.indexOf('\\') >= 0
+                || value.indexOf('\r') >= 0) {
+            value = value.replace("\\", "\\\\").replace("\n", "\\n")
+                    .replace("\r", "\\r");
+        }
+        out.write(value);
+        out.write('\n');
+    }
+
+    /**
+     * Little-endian column of fixed-size values, written through a buffer to
+     * a file channel.
+     */
+    private static final class ColumnWriter implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        private ColumnWriter(Path file) throws IOException {
+            this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE);
+        }
+
+        private void putByte(byte value) throws IOException {
+            ensure(Byte.BYTES);
+            buffer.put(value);
+        }
+
+        private void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        private void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,315 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of provenance graph nodes by UUID.
+ *
+ * UUIDs in canonical form (e.g., "123e4567-e89b-12d3-a456-426655440000") are
+ * kept as their two longs in an open-addressing hash table with linear
+ * probing, so that lookups neither allocate nor compare strings, and an
+ * indexed node costs two longs and one reference rather than a hash map entry.
+ * Other identifiers (e.g., the names of agents) are kept in a hash map.
+ *
+ * Not thread-safe, like W3CProvGraph.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphNodeIndex {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 29;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* msb and lsb of the UUID of the node in each slot */
+    private long[] keys;
+    private W3CProvGraphNode[] nodes;
+    private int mask;
+    private int size = 0;
+    private int threshold;
+
+    private final Map<String, W3CProvGraphNode> others = new HashMap<String, W3CProvGraphNode>();
+
+    /* UUID parsed by the last call to parse() */
+    private final long[] parsed = new long[2];
+    private long msb;
+    private long lsb;
+
+    public W3CProvGraphNodeIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Create an index sized for an expected number of nodes.
+     *
+     * @param expectedSize
+     */
+    public W3CProvGraphNodeIndex(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    /**
+     * Get a node by UUID.
+     *
+     * @param uuid
+     * @return node or null
+     */
+    public W3CProvGraphNode get(String uuid) {
+        if (!parse(uuid)) {
+            return others.get(uuid);
+        }
+        for (int slot = slotOf(msb, lsb);; slot = (slot + 1) & mask) {
+            W3CProvGraphNode node = nodes[slot];
+            if (node == null) {
+                return null;
+            }
+            if (keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Add a node unless a node with the same UUID is already indexed.
+     *
+     * @param node
+     * @return the node already indexed, or null if the node was added
+     */
+    public W3CProvGraphNode putIfAbsent(W3CProvGraphNode node) {
+        String uuid = node.getUuid();
+        if (!parse(uuid)) {
+            W3CProvGraphNode existing = others.get(uuid);
+            if (existing == null) {
+                others.put(uuid, node);
+            }
+            return existing;
+        }
+        int slot = slotOf(msb, lsb);
+        for (; nodes[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                return nodes[slot];
+            }
+        }
+        keys[2 * slot] = msb;
+        keys[2 * slot + 1] = lsb;
+        nodes[slot] = node;
+        if (++size > threshold) {
+            grow();
+        }
+        return null;
+    }
+
+    /**
+     * Remove a node by UUID.
+     *
+     * @param uuid
+     * @return removed node or null
+     */
+    public W3CProvGraphNode remove(String uuid) {
+        if (!parse(uuid)) {
+            return others.remove(uuid);
+        }
+        int slot = slotOf(msb, lsb);
+        for (; nodes[slot] != null; slot = (slot + 1) & mask) {
+            if (keys[2 * slot] == msb && keys[2 * slot + 1] == lsb) {
+                W3CProvGraphNode removed = nodes[slot];
+                shiftBack(slot);
+                size--;
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Number of indexed nodes.
+     *
+     * @return count
+     */
+    public int size() {
+        return size + others.size();
+    }
+
+    /**
+     * Remove all nodes.
+     */
+    public void clear() {
+        Arrays.fill(nodes, null);
+        size = 0;
+        others.clear();
+    }
+
+    /**
+     * Close the gap left by a removed node, moving back later nodes of the
+     * same probe sequence (so no tombstones are needed).
+     *
+     * @param gap slot of the removed node
+     */
+    private void shiftBack(int gap) {
+        int slot = gap;
+        for (;;) {
+            slot = (slot + 1) & mask;
+            W3CProvGraphNode node = nodes[slot];
+            if (node == null) {
+                break;
+            }
+            int home = slotOf(keys[2 * slot], keys[2 * slot + 1]);
+            /* move the node if its home slot is not between gap and slot */
+            if (((slot - home) & mask) >= ((slot - gap) & mask)) {
+                keys[2 * gap] = keys[2 * slot];
+                keys[2 * gap + 1] = keys[2 * slot + 1];
+                nodes[gap] = node;
+                gap = slot;
+            }
+        }
+        nodes[gap] = null;
+    }
+
+    private void grow() {
+        if (nodes.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Node index is full");
+        }
+        long[] oldKeys = keys;
+        W3CProvGraphNode[] oldNodes = nodes;
+        allocate(oldNodes.length << 1);
+        for (int i = 0; i < oldNodes.length; i++) {
+            if (oldNodes[i] == null) {
+                continue;
+            }
+            long m = oldKeys[2 * i];
+            long l = oldKeys[2 * i + 1];
+            int slot = slotOf(m, l);
+            while (nodes[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            keys[2 * slot] = m;
+            keys[2 * slot + 1] = l;
+            nodes[slot] = oldNodes[i];
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[2 * capacity];
+        nodes = new W3CProvGraphNode[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long needed = (long) Math.ceil(expectedSize / (double) LOAD_FACTOR) + 1;
+        int capacity = MIN_CAPACITY;
+        while (capacity < needed && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private int slotOf(long m, long l) {
+        return hashOf(m, l) & mask;
+    }
+
+    /**
+     * Hash of a UUID given as its two longs.
+     *
+     * @param m msb
+     * @param l lsb
+     * @return hash
+     */
+    static int hashOf(long m, long l) {
+        long h = m * 0x9e3779b97f4a7c15L ^ l;
+        h = (h ^ (h >>> 33)) * 0xff51afd7ed558ccdL;
+        return (int) (h ^ (h >>> 33));
+    }
+
+    /**
+     * Parse a UUID in canonical form into msb and lsb.
+     *
+     * @param uuid
+     * @return false if the string is not a canonical UUID
+     */
+    private boolean parse(String uuid) {
+        if (!parse(uuid, parsed)) {
+            return false;
+        }
+        msb = parsed[0];
+        lsb = parsed[1];
+        return true;
+    }
+
+    /**
+     * Parse a UUID in canonical form into its two longs.
+     *
+     * @param uuid
+     * @param bits receives msb and lsb
+     * @return false if the string is not a canonical UUID
+     */
+    static boolean parse(String uuid, long[] bits) {
+        if (!isCanonical(uuid)) {
+            return false;
+        }
+        bits[0] = msbOf(uuid);
+        bits[1] = lsbOf(uuid);
+        return true;
+    }
+
+    /**
+     * Whether a string is a UUID in canonical form, as written by
+     * UUID.toString(): lower-case hex digits in groups of 8-4-4-4-12.
+     *
+     * @param uuid
+     * @return true if canonical
+     */
+    static boolean isCanonical(String uuid) {
+        if (uuid == null || uuid.length() != 36 || uuid.charAt(8) != '-'
+                || uuid.charAt(13) != '-' || uuid.charAt(18) != '-'
+                || uuid.charAt(23) != '-') {
+            return false;
+        }
+        for (int i = 0; i < 36; i++) {
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                continue;
+            }
+            char c = uuid.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Most significant bits of a canonical UUID (see isCanonical()).
+     *
+     * @param uuid
+     * @return msb
+     */
+    static long msbOf(String uuid) {
+        return hex(uuid, 0, 19);
+    }
+
+    /**
+     * Least significant bits of a canonical UUID (see isCanonical()).
+     *
+     * @param uuid
+     * @return lsb
+     */
+    static long lsbOf(String uuid) {
+        return hex(uuid, 19, 36);
+    }
+
+    /* value of the hex digits of s from begin to end, skipping dashes */
+    private static long hex(String s, int begin, int end) {
+        long bits = 0;
+        for (int i = begin; i < end; i++) {
+            char c = s.charAt(i);
+            if (c != '-') {
+                bits = (bits << 4) | (c <= '9' ? c - '0' : c - 'a' + 10);
+            }
+        }
+        return bits;
+    }
+
+}
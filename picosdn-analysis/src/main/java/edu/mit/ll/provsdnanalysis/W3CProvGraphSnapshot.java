@@ -0,0 +1,699 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Snapshot of a W3CProvCompactGraph in a file, reloaded without parsing the
+ * provenance log again.
+ *
+ * The base of a snapshot is the graph's arrays as they are in memory: the node
+ * table, the UUID index, the outgoing and incoming CSR edge arrays, and the
+ * value dictionary with its hash table. Opening a snapshot maps these sections
+ * and copies them into the arrays of a new graph in bulk, with no parsing,
+ * hashing, deduplication or cycle checks, so the graph can be queried as soon
+ * as it is opened. Indexes built on the graph (e.g., W3CProvAttributeIndex) are
+ * not part of the snapshot.
+ *
+ * Records newer than the snapshot can be appended to it (see update()). The
+ * snapshot keeps the position reached in each segment of the log (see
+ * ProvLogPositions), rather than a timestamp, so records a cluster node
+ * appends are new even if its clock is behind the other nodes'. The new nodes
+ * and relations are appended to the file as a delta block, checksummed like
+ * log records, together with the new positions; once the block is written,
+ * they are added to the graph. Reopening replays the deltas on top of the
+ * base. Appended records are not preprocessed (e.g., no agency is added), and
+ * relations to nodes that are not in the graph (e.g., removed by
+ * preprocessing) are dropped. compact() rewrites the base to include the
+ * deltas.
+ *
+ * A snapshot file starts with a header (magic, version, timestamp of the last
+ * record of the base, and offset of the first delta block); the base ends
+ * with the positions in the log. All numbers are big-endian. A delta block
+ * whose checksum does not match (e.g., one being appended when the analysis
+ * stopped) ends the snapshot, and is overwritten by the next update.
+ *
+ * Usage: W3CProvGraphSnapshot snapshot [-p] [log]: opens the snapshot and
+ * appends the newer records of the log, or creates the snapshot from the log
+ * if there is none yet (after preprocessing the graph with -p).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphSnapshot {
+
+    public static final int MAGIC = 0x50534e50; // "PSNP"
+    public static final short VERSION = 2;
+    public static final int HEADER_SIZE = 24;
+    public static final int DELTA_MAGIC = 0x50444c54; // "PDLT"
+    public static final int DELTA_HEADER_SIZE = 12;
+
+    private static final byte DELTA_NODE = 1;
+    private static final byte DELTA_RELATION = 2;
+
+    /* bytes mapped or buffered at once */
+    private static final int WINDOW_SIZE = 1 << 26;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final W3CProvCompactGraph graph;
+    /* timestamp of the last record in the snapshot */
+    private long lastTs;
+    /* positions in the log of the records in the snapshot */
+    private ProvLogPositions positions;
+    /* end of the last valid delta block, where the next one goes */
+    private long end;
+    private int deltas = 0;
+    private boolean torn = false;
+    private long appendedRecords = 0;
+    private long droppedRelations = 0;
+
+    private W3CProvGraphSnapshot(Path file, W3CProvCompactGraph graph,
+            long lastTs, ProvLogPositions positions, long end) {
+        this.file = file;
+        this.graph = graph;
+        this.lastTs = lastTs;
+        this.positions = positions;
+        this.end = end;
+    }
+
+    /**
+     * Write a graph that was not loaded from a log to a new snapshot; every
+     * record of a log appended later is taken as new.
+     *
+     * @param file
+     * @param graph
+     * @param lastTs timestamp of the last record in the graph
+     * @return snapshot
+     * @throws IOException
+     */
+    public static W3CProvGraphSnapshot create(Path file,
+            W3CProvCompactGraph graph, long lastTs) throws IOException {
+        return create(file, graph, lastTs, new ProvLogPositions());
+    }
+
+    /**
+     * Write a graph to a new snapshot, replacing any existing file at once.
+     *
+     * @param file
+     * @param graph
+     * @param lastTs    timestamp of the last log record in the graph (see
+     *                  ProvGraphLoader.getLastTs())
+     * @param positions positions reached in the log the graph was loaded from
+     *                  (see ProvGraphLoader.getPositions())
+     * @return snapshot
+     * @throws IOException
+     */
+    public static W3CProvGraphSnapshot create(Path file,
+            W3CProvCompactGraph graph, long lastTs, ProvLogPositions positions)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long baseEnd;
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            Output out = new Output(channel);
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putShort((short) 0);
+            out.putLong(lastTs);
+            out.putLong(0);
+            graph.save(out);
+            Map<String, Long> map = positions.toMap();
+            out.putInt(map.size());
+            for (Map.Entry<String, Long> entry : map.entrySet()) {
+                out.putString(entry.getKey());
+                out.putLong(entry.getValue());
+            }
+            out.flush();
+            baseEnd = channel.position();
+            ByteBuffer offset = ByteBuffer.allocate(Long.BYTES);
+            offset.putLong(baseEnd).flip();
+            channel.write(offset, HEADER_SIZE - Long.BYTES);
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return new W3CProvGraphSnapshot(file, graph, lastTs,
+                new ProvLogPositions(positions), baseEnd);
+    }
+
+    /**
+     * Open a snapshot: load its base and replay its delta blocks.
+     *
+     * @param file
+     * @return snapshot
+     * @throws IOException
+     */
+    public static W3CProvGraphSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ)) {
+            Input in = new Input(channel);
+            if (channel.size() < HEADER_SIZE || in.getInt() != MAGIC) {
+                throw new IOException(file + " is not a provenance snapshot");
+            }
+            short version = in.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            in.getShort();
+            long lastTs = in.getLong();
+            long baseEnd = in.getLong();
+            W3CProvCompactGraph graph = W3CProvCompactGraph.load(in);
+            ProvLogPositions positions = new ProvLogPositions();
+            for (int i = in.getInt(); i > 0; i--) {
+                String key = in.getString();
+                positions.put(key, in.getLong());
+            }
+            if (in.position() != baseEnd) {
+                throw new IOException("Corrupt snapshot base in " + file);
+            }
+            W3CProvGraphSnapshot snapshot = new W3CProvGraphSnapshot(file,
+                    graph, lastTs, positions, baseEnd);
+            snapshot.replayDeltas(channel);
+            graph.build();
+            return snapshot;
+        }
+    }
+
+    public W3CProvCompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Timestamp of the last log record in the snapshot.
+     *
+     * @return hybrid logical clock timestamp
+     */
+    public long getLastTs() {
+        return lastTs;
+    }
+
+    /**
+     * Positions in the log of the records in the snapshot.
+     *
+     * @return positions
+     */
+    public ProvLogPositions getPositions() {
+        return positions;
+    }
+
+    /**
+     * Number of delta blocks appended since the base was written.
+     *
+     * @return count
+     */
+    public int getDeltas() {
+        return deltas;
+    }
+
+    /**
+     * Append the records of a log (a binary segment file, a JSON log file, or
+     * a log directory) after the positions of the snapshot to the snapshot
+     * and then to the graph.
+     *
+     * @param path
+     * @return number of nodes and relations appended
+     * @throws IOException
+     */
+    public long update(File path) throws IOException {
+        ProvLogPositions advanced = new ProvLogPositions(positions);
+        Delta delta = new Delta();
+        ProvLogVisitor visitor = advanced.newRecords(delta);
+        if (path.isDirectory()) {
+            new ProvLogReader().read(path, visitor);
+            new ProvJsonLogReader().read(path, visitor);
+        } else if (ProvGraphLoader.isBinarySegment(path)) {
+            new ProvLogReader().read(path, visitor);
+        } else {
+            new ProvJsonLogReader().read(path, visitor);
+        }
+        if (advanced.getNewRecords() == 0) {
+            return 0;
+        }
+        /* the delta is durable before the graph changes */
+        ByteBuffer payload = delta.toPayload(advanced);
+        append(payload);
+        positions = advanced;
+        replay(payload);
+        graph.build();
+        return delta.records;
+    }
+
+    /**
+     * Rewrite the snapshot with the deltas merged into its base.
+     *
+     * @throws IOException
+     */
+    public void compact() throws IOException {
+        end = create(file, graph, lastTs, positions).end;
+        deltas = 0;
+        torn = false;
+    }
+
+    /**
+     * Display information about the snapshot.
+     */
+    public void pp() {
+        System.out.printf("Snapshot: %s (%s bytes)\n", file, end);
+        System.out.printf("Last record: %s\n", lastTs);
+        System.out.printf("Number of delta blocks: %s%s\n", deltas,
+                torn ? " (torn block dropped)" : "");
+        System.out.printf("Number of appended records: %s\n", appendedRecords);
+        System.out.printf("Number of dropped relations: %s\n",
+                droppedRelations);
+    }
+
+    /**
+     * Replay the valid delta blocks after the base, stopping at the first
+     * torn or corrupt block.
+     */
+    private void replayDeltas(FileChannel channel) throws IOException {
+        long size = channel.size();
+        CRC32 crc = new CRC32();
+        ByteBuffer header = ByteBuffer.allocate(DELTA_HEADER_SIZE);
+        while (end < size) {
+            header.clear();
+            if (size - end < DELTA_HEADER_SIZE
+                    || channel.read(header, end) < DELTA_HEADER_SIZE) {
+                torn = true;
+                return;
+            }
+            int length = header.getInt(4);
+            if (header.getInt(0) != DELTA_MAGIC || length < 0
+                    || size - end - DELTA_HEADER_SIZE < length) {
+                torn = true;
+                return;
+            }
+            ByteBuffer payload = channel.map(FileChannel.MapMode.READ_ONLY,
+                    end + DELTA_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != header.getInt(8)) {
+                torn = true;
+                return;
+            }
+            replay(payload);
+            end += DELTA_HEADER_SIZE + length;
+            deltas++;
+        }
+    }
+
+    private void replay(ByteBuffer payload) {
+        lastTs = Math.max(lastTs, payload.getLong());
+        for (int i = payload.getInt(); i > 0; i--) {
+            String key = getString(payload);
+            positions.put(key, payload.getLong());
+        }
+        while (payload.hasRemaining()) {
+            byte kind = payload.get();
+            if (kind == DELTA_NODE) {
+                String uuid = getString(payload);
+                byte type = payload.get();
+                String value = getString(payload);
+                graph.addNode(uuid, W3CProvCompactGraph.typeName(type), value,
+                        payload.getLong());
+            } else {
+                String type = getString(payload);
+                int from = graph.getNode(getString(payload));
+                int to = graph.getNode(getString(payload));
+                graph.addEdge(from, to, type, payload.getLong());
+            }
+            appendedRecords++;
+        }
+    }
+
+    private void append(ByteBuffer payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        ByteBuffer block = ByteBuffer
+                .allocate(DELTA_HEADER_SIZE + payload.limit());
+        block.putInt(DELTA_MAGIC).putInt(payload.limit())
+                .putInt((int) crc.getValue()).put(payload.duplicate()).flip();
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            /* overwrite a torn block, if any */
+            channel.truncate(end);
+            while (block.hasRemaining()) {
+                channel.write(block, end + block.position());
+            }
+            channel.force(true);
+        }
+        end += block.limit();
+        deltas++;
+        torn = false;
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static void main(String[] args) throws IOException {
+        String snapshotArg = null;
+        String logArg = null;
+        boolean preprocess = false;
+        boolean usage = false;
+        /* -p may appear anywhere among the positional arguments */
+        for (String arg : args) {
+            if (arg.equals("-p")) {
+                preprocess = true;
+            } else if (snapshotArg == null) {
+                snapshotArg = arg;
+            } else if (logArg == null) {
+                logArg = arg;
+            } else {
+                usage = true;
+            }
+        }
+        if (snapshotArg == null || usage || (preprocess && logArg == null)) {
+            System.err.println(
+                    "Usage: W3CProvGraphSnapshot snapshot [-p] [log]");
+            System.exit(1);
+        }
+        Path file = Paths.get(snapshotArg);
+        File log = logArg == null ? null : new File(logArg);
+        long start = System.nanoTime();
+        W3CProvGraphSnapshot snapshot;
+        if (Files.exists(file)) {
+            snapshot = open(file);
+            System.out.printf("Opened snapshot in %.2f s\n",
+                    (System.nanoTime() - start) / 1e9);
+            if (log != null) {
+                start = System.nanoTime();
+                long appended = snapshot.update(log);
+                System.out.printf("Appended %s records in %.2f s\n", appended,
+                        (System.nanoTime() - start) / 1e9);
+            }
+        } else if (log != null) {
+            ProvGraphLoader loader = new ProvGraphLoader();
+            loader.setProgress(System.out,
+                    ProvGraphLoader.DEFAULT_PROGRESS_INTERVAL_MS);
+            W3CProvGraph graph = loader.load(log);
+            if (preprocess) {
+                new W3CProvGraphTransform(graph).removePacketFlowDependency()
+                        .addSwitchportAgency().removeActivitiesWithoutEffect()
+                        .addAppAgency().removeOrphanNodes().apply().pp();
+            }
+            snapshot = create(file, W3CProvCompactGraph.of(graph),
+                    loader.getLastTs(), loader.getPositions());
+            System.out.printf("Created snapshot in %.2f s\n",
+                    (System.nanoTime() - start) / 1e9);
+        } else {
+            System.err.println("No snapshot " + file + " and no log given");
+            System.exit(1);
+            return;
+        }
+        snapshot.getGraph().pp();
+        snapshot.pp();
+    }
+
+    /**
+     * New records of a log, encoded as a delta block. Nodes already in the
+     * graph are skipped; relations are resolved after the whole log is read,
+     * as their endpoints may come later. The graph itself is not changed.
+     */
+    private final class Delta implements ProvLogVisitor {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        /* UUIDs of the nodes of the delta */
+        private final Set<String> added = new HashSet<String>();
+        private final List<String[]> relations = new ArrayList<String[]>();
+        private final List<Long> relationTs = new ArrayList<Long>();
+        private long newest = lastTs;
+        private long records = 0;
+
+        public void entity(String uuid, String name, String value, long ts) {
+            node(uuid, W3CProvCompactGraph.ENTITY, value, ts);
+        }
+
+        public void activity(String uuid, String name, String value,
+                long ts) {
+            /* activities are described by their listener's name */
+            node(uuid, W3CProvCompactGraph.ACTIVITY,
+                    value.isEmpty() ? name : value, ts);
+        }
+
+        public void relation(String type, String from, String to, long ts) {
+            newest = Math.max(newest, ts);
+            relations.add(new String[] { type, from, to });
+            relationTs.add(ProvLogReader.millisOf(ts));
+        }
+
+        private void node(String uuid, byte type, String value, long ts) {
+            newest = Math.max(newest, ts);
+            if (graph.getNode(uuid) >= 0 || !added.add(uuid)) {
+                /* already in the graph or the delta */
+                return;
+            }
+            try {
+                out.writeByte(DELTA_NODE);
+                writeString(out, uuid);
+                out.writeByte(type);
+                writeString(out, value);
+                out.writeLong(ProvLogReader.millisOf(ts));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            records++;
+        }
+
+        /**
+         * Encode the delta: the timestamp of the last record, the positions
+         * in the log after it, and its nodes, then its relations.
+         */
+        private ByteBuffer toPayload(ProvLogPositions advanced)
+                throws IOException {
+            for (int i = 0; i < relations.size(); i++) {
+                String[] relation = relations.get(i);
+                if (!isKnown(relation[1]) || !isKnown(relation[2])) {
+                    droppedRelations++;
+                    continue;
+                }
+                out.writeByte(DELTA_RELATION);
+                writeString(out, relation[0]);
+                writeString(out, relation[1]);
+                writeString(out, relation[2]);
+                out.writeLong(relationTs.get(i));
+                records++;
+            }
+            out.flush();
+
+            ByteArrayOutputStream payload = new ByteArrayOutputStream(
+                    bytes.size() + 64);
+            DataOutputStream head = new DataOutputStream(payload);
+            head.writeLong(newest);
+            Map<String, Long> map = advanced.toMap();
+            head.writeInt(map.size());
+            for (Map.Entry<String, Long> entry : map.entrySet()) {
+                writeString(head, entry.getKey());
+                head.writeLong(entry.getValue());
+            }
+            head.flush();
+            bytes.writeTo(payload);
+            return ByteBuffer.wrap(payload.toByteArray());
+        }
+
+        private boolean isKnown(String uuid) {
+            return added.contains(uuid) || graph.getNode(uuid) >= 0;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s)
+            throws IOException {
+        byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(encoded.length);
+        out.write(encoded);
+    }
+
+    /**
+     * Sequential writer of a snapshot base through a buffered file channel.
+     */
+    static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer
+                .allocateDirect(BUFFER_SIZE);
+
+        private Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putShort(short value) throws IOException {
+            ensure(Short.BYTES);
+            buffer.putShort(value);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+        }
+
+        void putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+        }
+
+        void putString(String value) throws IOException {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            putInt(encoded.length);
+            putBytes(encoded, encoded.length);
+        }
+
+        void putBytes(byte[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                ensure(1);
+                int n = Math.min(count - i, buffer.remaining());
+                buffer.put(values, i, n);
+                i += n;
+            }
+        }
+
+        void putInts(int[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                ensure(Integer.BYTES);
+                int n = Math.min(count - i, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                i += n;
+            }
+        }
+
+        void putLongs(long[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                ensure(Long.BYTES);
+                int n = Math.min(count - i, buffer.remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Long.BYTES);
+                i += n;
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Sequential reader of a snapshot base; arrays are copied from windows of
+     * the file mapped in memory.
+     */
+    static final class Input {
+
+        private final FileChannel channel;
+        private final long size;
+        private final ByteBuffer scalar = ByteBuffer.allocate(Long.BYTES);
+        private long position = 0;
+
+        private Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+        }
+
+        long position() {
+            return position;
+        }
+
+        short getShort() throws IOException {
+            return read(Short.BYTES).getShort();
+        }
+
+        int getInt() throws IOException {
+            return read(Integer.BYTES).getInt();
+        }
+
+        long getLong() throws IOException {
+            return read(Long.BYTES).getLong();
+        }
+
+        String getString() throws IOException {
+            int length = getInt();
+            return new String(getBytes(new byte[length], length),
+                    StandardCharsets.UTF_8);
+        }
+
+        byte[] getBytes(byte[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                int n = Math.min(count - i, WINDOW_SIZE);
+                map(n).get(values, i, n);
+                i += n;
+            }
+            return values;
+        }
+
+        int[] getInts(int[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                int n = Math.min(count - i, WINDOW_SIZE / Integer.BYTES);
+                map(n * Integer.BYTES).asIntBuffer().get(values, i, n);
+                i += n;
+            }
+            return values;
+        }
+
+        long[] getLongs(long[] values, int count) throws IOException {
+            for (int i = 0; i < count;) {
+                int n = Math.min(count - i, WINDOW_SIZE / Long.BYTES);
+                map(n * Long.BYTES).asLongBuffer().get(values, i, n);
+                i += n;
+            }
+            return values;
+        }
+
+        private ByteBuffer read(int bytes) throws IOException {
+            check(bytes);
+            scalar.clear().limit(bytes);
+            while (scalar.hasRemaining()) {
+                channel.read(scalar, position + scalar.position());
+            }
+            position += bytes;
+            scalar.flip();
+            return scalar;
+        }
+
+        private ByteBuffer map(int bytes) throws IOException {
+            check(bytes);
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position, bytes);
+            position += bytes;
+            return window;
+        }
+
+        private void check(long bytes) throws IOException {
+            if (bytes < 0 || position + bytes > size) {
+                throw new EOFException("Truncated snapshot");
+            }
+        }
+    }
+
+}
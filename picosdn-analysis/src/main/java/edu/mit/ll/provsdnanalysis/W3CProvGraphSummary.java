@@ -0,0 +1,358 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Summary of a W3CProvCompactGraph in which structurally equivalent nodes are
+ * collapsed into aggregate nodes, to fight provenance dependency explosion
+ * (e.g., one activity per listener invocation and one entity per packet-in).
+ *
+ * Two nodes are equivalent if they have the same type and value (optionally
+ * normalized, e.g., without packet sequence numbers) and depend, through edges
+ * of the same types, on the same aggregates. Aggregates are computed in one
+ * pass from the nodes nothing depends on upwards, so repeated chains collapse
+ * as a whole: the LLDP packets received on one port aggregate, then the
+ * invocations of a listener that used them, then whatever those generated if
+ * it is also alike. This is the coarsest forward bisimulation of the graph;
+ * nodes on a cycle are not aggregated.
+ *
+ * The summary is itself a compact graph (see getGraph()), with one node per
+ * aggregate, carrying the UUID of its first member and the time of its first
+ * member, so it can be traced, indexed and exported like any other. The
+ * number of members and their time range are kept per aggregate, and the
+ * members themselves (as node ids of the summarized graph) so that results
+ * can be expanded on demand (see expand()).
+ *
+ * Since every member of an aggregate depends on a member of each aggregate the
+ * aggregate depends on, traces of the summary are sound:
+ *
+ * - The ancestry of an aggregate is exactly the set of aggregates of the
+ * ancestry of any one of its members.
+ *
+ * - The descendants of an aggregate are the aggregates of every node that
+ * depends on any member.
+ *
+ * Expanded, trace results thus never miss a node of the exact results, but
+ * may include nodes equivalent to them (e.g., every packet received on the
+ * port rather than the one packet used).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphSummary {
+
+    private final int nodeCount;
+
+    /* aggregate of each node of the summarized graph */
+    private final int[] aggregates;
+    private int aggregateCount = 0;
+    /* members of aggregate a are members[memberOffsets[a] to [a+1]] */
+    private int[] memberOffsets;
+    private int[] members;
+    private long[] firstTs;
+    private long[] lastTs;
+
+    private final W3CProvCompactGraph summary = new W3CProvCompactGraph();
+
+    /**
+     * Summarize a graph, aggregating nodes with identical values.
+     *
+     * @param graph
+     */
+    public W3CProvGraphSummary(W3CProvCompactGraph graph) {
+        this(graph, null);
+    }
+
+    /**
+     * Summarize a graph.
+     *
+     * @param graph
+     * @param normalizer maps a node's value to what must be identical for
+     *                   nodes to be aggregated (e.g., see stripping()), or
+     *                   null to compare values as they are
+     */
+    public W3CProvGraphSummary(W3CProvCompactGraph graph,
+            Function<String, String> normalizer) {
+        graph.build();
+        this.nodeCount = graph.getNodeCount();
+        this.aggregates = new int[nodeCount];
+        aggregate(graph, normalizer);
+        collectMembers(graph);
+        buildSummary(graph, normalizer);
+    }
+
+    /**
+     * Normalizer removing the parts of values that match a regular expression
+     * (e.g., "seq=\\d+"), compiled once.
+     *
+     * @param regex
+     * @return normalizer
+     */
+    public static Function<String, String> stripping(String regex) {
+        Pattern pattern = Pattern.compile(regex);
+        return value -> pattern.matcher(value).replaceAll("");
+    }
+
+    /**
+     * Summary graph, with one node per aggregate; node ids are aggregate ids.
+     *
+     * @return graph
+     */
+    public W3CProvCompactGraph getGraph() {
+        return summary;
+    }
+
+    /**
+     * Aggregate a node of the summarized graph was collapsed into.
+     *
+     * @param node node id in the summarized graph
+     * @return aggregate id
+     */
+    public int getAggregate(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IndexOutOfBoundsException("No node " + node);
+        }
+        return aggregates[node];
+    }
+
+    public int getAggregateCount() {
+        return aggregateCount;
+    }
+
+    /**
+     * Number of nodes collapsed into an aggregate.
+     *
+     * @param aggregate
+     * @return count
+     */
+    public int getCount(int aggregate) {
+        return memberOffsets[aggregate + 1] - memberOffsets[aggregate];
+    }
+
+    public long getFirstTs(int aggregate) {
+        return firstTs[aggregate];
+    }
+
+    public long getLastTs(int aggregate) {
+        return lastTs[aggregate];
+    }
+
+    /**
+     * Expand aggregates into the nodes collapsed into them.
+     *
+     * @param aggregates aggregate ids
+     * @return node ids in the summarized graph
+     */
+    public BitSet expand(BitSet aggregates) {
+        BitSet nodes = new BitSet(nodeCount);
+        for (int a = aggregates.nextSetBit(0); a >= 0
+                && a < aggregateCount; a = aggregates.nextSetBit(a + 1)) {
+            for (int i = memberOffsets[a]; i < memberOffsets[a + 1]; i++) {
+                nodes.set(members[i]);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Perform an entity-centric backward-forward trace of a node of the
+     * summarized graph on the summary.
+     *
+     * @param node node id in the summarized graph
+     * @return map of ancestor, descendants, as aggregate ids
+     */
+    public Map<Integer, BitSet> backwardForwardTrace(int node) {
+        return summary.backwardForwardTrace(getAggregate(node));
+    }
+
+    /**
+     * Display information about the summary.
+     */
+    public void pp() {
+        System.out.printf("Number of summarized nodes: %s\n", nodeCount);
+        System.out.printf("Number of aggregates: %s\n", aggregateCount);
+        System.out.printf("Number of summary edges: %s\n",
+                summary.getEdgeCount());
+        int largest = 0;
+        for (int a = 0; a < aggregateCount; a++) {
+            largest = Math.max(largest, getCount(a));
+        }
+        System.out.printf("Largest aggregate: %s\n", largest);
+    }
+
+    /**
+     * Assign each node to an aggregate, from the nodes without dependencies
+     * upwards (i.e., by components in reverse topological order).
+     */
+    private void aggregate(W3CProvCompactGraph graph,
+            Function<String, String> normalizer) {
+        W3CProvReachabilityIndex components = new W3CProvReachabilityIndex(
+                graph, false, 1, new Random(0));
+        int[] componentOffsets = components.memberOffsets();
+        int[] componentMembers = components.members();
+        int[] outOffsets = graph.outOffsets();
+        int[] outTargets = graph.outTargets();
+        byte[] outTypes = graph.outTypes();
+        int[] normalized = normalizedValues(graph, normalizer);
+
+        Map<Signature, Integer> signatures = new HashMap<Signature, Integer>();
+        long[] pairs = new long[16];
+        for (int c = 0; c + 1 < componentOffsets.length; c++) {
+            int start = componentOffsets[c];
+            int end = componentOffsets[c + 1];
+            if (end - start > 1) {
+                /* on a cycle: not aggregated */
+                for (int i = start; i < end; i++) {
+                    aggregates[componentMembers[i]] = aggregateCount++;
+                }
+                continue;
+            }
+            int v = componentMembers[start];
+            int degree = outOffsets[v + 1] - outOffsets[v];
+            if (pairs.length < degree) {
+                pairs = new long[Math.max(degree, pairs.length << 1)];
+            }
+            for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                pairs[e - outOffsets[v]] = ((long) outTypes[e] << 32)
+                        | aggregates[outTargets[e]];
+            }
+            Arrays.sort(pairs, 0, degree);
+            int distinct = 0;
+            for (int i = 0; i < degree; i++) {
+                if (distinct == 0 || pairs[i] != pairs[distinct - 1]) {
+                    pairs[distinct++] = pairs[i];
+                }
+            }
+            Signature signature = new Signature(graph.getTypeCode(v),
+                    normalized[graph.getValueId(v)],
+                    Arrays.copyOf(pairs, distinct));
+            Integer aggregate = signatures.get(signature);
+            if (aggregate == null) {
+                aggregate = aggregateCount++;
+                signatures.put(signature, aggregate);
+            }
+            aggregates[v] = aggregate;
+        }
+    }
+
+    /**
+     * Id of the normalized value of each value id of a graph; each distinct
+     * value is normalized once.
+     */
+    private static int[] normalizedValues(W3CProvCompactGraph graph,
+            Function<String, String> normalizer) {
+        W3CProvValueDictionary values = graph.values();
+        int[] normalized = new int[values.size()];
+        if (normalizer == null) {
+            for (int id = 0; id < normalized.length; id++) {
+                normalized[id] = id;
+            }
+            return normalized;
+        }
+        W3CProvValueDictionary dictionary = new W3CProvValueDictionary();
+        for (int id = 0; id < normalized.length; id++) {
+            normalized[id] = dictionary
+                    .intern(normalizer.apply(values.get(id)));
+        }
+        return normalized;
+    }
+
+    private void collectMembers(W3CProvCompactGraph graph) {
+        memberOffsets = new int[aggregateCount + 1];
+        firstTs = new long[aggregateCount];
+        lastTs = new long[aggregateCount];
+        Arrays.fill(firstTs, Long.MAX_VALUE);
+        Arrays.fill(lastTs, Long.MIN_VALUE);
+        for (int v = 0; v < nodeCount; v++) {
+            int a = aggregates[v];
+            memberOffsets[a + 1]++;
+            long ts = graph.getTs(v);
+            firstTs[a] = Math.min(firstTs[a], ts);
+            lastTs[a] = Math.max(lastTs[a], ts);
+        }
+        for (int a = 0; a < aggregateCount; a++) {
+            memberOffsets[a + 1] += memberOffsets[a];
+        }
+        members = new int[nodeCount];
+        int[] cursor = Arrays.copyOf(memberOffsets, aggregateCount);
+        for (int v = 0; v < nodeCount; v++) {
+            members[cursor[aggregates[v]]++] = v;
+        }
+    }
+
+    /**
+     * Build the summary graph from the first member of each aggregate, whose
+     * edges lead to the same aggregates, with the same types, as those of the
+     * other members.
+     */
+    private void buildSummary(W3CProvCompactGraph graph,
+            Function<String, String> normalizer) {
+        for (int a = 0; a < aggregateCount; a++) {
+            int v = members[memberOffsets[a]];
+            String value = graph.getValue(v);
+            if (normalizer != null && getCount(a) > 1) {
+                value = normalizer.apply(value);
+            }
+            summary.addNode(graph.getUuid(v), graph.getType(v), value,
+                    firstTs[a]);
+        }
+        for (int a = 0; a < aggregateCount; a++) {
+            int v = members[memberOffsets[a]];
+            /*
+             * edges to several members of one aggregate become one edge,
+             * the last added: add dependencies last so that they are kept
+             */
+            for (int pass = 0; pass < 2; pass++) {
+                for (int e = graph.firstOutEdge(v); e < graph
+                        .firstOutEdge(v + 1); e++) {
+                    if (graph.isDependency(e) == (pass == 1)) {
+                        summary.addEdge(a, aggregates[graph.getEdgeTarget(e)],
+                                graph.getEdgeType(e), graph.getEdgeTs(e));
+                    }
+                }
+            }
+        }
+        summary.build();
+    }
+
+    /**
+     * What must be identical for nodes to be aggregated: type, normalized
+     * value, and sorted (edge type, aggregate) pairs of the node's edges.
+     */
+    private static final class Signature {
+
+        private final byte type;
+        private final int value;
+        private final long[] pairs;
+        private final int hash;
+
+        private Signature(byte type, int value, long[] pairs) {
+            this.type = type;
+            this.value = value;
+            this.pairs = pairs;
+            this.hash = (31 * type + value) * 31 + Arrays.hashCode(pairs);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Signature)) {
+                return false;
+            }
+            Signature other = (Signature) o;
+            return type == other.type && value == other.value
+                    && Arrays.equals(pairs, other.pairs);
+        }
+    }
+
+}
@@ -0,0 +1,341 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * Preprocessing of a W3CProvGraph by several transformation passes at once.
+ *
+ * Each pass of W3CProvGraph (e.g., removeOrphanNodes(), addAppAgency()) used
+ * to scan the whole graph and mutate it an edge or node at a time. Here, the
+ * enabled passes are fused: one parallel scan classifies every node (inbound
+ * packet, activity without effect, agent it belongs to), a second parallel
+ * scan finds the nodes that would be left without edges, and the resulting
+ * batch of mutations is then applied in one step. Agents are created once per
+ * application or switch port, and patterns are compiled once.
+ *
+ * Enabling several passes gives the same graph as running them one after
+ * another in this order:
+ *
+ * 1. removePacketFlowDependency()
+ *
+ * 2. addSwitchportAgency()
+ *
+ * 3. removeActivitiesWithoutEffect()
+ *
+ * 4. addAppAgency()
+ *
+ * 5. removeOrphanNodes()
+ *
+ * except that nodes whose value cannot be attributed to an application or
+ * switch port are left without an agent rather than aborting the pass.
+ *
+ * The graph must not be modified by other threads while transforming.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphTransform {
+
+    /* nodes classified by a task before it is split */
+    private static final int TASK_SIZE = 4096;
+
+    /* characters removed from agent ids so dot doesn't complain */
+    private static final Pattern NOT_ID = Pattern.compile("[^a-zA-Z0-9]");
+
+    /* node classification */
+    private static final byte PACKET = 1;
+    private static final byte REMOVED = 2;
+    private static final byte ORPHAN = 4;
+
+    private final W3CProvGraph graph;
+    private final ForkJoinPool pool;
+
+    private boolean packetFlowDependency = false;
+    private boolean switchportAgency = false;
+    private boolean activitiesWithoutEffect = false;
+    private boolean appAgency = false;
+    private boolean orphanNodes = false;
+
+    private int removedEdges = 0;
+    private int removedNodes = 0;
+    private int addedAgents = 0;
+    private int addedEdges = 0;
+
+    public W3CProvGraphTransform(W3CProvGraph graph) {
+        this(graph, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a transformation running on a fork/join pool.
+     *
+     * @param graph graph to transform
+     * @param pool
+     */
+    public W3CProvGraphTransform(W3CProvGraph graph, ForkJoinPool pool) {
+        this.graph = graph;
+        this.pool = pool;
+    }
+
+    /**
+     * Remove derivation relations from InboundPackets to flows.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform removePacketFlowDependency() {
+        packetFlowDependency = true;
+        return this;
+    }
+
+    /**
+     * Add agent nodes and attribution to each InboundPacket.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform addSwitchportAgency() {
+        switchportAgency = true;
+        return this;
+    }
+
+    /**
+     * Remove activity nodes without generation or invalidation edges.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform removeActivitiesWithoutEffect() {
+        activitiesWithoutEffect = true;
+        return this;
+    }
+
+    /**
+     * Add agency for each event listener to the app that called it.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform addAppAgency() {
+        appAgency = true;
+        return this;
+    }
+
+    /**
+     * Remove nodes left without edges.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform removeOrphanNodes() {
+        orphanNodes = true;
+        return this;
+    }
+
+    /**
+     * Apply the enabled passes to the graph.
+     *
+     * @return this
+     */
+    public W3CProvGraphTransform apply() {
+        W3CProvGraphNode[] nodes = graph.getNodes()
+                .toArray(new W3CProvGraphNode[0]);
+        Map<W3CProvGraphNode, Integer> positions = new IdentityHashMap<W3CProvGraphNode, Integer>(
+                nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            positions.put(nodes[i], i);
+        }
+        byte[] flags = new byte[nodes.length];
+        String[] agents = new String[nodes.length];
+
+        /* classify nodes */
+        forEach(nodes.length, i -> {
+            W3CProvGraphNode node = nodes[i];
+            if (isInboundPacket(node)) {
+                flags[i] = PACKET;
+                if (switchportAgency) {
+                    agents[i] = switchportOf(node.getValue());
+                }
+            } else if (node.getType().equals("activity")) {
+                if (activitiesWithoutEffect && !hasEffect(node)) {
+                    flags[i] = REMOVED;
+                } else if (appAgency) {
+                    agents[i] = appOf(node.getValue());
+                }
+            }
+        });
+
+        /* find nodes that would be left without edges */
+        if (orphanNodes) {
+            forEach(nodes.length, i -> {
+                if ((flags[i] & REMOVED) == 0 && agents[i] == null
+                        && !keepsEdge(nodes[i], flags, positions)) {
+                    /* only this task writes flags[i]; others read bits 0-1 */
+                    flags[i] |= ORPHAN;
+                }
+            });
+        }
+
+        /* apply the batch */
+        List<W3CProvGraphEdge> edgesToRemove = new ArrayList<W3CProvGraphEdge>();
+        List<W3CProvGraphNode> nodesToRemove = new ArrayList<W3CProvGraphNode>();
+        for (int i = 0; i < nodes.length; i++) {
+            if ((flags[i] & (REMOVED | ORPHAN)) != 0) {
+                nodesToRemove.add(nodes[i]);
+            } else if (packetFlowDependency && (flags[i] & PACKET) != 0) {
+                for (W3CProvGraphEdge edge : graph.outgoingEdgesOf(nodes[i])) {
+                    if (edge.getType().equals("wasDerivedFrom")) {
+                        edgesToRemove.add(edge);
+                    }
+                }
+            }
+        }
+        removedEdges += graph.removeEdges(edgesToRemove);
+        removedNodes += graph.removeNodes(nodesToRemove);
+
+        Map<String, W3CProvGraphNode> agentsById = new HashMap<String, W3CProvGraphNode>();
+        Map<W3CProvGraphNode, W3CProvGraphNode> agentMap = new LinkedHashMap<W3CProvGraphNode, W3CProvGraphNode>();
+        for (int i = 0; i < nodes.length; i++) {
+            String name = agents[i];
+            if (name == null) {
+                continue;
+            }
+            W3CProvGraphNode agent = agentsById.get(name);
+            if (agent == null) {
+                String id = NOT_ID.matcher(name).replaceAll("");
+                agent = graph.getNode(id);
+                if (agent == null) {
+                    agent = new W3CProvGraphNode(id, "agent", name, id);
+                    graph.addNode(agent);
+                    addedAgents++;
+                }
+                agentsById.put(name, agent);
+            }
+            agentMap.put(nodes[i], agent);
+        }
+        for (Map.Entry<W3CProvGraphNode, W3CProvGraphNode> entry : agentMap
+                .entrySet()) {
+            boolean packet = (flags[positions.get(entry.getKey())]
+                    & PACKET) != 0;
+            graph.addEdge(entry.getKey(), entry.getValue(),
+                    new W3CProvGraphEdge(
+                            packet ? "wasAttributedTo" : "wasAssociatedWith",
+                            "", "0"));
+            addedEdges++;
+        }
+        return this;
+    }
+
+    /**
+     * Display what the transformation changed.
+     */
+    public void pp() {
+        System.out.printf("Removed nodes: %s\n", removedNodes);
+        System.out.printf("Removed edges: %s\n", removedEdges);
+        System.out.printf("Added agents: %s\n", addedAgents);
+        System.out.printf("Added agency edges: %s\n", addedEdges);
+    }
+
+    /**
+     * Whether an activity has a generation or invalidation edge.
+     */
+    private boolean hasEffect(W3CProvGraphNode activity) {
+        for (W3CProvGraphEdge edge : graph.edgesOf(activity)) {
+            if (edge.getType().equals("wasGeneratedBy")
+                    || edge.getType().equals("invalidates")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a node keeps an edge once packet derivations and activities
+     * without effect are removed.
+     */
+    private boolean keepsEdge(W3CProvGraphNode node, byte[] flags,
+            Map<W3CProvGraphNode, Integer> positions) {
+        for (W3CProvGraphEdge edge : graph.edgesOf(node)) {
+            W3CProvGraphNode source = graph.getEdgeSource(edge);
+            W3CProvGraphNode other = source == node
+                    ? graph.getEdgeTarget(edge)
+                    : source;
+            int s = positions.get(source);
+            if (packetFlowDependency && (flags[s] & PACKET) != 0
+                    && edge.getType().equals("wasDerivedFrom")) {
+                continue;
+            }
+            if ((flags[positions.get(other)] & REMOVED) != 0) {
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Application of an event listener, e.g.,
+     * "org.onosproject.fwd.ReactiveForwarding" for
+     * "org.onosproject.fwd.ReactiveForwarding$InternalHostListener".
+     *
+     * @return application or null
+     */
+    static String appOf(String value) {
+        int end = value.indexOf('$');
+        return end < 0 ? null : value.substring(0, end);
+    }
+
+    /**
+     * Switch port an InboundPacket was received on, from its first attribute.
+     *
+     * @return switch port or null
+     */
+    static String switchportOf(String value) {
+        int start = value.indexOf('=') + 1;
+        int end = value.indexOf(',');
+        return start == 0 || end < start ? null : value.substring(start, end);
+    }
+
+    static boolean isInboundPacket(W3CProvGraphNode node) {
+        return node.getValue().contains("DefaultInboundPacket");
+    }
+
+    /**
+     * Run an action on each index in parallel.
+     */
+    private void forEach(int count, IntConsumer action) {
+        pool.invoke(new ScanTask(action, 0, count));
+    }
+
+    private static final class ScanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer action;
+        private final int start;
+        private final int end;
+
+        private ScanTask(IntConsumer action, int start, int end) {
+            this.action = action;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > TASK_SIZE) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ScanTask(action, start, middle),
+                        new ScanTask(action, middle, end));
+                return;
+            }
+            for (int i = start; i < end; i++) {
+                action.accept(i);
+            }
+        }
+    }
+
+}
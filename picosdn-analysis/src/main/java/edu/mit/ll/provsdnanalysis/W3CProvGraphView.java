@@ -0,0 +1,131 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.jgrapht.graph.DirectedAcyclicGraph;
+
+/**
+ * Read-only view of a W3CProvGraph that follows only edges of accepted types
+ * (e.g., only dependency edges, without revision and invalidation relations).
+ *
+ * Edges of other types are skipped while traversing rather than removed from
+ * the graph, so using a view never modifies the graph, and several threads may
+ * query the same graph through views at once as long as no thread modifies the
+ * graph meanwhile.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphView {
+
+    private final DirectedAcyclicGraph<W3CProvGraphNode, W3CProvGraphEdge> g;
+    private final Set<String> excludedTypes;
+
+    /**
+     * Create a view following every edge except those of excluded types.
+     *
+     * @param g
+     * @param excludedTypes edge types not to follow
+     */
+    W3CProvGraphView(DirectedAcyclicGraph<W3CProvGraphNode, W3CProvGraphEdge> g,
+            Set<String> excludedTypes) {
+        this.g = g;
+        this.excludedTypes = Collections
+                .unmodifiableSet(new HashSet<String>(excludedTypes));
+    }
+
+    /**
+     * Whether the view follows an edge.
+     *
+     * @param edge
+     * @return true if the edge's type is not excluded
+     */
+    public boolean accepts(W3CProvGraphEdge edge) {
+        return !excludedTypes.contains(edge.getType());
+    }
+
+    /**
+     * Get the nodes an accepted edge from a node goes to (i.e., the node's
+     * immediate ancestry).
+     *
+     * @param node
+     * @return nodes
+     */
+    public Set<W3CProvGraphNode> getTargetsOf(W3CProvGraphNode node) {
+        Set<W3CProvGraphNode> targets = new LinkedHashSet<W3CProvGraphNode>();
+        for (W3CProvGraphEdge edge : g.outgoingEdgesOf(node)) {
+            if (accepts(edge)) {
+                targets.add(g.getEdgeTarget(edge));
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * Get the nodes an accepted edge to a node comes from (i.e., the node's
+     * immediate descendants).
+     *
+     * @param node
+     * @return nodes
+     */
+    public Set<W3CProvGraphNode> getSourcesOf(W3CProvGraphNode node) {
+        Set<W3CProvGraphNode> sources = new LinkedHashSet<W3CProvGraphNode>();
+        for (W3CProvGraphEdge edge : g.incomingEdgesOf(node)) {
+            if (accepts(edge)) {
+                sources.add(g.getEdgeSource(edge));
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Get ancestry of node (i.e., all things that went into affecting this
+     * node) through accepted edges.
+     *
+     * @param node
+     * @return nodes, excluding the node itself
+     */
+    public Set<W3CProvGraphNode> getAncestryOfNode(W3CProvGraphNode node) {
+        return reachable(node, true);
+    }
+
+    /**
+     * Get descendants of node (i.e., all things this node affected) through
+     * accepted edges.
+     *
+     * @param node
+     * @return nodes, excluding the node itself
+     */
+    public Set<W3CProvGraphNode> getDescendantsOfNode(W3CProvGraphNode node) {
+        return reachable(node, false);
+    }
+
+    private Set<W3CProvGraphNode> reachable(W3CProvGraphNode node,
+            boolean outgoing) {
+        Set<W3CProvGraphNode> seen = new HashSet<W3CProvGraphNode>();
+        Deque<W3CProvGraphNode> stack = new ArrayDeque<W3CProvGraphNode>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            W3CProvGraphNode v = stack.pop();
+            Set<W3CProvGraphEdge> edges = outgoing ? g.outgoingEdgesOf(v)
+                    : g.incomingEdgesOf(v);
+            for (W3CProvGraphEdge edge : edges) {
+                if (!accepts(edge)) {
+                    continue;
+                }
+                W3CProvGraphNode next = outgoing ? g.getEdgeTarget(edge)
+                        : g.getEdgeSource(edge);
+                if (seen.add(next)) {
+                    stack.push(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+}
@@ -0,0 +1,435 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.AbstractMap;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Parallel entity-centric backward-forward trace over a W3CProvCompactGraph.
+ *
+ * The trace starts from the nodes that depend on the node of interest (its
+ * "ancestors" in jGraphT terms, as in W3CProvGraph.backwardForwardTrace()),
+ * and maps each such entity to the entities it depends on. Rather than
+ * traversing the graph again from every ancestor, the dependencies of a node
+ * are computed as the union of the dependencies of its immediate dependencies,
+ * which are memoized:
+ *
+ * - Nodes that depend on the node of interest are ranked by their longest
+ * dependency path to it, and each rank is computed in parallel by fork/join
+ * tasks once the ranks below it are done.
+ *
+ * - Nodes just outside that set (e.g., a configuration entity used by many
+ * activities) are traversed once, by the first task that needs them.
+ *
+ * - A memoized set is released as soon as every node needing it is done, so
+ * memory is bounded by the width of the graph rather than its depth.
+ *
+ * Nodes on a cycle, which the compact graph keeps, are traced by plain
+ * traversals instead.
+ *
+ * The entities each ancestor depends on are kept as a sorted array of node
+ * ids rather than a BitSet, which would take a bit per node of the graph for
+ * every ancestor. The map returned builds a BitSet from the array on each
+ * access.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvParallelTrace {
+
+    /* nodes computed by a task before it is split */
+    private static final int TASK_SIZE = 32;
+
+    private final W3CProvCompactGraph graph;
+    private final ForkJoinPool pool;
+
+    public W3CProvParallelTrace(W3CProvCompactGraph graph) {
+        this(graph, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a trace running on a fork/join pool.
+     *
+     * @param graph graph to trace; built here, and not to be modified while
+     *              tracing
+     * @param pool
+     */
+    public W3CProvParallelTrace(W3CProvCompactGraph graph,
+            ForkJoinPool pool) {
+        graph.build();
+        this.graph = graph;
+        this.pool = pool;
+    }
+
+    /**
+     * Perform an entity-centric backward-forward trace.
+     *
+     * @param node node of interest
+     * @return read-only map of ancestor, descendants
+     */
+    public Map<Integer, BitSet> backwardForwardTrace(int node) {
+        return new Trace(node).run();
+    }
+
+    /**
+     * State of one trace.
+     */
+    private final class Trace {
+
+        private final int[] outOffsets = graph.outOffsets();
+        private final int[] outTargets = graph.outTargets();
+        private final int[] inOffsets = graph.inOffsets();
+        private final int[] inSources = graph.inSources();
+        private final int[] inEdges = graph.inEdges();
+
+        private final int node;
+        /*
+         * memo slot of each node, or -1: the node of interest and the nodes
+         * depending on it ("inner" nodes) come first, then the nodes they
+         * immediately depend on outside of them ("boundary" nodes)
+         */
+        private final int[] slot;
+        private int innerCount = 0;
+        private int slotCount = 0;
+        private int[] slotNodes;
+
+        /* dependencies by slot, while some node still needs them */
+        private AtomicReferenceArray<BitSet> memo;
+        /* number of nodes yet to use each slot's dependencies */
+        private AtomicIntegerArray users;
+        /* sorted entity dependencies by slot of the ancestor */
+        private int[][] results;
+
+        private Trace(int node) {
+            this.node = node;
+            this.slot = new int[graph.getNodeCount()];
+        }
+
+        private Map<Integer, BitSet> run() {
+            BitSet ancestors = graph.reachable(node, false, true);
+            assignSlots(ancestors);
+            memo = new AtomicReferenceArray<BitSet>(slotCount);
+            results = new int[innerCount][];
+
+            int[] ranked = new int[innerCount];
+            int[] rankEnds = rank(ranked);
+            int start = 0;
+            for (int end : rankEnds) {
+                pool.invoke(new TraceTask(ranked, start, end, false));
+                start = end;
+            }
+            /* inner nodes left unranked are on or depend on a cycle */
+            if (start < innerCount) {
+                int[] cyclic = new int[innerCount - start];
+                int count = 0;
+                for (int v = ancestors.nextSetBit(0); v >= 0; v = ancestors
+                        .nextSetBit(v + 1)) {
+                    if (results[slot[v]] == null && graph.getTypeCode(
+                            v) == W3CProvCompactGraph.ENTITY) {
+                        cyclic[count++] = v;
+                    }
+                }
+                pool.invoke(new TraceTask(cyclic, 0, count, true));
+            }
+
+            int[] entities = entitiesOf(ancestors);
+            int[][] dependencies = new int[entities.length][];
+            for (int i = 0; i < entities.length; i++) {
+                dependencies[i] = results[slot[entities[i]]];
+            }
+            return new TraceMap(entities, dependencies);
+        }
+
+        /**
+         * Assign slots to inner and boundary nodes, and count the users of
+         * each slot.
+         */
+        private void assignSlots(BitSet ancestors) {
+            Arrays.fill(slot, -1);
+            slotNodes = new int[ancestors.cardinality() + 1];
+            addSlot(node);
+            for (int v = ancestors.nextSetBit(0); v >= 0; v = ancestors
+                    .nextSetBit(v + 1)) {
+                addSlot(v);
+            }
+            innerCount = slotCount;
+            int[] counts = new int[slotNodes.length];
+            for (int i = 0; i < innerCount; i++) {
+                int v = slotNodes[i];
+                for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                    if (!graph.isDependency(e)) {
+                        continue;
+                    }
+                    int w = outTargets[e];
+                    if (slot[w] < 0) {
+                        addSlot(w);
+                        if (slotCount > counts.length) {
+                            counts = Arrays.copyOf(counts, slotNodes.length);
+                        }
+                    }
+                    counts[slot[w]]++;
+                }
+            }
+            users = new AtomicIntegerArray(Arrays.copyOf(counts, slotCount));
+        }
+
+        private void addSlot(int v) {
+            if (slotCount == slotNodes.length) {
+                slotNodes = Arrays.copyOf(slotNodes, slotCount << 1);
+            }
+            slot[v] = slotCount;
+            slotNodes[slotCount++] = v;
+        }
+
+        /**
+         * Rank inner nodes by their longest dependency path to the node of
+         * interest (Kahn's algorithm along incoming edges).
+         *
+         * @param ranked receives inner nodes by rank
+         * @return end of each rank in ranked
+         */
+        private int[] rank(int[] ranked) {
+            int[] pending = new int[innerCount];
+            for (int i = 0; i < innerCount; i++) {
+                int v = slotNodes[i];
+                for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                    if (graph.isDependency(e)
+                            && isInner(outTargets[e])) {
+                        pending[i]++;
+                    }
+                }
+            }
+            int[] rankEnds = new int[16];
+            int ranks = 0;
+            int count = 0;
+            for (int i = 0; i < innerCount; i++) {
+                if (pending[i] == 0) {
+                    ranked[count++] = slotNodes[i];
+                }
+            }
+            int start = 0;
+            while (start < count) {
+                int end = count;
+                if (ranks == rankEnds.length) {
+                    rankEnds = Arrays.copyOf(rankEnds, ranks << 1);
+                }
+                rankEnds[ranks++] = end;
+                for (int r = start; r < end; r++) {
+                    int w = ranked[r];
+                    for (int i = inOffsets[w]; i < inOffsets[w + 1]; i++) {
+                        int v = inSources[i];
+                        if (graph.isDependency(inEdges[i]) && isInner(v)
+                                && --pending[slot[v]] == 0) {
+                            ranked[count++] = v;
+                        }
+                    }
+                }
+                start = end;
+            }
+            return Arrays.copyOf(rankEnds, ranks);
+        }
+
+        private boolean isInner(int v) {
+            return slot[v] >= 0 && slot[v] < innerCount;
+        }
+
+        /**
+         * Compute the dependencies of an inner node from those of its
+         * immediate dependencies.
+         */
+        private void compute(int v) {
+            BitSet dependencies = new BitSet(slot.length);
+            for (int e = outOffsets[v]; e < outOffsets[v + 1]; e++) {
+                if (!graph.isDependency(e)) {
+                    continue;
+                }
+                int w = outTargets[e];
+                dependencies.set(w);
+                dependencies.or(dependenciesOf(w));
+                if (users.decrementAndGet(slot[w]) == 0) {
+                    memo.set(slot[w], null);
+                }
+            }
+            if (users.get(slot[v]) > 0) {
+                memo.set(slot[v], dependencies);
+            }
+            if (v != node
+                    && graph.getTypeCode(v) == W3CProvCompactGraph.ENTITY) {
+                results[slot[v]] = entitiesOf(dependencies);
+            }
+        }
+
+        /**
+         * Get the memoized dependencies of an inner node of a lower rank, or
+         * of a boundary node, traversing from the latter on first use.
+         */
+        private BitSet dependenciesOf(int w) {
+            BitSet dependencies = memo.get(slot[w]);
+            if (dependencies == null) {
+                /* another task may traverse at once; either result will do */
+                dependencies = graph.reachable(w, true, true);
+                if (!memo.compareAndSet(slot[w], null, dependencies)) {
+                    BitSet other = memo.get(slot[w]);
+                    if (other != null) {
+                        dependencies = other;
+                    }
+                }
+            }
+            return dependencies;
+        }
+
+        /**
+         * Get the entities of a set of nodes.
+         *
+         * @return sorted node ids
+         */
+        private int[] entitiesOf(BitSet nodes) {
+            int count = 0;
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                if (graph.getTypeCode(v) == W3CProvCompactGraph.ENTITY) {
+                    count++;
+                }
+            }
+            int[] entities = new int[count];
+            count = 0;
+            for (int v = nodes.nextSetBit(0); v >= 0; v = nodes
+                    .nextSetBit(v + 1)) {
+                if (graph.getTypeCode(v) == W3CProvCompactGraph.ENTITY) {
+                    entities[count++] = v;
+                }
+            }
+            return entities;
+        }
+
+        /**
+         * Task computing a range of nodes of one rank, or of cyclic nodes.
+         */
+        private final class TraceTask extends RecursiveAction {
+
+            private static final long serialVersionUID = 1L;
+
+            private final int[] nodes;
+            private final int start;
+            private final int end;
+            private final boolean cyclic;
+
+            private TraceTask(int[] nodes, int start, int end,
+                    boolean cyclic) {
+                this.nodes = nodes;
+                this.start = start;
+                this.end = end;
+                this.cyclic = cyclic;
+            }
+
+            @Override
+            protected void compute() {
+                if (end - start > TASK_SIZE) {
+                    int middle = (start + end) >>> 1;
+                    invokeAll(new TraceTask(nodes, start, middle, cyclic),
+                            new TraceTask(nodes, middle, end, cyclic));
+                    return;
+                }
+                for (int i = start; i < end; i++) {
+                    int v = nodes[i];
+                    if (cyclic) {
+                        results[slot[v]] = entitiesOf(
+                                graph.reachable(v, true, true));
+                    } else {
+                        Trace.this.compute(v);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Read-only result of a trace: the sorted entity dependencies of each
+     * ancestor, given as a new BitSet on each access.
+     */
+    private static final class TraceMap extends AbstractMap<Integer, BitSet> {
+
+        /* ancestors in ascending order */
+        private final int[] ancestors;
+        private final int[][] dependencies;
+
+        private TraceMap(int[] ancestors, int[][] dependencies) {
+            this.ancestors = ancestors;
+            this.dependencies = dependencies;
+        }
+
+        @Override
+        public int size() {
+            return ancestors.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+
+        @Override
+        public BitSet get(Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : toBitSet(dependencies[i]);
+        }
+
+        @Override
+        public Set<Map.Entry<Integer, BitSet>> entrySet() {
+            return new AbstractSet<Map.Entry<Integer, BitSet>>() {
+                @Override
+                public int size() {
+                    return ancestors.length;
+                }
+
+                @Override
+                public Iterator<Map.Entry<Integer, BitSet>> iterator() {
+                    return new Iterator<Map.Entry<Integer, BitSet>>() {
+                        private int next = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < ancestors.length;
+                        }
+
+                        @Override
+                        public Map.Entry<Integer, BitSet> next() {
+                            if (next == ancestors.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int i = next++;
+                            return new SimpleImmutableEntry<Integer, BitSet>(
+                                    ancestors[i], toBitSet(dependencies[i]));
+                        }
+                    };
+                }
+            };
+        }
+
+        private int indexOf(Object key) {
+            return key instanceof Integer
+                    ? Arrays.binarySearch(ancestors, (Integer) key)
+                    : -1;
+        }
+
+        private static BitSet toBitSet(int[] nodes) {
+            BitSet bits = new BitSet(
+                    nodes.length == 0 ? 0 : nodes[nodes.length - 1] + 1);
+            for (int v : nodes) {
+                bits.set(v);
+            }
+            return bits;
+        }
+    }
+
+}
@@ -0,0 +1,640 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import edu.mit.ll.provsdnanalysis.W3CProvAttributeIndex.Query;
+import edu.mit.ll.provsdnquery.ProvQuery;
+import edu.mit.ll.provsdnquery.ProvQuery.EdgePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Kind;
+import edu.mit.ll.provsdnquery.ProvQuery.NodePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Predicate;
+
+/**
+ * Executor of path queries (see ProvQuery in provsdn-query, which documents
+ * the language) over a W3CProvCompactGraph. Relation types are checked when a
+ * query is run, against the relation types of the graph; "token" predicates
+ * are matched as W3CProvAttributeIndex.token().
+ *
+ * Each node pattern is planned as an index query (see W3CProvAttributeIndex)
+ * combining its type, value, token and time predicates, the latter merged
+ * into one time range, plus the negated predicates, which are tested on each
+ * candidate. The pattern with the fewest estimated candidates (e.g., one given
+ * by UUID, or a rare token) is the pivot: it alone is evaluated with its
+ * index, and the nodes of every other pattern are those reached from their
+ * neighbour's nodes by its edge pattern, filtered by its predicates, which
+ * only looks up in the index those that are reached.
+ *
+ * A path is a chain, so semi-joins reduce the node sets of the patterns to
+ * exactly those in some match of the whole path (as in Yannakakis'
+ * algorithm): after the sets are computed outwards from the pivot, a pass from
+ * both ends inwards keeps the nodes of each pattern that reach a node of the
+ * next one further out, and a pass outwards keeps those reached from the next
+ * one further in. Any set becoming empty ends the evaluation.
+ *
+ * Edge patterns are followed breadth-first over the CSR arrays, level by
+ * level; levels with many nodes are expanded in parallel by fork/join tasks.
+ * A repeated edge ("*m..n") matches walks of m to n edges, so nodes on a
+ * cycle, which the compact graph keeps, may be reached at several depths.
+ *
+ * Usage: W3CProvQueryExecutor snapshot|log [query]: loads a graph from a
+ * snapshot (see W3CProvGraphSnapshot) or a log, and runs the query, or one
+ * query per line of the standard input ("explain" before a query displays its
+ * plan instead).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvQueryExecutor {
+
+    /* frontier nodes expanded by a task before it is split */
+    private static final int TASK_SIZE = 4096;
+    /* nodes printed by main() when the query has no limit */
+    private static final int DEFAULT_LIMIT = 50;
+
+    private final W3CProvCompactGraph graph;
+    private final W3CProvAttributeIndex index;
+    private final ForkJoinPool pool;
+
+    /**
+     * Create an executor, indexing the graph.
+     *
+     * @param graph graph to query; not to be modified while querying
+     */
+    public W3CProvQueryExecutor(W3CProvCompactGraph graph) {
+        this(graph, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create an executor running on a fork/join pool.
+     *
+     * @param graph graph to query; built here, and not to be modified while
+     *              querying
+     * @param index index of the graph, or null to build one
+     * @param pool
+     */
+    public W3CProvQueryExecutor(W3CProvCompactGraph graph,
+            W3CProvAttributeIndex index, ForkJoinPool pool) {
+        graph.build();
+        this.graph = graph;
+        this.index = index == null ? new W3CProvAttributeIndex(graph) : index;
+        this.pool = pool;
+    }
+
+    public W3CProvCompactGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Run a query.
+     *
+     * @param query
+     * @return nodes matched by each node pattern
+     * @throws IllegalArgumentException if the query names an unknown relation
+     *                                  type
+     */
+    public Result execute(ProvQuery query) {
+        return new Plan(query).run();
+    }
+
+    /**
+     * Parse and run a query.
+     *
+     * @param text
+     * @return nodes matched by each node pattern
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public Result execute(String text) {
+        return execute(ProvQuery.parse(text));
+    }
+
+    /**
+     * Describe how a query would be run, without running it.
+     *
+     * @param query
+     * @return plan, one step per line
+     */
+    public String explain(ProvQuery query) {
+        return new Plan(query).describe();
+    }
+
+    /**
+     * Nodes matched by the node patterns of a query, as node ids.
+     */
+    public static final class Result {
+
+        private final List<String> names;
+        private final BitSet[] nodes;
+        private final int returned;
+        private final int limit;
+
+        private Result(List<String> names, BitSet[] nodes, int returned,
+                int limit) {
+            this.names = names;
+            this.nodes = nodes;
+            this.returned = returned;
+            this.limit = limit;
+        }
+
+        public List<String> getNames() {
+            return Collections.unmodifiableList(names);
+        }
+
+        /**
+         * Nodes that a node pattern matches in some match of the whole path.
+         *
+         * @param name name of the node pattern
+         * @return node ids
+         */
+        public BitSet getNodes(String name) {
+            int i = names.indexOf(name);
+            if (i < 0) {
+                throw new IllegalArgumentException("No pattern named " + name);
+            }
+            return (BitSet) nodes[i].clone();
+        }
+
+        /**
+         * Nodes matched by the returned node pattern, the first ones by id
+         * (i.e., in the order they were added to the graph) up to the query's
+         * limit.
+         *
+         * @return node ids
+         */
+        public BitSet getReturned() {
+            BitSet matched = nodes[returned];
+            if (limit < 0 || matched.cardinality() <= limit) {
+                return (BitSet) matched.clone();
+            }
+            BitSet first = new BitSet();
+            int node = matched.nextSetBit(0);
+            for (int i = 0; i < limit; i++, node = matched
+                    .nextSetBit(node + 1)) {
+                first.set(node);
+            }
+            return first;
+        }
+
+        /**
+         * Number of nodes matched by the returned node pattern, regardless of
+         * the limit.
+         *
+         * @return count
+         */
+        public int getMatchCount() {
+            return nodes[returned].cardinality();
+        }
+    }
+
+    /**
+     * Index queries and filters of the node patterns of a query, and the
+     * relation types of its edge patterns.
+     */
+    private final class Plan {
+
+        private final ProvQuery query;
+        private final int n;
+        /* per node pattern: index query, or null to match any node */
+        private final Query[] candidates;
+        /* per node pattern: negated predicates, and nodes given by UUID */
+        private final List<List<Query>> excluded = new ArrayList<List<Query>>();
+        private final BitSet[] excludedNodes;
+        /* per node pattern: node given by UUID, -1 if missing, or -2 */
+        private final int[] uuids;
+        private final int[] estimates;
+        /* per edge pattern: whether edges of each type code are followed */
+        private final boolean[][] allowed;
+        private final int pivot;
+
+        private Plan(ProvQuery query) {
+            this.query = query;
+            this.n = query.getNodes().size();
+            this.candidates = new Query[n];
+            this.excludedNodes = new BitSet[n];
+            this.uuids = new int[n];
+            this.estimates = new int[n];
+            int best = 0;
+            for (int i = 0; i < n; i++) {
+                plan(i, query.getNodes().get(i));
+                if (estimates[i] < estimates[best]) {
+                    best = i;
+                }
+            }
+            this.pivot = best;
+            this.allowed = new boolean[query.getEdges().size()][];
+            List<String> edgeTypes = graph.edgeTypes();
+            for (int i = 0; i < allowed.length; i++) {
+                List<String> types = query.getEdges().get(i).getTypes();
+                allowed[i] = new boolean[edgeTypes.size()];
+                for (int code = 0; code < edgeTypes.size(); code++) {
+                    allowed[i][code] = types.isEmpty()
+                            ? graph.isDependencyType(code)
+                            : types.contains(edgeTypes.get(code));
+                }
+                for (String type : types) {
+                    if (!edgeTypes.contains(type)) {
+                        throw new IllegalArgumentException(
+                                "Unknown relation type " + type);
+                    }
+                }
+            }
+        }
+
+        private void plan(int i, NodePattern pattern) {
+            List<Query> queries = new ArrayList<Query>();
+            List<Query> negated = new ArrayList<Query>();
+            if (pattern.getType() != null) {
+                queries.add(index.type(pattern.getType()));
+            }
+            long from = Long.MIN_VALUE;
+            long to = Long.MAX_VALUE;
+            boolean timed = false;
+            uuids[i] = -2;
+            excludedNodes[i] = new BitSet();
+            for (Predicate predicate : pattern.getPredicates()) {
+                if (predicate.getKind() == Kind.UUID) {
+                    int node = graph.getNode(predicate.getText());
+                    if (!predicate.isNegated()) {
+                        uuids[i] = uuids[i] == -2 || uuids[i] == node ? node
+                                : -1;
+                    } else if (node >= 0) {
+                        excludedNodes[i].set(node);
+                    }
+                    continue;
+                }
+                if (predicate.getKind() == Kind.TIME
+                        && !predicate.isNegated()) {
+                    from = Math.max(from, predicate.getFrom());
+                    to = Math.min(to, predicate.getTo());
+                    timed = true;
+                    continue;
+                }
+                if (predicate.getKind() == Kind.WITHIN
+                        && !predicate.isNegated()) {
+                    from = Math.max(from,
+                            index.getLastTs() - predicate.getDuration());
+                    timed = true;
+                    continue;
+                }
+                (predicate.isNegated() ? negated : queries)
+                        .add(query(predicate));
+            }
+            if (timed) {
+                queries.add(index.between(from, to));
+            }
+            candidates[i] = queries.isEmpty() ? null
+                    : index.and(queries.toArray(new Query[0]));
+            excluded.add(negated);
+            if (uuids[i] != -2) {
+                estimates[i] = uuids[i] < 0 ? 0 : 1;
+            } else {
+                estimates[i] = candidates[i] == null ? graph.getNodeCount()
+                        : candidates[i].estimate();
+            }
+        }
+
+        private Query query(Predicate predicate) {
+            switch (predicate.getKind()) {
+            case CONTAINS:
+                return index.value(predicate.getText());
+            case EQUALS:
+                return index.valueEquals(predicate.getText());
+            case TOKEN:
+                return index.token(predicate.getText());
+            case TIME:
+                return index.between(predicate.getFrom(), predicate.getTo());
+            case WITHIN:
+                return index.between(
+                        index.getLastTs() - predicate.getDuration(),
+                        Long.MAX_VALUE);
+            default:
+                throw new IllegalArgumentException(
+                        "Unsupported predicate " + predicate);
+            }
+        }
+
+        private Result run() {
+            BitSet[] sets = new BitSet[n];
+            for (int i = 0; i < n; i++) {
+                sets[i] = new BitSet();
+            }
+            Result result = new Result(query.getNames(), sets,
+                    query.getReturnedIndex(), query.getLimit());
+            sets[pivot] = restrict(pivot, null);
+            if (sets[pivot].isEmpty()) {
+                return result;
+            }
+            /* outwards from the pivot */
+            for (int i = pivot + 1; i < n; i++) {
+                sets[i] = restrict(i, step(sets[i - 1], i - 1, true));
+                if (sets[i].isEmpty()) {
+                    return clear(sets, result);
+                }
+            }
+            for (int i = pivot - 1; i >= 0; i--) {
+                sets[i] = restrict(i, step(sets[i + 1], i, false));
+                if (sets[i].isEmpty()) {
+                    return clear(sets, result);
+                }
+            }
+            /* inwards to the pivot, then outwards again */
+            for (int i = n - 2; i >= pivot; i--) {
+                sets[i].and(step(sets[i + 1], i, false));
+            }
+            for (int i = 1; i <= pivot; i++) {
+                sets[i].and(step(sets[i - 1], i - 1, true));
+            }
+            if (sets[pivot].isEmpty()) {
+                return clear(sets, result);
+            }
+            for (int i = pivot + 1; i < n; i++) {
+                sets[i].and(step(sets[i - 1], i - 1, true));
+            }
+            for (int i = pivot - 1; i >= 0; i--) {
+                sets[i].and(step(sets[i + 1], i, false));
+            }
+            return result;
+        }
+
+        private Result clear(BitSet[] sets, Result result) {
+            for (BitSet set : sets) {
+                set.clear();
+            }
+            return result;
+        }
+
+        /**
+         * Nodes matching a node pattern, among reached nodes if not null.
+         */
+        private BitSet restrict(int i, BitSet reached) {
+            BitSet nodes;
+            if (uuids[i] != -2) {
+                nodes = new BitSet();
+                int node = uuids[i];
+                if (node >= 0 && (reached == null || reached.get(node))
+                        && (candidates[i] == null
+                                || candidates[i].matches(node))) {
+                    nodes.set(node);
+                }
+            } else if (candidates[i] == null) {
+                if (reached == null) {
+                    nodes = graph.getNodes();
+                } else {
+                    nodes = reached;
+                }
+            } else if (reached == null) {
+                nodes = index.find(candidates[i]);
+            } else {
+                nodes = candidates[i].filter(reached);
+            }
+            nodes.andNot(excludedNodes[i]);
+            for (Query negated : excluded.get(i)) {
+                if (nodes.isEmpty()) {
+                    break;
+                }
+                nodes.andNot(negated.filter(nodes));
+            }
+            return nodes;
+        }
+
+        /**
+         * Nodes reached from nodes by an edge pattern, from its left node
+         * pattern to its right one (rightwards) or the other way.
+         */
+        private BitSet step(BitSet from, int e, boolean rightwards) {
+            EdgePattern edge = query.getEdges().get(e);
+            boolean outgoing = edge.isForward() == rightwards;
+            BitSet reached = new BitSet(graph.getNodeCount());
+            if (edge.getMin() == 0) {
+                reached.or(from);
+            }
+            /* with walks of 1 edge or more, each node is expanded once */
+            BitSet visited = edge.getMin() <= 1 ? new BitSet() : null;
+            BitSet frontier = from;
+            for (int depth = 1; depth <= edge.getMax()
+                    && !frontier.isEmpty(); depth++) {
+                BitSet next = expand(frontier, outgoing, allowed[e]);
+                if (visited != null) {
+                    next.andNot(visited);
+                    visited.or(next);
+                }
+                if (depth >= edge.getMin()) {
+                    reached.or(next);
+                }
+                frontier = next;
+            }
+            return reached;
+        }
+
+        private String describe() {
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("Query: %s\n", query));
+            for (int i = 0; i < n; i++) {
+                NodePattern pattern = query.getNodes().get(i);
+                text.append(String.format("%s %s: estimate %s%s\n",
+                        i == pivot ? "*" : " ", pattern.getName(), estimates[i],
+                        uuids[i] != -2 ? " (by UUID)"
+                                : candidates[i] == null ? " (any node)" : ""));
+                for (Predicate predicate : pattern.getPredicates()) {
+                    text.append(String.format("    %s %s\n",
+                            predicate.isNegated() ? "filter" : "index ",
+                            predicate));
+                }
+            }
+            text.append(String.format("Pivot: %s, evaluated with the index\n",
+                    query.getNodes().get(pivot).getName()));
+            for (int i = pivot + 1; i < n; i++) {
+                text.append(step(i - 1, i));
+            }
+            for (int i = pivot - 1; i >= 0; i--) {
+                text.append(step(i + 1, i));
+            }
+            if (n > 1) {
+                text.append("Semi-joins inwards to the pivot and outwards\n");
+            }
+            return text.toString();
+        }
+
+        private String step(int from, int to) {
+            EdgePattern edge = query.getEdges().get(Math.min(from, to));
+            return String.format("Expand %s to %s along %s, %s to %s edges, "
+                    + "and filter\n", query.getNodes().get(from).getName(),
+                    query.getNodes().get(to).getName(),
+                    edge.getTypes().isEmpty() ? "dependencies"
+                            : String.join("|", edge.getTypes()),
+                    edge.getMin(), edge.getMax());
+        }
+    }
+
+    /**
+     * Nodes reached by one edge from the nodes of a frontier.
+     */
+    private BitSet expand(BitSet frontier, boolean outgoing,
+            boolean[] allowed) {
+        int[] ids = frontier.stream().toArray();
+        if (ids.length <= TASK_SIZE) {
+            return new ExpandTask(ids, 0, ids.length, outgoing, allowed)
+                    .compute();
+        }
+        return pool.invoke(
+                new ExpandTask(ids, 0, ids.length, outgoing, allowed));
+    }
+
+    /**
+     * Expansion of a range of frontier nodes, split in halves until small.
+     */
+    private final class ExpandTask extends RecursiveTask<BitSet> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int[] ids;
+        private final int lo;
+        private final int hi;
+        private final boolean outgoing;
+        private final boolean[] allowed;
+
+        private ExpandTask(int[] ids, int lo, int hi, boolean outgoing,
+                boolean[] allowed) {
+            this.ids = ids;
+            this.lo = lo;
+            this.hi = hi;
+            this.outgoing = outgoing;
+            this.allowed = allowed;
+        }
+
+        @Override
+        protected BitSet compute() {
+            if (hi - lo > TASK_SIZE) {
+                int mid = (lo + hi) >>> 1;
+                ExpandTask left = new ExpandTask(ids, lo, mid, outgoing,
+                        allowed);
+                left.fork();
+                BitSet reached = new ExpandTask(ids, mid, hi, outgoing,
+                        allowed).compute();
+                reached.or(left.join());
+                return reached;
+            }
+            byte[] types = graph.outTypes();
+            BitSet reached = new BitSet(graph.getNodeCount());
+            if (outgoing) {
+                int[] offsets = graph.outOffsets();
+                int[] targets = graph.outTargets();
+                for (int k = lo; k < hi; k++) {
+                    int v = ids[k];
+                    for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                        if (allowed[types[e]]) {
+                            reached.set(targets[e]);
+                        }
+                    }
+                }
+            } else {
+                int[] offsets = graph.inOffsets();
+                int[] sources = graph.inSources();
+                int[] edges = graph.inEdges();
+                for (int k = lo; k < hi; k++) {
+                    int v = ids[k];
+                    for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+                        if (allowed[types[edges[j]]]) {
+                            reached.set(sources[j]);
+                        }
+                    }
+                }
+            }
+            return reached;
+        }
+    }
+
+    /*
+     * Command line
+     */
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println(
+                    "Usage: W3CProvQueryExecutor snapshot|log [query]");
+            System.exit(1);
+        }
+        Path path = Paths.get(args[0]);
+        long start = System.nanoTime();
+        W3CProvCompactGraph graph;
+        if (isSnapshot(path)) {
+            graph = W3CProvGraphSnapshot.open(path).getGraph();
+        } else {
+            ProvGraphLoader loader = new ProvGraphLoader();
+            graph = W3CProvCompactGraph.of(loader.load(new File(args[0])));
+        }
+        W3CProvQueryExecutor executor = new W3CProvQueryExecutor(graph);
+        System.err.printf("Loaded %s nodes in %.2f s\n", graph.getNodeCount(),
+                (System.nanoTime() - start) / 1e9);
+
+        if (args.length > 1) {
+            String[] words = new String[args.length - 1];
+            System.arraycopy(args, 1, words, 0, words.length);
+            run(executor, String.join(" ", words));
+            return;
+        }
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            if (!line.trim().isEmpty()) {
+                run(executor, line);
+            }
+        }
+    }
+
+    private static void run(W3CProvQueryExecutor executor, String line) {
+        try {
+            String text = line.trim();
+            if (text.regionMatches(true, 0, "explain ", 0, 8)) {
+                System.out.print(executor
+                        .explain(ProvQuery.parse(text.substring(8))));
+                return;
+            }
+            ProvQuery query = ProvQuery.parse(text);
+            long start = System.nanoTime();
+            Result result = executor.execute(query);
+            W3CProvCompactGraph graph = executor.getGraph();
+            BitSet nodes = result.getReturned();
+            int limit = query.getLimit() >= 0 ? query.getLimit()
+                    : DEFAULT_LIMIT;
+            int shown = 0;
+            for (int node = nodes.nextSetBit(0); node >= 0
+                    && shown < limit; node = nodes.nextSetBit(node + 1)) {
+                System.out.printf("%s\t%s\t%s\t%s\n", graph.getUuid(node),
+                        graph.getType(node), graph.getTs(node),
+                        graph.getValue(node));
+                shown++;
+            }
+            System.out.printf("%s nodes matched (%s shown) in %.3f s\n",
+                    result.getMatchCount(), shown,
+                    (System.nanoTime() - start) / 1e9);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + e.getMessage());
+        }
+    }
+
+    private static boolean isSnapshot(Path path) throws IOException {
+        if (Files.size(path) < 4) {
+            return false;
+        }
+        try (InputStream in = Files.newInputStream(path)) {
+            return new DataInputStream(in)
+                    .readInt() == W3CProvGraphSnapshot.MAGIC;
+        }
+    }
+
+}
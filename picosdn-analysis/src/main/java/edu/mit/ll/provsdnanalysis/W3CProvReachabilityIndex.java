@@ -0,0 +1,529 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Reachability index over a W3CProvCompactGraph, built once after loading, for
+ * answering ancestry questions interactively.
+ *
+ * Nodes are first grouped into strongly connected components (cycles, which
+ * the compact graph keeps), whose ids are a reverse topological order of the
+ * component DAG: a node can only depend on nodes of components with lower
+ * ids. Each component is then labeled with k intervals, from k depth-first
+ * traversals of the component DAG in random orders (as in GRAIL): if a
+ * component reaches another, its intervals contain the other's. Most nodes
+ * that are not in a node's ancestry are thus told apart in O(k), without
+ * traversing; other questions are answered by a traversal that only enters
+ * components whose intervals contain the target's.
+ *
+ * The index costs about 2k + 4 ints per component and two per edge between
+ * components. It reflects the graph as it was when built, and must be rebuilt
+ * after nodes or edges are added. Queries may run concurrently.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvReachabilityIndex {
+
+    public static final int DEFAULT_INTERVALS = 3;
+
+    private final W3CProvCompactGraph graph;
+    private final boolean dependenciesOnly;
+    private final int nodeCount;
+    private final int intervals;
+
+    /* component of each node */
+    private final int[] component;
+    private int componentCount = 0;
+    /* members of component c are members[memberOffsets[c] to [c+1]] */
+    private int[] memberOffsets;
+    private int[] members;
+    /* component DAG, without duplicate edges */
+    private int[] outOffsets;
+    private int[] outTargets;
+    private int[] inOffsets;
+    private int[] inSources;
+    /* interval i of component c is [lows[i*C+c], posts[i*C+c]] */
+    private int[] lows;
+    private int[] posts;
+
+    /**
+     * Build an index of the dependency edges of a graph, with the default
+     * number of intervals.
+     *
+     * @param graph
+     */
+    public W3CProvReachabilityIndex(W3CProvCompactGraph graph) {
+        this(graph, true, DEFAULT_INTERVALS, new Random());
+    }
+
+    /**
+     * Build an index.
+     *
+     * @param graph
+     * @param dependenciesOnly follow only dependency edges (as the traces do)
+     *                         rather than all edges
+     * @param intervals        number of intervals per component; more make
+     *                         traversals rarer but the index larger
+     * @param random           source of traversal orders
+     */
+    public W3CProvReachabilityIndex(W3CProvCompactGraph graph,
+            boolean dependenciesOnly, int intervals, Random random) {
+        if (intervals < 1) {
+            throw new IllegalArgumentException(
+                    "intervals must be positive");
+        }
+        graph.build();
+        this.graph = graph;
+        this.dependenciesOnly = dependenciesOnly;
+        this.nodeCount = graph.getNodeCount();
+        this.intervals = intervals;
+        this.component = new int[nodeCount];
+        findComponents();
+        condense();
+        label(random);
+    }
+
+    /**
+     * Whether a node is in the ancestry of another (i.e., went into affecting
+     * it).
+     *
+     * @param ancestor node id
+     * @param node     node id
+     * @return true if node depends on ancestor
+     */
+    public boolean isInAncestryOf(int ancestor, int node) {
+        return reaches(node, ancestor);
+    }
+
+    /**
+     * Whether a node is a descendant of another (i.e., was affected by it).
+     *
+     * @param descendant node id
+     * @param node       node id
+     * @return true if descendant depends on node
+     */
+    public boolean isDescendantOf(int descendant, int node) {
+        return reaches(descendant, node);
+    }
+
+    /**
+     * Get ancestry of node (i.e., all things that went into affecting this
+     * node).
+     *
+     * @param node node id
+     * @return node ids
+     */
+    public BitSet getAncestryOfNode(int node) {
+        return reachable(node, true);
+    }
+
+    /**
+     * Get descendants of node (i.e., all things this node affected).
+     *
+     * @param node node id
+     * @return node ids
+     */
+    public BitSet getDescendantsOfNode(int node) {
+        return reachable(node, false);
+    }
+
+    /**
+     * Perform a common ancestry trace with one or more pieces of evidence,
+     * with the same results as W3CProvCompactGraph.commonAncestryTrace() if
+     * the index follows only dependency edges.
+     *
+     * The ancestry of the piece of evidence likely to have the fewest
+     * ancestors is traversed, and its nodes are then checked against the
+     * other pieces of evidence with the index.
+     *
+     * @param evidenceSet node ids
+     * @return List with sets of agents, activities, and entities
+     */
+    public List<BitSet> commonAncestryTrace(BitSet evidenceSet) {
+        checkCurrent();
+        BitSet commonAncestors;
+        if (evidenceSet.isEmpty()) {
+            commonAncestors = graph.getNodes();
+        } else {
+            int start = -1;
+            int smallest = Integer.MAX_VALUE;
+            for (int e = evidenceSet.nextSetBit(0); e >= 0; e = evidenceSet
+                    .nextSetBit(e + 1)) {
+                int c = component(e);
+                if (posts[c] - lows[c] < smallest) {
+                    smallest = posts[c] - lows[c];
+                    start = e;
+                }
+            }
+            commonAncestors = reachable(start, true);
+            for (int e = evidenceSet.nextSetBit(0); e >= 0
+                    && !commonAncestors.isEmpty(); e = evidenceSet
+                            .nextSetBit(e + 1)) {
+                if (e == start) {
+                    continue;
+                }
+                for (int v = commonAncestors.nextSetBit(0); v >= 0; v = commonAncestors
+                        .nextSetBit(v + 1)) {
+                    if (!reaches(e, v)) {
+                        commonAncestors.clear(v);
+                    }
+                }
+            }
+        }
+        List<BitSet> commonAncestorsList = new ArrayList<BitSet>();
+        commonAncestorsList.add(graph.filterAgents(commonAncestors));
+        commonAncestorsList.add(graph.filterActivities(commonAncestors));
+        commonAncestorsList.add(graph.filterEntities(commonAncestors));
+        return commonAncestorsList;
+    }
+
+    /**
+     * Number of strongly connected components (i.e., nodes, unless there are
+     * cycles).
+     *
+     * @return count
+     */
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Display information about the index.
+     */
+    public void pp() {
+        System.out.printf("Number of components: %s\n", componentCount);
+        System.out.printf("Number of component edges: %s\n",
+                outTargets.length);
+        System.out.printf("Number of intervals: %s\n", intervals);
+    }
+
+    /**
+     * Whether a node depends on another; as in the traces, a node is not in
+     * its own ancestry, even on a cycle.
+     */
+    private boolean reaches(int from, int to) {
+        checkCurrent();
+        int source = component(from);
+        int target = component(to);
+        if (source == target) {
+            return from != to;
+        }
+        if (!mayReach(source, target)) {
+            return false;
+        }
+        /* traverse, entering only components that may reach the target */
+        BitSet seen = new BitSet();
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = source;
+        while (top > 0) {
+            int c = stack[--top];
+            for (int i = outOffsets[c]; i < outOffsets[c + 1]; i++) {
+                int d = outTargets[i];
+                if (d == target) {
+                    return true;
+                }
+                if (!seen.get(d) && mayReach(d, target)) {
+                    seen.set(d);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top << 1);
+                    }
+                    stack[top++] = d;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether a component may reach another: false if it certainly does not.
+     */
+    private boolean mayReach(int source, int target) {
+        if (source < target) {
+            return false;
+        }
+        for (int i = 0; i < intervals; i++) {
+            int s = i * componentCount + source;
+            int t = i * componentCount + target;
+            if (lows[t] < lows[s] || posts[t] > posts[s]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the nodes a node reaches, through the component DAG.
+     */
+    private BitSet reachable(int node, boolean outgoing) {
+        checkCurrent();
+        int start = component(node);
+        int[] offsets = outgoing ? outOffsets : inOffsets;
+        int[] adjacent = outgoing ? outTargets : inSources;
+        BitSet seen = new BitSet(componentCount);
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = start;
+        while (top > 0) {
+            int c = stack[--top];
+            for (int i = offsets[c]; i < offsets[c + 1]; i++) {
+                int d = adjacent[i];
+                if (!seen.get(d)) {
+                    seen.set(d);
+                    if (top == stack.length) {
+                        stack = Arrays.copyOf(stack, top << 1);
+                    }
+                    stack[top++] = d;
+                }
+            }
+        }
+        /* the rest of the node's own component is on a cycle with it */
+        seen.set(start);
+        BitSet nodes = new BitSet(nodeCount);
+        for (int c = seen.nextSetBit(0); c >= 0; c = seen.nextSetBit(c + 1)) {
+            for (int i = memberOffsets[c]; i < memberOffsets[c + 1]; i++) {
+                nodes.set(members[i]);
+            }
+        }
+        nodes.clear(node);
+        return nodes;
+    }
+
+    /*
+     * Members of each component, components in reverse topological order,
+     * for other analyses within the package
+     */
+
+    int[] memberOffsets() {
+        return memberOffsets;
+    }
+
+    int[] members() {
+        return members;
+    }
+
+    private int component(int node) {
+        if (node < 0 || node >= nodeCount) {
+            throw new IndexOutOfBoundsException("No node " + node);
+        }
+        return component[node];
+    }
+
+    private void checkCurrent() {
+        if (graph.getNodeCount() != nodeCount) {
+            throw new IllegalStateException(
+                    "Graph changed since the index was built");
+        }
+    }
+
+    private boolean follows(int edge) {
+        return !dependenciesOnly || graph.isDependency(edge);
+    }
+
+    /**
+     * Find strongly connected components (Tarjan's algorithm, iteratively),
+     * numbered in reverse topological order.
+     */
+    private void findComponents() {
+        int[] offsets = graph.outOffsets();
+        int[] targets = graph.outTargets();
+        int[] index = new int[nodeCount];
+        int[] low = new int[nodeCount];
+        int[] next = new int[nodeCount];
+        int[] call = new int[nodeCount];
+        int[] stack = new int[nodeCount];
+        BitSet onStack = new BitSet(nodeCount);
+        Arrays.fill(index, -1);
+        int counter = 0;
+        int sp = 0;
+        for (int s = 0; s < nodeCount; s++) {
+            if (index[s] >= 0) {
+                continue;
+            }
+            int top = 0;
+            call[0] = s;
+            index[s] = low[s] = counter++;
+            next[s] = offsets[s];
+            stack[sp++] = s;
+            onStack.set(s);
+            while (top >= 0) {
+                int v = call[top];
+                if (next[v] < offsets[v + 1]) {
+                    int e = next[v]++;
+                    if (!follows(e)) {
+                        continue;
+                    }
+                    int w = targets[e];
+                    if (index[w] < 0) {
+                        index[w] = low[w] = counter++;
+                        next[w] = offsets[w];
+                        stack[sp++] = w;
+                        onStack.set(w);
+                        call[++top] = w;
+                    } else if (onStack.get(w)) {
+                        low[v] = Math.min(low[v], index[w]);
+                    }
+                    continue;
+                }
+                if (low[v] == index[v]) {
+                    int w;
+                    do {
+                        w = stack[--sp];
+                        onStack.clear(w);
+                        component[w] = componentCount;
+                    } while (w != v);
+                    componentCount++;
+                }
+                if (--top >= 0) {
+                    int u = call[top];
+                    low[u] = Math.min(low[u], low[v]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Build the members of each component and the component DAG.
+     */
+    private void condense() {
+        int count = componentCount;
+        memberOffsets = new int[count + 1];
+        for (int v = 0; v < nodeCount; v++) {
+            memberOffsets[component[v] + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            memberOffsets[c + 1] += memberOffsets[c];
+        }
+        members = new int[nodeCount];
+        int[] cursor = Arrays.copyOf(memberOffsets, count);
+        for (int v = 0; v < nodeCount; v++) {
+            members[cursor[component[v]]++] = v;
+        }
+
+        /* edges between components, grouped by source, without duplicates */
+        int[] offsets = graph.outOffsets();
+        int[] targets = graph.outTargets();
+        int[] last = new int[count];
+        Arrays.fill(last, -1);
+        outOffsets = new int[count + 1];
+        int[] dagTargets = new int[16];
+        int w = 0;
+        for (int c = 0; c < count; c++) {
+            outOffsets[c] = w;
+            for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+                int v = members[m];
+                for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                    int d = component[targets[e]];
+                    if (d == c || !follows(e) || last[d] == c) {
+                        continue;
+                    }
+                    last[d] = c;
+                    if (w == dagTargets.length) {
+                        dagTargets = Arrays.copyOf(dagTargets, w << 1);
+                    }
+                    dagTargets[w++] = d;
+                }
+            }
+        }
+        outOffsets[count] = w;
+        outTargets = Arrays.copyOf(dagTargets, w);
+
+        inOffsets = new int[count + 1];
+        for (int i = 0; i < w; i++) {
+            inOffsets[outTargets[i] + 1]++;
+        }
+        for (int c = 0; c < count; c++) {
+            inOffsets[c + 1] += inOffsets[c];
+        }
+        inSources = new int[w];
+        cursor = Arrays.copyOf(inOffsets, count);
+        for (int c = 0; c < count; c++) {
+            for (int i = outOffsets[c]; i < outOffsets[c + 1]; i++) {
+                inSources[cursor[outTargets[i]]++] = c;
+            }
+        }
+    }
+
+    /**
+     * Label components with intervals from randomized post-order traversals.
+     */
+    private void label(Random random) {
+        int count = componentCount;
+        lows = new int[intervals * count];
+        posts = new int[intervals * count];
+        int[] roots = new int[count];
+        int[] next = new int[count];
+        int[] remaining = new int[count];
+        int[] call = new int[count];
+        for (int i = 0; i < intervals; i++) {
+            int base = i * count;
+            /* roots are components nothing depends on, in random order */
+            int rootCount = 0;
+            for (int c = 0; c < count; c++) {
+                if (inOffsets[c] == inOffsets[c + 1]) {
+                    roots[rootCount++] = c;
+                }
+            }
+            for (int r = rootCount - 1; r > 0; r--) {
+                int j = random.nextInt(r + 1);
+                int t = roots[r];
+                roots[r] = roots[j];
+                roots[j] = t;
+            }
+            BitSet visited = new BitSet(count);
+            int rank = 0;
+            for (int r = 0; r < rootCount; r++) {
+                int root = roots[r];
+                int top = 0;
+                call[0] = root;
+                visit(root, random, next, remaining);
+                visited.set(root);
+                lows[base + root] = Integer.MAX_VALUE;
+                while (top >= 0) {
+                    int c = call[top];
+                    if (remaining[c] > 0) {
+                        /* children from a random offset, wrapping around */
+                        int d = outTargets[next[c]];
+                        remaining[c]--;
+                        next[c] = next[c] + 1 == outOffsets[c + 1]
+                                ? outOffsets[c]
+                                : next[c] + 1;
+                        if (!visited.get(d)) {
+                            visited.set(d);
+                            visit(d, random, next, remaining);
+                            lows[base + d] = Integer.MAX_VALUE;
+                            call[++top] = d;
+                        } else {
+                            lows[base + c] = Math.min(lows[base + c],
+                                    lows[base + d]);
+                        }
+                        continue;
+                    }
+                    posts[base + c] = rank;
+                    lows[base + c] = Math.min(lows[base + c], rank);
+                    rank++;
+                    if (--top >= 0) {
+                        int p = call[top];
+                        lows[base + p] = Math.min(lows[base + p],
+                                lows[base + c]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Start iterating a component's children from a random offset.
+     */
+    private void visit(int c, Random random, int[] next, int[] remaining) {
+        int degree = outOffsets[c + 1] - outOffsets[c];
+        remaining[c] = degree;
+        next[c] = degree == 0 ? 0 : outOffsets[c] + random.nextInt(degree);
+    }
+
+}
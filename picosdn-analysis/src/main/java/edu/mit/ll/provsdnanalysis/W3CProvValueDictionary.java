@@ -0,0 +1,205 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary of string values by int id.
+ *
+ * Each distinct value is stored once, as UTF-8 bytes in a single byte array,
+ * and is found again by an open-addressing hash table of ids with linear
+ * probing. A value thus costs its bytes plus three ints, rather than a String
+ * per occurrence. Values are decoded into new Strings on lookup.
+ *
+ * Not thread-safe, like W3CProvGraph.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvValueDictionary {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /* UTF-8 bytes of all values; value i is bytes[offsets[i], offsets[i+1]) */
+    private byte[] bytes = new byte[1024];
+    private int[] offsets = new int[MIN_CAPACITY + 1];
+    private int[] hashes = new int[MIN_CAPACITY];
+    private int size = 0;
+
+    /* id + 1 of the value in each slot, or 0 if empty */
+    private int[] slots;
+    private int mask;
+    private int threshold;
+
+    public W3CProvValueDictionary() {
+        allocate(MIN_CAPACITY);
+    }
+
+    /**
+     * Get the id of a value, adding the value if it is not in the dictionary.
+     *
+     * @param value
+     * @return id
+     */
+    public int intern(String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        int hash = value.hashCode();
+        int slot = find(encoded, hash);
+        if (slots[slot] != 0) {
+            return slots[slot] - 1;
+        }
+        int id = append(encoded, hash);
+        slots[slot] = id + 1;
+        if (size > threshold) {
+            grow();
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a value.
+     *
+     * @param value
+     * @return id, or -1 if the value is not in the dictionary
+     */
+    public int indexOf(String value) {
+        int slot = find(value.getBytes(StandardCharsets.UTF_8),
+                value.hashCode());
+        return slots[slot] - 1;
+    }
+
+    /**
+     * Get a value by id.
+     *
+     * @param id
+     * @return value
+     */
+    public String get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No value " + id);
+        }
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Number of distinct values.
+     *
+     * @return count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Approximate number of bytes used by the dictionary's arrays.
+     *
+     * @return bytes
+     */
+    public long estimateBytes() {
+        return bytes.length + 4L * (offsets.length + hashes.length
+                + slots.length);
+    }
+
+    /**
+     * Write the dictionary, with its hash table, to a snapshot.
+     */
+    void save(W3CProvGraphSnapshot.Output out) throws IOException {
+        out.putInt(size);
+        out.putInt(offsets[size]);
+        out.putBytes(bytes, offsets[size]);
+        out.putInts(offsets, size + 1);
+        out.putInts(hashes, size);
+        out.putInt(slots.length);
+        out.putInts(slots, slots.length);
+    }
+
+    /**
+     * Replace the dictionary with one read from a snapshot, without rehashing.
+     */
+    void restore(W3CProvGraphSnapshot.Input in) throws IOException {
+        size = in.getInt();
+        int length = in.getInt();
+        int capacity = Math.max(size, MIN_CAPACITY);
+        bytes = in.getBytes(new byte[Math.max(length, 1024)], length);
+        offsets = in.getInts(new int[capacity + 1], size + 1);
+        hashes = in.getInts(new int[capacity], size);
+        allocate(in.getInt());
+        in.getInts(slots, slots.length);
+    }
+
+    /**
+     * Find the slot of a value, or the empty slot where it would go.
+     */
+    private int find(byte[] encoded, int hash) {
+        for (int slot = slotOf(hash);; slot = (slot + 1) & mask) {
+            int id = slots[slot] - 1;
+            if (id < 0 || (hashes[id] == hash && equalsAt(id, encoded))) {
+                return slot;
+            }
+        }
+    }
+
+    private boolean equalsAt(int id, byte[] encoded) {
+        int from = offsets[id];
+        int length = offsets[id + 1] - from;
+        if (length != encoded.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[from + i] != encoded[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int append(byte[] encoded, int hash) {
+        int end = offsets[size];
+        if (end + encoded.length > bytes.length) {
+            long needed = Math.max((long) bytes.length << 1,
+                    (long) end + encoded.length);
+            if (needed > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Value dictionary is full");
+            }
+            bytes = Arrays.copyOf(bytes, (int) needed);
+        }
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size << 1);
+            offsets = Arrays.copyOf(offsets, (size << 1) + 1);
+        }
+        System.arraycopy(encoded, 0, bytes, end, encoded.length);
+        hashes[size] = hash;
+        offsets[++size] = end + encoded.length;
+        return size - 1;
+    }
+
+    private void grow() {
+        if (slots.length == MAX_CAPACITY) {
+            throw new IllegalStateException("Value dictionary is full");
+        }
+        allocate(slots.length << 1);
+        for (int id = 0; id < size; id++) {
+            int slot = slotOf(hashes[id]);
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private int slotOf(int hash) {
+        int h = hash * 0x9e3779b9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+}
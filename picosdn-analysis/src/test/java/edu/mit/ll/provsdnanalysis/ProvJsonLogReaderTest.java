@@ -0,0 +1,140 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Tests of the JSON provenance log reader against a small fixture log
+ * (json-log.jsonl): a node header, records as written by ProvLogWriter,
+ * records copied from the controller's log with a log prefix, lines without
+ * records, a record of an older log without "hlc", and a collection
+ * membership.
+ *
+ * The fixture is copied into a segment padded with NULs, as the rest of a
+ * memory-mapped segment is.
+ */
+public class ProvJsonLogReaderTest {
+
+    private static final String HOST = "00000000-0000-0000-0000-000000000001";
+    private static final String FWD = "00000000-0000-0000-0000-000000000002";
+    private static final String COLLECTION = "00000000-0000-0000-0000-000000000003";
+
+    private static final List<String> FIXTURE_RECORDS = Arrays.asList(
+            "node onos-1",
+            "entity " + HOST
+                    + " DefaultHost{id=00:00:00:00:00:01/None, \"up\"\n} 1:0",
+            "activity " + FWD + " fwd 2:0",
+            "used " + FWD + " " + HOST + " 2:1",
+            "entity " + COLLECTION + " Collection{size=2} 3:0",
+            "hadMember " + COLLECTION + " " + HOST + " 3:1",
+            "hadMember " + COLLECTION + " " + FWD + " 3:1");
+
+    @Test
+    public void readsFixture() throws IOException {
+        ProvJsonLogReader reader = new ProvJsonLogReader();
+        List<String> visited = new ArrayList<String>();
+        assertEquals(5, reader.read(segment(""), visitor(visited)));
+        assertEquals(FIXTURE_RECORDS, visited);
+        assertEquals(0, reader.getMalformedLines());
+    }
+
+    @Test
+    public void skipsTornFinalLine() throws IOException {
+        ProvJsonLogReader reader = new ProvJsonLogReader();
+        List<String> visited = new ArrayList<String>();
+        assertEquals(5, reader.read(segment("{\"w3cProvType\":\"wasGenera"),
+                visitor(visited)));
+        assertEquals(FIXTURE_RECORDS, visited);
+        assertEquals(1, reader.getMalformedLines());
+    }
+
+    @Test
+    public void readsSegmentsOfDirectoryInOrder() throws IOException {
+        File directory = Files.createTempDirectory("log").toFile();
+        Files.write(new File(directory, "prov-1.jsonl").toPath(),
+                Arrays.asList("{\"w3cProvType\":\"entity\",\"uuid\":\"b\","
+                        + "\"value\":\"second\",\"hlc\":\"2\"}"),
+                StandardCharsets.UTF_8);
+        Files.write(new File(directory, "prov-0.jsonl").toPath(),
+                Arrays.asList("{\"w3cProvType\":\"entity\",\"uuid\":\"a\","
+                        + "\"value\":\"first\",\"hlc\":\"1\"}"),
+                StandardCharsets.UTF_8);
+        Files.write(new File(directory, "notes.txt").toPath(),
+                Arrays.asList("{\"w3cProvType\":\"entity\"}"),
+                StandardCharsets.UTF_8);
+        List<String> visited = new ArrayList<String>();
+        assertEquals(2, new ProvJsonLogReader().read(directory,
+                visitor(visited)));
+        assertEquals(Arrays.asList("entity a first 0:1", "entity b second 0:2"),
+                visited);
+    }
+
+    /**
+     * The fixture, then a tail, then NUL padding, in a new segment file.
+     */
+    private static File segment(String tail) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = ProvJsonLogReaderTest.class
+                .getResourceAsStream("/json-log.jsonl");
+        try {
+            byte[] b = new byte[4096];
+            for (int n; (n = in.read(b)) > 0;) {
+                out.write(b, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        out.write(tail.getBytes(StandardCharsets.UTF_8));
+        out.write(new byte[256]);
+        File segment = File.createTempFile(ProvLogReader.SEGMENT_PREFIX,
+                ProvJsonLogReader.SEGMENT_SUFFIX);
+        Files.write(segment.toPath(), out.toByteArray());
+        return segment;
+    }
+
+    /**
+     * Visitor that describes each record as a line: kind, ids, value and
+     * timestamp as milliseconds:logical.
+     */
+    private static ProvLogVisitor visitor(final List<String> visited) {
+        return new ProvLogVisitor() {
+            public void node(String nodeId) {
+                visited.add("node " + nodeId);
+            }
+
+            public void entity(String uuid, String name, String value,
+                    long ts) {
+                visited.add("entity " + uuid + " " + value + " " + hlc(ts));
+            }
+
+            public void activity(String uuid, String name, String value,
+                    long ts) {
+                visited.add("activity " + uuid + " " + name + " " + hlc(ts));
+            }
+
+            public void relation(String type, String from, String to,
+                    long ts) {
+                visited.add(type + " " + from + " " + to + " " + hlc(ts));
+            }
+        };
+    }
+
+    private static String hlc(long ts) {
+        return ProvLogReader.millisOf(ts) + ":"
+                + (ts & ((1L << ProvLogReader.HLC_LOGICAL_BITS) - 1));
+    }
+
+}
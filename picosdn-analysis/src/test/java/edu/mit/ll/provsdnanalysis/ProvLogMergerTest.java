@@ -0,0 +1,142 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.node;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.object;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnanalysis.ProvLogReader.ProvLogVisitor;
+
+/**
+ * Tests of merging the logs of several cluster nodes, one written in the
+ * binary format and one in the JSON format.
+ */
+public class ProvLogMergerTest {
+
+    private final String x = UUID.randomUUID().toString();
+    private final String y = UUID.randomUUID().toString();
+    private final String z = UUID.randomUUID().toString();
+    private final String act = UUID.randomUUID().toString();
+
+    @Test
+    public void replaysByTimestampNodeAndPosition() throws IOException {
+        File cluster = Files.createTempDirectory("cluster").toFile();
+        /* onos-1 writes x at 2 and y at 1, in that order */
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(node("onos-1"));
+        records.add(object(ProvLogReader.TYPE_ENTITY, UUID.fromString(x),
+                hlc(2), -1, "", "x"));
+        records.add(object(ProvLogReader.TYPE_ENTITY, UUID.fromString(y),
+                hlc(1), 0, "", "y"));
+        File binary = new File(cluster, "a");
+        binary.mkdir();
+        write(new File(binary, "prov-0.seg"), ProvLogReader.VERSION, records,
+                false);
+        /* onos-2 writes z and act at 1, and a relation to x at 2 */
+        jsonLog(cluster, "b", "{\"segment\":0,\"node\":\"onos-2\"}",
+                entity(z, "z", 1), activity(act, 1),
+                relation("used", act, x, 2));
+
+        ProvLogMerger merger = new ProvLogMerger();
+        merger.addAll(cluster);
+        assertEquals(5, merger.getRecords());
+        assertEquals(Arrays.asList("onos-1", "onos-2"), merger.getNodes());
+
+        final List<String> replayed = new ArrayList<String>();
+        merger.replay(new ProvLogVisitor() {
+            public void node(String nodeId) {
+                replayed.add(nodeId);
+            }
+
+            public void entity(String uuid, String name, String value,
+                    long ts) {
+                replayed.add(value + "@" + ProvLogReader.millisOf(ts));
+            }
+
+            public void activity(String uuid, String name, String value,
+                    long ts) {
+                replayed.add(value + "@" + ProvLogReader.millisOf(ts));
+            }
+
+            public void relation(String type, String from, String to,
+                    long ts) {
+                replayed.add(type + "@" + ProvLogReader.millisOf(ts));
+            }
+        });
+        assertEquals(Arrays.asList("onos-1", "y@1", "onos-2", "z@1", "fwd@1",
+                "onos-1", "x@2", "onos-2", "used@2"), replayed);
+    }
+
+    @Test
+    public void countsCausalityViolations() throws IOException {
+        File cluster = Files.createTempDirectory("cluster").toFile();
+        jsonLog(cluster, "a", entity(x, "x", 10), entity(y, "y", 10));
+        /* one relation before x was written on onos-1, one after */
+        jsonLog(cluster, "b", activity(act, 5), relation("used", act, x, 5),
+                relation("used", act, y, 20), entity(z, "z", 20),
+                relation("wasGeneratedBy", z, act, 20));
+
+        ProvLogMerger merger = new ProvLogMerger();
+        merger.addAll(cluster);
+        assertEquals(2, merger.getCrossNodeRelations());
+        assertEquals(1, merger.getCausalityViolations());
+
+        W3CProvGraph graph = merger.toGraph();
+        assertEquals(4, graph.getNodes().size());
+        assertEquals(3, graph.getEdges().size());
+        assertNotNull(merger.getCycleReport());
+        assertEquals(0, merger.getCycleReport().getCycleCount());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWithoutLogs() throws IOException {
+        File cluster = Files.createTempDirectory("cluster").toFile();
+        new File(cluster, "a").mkdir();
+        Files.write(new File(cluster, "notes.txt").toPath(),
+                "not a log".getBytes(StandardCharsets.UTF_8));
+        new ProvLogMerger().addAll(cluster);
+    }
+
+    private static long hlc(long millis) {
+        return millis << ProvLogReader.HLC_LOGICAL_BITS;
+    }
+
+    private static String entity(String uuid, String value, long millis) {
+        return "{\"w3cProvType\":\"entity\",\"uuid\":\"" + uuid
+                + "\",\"name\":\"\",\"value\":\"" + value
+                + "\",\"hlc\":\"" + hlc(millis) + "\"}";
+    }
+
+    private static String activity(String uuid, long millis) {
+        return "{\"w3cProvType\":\"activity\",\"uuid\":\"" + uuid
+                + "\",\"name\":\"fwd\",\"value\":\"fwd\",\"hlc\":\""
+                + hlc(millis) + "\"}";
+    }
+
+    private static String relation(String type, String from, String to,
+            long millis) {
+        return "{\"w3cProvType\":\"" + type + "\",\"from\":\"" + from
+                + "\",\"to\":\"" + to + "\",\"hlc\":\"" + hlc(millis) + "\"}";
+    }
+
+    private static void jsonLog(File cluster, String name, String... lines)
+            throws IOException {
+        File directory = new File(cluster, name);
+        directory.mkdir();
+        Files.write(new File(directory, "prov-0.jsonl").toPath(),
+                Arrays.asList(lines), StandardCharsets.UTF_8);
+    }
+
+}
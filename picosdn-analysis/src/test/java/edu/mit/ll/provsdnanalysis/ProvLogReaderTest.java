@@ -0,0 +1,149 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.membership;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.node;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.object;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.relation;
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.write;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests of the binary provenance log reader.
+ *
+ * Segments are written byte by byte (see ProvTestSegments) with the codes of
+ * ProvLogWriter and W3CProvRelationType in onos-app-provsdn; ProvLogWriterTest
+ * pins the same codes on the writer side, so the two tables cannot drift
+ * apart unnoticed.
+ */
+public class ProvLogReaderTest {
+
+    /* relation names by code, as pinned by ProvLogWriterTest */
+    private static final String[] RELATION_CODES = { null, "used",
+            "wasGeneratedBy", "wasDerivedFrom", "wasInformedBy",
+            "wasAssociatedWith", "actedOnBehalfOf", "invalidates",
+            "wasRevisionOf", "hadMember", "alternateOf" };
+
+    private final UUID a = UUID.randomUUID();
+    private final UUID b = UUID.randomUUID();
+
+    @Test
+    public void pinsFormatCodes() {
+        assertEquals(0x50524f56, ProvLogReader.MAGIC);
+        assertEquals(3, ProvLogReader.VERSION);
+        assertEquals(1, ProvLogReader.TYPE_ENTITY);
+        assertEquals(2, ProvLogReader.TYPE_ACTIVITY);
+        assertEquals(3, ProvLogReader.TYPE_RELATION);
+        assertEquals(4, ProvLogReader.TYPE_MEMBERSHIP);
+        assertEquals(5, ProvLogReader.TYPE_NODE);
+        assertEquals(RELATION_CODES.length,
+                ProvLogReader.RELATION_TYPES.length);
+        for (int code = 1; code < RELATION_CODES.length; code++) {
+            assertEquals(RELATION_CODES[code],
+                    ProvLogReader.RELATION_TYPES[code]);
+        }
+    }
+
+    @Test
+    public void readsEveryRecordType() throws IOException {
+        List<byte[]> records = new ArrayList<byte[]>();
+        records.add(node("onos-1"));
+        records.add(object(ProvLogReader.TYPE_ENTITY, a, 7L << 16, -1,
+                "packet", "DefaultInboundPacket{}"));
+        records.add(object(ProvLogReader.TYPE_ACTIVITY, b, 8L << 16, 0, null,
+                ""));
+        for (int code = 1; code < RELATION_CODES.length; code++) {
+            records.add(relation(code, b, a, 9L << 16));
+        }
+        records.add(membership(a, 10L << 16, b, b));
+        File segment = write(ProvLogReader.VERSION, records, false);
+
+        List<String> seen = new ArrayList<String>();
+        ProvLogReader reader = new ProvLogReader();
+        assertEquals(records.size(), reader.read(segment, recorder(seen)));
+        List<String> expected = new ArrayList<String>();
+        expected.add("node onos-1");
+        expected.add("entity " + a + " packet DefaultInboundPacket{} 7");
+        expected.add("activity " + b + " packet  8");
+        for (int code = 1; code < RELATION_CODES.length; code++) {
+            expected.add(RELATION_CODES[code] + " " + b + " " + a + " 9");
+        }
+        expected.add("hadMember " + a + " " + b + " 10");
+        expected.add("hadMember " + a + " " + b + " 10");
+        assertEquals(expected, seen);
+        assertEquals(0, reader.getTornSegments());
+        assertEquals(segment.length(), reader.getBytes());
+        Files.delete(segment.toPath());
+    }
+
+    @Test
+    public void stopsAtTornRecord() throws IOException {
+        List<byte[]> records = Arrays.asList(
+                object(ProvLogReader.TYPE_ENTITY, a, 1L << 16, -1, "n", "v"),
+                relation(1, a, b, 2L << 16));
+        File segment = write(ProvLogReader.VERSION, records, true);
+
+        List<String> seen = new ArrayList<String>();
+        ProvLogReader reader = new ProvLogReader();
+        assertEquals(1, reader.read(segment, recorder(seen)));
+        assertEquals(1, reader.getTornSegments());
+        Files.delete(segment.toPath());
+    }
+
+    @Test
+    public void rejectsOtherVersions() throws IOException {
+        File segment = write((short) 2, new ArrayList<byte[]>(), false);
+        try {
+            new ProvLogReader().read(segment, recorder(new ArrayList<String>()));
+            fail("version 2 segment was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("version 2"));
+        } finally {
+            Files.delete(segment.toPath());
+        }
+    }
+
+    private static ProvLogReader.ProvLogVisitor recorder(
+            final List<String> seen) {
+        return new ProvLogReader.ProvLogVisitor() {
+
+            @Override
+            public void node(String nodeId) {
+                seen.add("node " + nodeId);
+            }
+
+            @Override
+            public void entity(String uuid, String name, String value,
+                    long ts) {
+                seen.add("entity " + uuid + " " + name + " " + value + " "
+                        + ProvLogReader.millisOf(ts));
+            }
+
+            @Override
+            public void activity(String uuid, String name, String value,
+                    long ts) {
+                seen.add("activity " + uuid + " " + name + " " + value + " "
+                        + ProvLogReader.millisOf(ts));
+            }
+
+            @Override
+            public void relation(String type, String from, String to,
+                    long ts) {
+                seen.add(type + " " + from + " " + to + " "
+                        + ProvLogReader.millisOf(ts));
+            }
+        };
+    }
+
+}
@@ -0,0 +1,181 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Binary log segments written byte by byte, in the layout documented by
+ * ProvLogWriter in onos-app-provsdn, shared by the tests.
+ */
+final class ProvTestSegments {
+
+    private ProvTestSegments() {
+    }
+
+    /*
+     * Record payloads
+     */
+
+    static byte[] node(String nodeId) {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        buffer.put(ProvLogReader.TYPE_NODE);
+        putString(buffer, nodeId);
+        return toArray(buffer);
+    }
+
+    static byte[] object(byte type, UUID uuid, long ts, int nameRef,
+            String name, String value) {
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(256 + encoded.length);
+        buffer.put(type);
+        putUuid(buffer, uuid);
+        buffer.putLong(ts);
+        buffer.putInt(nameRef);
+        if (nameRef < 0) {
+            putString(buffer, name);
+        }
+        putString(buffer, value);
+        return toArray(buffer);
+    }
+
+    static byte[] relation(int code, UUID from, UUID to, long ts) {
+        ByteBuffer buffer = ByteBuffer.allocate(42);
+        buffer.put(ProvLogReader.TYPE_RELATION);
+        buffer.put((byte) code);
+        putUuid(buffer, from);
+        putUuid(buffer, to);
+        buffer.putLong(ts);
+        return toArray(buffer);
+    }
+
+    static byte[] membership(UUID collection, long ts, UUID... members) {
+        ByteBuffer buffer = ByteBuffer.allocate(29 + 16 * members.length);
+        buffer.put(ProvLogReader.TYPE_MEMBERSHIP);
+        putUuid(buffer, collection);
+        buffer.putLong(ts);
+        buffer.putInt(members.length);
+        for (UUID member : members) {
+            putUuid(buffer, member);
+        }
+        return toArray(buffer);
+    }
+
+    /**
+     * Records of the nodes and edges of a graph with a timestamp in
+     * (after, until], nodes first, as one segment: the name "listener" is
+     * defined by the first node record. Node and edge timestamps are taken as
+     * milliseconds.
+     *
+     * @param graph
+     * @param after
+     * @param until
+     * @return records
+     */
+    static List<byte[]> records(W3CProvGraph graph, long after, long until) {
+        return records(graph, after, until, false);
+    }
+
+    /**
+     * Records of a graph as above, appended to a segment whose name
+     * "listener" is already defined if nameDefined.
+     */
+    static List<byte[]> records(W3CProvGraph graph, long after, long until,
+            boolean nameDefined) {
+        List<String> relations = Arrays.asList(ProvLogReader.RELATION_TYPES);
+        List<byte[]> records = new ArrayList<byte[]>();
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            long ts = Long.parseLong(node.getTs());
+            if (ts > after && ts <= until) {
+                records.add(object(node.getType().equals("activity")
+                        ? ProvLogReader.TYPE_ACTIVITY
+                        : ProvLogReader.TYPE_ENTITY,
+                        UUID.fromString(node.getUuid()),
+                        ts << ProvLogReader.HLC_LOGICAL_BITS,
+                        records.isEmpty() && !nameDefined ? -1 : 0, "listener",
+                        node.getValue()));
+            }
+        }
+        for (W3CProvGraphEdge edge : graph.getEdges()) {
+            long ts = Long.parseLong(edge.getTs());
+            if (ts > after && ts <= until) {
+                records.add(relation(relations.indexOf(edge.getType()),
+                        UUID.fromString(graph.getEdgeSource(edge).getUuid()),
+                        UUID.fromString(graph.getEdgeTarget(edge).getUuid()),
+                        ts << ProvLogReader.HLC_LOGICAL_BITS));
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Write a segment of framed records, optionally corrupting the checksum
+     * of the last one.
+     *
+     * @param segment file
+     * @param version segment format version
+     * @param records record payloads
+     * @param tornTail
+     * @return segment
+     * @throws IOException
+     */
+    static File write(File segment, short version, List<byte[]> records,
+            boolean tornTail) throws IOException {
+        int size = ProvLogReader.SEGMENT_HEADER_SIZE;
+        for (byte[] record : records) {
+            size += ProvLogReader.RECORD_HEADER_SIZE + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(ProvLogReader.MAGIC);
+        buffer.putShort(version);
+        buffer.putShort((short) 0);
+        buffer.putLong(0);
+        CRC32 crc = new CRC32();
+        for (int i = 0; i < records.size(); i++) {
+            byte[] record = records.get(i);
+            crc.reset();
+            crc.update(record);
+            int checksum = (int) crc.getValue();
+            if (tornTail && i == records.size() - 1) {
+                checksum = ~checksum;
+            }
+            buffer.putInt(record.length);
+            buffer.putInt(checksum);
+            buffer.put(record);
+        }
+        Files.write(segment.toPath(), buffer.array());
+        return segment;
+    }
+
+    /**
+     * Write a segment to a new temporary file.
+     */
+    static File write(short version, List<byte[]> records, boolean tornTail)
+            throws IOException {
+        return write(File.createTempFile(ProvLogReader.SEGMENT_PREFIX,
+                ProvLogReader.SEGMENT_SUFFIX), version, records, tornTail);
+    }
+
+    private static void putUuid(ByteBuffer buffer, UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(b.length);
+        buffer.put(b);
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+}
@@ -0,0 +1,131 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnanalysis.W3CProvAttributeIndex.Query;
+
+/**
+ * Tests of the attribute index: token, type, time and value queries, and
+ * their combinations, against scans of the graph.
+ */
+public class W3CProvAttributeIndexTest {
+
+    private final W3CProvCompactGraph graph = new W3CProvCompactGraph();
+    private final int device;
+    private final int rule;
+    private final int packet;
+    private final int app;
+    private final W3CProvAttributeIndex index;
+
+    public W3CProvAttributeIndexTest() {
+        device = graph.addNode("of:0000000000000001", "agent",
+                "of:0000000000000001", 0);
+        rule = graph.addNode(uuid(1), "entity",
+                "DefaultFlowRule{deviceId=of:0000000000000001, "
+                        + "selector=[ETH_DST:00:00:00:00:00:01]}",
+                10);
+        packet = graph.addNode(uuid(2), "entity",
+                "DefaultInboundPacket{receivedFrom=of:0000000000000002/1}",
+                20);
+        app = graph.addNode(uuid(3), "activity",
+                "org.onosproject.fwd.ReactiveForwarding$Processor", 30);
+        index = new W3CProvAttributeIndex(graph);
+    }
+
+    @Test
+    public void findsTokensAndSuffixesAfterColons() {
+        assertEquals(nodes(device, rule),
+                index.getNodesByToken("of:0000000000000001"));
+        assertEquals(nodes(device, rule),
+                index.getNodesByToken("0000000000000001"));
+        assertEquals(nodes(rule), index.getNodesByToken("00:00:00:00:00:01"));
+        assertEquals(nodes(rule),
+                index.getNodesByToken("eth_dst:00:00:00:00:00:01"));
+        /* only suffixes after colons are indexed */
+        assertEquals(nodes(), index.getNodesByToken("ETH_DST"));
+        assertEquals(nodes(packet),
+                index.getNodesByToken("of:0000000000000002/1."));
+        assertEquals(nodes(), index.getNodesByToken("of:0000000000000003"));
+    }
+
+    @Test
+    public void stringsOfSeveralTokensMatchAllOfThem() {
+        assertEquals(nodes(rule),
+                index.getNodesByToken("of:0000000000000001 deviceId"));
+        assertEquals(nodes(),
+                index.getNodesByToken("of:0000000000000001 receivedFrom"));
+    }
+
+    @Test
+    public void stringsWithoutTokensMatchNothing() {
+        assertEquals(nodes(), index.getNodesByToken(""));
+        assertEquals(nodes(), index.getNodesByToken("!!"));
+        assertEquals(nodes(), index.find(index.and(index.token("!!"),
+                index.type("entity"))));
+        assertEquals(nodes(packet), index.find(index.or(index.token(""),
+                index.token("receivedFrom"))));
+    }
+
+    @Test
+    public void combinesTypeTimeAndValueQueries() {
+        assertEquals(nodes(rule, packet), index.find(index.type("entity")));
+        assertEquals(nodes(rule, packet), index.getNodesBetween(10, 20));
+        assertEquals(nodes(app), index.getNodesBetween(25, Long.MAX_VALUE));
+        assertEquals(30, index.getLastTs());
+        assertEquals(nodes(rule), index.find(index.and(index.type("entity"),
+                index.token("0000000000000001"))));
+        assertEquals(nodes(device, app), index.find(index.or(
+                index.type("agent"), index.value("$Processor"))));
+        assertEquals(nodes(device), index.find(
+                index.valueEquals("of:0000000000000001")));
+        assertEquals(nodes(), index.find(index.valueEquals("of:")));
+    }
+
+    @Test
+    public void matchesScansOfSyntheticTrace() {
+        W3CProvCompactGraph trace = W3CProvCompactGraph
+                .of(W3CProvTestGraphs.trace(6, 500));
+        W3CProvAttributeIndex traceIndex = new W3CProvAttributeIndex(trace);
+        Random random = new Random(6);
+        for (int i = 0; i < 50; i++) {
+            String id = "id=" + random.nextInt(50);
+            long from = random.nextInt(1000);
+            long to = from + random.nextInt(200);
+            BitSet expected = new BitSet();
+            for (int v = 0; v < trace.getNodeCount(); v++) {
+                if (trace.getType(v).equals("entity")
+                        && trace.getValue(v).contains(id + "}")
+                        && trace.getTs(v) >= from && trace.getTs(v) <= to) {
+                    expected.set(v);
+                }
+            }
+            Query query = traceIndex.and(traceIndex.token(id),
+                    traceIndex.type("entity"), traceIndex.between(from, to));
+            assertEquals(expected, traceIndex.find(query));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void failsAfterGraphChanged() {
+        graph.addNode(uuid(4), "entity", "DefaultHost{}", 40);
+        index.getNodesByToken("DefaultHost");
+    }
+
+    private static String uuid(int i) {
+        return String.format("00000000-0000-0000-0000-%012d", i);
+    }
+
+    private static BitSet nodes(int... ids) {
+        BitSet nodes = new BitSet();
+        for (int id : ids) {
+            nodes.set(id);
+        }
+        return nodes;
+    }
+
+}
@@ -0,0 +1,111 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.dump;
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.traceUuids;
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.uuids;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Tests that the compact graph answers the queries of W3CProvGraph alike.
+ */
+public class W3CProvCompactGraphTest {
+
+    private final W3CProvGraph graph = W3CProvTestGraphs.trace(1, 300);
+    private final W3CProvCompactGraph compact = W3CProvCompactGraph
+            .of(graph);
+
+    @Test
+    public void copiesNodesAndEdges() {
+        assertEquals(graph.getNodes().size(), compact.getNodeCount());
+        assertEquals(graph.getEdges().size(), compact.getEdgeCount());
+        assertEquals(dump(graph), dump(compact));
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            assertEquals(node.getUuid(),
+                    compact.getUuid(compact.getNode(node.getUuid())));
+        }
+        assertEquals(-1, compact.getNode("not-a-node"));
+    }
+
+    @Test
+    public void matchesAncestryAndDescendants() {
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            int v = compact.getNode(node.getUuid());
+            assertEquals(uuids(graph.getAncestryOfNode(node)),
+                    uuids(compact, compact.getAncestryOfNode(v)));
+            assertEquals(uuids(graph.getDescendantsOfNode(node)),
+                    uuids(compact, compact.getDescendantsOfNode(v)));
+        }
+    }
+
+    @Test
+    public void matchesBackwardForwardTrace() {
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            assertEquals(traceUuids(graph.backwardForwardTrace(node)),
+                    traceUuids(compact, compact.backwardForwardTrace(
+                            compact.getNode(node.getUuid()))));
+        }
+    }
+
+    @Test
+    public void matchesCommonAncestryTrace() {
+        List<W3CProvGraphNode> nodes = new ArrayList<W3CProvGraphNode>(
+                graph.getNodes());
+        Random random = new Random(2);
+        for (int i = 0; i < 200; i++) {
+            Set<W3CProvGraphNode> evidence = new HashSet<W3CProvGraphNode>();
+            BitSet evidenceIds = new BitSet();
+            for (int n = i % 4; n > 0; n--) {
+                W3CProvGraphNode node = nodes
+                        .get(random.nextInt(nodes.size()));
+                evidence.add(node);
+                evidenceIds.set(compact.getNode(node.getUuid()));
+            }
+            List<Set<W3CProvGraphNode>> expected = graph
+                    .commonAncestryTrace(evidence);
+            List<BitSet> actual = compact.commonAncestryTrace(evidenceIds);
+            assertEquals(expected.size(), actual.size());
+            for (int k = 0; k < expected.size(); k++) {
+                assertEquals(uuids(expected.get(k)),
+                        uuids(compact, actual.get(k)));
+            }
+        }
+    }
+
+    @Test
+    public void matchesValueSearch() {
+        for (String value : new String[] { "DefaultFlowRule",
+                "receivedFrom=of:0000000000000001", "$Listener1", "absent" }) {
+            assertEquals(
+                    uuids(graph.getNodesByValue(value, graph.getNodes())),
+                    uuids(compact,
+                            compact.getNodesByValue(value, compact.getNodes())));
+        }
+    }
+
+    @Test
+    public void replacesEdgesAndKeepsCycles() {
+        W3CProvCompactGraph g = new W3CProvCompactGraph();
+        int a = g.addNode("a", "entity", "a", 1);
+        int b = g.addNode("b", "activity", "b", 2);
+        assertEquals(a, g.addNode("a", "entity", "other", 3));
+        g.addEdge(a, b, "used", 1);
+        g.addEdge(a, b, "wasGeneratedBy", 2);
+        g.addEdge(a, a, "wasDerivedFrom", 3);
+        g.addEdge(b, a, "used", 4);
+        assertEquals(2, g.getEdgeCount());
+        assertEquals("wasGeneratedBy", g.getEdgeType(g.firstOutEdge(a)));
+        assertTrue(g.getAncestryOfNode(a).get(b));
+        assertTrue(g.getDescendantsOfNode(a).get(b));
+    }
+
+}
@@ -0,0 +1,161 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmark of loading a synthetic provenance trace into a W3CProvGraph.
+ *
+ * The trace resembles what ProvLogReader.loadGraph() builds from a collected
+ * log: each listener invocation (activity) uses two earlier entities and
+ * generates two new ones, and UUIDs are a session prefix followed by a
+ * sequential id. Nodes are added first and relations afterwards, looking up
+ * both ends of each relation by UUID, and then again in bulk (see
+ * W3CProvGraph.beginBulkLoad()). The graph is then copied into a
+ * W3CProvCompactGraph, whose approximate size is reported, indexed, queried
+ * (see W3CProvQueryExecutor), and saved to and reopened from a temporary
+ * snapshot.
+ *
+ * It is kept with the tests, out of the analysis itself, and run by hand from
+ * the test classpath; the unit tests (e.g., W3CProvCompactGraphTest) check
+ * that what it measures gives the right answers.
+ *
+ * Usage: W3CProvGraphBenchmark [nodes] (default 10000000; give the JVM enough
+ * heap, e.g., -Xmx16g).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @version 2.0
+ */
+public class W3CProvGraphBenchmark {
+
+    private static final long PREFIX = 0x70726f7673646e00L;
+
+    public static void main(String[] args) throws IOException {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        String[] uuids = new String[nodes];
+        for (int i = 0; i < nodes; i++) {
+            uuids[i] = new UUID(PREFIX, i + 1).toString();
+        }
+
+        W3CProvGraph graph = new W3CProvGraph();
+        long start = System.nanoTime();
+        for (int i = 0; i < nodes; i++) {
+            boolean activity = i % 3 == 0;
+            graph.addNode(new W3CProvGraphNode(uuids[i],
+                    activity ? "activity" : "entity",
+                    activity ? "org.onosproject.fwd.ReactiveForwarding$Processor"
+                            : "DefaultFlowRule{id=" + i + "}",
+                    String.valueOf(i)));
+        }
+        long added = System.nanoTime();
+        report("Added nodes", nodes, added - start);
+
+        /* relations of activity i: used i-2, i-1; i+1, i+2 wasGeneratedBy i */
+        long lookups = 0;
+        long edges = 0;
+        long edgeNanos = 0;
+        for (int i = 3; i + 2 < nodes; i += 3) {
+            W3CProvGraphNode activity = graph.getNode(uuids[i]);
+            for (int j = 1; j <= 2; j++) {
+                W3CProvGraphNode used = graph.getNode(uuids[i - j]);
+                W3CProvGraphNode generated = graph.getNode(uuids[i + j]);
+                lookups += 2;
+                long t = System.nanoTime();
+                graph.addEdge(activity, used,
+                        new W3CProvGraphEdge("used", "", String.valueOf(i)));
+                graph.addEdge(generated, activity, new W3CProvGraphEdge(
+                        "wasGeneratedBy", "", String.valueOf(i)));
+                edgeNanos += System.nanoTime() - t;
+                edges += 2;
+            }
+            lookups++;
+        }
+        long related = System.nanoTime();
+        report("Added relations", edges, related - added);
+        report("  of which edge insertion", edges, edgeNanos);
+        report("  of which node lookups", lookups,
+                related - added - edgeNanos);
+
+        /* lookups of absent nodes probe until an empty slot */
+        long misses = 0;
+        for (int i = 0; i < nodes; i++) {
+            if (graph.getNode(new UUID(PREFIX + 1, i).toString()) == null) {
+                misses++;
+            }
+        }
+        report("Missed lookups (incl. UUID formatting)", misses,
+                System.nanoTime() - related);
+
+        graph.pp();
+
+        /* the same trace loaded in bulk */
+        W3CProvGraph bulk = new W3CProvGraph();
+        long bulkStart = System.nanoTime();
+        bulk.beginBulkLoad(false);
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            bulk.addNode(node);
+        }
+        for (W3CProvGraphEdge edge : graph.getEdges()) {
+            bulk.addEdge(graph.getEdgeSource(edge), graph.getEdgeTarget(edge),
+                    new W3CProvGraphEdge(edge.getType(), "", edge.getTs()));
+        }
+        W3CProvCycleReport cycles = bulk.endBulkLoad();
+        report("Bulk loaded nodes and relations",
+                bulk.getNodes().size() + bulk.getEdges().size(),
+                System.nanoTime() - bulkStart);
+        cycles.pp();
+        bulk = null;
+
+        long compacting = System.nanoTime();
+        W3CProvCompactGraph compact = W3CProvCompactGraph.of(graph);
+        report("Compacted nodes", compact.getNodeCount(),
+                System.nanoTime() - compacting);
+        compact.pp();
+
+        long indexing = System.nanoTime();
+        W3CProvAttributeIndex index = new W3CProvAttributeIndex(compact);
+        report("Indexed nodes", compact.getNodeCount(),
+                System.nanoTime() - indexing);
+        index.pp();
+        long querying = System.nanoTime();
+        BitSet found = index.find(index.and(index.type("entity"),
+                index.token("id=" + nodes / 2), index.between(0, nodes)));
+        report("Queried nodes", found.cardinality(),
+                System.nanoTime() - querying);
+        W3CProvQueryExecutor executor = new W3CProvQueryExecutor(compact,
+                index, ForkJoinPool.commonPool());
+        querying = System.nanoTime();
+        W3CProvQueryExecutor.Result result = executor.execute(
+                "(f:entity) -[wasGeneratedBy]-> (:activity) -[used]->"
+                        + " (:entity token \"id=" + nodes / 2 + "\")");
+        report("Path queried nodes", result.getMatchCount(),
+                System.nanoTime() - querying);
+
+        Path file = Files.createTempFile("prov-graph", ".snapshot");
+        try {
+            long saving = System.nanoTime();
+            W3CProvGraphSnapshot.create(file, compact, 0);
+            report("Saved snapshot nodes", compact.getNodeCount(),
+                    System.nanoTime() - saving);
+            long opening = System.nanoTime();
+            W3CProvGraphSnapshot snapshot = W3CProvGraphSnapshot.open(file);
+            report("Opened snapshot nodes",
+                    snapshot.getGraph().getNodeCount(),
+                    System.nanoTime() - opening);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void report(String what, long count, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s: %d in %.2f s (%.0f/s)\n", what, count, seconds,
+                count / Math.max(seconds, 1e-9));
+    }
+
+}
@@ -0,0 +1,117 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.dump;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests that loading in bulk gives the graph that adding nodes and edges one
+ * at a time does, and that cycles are broken as documented.
+ */
+public class W3CProvGraphBulkLoadTest {
+
+    private final W3CProvGraphNode a = new W3CProvGraphNode("a", "entity",
+            "a", "1");
+    private final W3CProvGraphNode b = new W3CProvGraphNode("b", "activity",
+            "b", "2");
+    private final W3CProvGraphNode c = new W3CProvGraphNode("c", "entity",
+            "c", "3");
+
+    @Test
+    public void matchesIncrementalLoad() {
+        W3CProvGraph trace = W3CProvTestGraphs.trace(1, 500);
+        for (boolean orientByTime : new boolean[] { false, true }) {
+            W3CProvGraph graph = new W3CProvGraph();
+            graph.beginBulkLoad(orientByTime);
+            for (W3CProvGraphNode node : trace.getNodes()) {
+                graph.addNode(node);
+            }
+            for (W3CProvGraphEdge edge : trace.getEdges()) {
+                graph.addEdge(trace.getEdgeSource(edge),
+                        trace.getEdgeTarget(edge), edge);
+            }
+            assertEquals(0, graph.getEdges().size());
+            W3CProvCycleReport report = graph.endBulkLoad();
+            assertEquals(orientByTime, report.isOrientedByTime());
+            assertEquals(0, report.getCycleCount());
+            assertEquals(0, report.getDroppedEdges().size());
+            assertEquals(dump(trace), dump(graph));
+        }
+    }
+
+    @Test
+    public void breaksCycleAtOldestNode() {
+        W3CProvGraph graph = load(false);
+        W3CProvCycleReport report = graph.endBulkLoad();
+        assertEquals(1, report.getCycleCount());
+        assertEquals(1, report.getDuplicateCount());
+        assertEquals(1, report.getDroppedEdges().size());
+        W3CProvCycleReport.DroppedEdge dropped = report.getDroppedEdges()
+                .get(0);
+        assertEquals(a, dropped.getFrom());
+        assertEquals(c, dropped.getTo());
+        assertEquals(2, graph.getEdges().size());
+        /* the later duplicate replaced the earlier */
+        for (W3CProvGraphEdge edge : graph.getEdges()) {
+            if (graph.getEdgeSource(edge) == b) {
+                assertEquals("wasInformedBy", edge.getType());
+            }
+        }
+    }
+
+    @Test
+    public void dropsEdgesToNewerNodesWhenOrientedByTime() {
+        W3CProvGraph graph = new W3CProvGraph();
+        graph.beginBulkLoad(true);
+        graph.addNode(a);
+        graph.addNode(b);
+        graph.addEdge(a, b, new W3CProvGraphEdge("used", "", "2"));
+        W3CProvCycleReport report = graph.endBulkLoad();
+        assertEquals(0, report.getCycleCount());
+        assertEquals(1, report.getDroppedEdges().size());
+        assertEquals(0, graph.getEdges().size());
+
+        graph = new W3CProvGraph();
+        graph.beginBulkLoad(false);
+        graph.addNode(a);
+        graph.addNode(b);
+        graph.addEdge(a, b, new W3CProvGraphEdge("used", "", "2"));
+        assertEquals(0, graph.endBulkLoad().getDroppedEdges().size());
+        assertEquals(1, graph.getEdges().size());
+    }
+
+    @Test
+    public void addsEdgesToExistingNodes() {
+        W3CProvGraph graph = new W3CProvGraph();
+        graph.addNode(a);
+        graph.beginBulkLoad(false);
+        graph.addNode(b);
+        assertNotNull(graph.getNode("b"));
+        assertTrue(graph.isBulkLoading());
+        graph.addEdge(b, a, new W3CProvGraphEdge("used", "", "2"));
+        graph.endBulkLoad();
+        assertEquals(1, graph.getEdges().size());
+        assertNull(graph.getNode("c"));
+    }
+
+    /**
+     * a <- b <- c <- a, with b -> a given twice.
+     */
+    private W3CProvGraph load(boolean orientByTime) {
+        W3CProvGraph graph = new W3CProvGraph();
+        graph.beginBulkLoad(orientByTime);
+        graph.addNode(a);
+        graph.addNode(b);
+        graph.addNode(c);
+        graph.addEdge(b, a, new W3CProvGraphEdge("used", "", "2"));
+        graph.addEdge(c, b, new W3CProvGraphEdge("wasGeneratedBy", "", "3"));
+        graph.addEdge(a, c, new W3CProvGraphEdge("wasDerivedFrom", "", "3"));
+        graph.addEdge(b, a, new W3CProvGraphEdge("wasInformedBy", "", "3"));
+        return graph;
+    }
+
+}
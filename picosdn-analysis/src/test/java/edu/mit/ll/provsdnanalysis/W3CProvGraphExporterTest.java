@@ -0,0 +1,401 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import edu.mit.ll.provsdnanalysis.W3CProvGraphExporter.Format;
+
+/**
+ * Round trips of graph exports: DOT and GraphML files are parsed back, and
+ * columns are read back, to the nodes, edges and values of the graph,
+ * including values with quotes, newlines, backslashes and markup.
+ */
+public class W3CProvGraphExporterTest {
+
+    private static final String AGENT = "of:0000000000000001";
+    private static final String APP = "org.onosproject.fwd$Listener \"fwd\"";
+    private static final String HOST = "DefaultHost{id=\"h1\"\n"
+            + "  path=C:\\hosts <a&b>}";
+
+    @Test
+    public void dotParsesBackToGraph() throws IOException {
+        W3CProvCompactGraph graph = graph();
+        Path file = Files.createTempFile("prov", ".dot");
+        new W3CProvGraphExporter(graph).write(Format.DOT, file);
+
+        DotGraph dot = DotGraph.parse(read(file));
+        assertEquals(nodes(graph, graph.getNodes(), true),
+                new TreeSet<String>(dot.nodeIds));
+        assertEquals(edges(graph, graph.getNodes(), true), dot.edges);
+        /* labels are the value split at commas or "$", and the time */
+        assertEquals(HOST + "\nts=3",
+                dot.labels.get(dot.nodeIds.indexOf(dotId(uuid(3)))));
+        assertEquals(APP.replace("$", "\n") + "\nts=2",
+                dot.labels.get(dot.nodeIds.indexOf(dotId(uuid(2)))));
+        assertEquals(AGENT,
+                dot.labels.get(dot.nodeIds.indexOf(dotId(AGENT))));
+    }
+
+    @Test
+    public void graphMLParsesBackToGraph() throws Exception {
+        W3CProvCompactGraph graph = graph();
+        Path file = Files.createTempFile("prov", ".graphml");
+        new W3CProvGraphExporter(graph).write(Format.GRAPHML, file);
+
+        Document document = DocumentBuilderFactory.newInstance()
+                .newDocumentBuilder().parse(file.toFile());
+        Set<String> nodes = new TreeSet<String>();
+        NodeList list = document.getElementsByTagName("node");
+        for (int i = 0; i < list.getLength(); i++) {
+            Element node = (Element) list.item(i);
+            nodes.add(node.getAttribute("id") + " " + data(node, "type") + " "
+                    + data(node, "value") + " " + data(node, "ts"));
+        }
+        Set<String> edges = new TreeSet<String>();
+        list = document.getElementsByTagName("edge");
+        for (int i = 0; i < list.getLength(); i++) {
+            Element edge = (Element) list.item(i);
+            edges.add(edge.getAttribute("source") + " -"
+                    + data(edge, "etype") + "-> "
+                    + edge.getAttribute("target") + " " + data(edge, "ets"));
+        }
+        assertEquals(nodes(graph, graph.getNodes(), false), nodes);
+        assertEquals(edges(graph, graph.getNodes(), false), edges);
+    }
+
+    @Test
+    public void columnsHaveOneRowPerNodeAndEdge() throws IOException {
+        W3CProvCompactGraph graph = graph();
+        BitSet part = new BitSet();
+        part.set(graph.getNode(uuid(2)));
+        part.set(graph.getNode(uuid(3)));
+        part.set(graph.getNode(uuid(4)));
+        Path directory = Files.createTempDirectory("columns");
+        new W3CProvGraphExporter(graph).write(Format.COLUMNS, directory, part);
+
+        int nodes = part.cardinality();
+        assertEquals(nodes * Integer.BYTES,
+                Files.size(directory.resolve("nodes.id")));
+        assertEquals(nodes, Files.size(directory.resolve("nodes.type")));
+        assertEquals(nodes * Long.BYTES,
+                Files.size(directory.resolve("nodes.ts")));
+        List<String> uuids = lines(directory.resolve("nodes.uuid"));
+        List<String> values = lines(directory.resolve("nodes.value"));
+        assertEquals(nodes, uuids.size());
+        assertEquals(nodes, values.size());
+
+        int[] ids = ints(directory.resolve("nodes.id"));
+        byte[] types = Files.readAllBytes(directory.resolve("nodes.type"));
+        long[] ts = longs(directory.resolve("nodes.ts"));
+        List<String> nodeTypes = lines(directory.resolve("node-types"));
+        Set<String> exported = new TreeSet<String>();
+        for (int i = 0; i < nodes; i++) {
+            assertEquals(graph.getUuid(ids[i]), uuids.get(i));
+            exported.add(uuids.get(i) + " " + nodeTypes.get(types[i]) + " "
+                    + unescape(values.get(i)) + " " + ts[i]);
+        }
+        assertEquals(nodes(graph, part, false), exported);
+
+        /* edges within the part only */
+        int[] sources = ints(directory.resolve("edges.source"));
+        int[] targets = ints(directory.resolve("edges.target"));
+        byte[] edgeTypes = Files
+                .readAllBytes(directory.resolve("edges.type"));
+        long[] edgeTs = longs(directory.resolve("edges.ts"));
+        assertEquals(sources.length, targets.length);
+        assertEquals(sources.length, edgeTypes.length);
+        assertEquals(sources.length, edgeTs.length);
+        List<String> typeNames = lines(directory.resolve("edge-types"));
+        Set<String> edges = new TreeSet<String>();
+        for (int i = 0; i < sources.length; i++) {
+            edges.add(graph.getUuid(sources[i]) + " -"
+                    + typeNames.get(edgeTypes[i]) + "-> "
+                    + graph.getUuid(targets[i]) + " " + edgeTs[i]);
+        }
+        assertEquals(edges(graph, part, false), edges);
+    }
+
+    @Test
+    public void pagesCoverEveryNodeAndEdgeOnce() throws IOException {
+        W3CProvCompactGraph graph = W3CProvCompactGraph
+                .of(W3CProvTestGraphs.trace(4, 200));
+        Path directory = Files.createTempDirectory("pages");
+        List<Path> pages = new W3CProvGraphExporter(graph)
+                .writePages(Format.DOT, directory, graph.getNodes(), 50);
+        assertTrue(pages.size() > 1);
+
+        Set<String> nodes = new HashSet<String>();
+        Set<String> edges = new TreeSet<String>();
+        int edgeCount = 0;
+        for (Path page : pages) {
+            DotGraph dot = DotGraph.parse(read(page));
+            int internal = 0;
+            for (int i = 0; i < dot.nodeIds.size(); i++) {
+                if (!dot.external.get(i)) {
+                    assertTrue(nodes.add(dot.nodeIds.get(i)));
+                    internal++;
+                }
+            }
+            assertTrue(internal <= 50);
+            edges.addAll(dot.edges);
+            edgeCount += dot.edges.size();
+        }
+        assertEquals(graph.getNodeCount(), nodes.size());
+        assertEquals(graph.getEdgeCount(), edgeCount);
+        assertEquals(edges(graph, graph.getNodes(), true), edges);
+    }
+
+    /**
+     * An agent with a name for id, and nodes with values that need escaping
+     * in every format.
+     */
+    private static W3CProvCompactGraph graph() {
+        W3CProvCompactGraph graph = new W3CProvCompactGraph();
+        int agent = graph.addNode(AGENT, "agent", AGENT, 0);
+        int packet = graph.addNode(uuid(1), "entity", "DefaultInboundPacket{}",
+                1);
+        int app = graph.addNode(uuid(2), "activity", APP, 2);
+        int host = graph.addNode(uuid(3), "entity", HOST, 3);
+        int other = graph.addNode(uuid(4), "entity", "back\\slash\r\n", 4);
+        graph.addEdge(app, packet, "used", 2);
+        graph.addEdge(app, agent, "wasAssociatedWith", 2);
+        graph.addEdge(host, app, "wasGeneratedBy", 3);
+        graph.addEdge(other, host, "wasDerivedFrom", 4);
+        graph.addEdge(other, app, "wasGeneratedBy", 4);
+        graph.build();
+        return graph;
+    }
+
+    private static String uuid(int i) {
+        return String.format("00000000-0000-0000-0000-%012d", i);
+    }
+
+    /**
+     * Nodes of a graph as "id type value ts", with DOT ids (values aside) or
+     * with UUIDs.
+     */
+    private static Set<String> nodes(W3CProvCompactGraph graph, BitSet nodes,
+            boolean dot) {
+        Set<String> set = new TreeSet<String>();
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            set.add(dot ? dotId(graph.getUuid(v))
+                    : graph.getUuid(v) + " " + graph.getType(v) + " "
+                            + graph.getValue(v) + " " + graph.getTs(v));
+        }
+        return set;
+    }
+
+    /**
+     * Edges among some nodes as "from -type-> to" with DOT ids, or as
+     * "from -type-> to ts" with UUIDs.
+     */
+    private static Set<String> edges(W3CProvCompactGraph graph, BitSet nodes,
+            boolean dot) {
+        Set<String> set = new TreeSet<String>();
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            for (int e = graph.firstOutEdge(v); e < graph
+                    .firstOutEdge(v + 1); e++) {
+                int w = graph.getEdgeTarget(e);
+                if (!nodes.get(w)) {
+                    continue;
+                }
+                set.add(dot
+                        ? dotId(graph.getUuid(v)) + " -" + graph.getEdgeType(e)
+                                + "-> " + dotId(graph.getUuid(w))
+                        : graph.getUuid(v) + " -" + graph.getEdgeType(e)
+                                + "-> " + graph.getUuid(w) + " "
+                                + graph.getEdgeTs(e));
+            }
+        }
+        return set;
+    }
+
+    private static String dotId(String uuid) {
+        return "node" + uuid.replace("-", "");
+    }
+
+    private static String data(Element element, String key) {
+        NodeList data = element.getElementsByTagName("data");
+        for (int i = 0; i < data.getLength(); i++) {
+            Element d = (Element) data.item(i);
+            if (d.getAttribute("key").equals(key)) {
+                return d.getTextContent();
+            }
+        }
+        return null;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> lines(Path file) throws IOException {
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    private static int[] ints(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        int[] values = new int[buffer.remaining() / Integer.BYTES];
+        buffer.asIntBuffer().get(values);
+        return values;
+    }
+
+    private static long[] longs(Path file) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long[] values = new long[buffer.remaining() / Long.BYTES];
+        buffer.asLongBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Value of a line of a string column.
+     */
+    private static String unescape(String line) {
+        StringBuilder sb = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                c = line.charAt(++i);
+                sb.append(c == 'n' ? '\n' : c == 'r' ? '\r' : c);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The statements of a DOT graph as written by the exporter: node
+     * statements with attributes, and edge statements "a -> b" with a label.
+     * Parsing fails on unbalanced brackets or quotes, or on raw newlines in
+     * quoted strings.
+     */
+    private static final class DotGraph {
+
+        final List<String> nodeIds = new ArrayList<String>();
+        final List<String> labels = new ArrayList<String>();
+        final BitSet external = new BitSet();
+        final Set<String> edges = new TreeSet<String>();
+
+        static DotGraph parse(String text) {
+            List<String> tokens = tokenize(text);
+            DotGraph dot = new DotGraph();
+            int i = 0;
+            expect(tokens, i++, "digraph");
+            expect(tokens, i++, "G");
+            expect(tokens, i++, "{");
+            while (!tokens.get(i).equals("}")) {
+                List<String> statement = new ArrayList<String>();
+                while (!tokens.get(i).equals(";")) {
+                    statement.add(tokens.get(i++));
+                }
+                i++;
+                dot.add(statement);
+            }
+            assertEquals(i + 1, tokens.size());
+            return dot;
+        }
+
+        private void add(List<String> statement) {
+            if (statement.size() == 3 && statement.get(1).equals("=")) {
+                return;
+            }
+            int attributes = statement.indexOf("[");
+            assertEquals("]", statement.get(statement.size() - 1));
+            String label = null;
+            String style = null;
+            for (int a = attributes + 1; a < statement.size() - 1; a += 3) {
+                assertEquals("=", statement.get(a + 1));
+                if (statement.get(a).equals("label")) {
+                    label = statement.get(a + 2);
+                } else if (statement.get(a).equals("style")) {
+                    style = statement.get(a + 2);
+                }
+            }
+            if (attributes == 1) {
+                nodeIds.add(statement.get(0));
+                labels.add(label);
+                external.set(nodeIds.size() - 1, style.contains("dashed"));
+            } else {
+                assertEquals(3, attributes);
+                assertEquals("->", statement.get(1));
+                edges.add(statement.get(0) + " -" + label + "-> "
+                        + statement.get(2));
+            }
+        }
+
+        /**
+         * Tokens: punctuation, "->", bare words and quoted strings, the
+         * latter unescaped.
+         */
+        private static List<String> tokenize(String text) {
+            List<String> tokens = new ArrayList<String>();
+            int i = 0;
+            while (i < text.length()) {
+                char c = text.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (c == '"') {
+                    StringBuilder sb = new StringBuilder();
+                    for (i++; text.charAt(i) != '"'; i++) {
+                        char d = text.charAt(i);
+                        assertTrue("raw newline in quoted string", d != '\n');
+                        if (d == '\\') {
+                            d = text.charAt(++i);
+                            sb.append(d == 'n' ? '\n' : d);
+                        } else {
+                            sb.append(d);
+                        }
+                    }
+                    i++;
+                    tokens.add(sb.toString());
+                } else if (text.startsWith("->", i)) {
+                    tokens.add("->");
+                    i += 2;
+                } else if ("{}[];=".indexOf(c) >= 0) {
+                    tokens.add(String.valueOf(c));
+                    i++;
+                } else {
+                    int start = i;
+                    while (i < text.length()
+                            && (Character.isLetterOrDigit(text.charAt(i))
+                                    || text.charAt(i) == '.'
+                                    || text.charAt(i) == '_')) {
+                        i++;
+                    }
+                    assertTrue("unexpected " + c, i > start);
+                    tokens.add(text.substring(start, i));
+                }
+            }
+            return tokens;
+        }
+
+        private static void expect(List<String> tokens, int i,
+                String token) {
+            assertEquals(token, tokens.get(i));
+        }
+    }
+
+}
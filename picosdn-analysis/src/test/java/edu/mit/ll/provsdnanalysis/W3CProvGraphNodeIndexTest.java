@@ -0,0 +1,170 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests of the node index: the open-addressing table for canonical UUIDs,
+ * including probe sequences repaired after removals, and the hash map for
+ * other identifiers.
+ */
+public class W3CProvGraphNodeIndexTest {
+
+    /* capacity of a new index, as W3CProvGraphNodeIndex.MIN_CAPACITY */
+    private static final int CAPACITY = 16;
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void putGetAndRemove() {
+        W3CProvGraphNodeIndex index = new W3CProvGraphNodeIndex();
+        W3CProvGraphNode a = node(UUID.randomUUID().toString());
+        W3CProvGraphNode b = node(UUID.randomUUID().toString());
+        assertNull(index.putIfAbsent(a));
+        assertNull(index.putIfAbsent(b));
+        assertSame(a, index.putIfAbsent(node(a.getUuid())));
+        assertEquals(2, index.size());
+        assertSame(a, index.get(a.getUuid()));
+        assertSame(b, index.get(b.getUuid()));
+        assertNull(index.get(UUID.randomUUID().toString()));
+
+        assertSame(a, index.remove(a.getUuid()));
+        assertNull(index.remove(a.getUuid()));
+        assertNull(index.get(a.getUuid()));
+        assertSame(b, index.get(b.getUuid()));
+        assertEquals(1, index.size());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertNull(index.get(b.getUuid()));
+    }
+
+    @Test
+    public void repairsProbeSequenceAcrossWraparound() {
+        /* a and b both belong in the last slot, c in the first, d next */
+        String a = uuidInSlot(CAPACITY - 1);
+        String b = uuidInSlot(CAPACITY - 1);
+        String c = uuidInSlot(0);
+        String d = uuidInSlot(1);
+        W3CProvGraphNodeIndex index = new W3CProvGraphNodeIndex();
+        for (String uuid : new String[] { a, b, c, d }) {
+            assertNull(index.putIfAbsent(node(uuid)));
+        }
+
+        /* b wrapped to slot 0, pushing c to 1 and d to 2 */
+        index.remove(a);
+        assertNull(index.get(a));
+        assertEquals(b, index.get(b).getUuid());
+        assertEquals(c, index.get(c).getUuid());
+        assertEquals(d, index.get(d).getUuid());
+
+        /* b, c and d moved back to their home slots */
+        index.remove(c);
+        assertEquals(b, index.get(b).getUuid());
+        assertEquals(d, index.get(d).getUuid());
+        index.remove(b);
+        assertEquals(d, index.get(d).getUuid());
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void matchesHashMapUnderChurn() {
+        W3CProvGraphNodeIndex index = new W3CProvGraphNodeIndex();
+        Map<String, W3CProvGraphNode> expected = new HashMap<String, W3CProvGraphNode>();
+        List<String> uuids = new ArrayList<String>();
+        for (int i = 0; i < 2000; i++) {
+            uuids.add(new UUID(random.nextLong(), random.nextLong())
+                    .toString());
+        }
+        for (int i = 0; i < 20000; i++) {
+            String uuid = uuids.get(random.nextInt(uuids.size()));
+            if (random.nextInt(3) == 0) {
+                assertSame(expected.remove(uuid), index.remove(uuid));
+            } else {
+                W3CProvGraphNode node = node(uuid);
+                W3CProvGraphNode existing = expected.get(uuid);
+                if (existing == null) {
+                    expected.put(uuid, node);
+                }
+                assertSame(existing, index.putIfAbsent(node));
+            }
+            assertEquals(expected.size(), index.size());
+        }
+        for (String uuid : uuids) {
+            assertSame(expected.get(uuid), index.get(uuid));
+        }
+    }
+
+    @Test
+    public void keepsOtherIdsApart() {
+        W3CProvGraphNodeIndex index = new W3CProvGraphNodeIndex();
+        String lower = UUID.randomUUID().toString();
+        String upper = lower.toUpperCase();
+        W3CProvGraphNode agent = node("of:0000000000000001");
+        W3CProvGraphNode shouting = node(upper);
+        W3CProvGraphNode canonical = node(lower);
+        assertNull(index.putIfAbsent(agent));
+        assertNull(index.putIfAbsent(shouting));
+        assertNull(index.putIfAbsent(canonical));
+        assertSame(agent, index.putIfAbsent(node(agent.getUuid())));
+        assertEquals(3, index.size());
+
+        /* ids that are not lower-case UUIDs are kept as given */
+        assertSame(agent, index.get("of:0000000000000001"));
+        assertSame(shouting, index.get(upper));
+        assertSame(canonical, index.get(lower));
+        assertNull(index.get(lower.replace('-', '_')));
+
+        assertSame(shouting, index.remove(upper));
+        assertSame(canonical, index.get(lower));
+        assertSame(agent, index.remove(agent.getUuid()));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void parsesOnlyCanonicalUuids() {
+        long[] bits = new long[2];
+        UUID uuid = UUID.randomUUID();
+        assertTrue(W3CProvGraphNodeIndex.parse(uuid.toString(), bits));
+        assertEquals(uuid.getMostSignificantBits(), bits[0]);
+        assertEquals(uuid.getLeastSignificantBits(), bits[1]);
+        assertEquals(uuid.getMostSignificantBits(),
+                W3CProvGraphNodeIndex.msbOf(uuid.toString()));
+        assertEquals(uuid.getLeastSignificantBits(),
+                W3CProvGraphNodeIndex.lsbOf(uuid.toString()));
+        assertFalse(W3CProvGraphNodeIndex
+                .parse(uuid.toString().toUpperCase(), bits));
+        assertFalse(W3CProvGraphNodeIndex.parse("agent", bits));
+        assertFalse(W3CProvGraphNodeIndex.parse(null, bits));
+    }
+
+    /**
+     * A random UUID whose home slot in a new index is the given slot.
+     */
+    private String uuidInSlot(int slot) {
+        for (;;) {
+            UUID uuid = new UUID(random.nextLong(), random.nextLong());
+            if ((W3CProvGraphNodeIndex.hashOf(uuid.getMostSignificantBits(),
+                    uuid.getLeastSignificantBits()) & (CAPACITY - 1)) == slot) {
+                return uuid.toString();
+            }
+        }
+    }
+
+    private static W3CProvGraphNode node(String uuid) {
+        return new W3CProvGraphNode(uuid, "entity", uuid, "0");
+    }
+
+}
@@ -0,0 +1,238 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.ProvTestSegments.records;
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.dump;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that a snapshot, with deltas appended and after compaction, reopens
+ * as the graph loaded from the whole log.
+ */
+public class W3CProvGraphSnapshotTest {
+
+    private final W3CProvGraph trace = W3CProvTestGraphs.trace(1, 300);
+    private File dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("prov-snapshot").toFile();
+        file = new File(dir, "graph.snp").toPath();
+    }
+
+    @After
+    public void tearDown() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void reopensBase() throws IOException {
+        segment(1, 0, Long.MAX_VALUE);
+        ProvGraphLoader loader = new ProvGraphLoader();
+        W3CProvGraph graph = loader.load(dir);
+        assertEquals(dump(trace), dump(graph));
+
+        W3CProvGraphSnapshot created = W3CProvGraphSnapshot.create(file,
+                W3CProvCompactGraph.of(graph), loader.getLastTs(),
+                loader.getPositions());
+        W3CProvGraphSnapshot opened = W3CProvGraphSnapshot.open(file);
+        assertEquals(dump(created.getGraph()), dump(opened.getGraph()));
+        assertEquals(dump(trace), dump(opened.getGraph()));
+        assertEquals(loader.getLastTs(), opened.getLastTs());
+        assertEquals(loader.getPositions().toMap(),
+                opened.getPositions().toMap());
+        assertEquals(0, opened.getDeltas());
+        assertEquals(0, opened.update(dir));
+        assertEquals(0, opened.getDeltas());
+    }
+
+    @Test
+    public void appendsAndReplaysDeltas() throws IOException {
+        long third = maxTs() / 3;
+        W3CProvGraphSnapshot snapshot = createFrom(segment(1, 0, third));
+
+        segment(2, third, 2 * third);
+        assertTrue(snapshot.update(dir) > 0);
+        assertEquals(1, snapshot.getDeltas());
+        assertEquals(dump(reload()), dump(snapshot.getGraph()));
+        assertEquals(0, snapshot.update(dir));
+
+        segment(3, 2 * third, Long.MAX_VALUE);
+        assertTrue(snapshot.update(dir) > 0);
+        assertEquals(2, snapshot.getDeltas());
+        assertEquals(dump(trace), dump(snapshot.getGraph()));
+
+        W3CProvGraphSnapshot reopened = W3CProvGraphSnapshot.open(file);
+        assertEquals(2, reopened.getDeltas());
+        assertEquals(snapshot.getLastTs(), reopened.getLastTs());
+        assertEquals(dump(trace), dump(reopened.getGraph()));
+
+        reopened.compact();
+        assertEquals(0, reopened.getDeltas());
+        W3CProvGraphSnapshot compacted = W3CProvGraphSnapshot.open(file);
+        assertEquals(0, compacted.getDeltas());
+        assertEquals(snapshot.getLastTs(), compacted.getLastTs());
+        assertEquals(dump(trace), dump(compacted.getGraph()));
+    }
+
+    @Test
+    public void appendsRecordsOfGrownSegment() throws IOException {
+        long half = maxTs() / 2;
+        List<byte[]> records = records(trace, 0, half);
+        File segment = segment(1, records);
+        W3CProvGraphSnapshot snapshot = createFrom(segment);
+
+        /* the same segment with more records */
+        List<byte[]> grown = new ArrayList<byte[]>(records);
+        grown.addAll(records(trace, half, Long.MAX_VALUE, true));
+        segment(1, grown);
+        assertEquals(grown.size() - records.size(), snapshot.update(dir));
+        assertEquals(dump(trace), dump(snapshot.getGraph()));
+        assertEquals(grown.size(),
+                snapshot.getPositions().get("", segment.getName()));
+        assertEquals(0, snapshot.update(dir));
+
+        W3CProvGraphSnapshot reopened = W3CProvGraphSnapshot.open(file);
+        assertEquals(0, reopened.update(dir));
+        assertEquals(dump(trace), dump(reopened.getGraph()));
+    }
+
+    @Test
+    public void appendsRecordsOfNodeWithOlderClock() throws IOException {
+        W3CProvGraphSnapshot snapshot = createFrom(
+                segment(1, 0, Long.MAX_VALUE));
+        assertTrue(snapshot.getLastTs() > 1L << ProvLogReader.HLC_LOGICAL_BITS);
+
+        /* a node whose clock is behind the records already in the snapshot */
+        UUID entity = UUID.randomUUID();
+        UUID activity = null;
+        for (W3CProvGraphNode node : trace.getNodes()) {
+            if (node.getType().equals("activity")) {
+                activity = UUID.fromString(node.getUuid());
+            }
+        }
+        long ts = 1L << ProvLogReader.HLC_LOGICAL_BITS;
+        segment(2, Arrays.asList(ProvTestSegments.node("onos-2"),
+                ProvTestSegments.object(ProvLogReader.TYPE_ENTITY, entity, ts,
+                        -1, "listener", "DefaultHost{}"),
+                ProvTestSegments.relation(
+                        Arrays.asList(ProvLogReader.RELATION_TYPES)
+                                .indexOf("wasGeneratedBy"),
+                        entity, activity, ts)));
+        assertEquals(2, snapshot.update(dir));
+        assertTrue(snapshot.getGraph().getNode(entity.toString()) >= 0);
+        assertEquals(2, snapshot.getPositions().get("onos-2",
+                String.format("%s%04d%s", ProvLogReader.SEGMENT_PREFIX, 2,
+                        ProvLogReader.SEGMENT_SUFFIX)));
+        assertEquals(0, snapshot.update(dir));
+
+        W3CProvGraphSnapshot reopened = W3CProvGraphSnapshot.open(file);
+        assertEquals(dump(snapshot.getGraph()), dump(reopened.getGraph()));
+    }
+
+    @Test
+    public void dropsTornDelta() throws IOException {
+        long half = maxTs() / 2;
+        W3CProvGraphSnapshot snapshot = createFrom(segment(1, 0, half));
+        long base = Files.size(file);
+
+        /* a delta block cut short, then one with a wrong checksum */
+        append(ByteBuffer.allocate(6)
+                .putInt(W3CProvGraphSnapshot.DELTA_MAGIC));
+        assertEquals(0, W3CProvGraphSnapshot.open(file).getDeltas());
+        truncate(base);
+        append(ByteBuffer.allocate(W3CProvGraphSnapshot.DELTA_HEADER_SIZE + 8)
+                .putInt(W3CProvGraphSnapshot.DELTA_MAGIC).putInt(8)
+                .putInt(12345));
+        W3CProvGraphSnapshot opened = W3CProvGraphSnapshot.open(file);
+        assertEquals(0, opened.getDeltas());
+        assertEquals(dump(snapshot.getGraph()), dump(opened.getGraph()));
+
+        /* the next update overwrites the torn block */
+        segment(2, half, Long.MAX_VALUE);
+        assertTrue(opened.update(dir) > 0);
+        W3CProvGraphSnapshot reopened = W3CProvGraphSnapshot.open(file);
+        assertEquals(1, reopened.getDeltas());
+        assertEquals(dump(trace), dump(reopened.getGraph()));
+    }
+
+    @Test
+    public void rejectsOtherFiles() throws IOException {
+        File other = segment(1, 0, Long.MAX_VALUE);
+        try {
+            W3CProvGraphSnapshot.open(other.toPath());
+            fail("log segment opened as a snapshot");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("not a provenance snapshot"));
+        }
+    }
+
+    /**
+     * Write the records of the trace in (after, until] to the log directory.
+     */
+    private File segment(int sequence, long after, long until)
+            throws IOException {
+        return segment(sequence, records(trace, after, until));
+    }
+
+    private File segment(int sequence, List<byte[]> records)
+            throws IOException {
+        return ProvTestSegments.write(
+                new File(dir,
+                        String.format("%s%04d%s", ProvLogReader.SEGMENT_PREFIX,
+                                sequence, ProvLogReader.SEGMENT_SUFFIX)),
+                ProvLogReader.VERSION, records, false);
+    }
+
+    private W3CProvGraphSnapshot createFrom(File segment) throws IOException {
+        ProvGraphLoader loader = new ProvGraphLoader();
+        W3CProvGraph graph = loader.load(segment);
+        return W3CProvGraphSnapshot.create(file, W3CProvCompactGraph.of(graph),
+                loader.getLastTs(), loader.getPositions());
+    }
+
+    private W3CProvGraph reload() throws IOException {
+        return new ProvGraphLoader().load(dir);
+    }
+
+    private long maxTs() {
+        long max = 0;
+        for (W3CProvGraphNode node : trace.getNodes()) {
+            max = Math.max(max, Long.parseLong(node.getTs()));
+        }
+        return max;
+    }
+
+    private void append(ByteBuffer bytes) throws IOException {
+        Files.write(file, bytes.array(), StandardOpenOption.APPEND);
+    }
+
+    private void truncate(long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+}
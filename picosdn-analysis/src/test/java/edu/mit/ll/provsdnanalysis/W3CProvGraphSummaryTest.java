@@ -0,0 +1,104 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+/**
+ * Tests that traces of a summary agree with traces of the summarized graph as
+ * documented: ancestry exactly, descendants soundly.
+ */
+public class W3CProvGraphSummaryTest {
+
+    private final W3CProvCompactGraph graph = W3CProvCompactGraph
+            .of(W3CProvTestGraphs.trace(1, 500));
+
+    @Test
+    public void aggregatesEquivalentNodes() {
+        W3CProvGraphSummary summary = new W3CProvGraphSummary(graph);
+        W3CProvCompactGraph aggregates = summary.getGraph();
+        assertEquals(summary.getAggregateCount(), aggregates.getNodeCount());
+        assertTrue(summary.getAggregateCount() < graph.getNodeCount());
+        int members = 0;
+        for (int a = 0; a < summary.getAggregateCount(); a++) {
+            members += summary.getCount(a);
+            assertTrue(summary.getFirstTs(a) <= summary.getLastTs(a));
+        }
+        assertEquals(graph.getNodeCount(), members);
+        for (int v = 0; v < graph.getNodeCount(); v++) {
+            int a = summary.getAggregate(v);
+            assertEquals(graph.getType(v), aggregates.getType(a));
+            assertEquals(graph.getValue(v), aggregates.getValue(a));
+            BitSet aggregate = new BitSet();
+            aggregate.set(a);
+            assertTrue(summary.expand(aggregate).get(v));
+        }
+    }
+
+    @Test
+    public void tracesAreExactBackwardAndSoundForward() {
+        W3CProvGraphSummary summary = new W3CProvGraphSummary(graph);
+        W3CProvCompactGraph aggregates = summary.getGraph();
+        for (int v = 0; v < graph.getNodeCount(); v++) {
+            int a = summary.getAggregate(v);
+            assertEquals(aggregatesOf(summary, graph.getAncestryOfNode(v)),
+                    aggregates.getAncestryOfNode(a));
+            BitSet descendants = graph.getDescendantsOfNode(v);
+            BitSet expanded = summary
+                    .expand(aggregates.getDescendantsOfNode(a));
+            descendants.andNot(expanded);
+            assertTrue(descendants.isEmpty());
+        }
+    }
+
+    @Test
+    public void normalizerMergesPacketsOfOnePort() {
+        W3CProvCompactGraph packets = new W3CProvCompactGraph();
+        int port = packets.addNode("port", "agent", "of:1/1", 0);
+        for (int i = 0; i < 3; i++) {
+            int packet = packets.addNode("packet" + i, "entity",
+                    "DefaultInboundPacket{receivedFrom=of:1/1, inPacket=" + i
+                            + "}",
+                    i + 1);
+            packets.addEdge(packet, port, "wasAttributedTo", i + 1);
+        }
+        assertEquals(4, new W3CProvGraphSummary(packets).getAggregateCount());
+        W3CProvGraphSummary normalized = new W3CProvGraphSummary(packets,
+                W3CProvGraphSummary.stripping(", inPacket=\\d+"));
+        assertEquals(2, normalized.getAggregateCount());
+        assertEquals(3, normalized.getCount(normalized.getAggregate(1)));
+        assertEquals(1, normalized.getFirstTs(normalized.getAggregate(1)));
+        assertEquals(3, normalized.getLastTs(normalized.getAggregate(1)));
+        assertEquals(1, normalized.getGraph().getEdgeCount());
+    }
+
+    @Test
+    public void normalizerOnlyMerges() {
+        W3CProvGraphSummary exact = new W3CProvGraphSummary(graph);
+        W3CProvGraphSummary normalized = new W3CProvGraphSummary(graph,
+                W3CProvGraphSummary.stripping(", inPacket=\\d+"));
+        assertTrue(normalized.getAggregateCount() <= exact
+                .getAggregateCount());
+        for (int v = 0; v < graph.getNodeCount(); v++) {
+            for (int u = v + 1; u < graph.getNodeCount(); u += 37) {
+                if (exact.getAggregate(u) == exact.getAggregate(v)) {
+                    assertEquals(normalized.getAggregate(v),
+                            normalized.getAggregate(u));
+                }
+            }
+        }
+    }
+
+    private static BitSet aggregatesOf(W3CProvGraphSummary summary,
+            BitSet nodes) {
+        BitSet aggregates = new BitSet();
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            aggregates.set(summary.getAggregate(v));
+        }
+        return aggregates;
+    }
+
+}
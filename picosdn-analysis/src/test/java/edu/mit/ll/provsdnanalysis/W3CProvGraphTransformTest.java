@@ -0,0 +1,192 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.dump;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Tests that the fused transformation gives the same graph as running the
+ * passes it replaces one after another.
+ */
+public class W3CProvGraphTransformTest {
+
+    @Test
+    public void eachPassMatchesReference() {
+        for (int pass = 0; pass < 5; pass++) {
+            W3CProvGraph expected = W3CProvTestGraphs.trace(1, 300);
+            reference(expected, pass);
+            W3CProvGraph actual = W3CProvTestGraphs.trace(1, 300);
+            W3CProvGraphTransform transform = new W3CProvGraphTransform(
+                    actual);
+            enable(transform, pass).apply();
+            assertEquals(dump(expected), dump(actual));
+        }
+    }
+
+    @Test
+    public void fusedPassesMatchReference() {
+        for (long seed = 0; seed < 5; seed++) {
+            W3CProvGraph expected = W3CProvTestGraphs.trace(seed, 300);
+            for (int pass = 0; pass < 5; pass++) {
+                reference(expected, pass);
+            }
+            W3CProvGraph actual = W3CProvTestGraphs.trace(seed, 300);
+            new W3CProvGraphTransform(actual).removePacketFlowDependency()
+                    .addSwitchportAgency().removeActivitiesWithoutEffect()
+                    .addAppAgency().removeOrphanNodes().apply();
+            assertEquals(dump(expected), dump(actual));
+        }
+    }
+
+    @Test
+    public void fusedPassesMatchSequentialPasses() {
+        /* every subset of the passes, in order */
+        for (int passes = 1; passes < 32; passes++) {
+            W3CProvGraph expected = W3CProvTestGraphs.trace(passes, 200);
+            W3CProvGraph actual = W3CProvTestGraphs.trace(passes, 200);
+            W3CProvGraphTransform transform = new W3CProvGraphTransform(
+                    actual);
+            for (int pass = 0; pass < 5; pass++) {
+                if ((passes & (1 << pass)) != 0) {
+                    enable(new W3CProvGraphTransform(expected), pass).apply();
+                    enable(transform, pass);
+                }
+            }
+            transform.apply();
+            assertEquals(dump(expected), dump(actual));
+        }
+    }
+
+    @Test
+    public void splitsScanAcrossPool() {
+        W3CProvGraph expected = W3CProvTestGraphs.trace(9, 4000);
+        for (int pass = 0; pass < 5; pass++) {
+            reference(expected, pass);
+        }
+        W3CProvGraph actual = W3CProvTestGraphs.trace(9, 4000);
+        assertTrue(actual.getNodes().size() > 8192);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            new W3CProvGraphTransform(actual, pool)
+                    .removePacketFlowDependency().addSwitchportAgency()
+                    .removeActivitiesWithoutEffect().addAppAgency()
+                    .removeOrphanNodes().apply();
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(dump(expected), dump(actual));
+    }
+
+    @Test
+    public void reusesExistingAgents() {
+        W3CProvGraph graph = W3CProvTestGraphs.trace(2, 100);
+        new W3CProvGraphTransform(graph).addAppAgency().apply();
+        int nodes = graph.getNodes().size();
+        int agents = graph.filterAgents(graph.getNodes()).size();
+        new W3CProvGraphTransform(graph).addAppAgency().apply();
+        assertEquals(nodes, graph.getNodes().size());
+        assertEquals(agents, graph.filterAgents(graph.getNodes()).size());
+        assertNotNull(graph.getNode("orgonosprojectfwdReactiveForwarding"));
+    }
+
+    private static W3CProvGraphTransform enable(
+            W3CProvGraphTransform transform, int pass) {
+        switch (pass) {
+        case 0:
+            return transform.removePacketFlowDependency();
+        case 1:
+            return transform.addSwitchportAgency();
+        case 2:
+            return transform.removeActivitiesWithoutEffect();
+        case 3:
+            return transform.addAppAgency();
+        default:
+            return transform.removeOrphanNodes();
+        }
+    }
+
+    /*
+     * The passes as W3CProvGraph ran them before they were fused, one edge or
+     * node at a time.
+     */
+
+    private static void reference(W3CProvGraph graph, int pass) {
+        List<W3CProvGraphNode> nodes = new ArrayList<W3CProvGraphNode>(
+                graph.getNodes());
+        switch (pass) {
+        case 0:
+            for (W3CProvGraphNode node : nodes) {
+                if (node.getValue().contains("DefaultInboundPacket")) {
+                    List<W3CProvGraphEdge> derivations = new ArrayList<W3CProvGraphEdge>();
+                    for (W3CProvGraphEdge edge : graph.outgoingEdgesOf(node)) {
+                        if (edge.getType().equals("wasDerivedFrom")) {
+                            derivations.add(edge);
+                        }
+                    }
+                    graph.removeEdges(derivations);
+                }
+            }
+            break;
+        case 1:
+            for (W3CProvGraphNode node : nodes) {
+                if (node.getValue().contains("DefaultInboundPacket")) {
+                    String value = node.getValue();
+                    addAgent(graph, node, value.substring(
+                            value.indexOf("=") + 1, value.indexOf(",")),
+                            "wasAttributedTo");
+                }
+            }
+            break;
+        case 2:
+            List<W3CProvGraphNode> withoutEffect = new ArrayList<W3CProvGraphNode>();
+            for (W3CProvGraphNode activity : graph.filterActivities(
+                    graph.getNodes())) {
+                boolean remove = true;
+                for (W3CProvGraphEdge edge : graph.edgesOf(activity)) {
+                    if (edge.getType().equals("wasGeneratedBy")
+                            || edge.getType().equals("invalidates")) {
+                        remove = false;
+                    }
+                }
+                if (remove) {
+                    withoutEffect.add(activity);
+                }
+            }
+            graph.removeNodes(withoutEffect);
+            break;
+        case 3:
+            for (W3CProvGraphNode activity : graph.filterActivities(
+                    graph.getNodes())) {
+                String value = activity.getValue();
+                addAgent(graph, activity,
+                        value.substring(0, value.indexOf("$")),
+                        "wasAssociatedWith");
+            }
+            break;
+        default:
+            List<W3CProvGraphNode> orphans = new ArrayList<W3CProvGraphNode>();
+            for (W3CProvGraphNode node : nodes) {
+                if (graph.edgesOf(node).isEmpty()) {
+                    orphans.add(node);
+                }
+            }
+            graph.removeNodes(orphans);
+        }
+    }
+
+    private static void addAgent(W3CProvGraph graph, W3CProvGraphNode node,
+            String name, String relation) {
+        String id = name.replaceAll("[^a-zA-Z0-9]", "");
+        graph.addNode(new W3CProvGraphNode(id, "agent", name, id));
+        graph.addEdge(node, graph.getNode(id),
+                new W3CProvGraphEdge(relation, "", "0"));
+    }
+
+}
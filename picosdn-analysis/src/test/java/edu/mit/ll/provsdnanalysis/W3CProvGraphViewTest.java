@@ -0,0 +1,124 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.dump;
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.uuids;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests that views follow only edges of accepted types, and that traversing
+ * through a view leaves the graph as it was.
+ */
+public class W3CProvGraphViewTest {
+
+    private final W3CProvGraph graph = new W3CProvGraph();
+
+    /*
+     * a uses e0 and generates e1; e2 revises e1; b invalidates e1 and
+     * generates e3
+     */
+    private final W3CProvGraphNode e0 = node("entity", 1);
+    private final W3CProvGraphNode a = node("activity", 2);
+    private final W3CProvGraphNode e1 = node("entity", 3);
+    private final W3CProvGraphNode e2 = node("entity", 4);
+    private final W3CProvGraphNode b = node("activity", 5);
+    private final W3CProvGraphNode e3 = node("entity", 6);
+
+    public W3CProvGraphViewTest() {
+        edge(a, e0, "used", 2);
+        edge(e1, a, "wasGeneratedBy", 3);
+        edge(e2, e1, "wasRevisionOf", 4);
+        edge(b, e1, "invalidates", 5);
+        edge(e3, b, "wasGeneratedBy", 6);
+    }
+
+    @Test
+    public void dependencyViewSkipsRevisionAndInvalidation() {
+        Set<String> before = dump(graph);
+        W3CProvGraphView view = graph.getDependencyView();
+
+        assertEquals(nodes(), view.getAncestryOfNode(e2));
+        assertEquals(nodes(b), view.getAncestryOfNode(e3));
+        assertEquals(nodes(a, e0), view.getAncestryOfNode(e1));
+        assertEquals(nodes(), view.getDescendantsOfNode(e1));
+        assertEquals(nodes(a, e1), view.getDescendantsOfNode(e0));
+        assertEquals(nodes(), view.getTargetsOf(b));
+        assertEquals(nodes(), view.getSourcesOf(e1));
+        assertEquals(before, dump(graph));
+
+        /* the graph itself still follows every edge */
+        assertEquals(nodes(e1, a, e0), graph.getAncestryOfNode(e2));
+        assertEquals(nodes(b, e1, a, e0), graph.getAncestryOfNode(e3));
+        assertEquals(nodes(e2, b, e3), graph.getDescendantsOfNode(e1));
+    }
+
+    @Test
+    public void viewExcludesGivenTypes() {
+        Set<String> before = dump(graph);
+        W3CProvGraphView view = graph.getView(
+                new HashSet<String>(Arrays.asList("used", "invalidates")));
+
+        assertEquals(nodes(a), view.getAncestryOfNode(e1));
+        assertEquals(nodes(e1, a), view.getAncestryOfNode(e2));
+        assertEquals(nodes(), view.getDescendantsOfNode(e0));
+        assertEquals(nodes(e2), view.getSourcesOf(e1));
+        assertEquals(nodes(), view.getTargetsOf(b));
+        assertEquals(before, dump(graph));
+    }
+
+    @Test
+    public void dependencyViewMatchesGraphWithoutExcludedEdges() {
+        W3CProvGraph traced = W3CProvTestGraphs.trace(3, 500);
+        Set<String> before = dump(traced);
+        W3CProvGraph reference = W3CProvTestGraphs.trace(3, 500);
+        List<W3CProvGraphEdge> excluded = new ArrayList<W3CProvGraphEdge>();
+        for (W3CProvGraphEdge edge : reference.getEdges()) {
+            if (edge.getType().equals("wasRevisionOf")
+                    || edge.getType().equals("invalidates")) {
+                excluded.add(edge);
+            }
+        }
+        assertTrue(reference.removeEdges(excluded) > 0);
+
+        W3CProvGraphView view = traced.getDependencyView();
+        for (W3CProvGraphNode node : traced.getNodes()) {
+            W3CProvGraphNode same = reference.getNode(node.getUuid());
+            assertEquals(uuids(reference.getAncestryOfNode(same)),
+                    uuids(view.getAncestryOfNode(node)));
+            assertEquals(uuids(reference.getDescendantsOfNode(same)),
+                    uuids(view.getDescendantsOfNode(node)));
+        }
+        assertEquals(before, dump(traced));
+    }
+
+    private W3CProvGraphNode node(String type, long ts) {
+        W3CProvGraphNode node = new W3CProvGraphNode(
+                UUID.randomUUID().toString(), type, type + ts,
+                String.valueOf(ts));
+        graph.addNode(node);
+        return node;
+    }
+
+    private void edge(W3CProvGraphNode from, W3CProvGraphNode to, String type,
+            long ts) {
+        graph.addEdge(from, to,
+                new W3CProvGraphEdge(type, "", String.valueOf(ts)));
+    }
+
+    private static Set<W3CProvGraphNode> nodes(W3CProvGraphNode... nodes) {
+        Set<W3CProvGraphNode> set = new HashSet<W3CProvGraphNode>();
+        Collections.addAll(set, nodes);
+        return set;
+    }
+
+}
@@ -0,0 +1,77 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static edu.mit.ll.provsdnanalysis.W3CProvTestGraphs.traceUuids;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+/**
+ * Tests that the parallel trace gives the results of tracing each ancestor
+ * one after another.
+ */
+public class W3CProvParallelTraceTest {
+
+    @Test
+    public void matchesSequentialTrace() {
+        W3CProvGraph graph = W3CProvTestGraphs.trace(5, 1500);
+        W3CProvCompactGraph compact = W3CProvCompactGraph.of(graph);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            W3CProvParallelTrace trace = new W3CProvParallelTrace(compact,
+                    pool);
+            for (W3CProvGraphNode node : graph.getNodes()) {
+                assertEquals(traceUuids(graph.backwardForwardTrace(node)),
+                        traceUuids(compact, trace.backwardForwardTrace(
+                                compact.getNode(node.getUuid()))));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void matchesSequentialTraceWithCycles() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (long seed = 0; seed < 5; seed++) {
+                W3CProvCompactGraph graph = W3CProvTestGraphs
+                        .randomCompactGraph(seed, 300, 600);
+                W3CProvParallelTrace trace = new W3CProvParallelTrace(graph,
+                        pool);
+                for (int v = 0; v < graph.getNodeCount(); v++) {
+                    Map<Integer, BitSet> actual = trace
+                            .backwardForwardTrace(v);
+                    assertEquals(sequentialTrace(graph, v), actual);
+                    assertFalse(actual.containsKey(-1));
+                    assertNull(actual.get(graph.getNodeCount()));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * The trace as W3CProvGraph.backwardForwardTrace() does it: a traversal
+     * from each entity depending on the node.
+     */
+    private static Map<Integer, BitSet> sequentialTrace(
+            W3CProvCompactGraph graph, int node) {
+        Map<Integer, BitSet> trace = new HashMap<Integer, BitSet>();
+        BitSet ancestors = graph.filterEntities(
+                graph.reachable(node, false, true));
+        for (int v = ancestors.nextSetBit(0); v >= 0; v = ancestors
+                .nextSetBit(v + 1)) {
+            trace.put(v, graph.filterEntities(graph.reachable(v, true, true)));
+        }
+        return trace;
+    }
+
+}
@@ -0,0 +1,64 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnquery.ProvQuery;
+
+/**
+ * Tests of the evaluation of path queries that is specific to the offline
+ * graph; queries are parsed (and tested) by ProvQuery in provsdn-query.
+ */
+public class W3CProvQueryExecutorTest {
+
+    @Test
+    public void withinIsRelativeToLatestRecord() {
+        W3CProvCompactGraph graph = new W3CProvCompactGraph();
+        int rule = graph.addNode("rule", "entity", "DefaultFlowRule", 10_000);
+        int fwd = graph.addNode("fwd", "activity", "fwd", 9_000);
+        int packet = graph.addNode("packet", "entity", "packet", 8_000);
+        int oldPacket = graph.addNode("oldPacket", "entity", "packet", 1_000);
+        graph.addEdge(rule, fwd, "wasGeneratedBy", 10_000);
+        graph.addEdge(fwd, packet, "used", 9_000);
+        graph.addEdge(fwd, oldPacket, "used", 9_000);
+        W3CProvQueryExecutor executor = new W3CProvQueryExecutor(graph);
+
+        assertEquals(bits(packet), executor
+                .execute("(p \"packet\" ts within 5s) <-- (a)").getReturned());
+        assertEquals(bits(packet, oldPacket), executor
+                .execute("(p \"packet\" ts within 9s) <-- (a)").getReturned());
+        assertEquals(bits(rule),
+                executor.execute("(r) --> (a) --> (p not ts within 5s)")
+                        .getReturned());
+    }
+
+    @Test
+    public void checksRelationTypesWhenRun() {
+        W3CProvCompactGraph graph = new W3CProvCompactGraph();
+        graph.addEdge(graph.addNode("a", "agent", "a", 1),
+                graph.addNode("b", "entity", "b", 1), "wasAttributedTo", 1);
+        W3CProvQueryExecutor executor = new W3CProvQueryExecutor(graph);
+        ProvQuery query = ProvQuery.parse("(a) -[bogus]-> (b)");
+        try {
+            executor.execute(query);
+            fail("Ran " + query);
+        } catch (IllegalArgumentException e) {
+            assertEquals("Unknown relation type bogus", e.getMessage());
+        }
+        assertEquals(1, executor.execute("(a:agent) -[wasAttributedTo]-> (b)")
+                .getMatchCount());
+    }
+
+    private static BitSet bits(int... nodes) {
+        BitSet bits = new BitSet();
+        for (int node : nodes) {
+            bits.set(node);
+        }
+        return bits;
+    }
+
+}
@@ -0,0 +1,75 @@
+package edu.mit.ll.provsdnanalysis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests that the reachability (GRAIL) index answers like traversals of the
+ * compact graph, on acyclic traces and on random graphs with cycles.
+ */
+public class W3CProvReachabilityIndexTest {
+
+    @Test
+    public void matchesTraceOfAcyclicGraph() {
+        W3CProvCompactGraph graph = W3CProvCompactGraph
+                .of(W3CProvTestGraphs.trace(3, 300));
+        W3CProvReachabilityIndex index = new W3CProvReachabilityIndex(graph,
+                false, W3CProvReachabilityIndex.DEFAULT_INTERVALS,
+                new Random(4));
+        assertEquals(graph.getNodeCount(), index.getComponentCount());
+        assertMatches(graph, index, new Random(5));
+    }
+
+    @Test
+    public void matchesGraphWithCycles() {
+        for (long seed = 0; seed < 8; seed++) {
+            W3CProvCompactGraph graph = W3CProvTestGraphs
+                    .randomCompactGraph(seed, 150, 150 + 60 * (int) seed);
+            W3CProvReachabilityIndex index = new W3CProvReachabilityIndex(
+                    graph, false, 1 + (int) seed % 4, new Random(seed));
+            assertTrue(index.getComponentCount() <= graph.getNodeCount());
+            assertMatches(graph, index, new Random(seed));
+        }
+    }
+
+    @Test
+    public void dependencyIndexMatchesCommonAncestryTrace() {
+        for (long seed = 0; seed < 4; seed++) {
+            W3CProvCompactGraph graph = W3CProvTestGraphs
+                    .randomCompactGraph(seed, 120, 240);
+            W3CProvReachabilityIndex index = new W3CProvReachabilityIndex(
+                    graph);
+            Random random = new Random(seed);
+            for (int i = 0; i < 100; i++) {
+                BitSet evidence = new BitSet();
+                for (int n = i % 4; n > 0; n--) {
+                    evidence.set(random.nextInt(graph.getNodeCount()));
+                }
+                assertEquals(graph.commonAncestryTrace(evidence),
+                        index.commonAncestryTrace(evidence));
+            }
+        }
+    }
+
+    private static void assertMatches(W3CProvCompactGraph graph,
+            W3CProvReachabilityIndex index, Random random) {
+        int n = graph.getNodeCount();
+        for (int v = 0; v < n; v++) {
+            BitSet ancestry = graph.getAncestryOfNode(v);
+            BitSet descendants = graph.getDescendantsOfNode(v);
+            assertEquals(ancestry, index.getAncestryOfNode(v));
+            assertEquals(descendants, index.getDescendantsOfNode(v));
+            for (int i = 0; i < 20; i++) {
+                int u = random.nextInt(n);
+                assertEquals(ancestry.get(u), index.isInAncestryOf(u, v));
+                assertEquals(descendants.get(u), index.isDescendantOf(u, v));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,217 @@
+package edu.mit.ll.provsdnanalysis;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Synthetic provenance graphs and canonical forms of graphs and query results,
+ * shared by the tests.
+ */
+final class W3CProvTestGraphs {
+
+    static final String[] APPS = { "org.onosproject.fwd.ReactiveForwarding",
+            "org.onosproject.provider.lldp.impl.LldpLinkProvider",
+            "org.onosproject.net.host.impl.HostManager" };
+
+    private W3CProvTestGraphs() {
+    }
+
+    /**
+     * A trace shaped like a collected log: each listener invocation
+     * (activity) uses earlier entities and generates new ones (inbound
+     * packets derived from flow rules, flow rules, hosts); some invalidate or
+     * revise earlier entities, some have no effect, and some entities are
+     * never related. Every edge goes from a newer to an older node, so the
+     * graph is acyclic.
+     *
+     * @param seed
+     * @param activities number of activities
+     * @return graph
+     */
+    static W3CProvGraph trace(long seed, int activities) {
+        Random random = new Random(seed);
+        W3CProvGraph graph = new W3CProvGraph();
+        List<W3CProvGraphNode> entities = new ArrayList<W3CProvGraphNode>();
+        List<W3CProvGraphNode> flowRules = new ArrayList<W3CProvGraphNode>();
+        long ts = 0;
+        for (int i = 0; i < activities; i++) {
+            W3CProvGraphNode activity = node(random, "activity",
+                    APPS[random.nextInt(APPS.length)] + "$Listener"
+                            + random.nextInt(2),
+                    ++ts);
+            graph.addNode(activity);
+            for (int u = random.nextInt(3); u > 0 && !entities.isEmpty(); u--) {
+                graph.addEdge(activity, pick(random, entities),
+                        edge("used", ts));
+            }
+            if (!entities.isEmpty() && random.nextInt(8) == 0) {
+                graph.addEdge(activity, pick(random, entities),
+                        edge("invalidates", ts));
+            }
+            for (int g = random.nextInt(3); g > 0; g--) {
+                W3CProvGraphNode entity;
+                int kind = random.nextInt(3);
+                if (kind == 0) {
+                    entity = node(random, "entity",
+                            "DefaultInboundPacket{receivedFrom=of:000000000000000"
+                                    + (1 + random.nextInt(3)) + "/"
+                                    + (1 + random.nextInt(2))
+                                    + ", inPacket=" + random.nextInt(4) + "}",
+                            ++ts);
+                } else if (kind == 1) {
+                    entity = node(random, "entity",
+                            "DefaultFlowRule{id=" + random.nextInt(50) + "}",
+                            ++ts);
+                } else {
+                    entity = node(random, "entity",
+                            "DefaultHost{id=" + random.nextInt(10) + "}", ++ts);
+                }
+                graph.addNode(entity);
+                graph.addEdge(entity, activity, edge("wasGeneratedBy", ts));
+                if (kind == 0 && !flowRules.isEmpty()) {
+                    graph.addEdge(entity, pick(random, flowRules),
+                            edge("wasDerivedFrom", ts));
+                } else if (kind == 1 && !flowRules.isEmpty()
+                        && random.nextInt(4) == 0) {
+                    graph.addEdge(entity, pick(random, flowRules),
+                            edge("wasRevisionOf", ts));
+                }
+                entities.add(entity);
+                if (kind == 1) {
+                    flowRules.add(entity);
+                }
+            }
+            if (random.nextInt(10) == 0) {
+                graph.addNode(node(random, "entity", "DefaultDevice{}", ++ts));
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * A compact graph with random edges of every relation type, including
+     * cycles.
+     *
+     * @param seed
+     * @param nodes number of nodes
+     * @param edges number of edges added (loops and duplicates are dropped)
+     * @return graph
+     */
+    static W3CProvCompactGraph randomCompactGraph(long seed, int nodes,
+            int edges) {
+        Random random = new Random(seed);
+        String[] types = { "agent", "activity", "entity" };
+        W3CProvCompactGraph graph = new W3CProvCompactGraph();
+        for (int i = 0; i < nodes; i++) {
+            graph.addNode(new UUID(random.nextLong(), random.nextLong())
+                    .toString(), types[random.nextInt(types.length)],
+                    "value" + random.nextInt(nodes / 4 + 1), i);
+        }
+        for (int i = 0; i < edges; i++) {
+            graph.addEdge(random.nextInt(nodes), random.nextInt(nodes),
+                    ProvLogReader.RELATION_TYPES[1 + random.nextInt(
+                            ProvLogReader.RELATION_TYPES.length - 1)],
+                    i);
+        }
+        graph.build();
+        return graph;
+    }
+
+    private static W3CProvGraphNode node(Random random, String type,
+            String value, long ts) {
+        return new W3CProvGraphNode(
+                new UUID(random.nextLong(), random.nextLong()).toString(),
+                type, value, String.valueOf(ts));
+    }
+
+    private static W3CProvGraphEdge edge(String type, long ts) {
+        return new W3CProvGraphEdge(type, "", String.valueOf(ts));
+    }
+
+    private static W3CProvGraphNode pick(Random random,
+            List<W3CProvGraphNode> nodes) {
+        return nodes.get(random.nextInt(nodes.size()));
+    }
+
+    /*
+     * Canonical forms, comparable across graph representations
+     */
+
+    /**
+     * Nodes and edges of a graph, one string each.
+     */
+    static Set<String> dump(W3CProvGraph graph) {
+        Set<String> dump = new TreeSet<String>();
+        for (W3CProvGraphNode node : graph.getNodes()) {
+            dump.add(node.getUuid() + " " + node.getType() + " "
+                    + node.getValue() + " " + node.getTs());
+        }
+        for (W3CProvGraphEdge edge : graph.getEdges()) {
+            dump.add(graph.getEdgeSource(edge).getUuid() + " -"
+                    + edge.getType() + "-> "
+                    + graph.getEdgeTarget(edge).getUuid() + " "
+                    + edge.getTs());
+        }
+        return dump;
+    }
+
+    static Set<String> dump(W3CProvCompactGraph graph) {
+        Set<String> dump = new TreeSet<String>();
+        for (int v = 0; v < graph.getNodeCount(); v++) {
+            dump.add(graph.getUuid(v) + " " + graph.getType(v) + " "
+                    + graph.getValue(v) + " " + graph.getTs(v));
+            for (int e = graph.firstOutEdge(v); e < graph
+                    .firstOutEdge(v + 1); e++) {
+                dump.add(graph.getUuid(v) + " -" + graph.getEdgeType(e)
+                        + "-> " + graph.getUuid(graph.getEdgeTarget(e)) + " "
+                        + graph.getEdgeTs(e));
+            }
+        }
+        return dump;
+    }
+
+    static Set<String> uuids(Set<W3CProvGraphNode> nodes) {
+        Set<String> uuids = new HashSet<String>();
+        for (W3CProvGraphNode node : nodes) {
+            uuids.add(node.getUuid());
+        }
+        return uuids;
+    }
+
+    static Set<String> uuids(W3CProvCompactGraph graph, BitSet nodes) {
+        Set<String> uuids = new HashSet<String>();
+        for (int v = nodes.nextSetBit(0); v >= 0; v = nodes.nextSetBit(v + 1)) {
+            uuids.add(graph.getUuid(v));
+        }
+        return uuids;
+    }
+
+    static Map<String, Set<String>> traceUuids(
+            Map<W3CProvGraphNode, Set<W3CProvGraphNode>> trace) {
+        Map<String, Set<String>> uuids = new HashMap<String, Set<String>>();
+        for (Map.Entry<W3CProvGraphNode, Set<W3CProvGraphNode>> entry : trace
+                .entrySet()) {
+            uuids.put(entry.getKey().getUuid(), uuids(entry.getValue()));
+        }
+        return uuids;
+    }
+
+    static Map<String, Set<String>> traceUuids(W3CProvCompactGraph graph,
+            Map<Integer, BitSet> trace) {
+        Map<String, Set<String>> uuids = new HashMap<String, Set<String>>();
+        for (Map.Entry<Integer, BitSet> entry : trace.entrySet()) {
+            uuids.put(graph.getUuid(entry.getKey()),
+                    uuids(graph, entry.getValue()));
+        }
+        return uuids;
+    }
+
+}
@@ -20,6 +20,7 @@ import static com.google.common.base.MoreObjects.toStringHelper;
 import java.util.UUID;
 
 import org.onlab.util.Tools;
+import org.onosproject.security.ProvIdGenerator;
 
 /**
  * Base event implementation.
@@ -29,7 +30,7 @@ public class AbstractEvent<T extends Enum, S> implements Event<T, S> {
     private final long time;
     private final T type;
     private final S subject;
-    private UUID activityUuid = null;
+    private long activityId = ProvIdGenerator.NO_ID;
 
     /**
      * Creates an event of a given type and for the specified subject and the
@@ -79,11 +80,22 @@ public class AbstractEvent<T extends Enum, S> implements Event<T, S> {
 
     @Override
     public UUID getActivityUuid() {
-        return activityUuid;
+        return activityId == ProvIdGenerator.NO_ID ? null : new UUID(0, activityId);
     }
 
     @Override
     public void setActivityUuid(UUID uuid) {
-        activityUuid = uuid;
+        activityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getActivityId() {
+        return activityId;
+    }
+
+    @Override
+    public void setActivityId(long id) {
+        activityId = id;
     }
 }
@@ -66,7 +66,11 @@ public class ListenerRegistry<E extends Event, L extends EventListener<E>>
                 lastStart = System.currentTimeMillis();
                 if (listener.isRelevant(event)) {
                     ProvHook.recordListen(event, listener.getClass());
-                    listener.event(event);
+                    try {
+                        listener.event(event);
+                    } finally {
+                        ProvHook.recordListenEnd();
+                    }
                 }
                 lastStart = 0;
             } catch (Exception error) {
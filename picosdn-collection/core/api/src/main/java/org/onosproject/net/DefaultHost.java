@@ -29,6 +29,7 @@ import org.onlab.packet.IpAddress;
 import org.onlab.packet.MacAddress;
 import org.onlab.packet.VlanId;
 import org.onosproject.net.provider.ProviderId;
+import org.onosproject.security.ProvIdGenerator;
 
 /**
  * A basic implementation of a Host.
@@ -42,7 +43,7 @@ public class DefaultHost extends AbstractElement implements Host {
     private final VlanId innerVlan;
     private final EthType tpid;
     private final boolean configured;
-    private UUID entityUuid;
+    private long entityId = ProvIdGenerator.NO_ID;
 
     // TODO consider moving this constructor to a builder pattern.
     /**
@@ -215,12 +216,23 @@ public class DefaultHost extends AbstractElement implements Host {
 
     @Override
     public UUID getEntityUuid() {
-        return entityUuid;
+        return entityId == ProvIdGenerator.NO_ID ? null : new UUID(0, entityId);
     }
 
     @Override
     public void setEntityUuid(UUID uuid) {
-        entityUuid = uuid;
+        entityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getEntityId() {
+        return entityId;
+    }
+
+    @Override
+    public void setEntityId(long id) {
+        entityId = id;
     }
 
 }
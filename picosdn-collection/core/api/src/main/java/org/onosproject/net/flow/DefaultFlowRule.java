@@ -26,6 +26,7 @@ import java.util.UUID;
 import org.onosproject.core.ApplicationId;
 import org.onosproject.core.GroupId;
 import org.onosproject.net.DeviceId;
+import org.onosproject.security.ProvIdGenerator;
 
 import com.google.common.hash.Funnel;
 import com.google.common.hash.HashCode;
@@ -55,7 +56,7 @@ public class DefaultFlowRule implements FlowRule {
 
     private final TableId tableId;
     private final FlowRuleExtPayLoad payLoad;
-    private UUID entityUuid;
+    private long entityId = ProvIdGenerator.NO_ID;
 
     /**
      * Creates a new flow rule from an existing rule.
@@ -545,12 +546,23 @@ public class DefaultFlowRule implements FlowRule {
 
     @Override
     public UUID getEntityUuid() {
-        return entityUuid;
+        return entityId == ProvIdGenerator.NO_ID ? null : new UUID(0, entityId);
     }
 
     @Override
     public void setEntityUuid(UUID uuid) {
-        entityUuid = uuid;
+        entityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getEntityId() {
+        return entityId;
+    }
+
+    @Override
+    public void setEntityId(long id) {
+        entityId = id;
     }
 
 }
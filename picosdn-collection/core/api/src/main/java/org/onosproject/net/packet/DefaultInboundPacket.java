@@ -24,6 +24,7 @@ import java.util.UUID;
 
 import org.onlab.packet.Ethernet;
 import org.onosproject.net.ConnectPoint;
+import org.onosproject.security.ProvIdGenerator;
 
 /**
  * Default implementation of an immutable inbound packet.
@@ -34,7 +35,7 @@ public final class DefaultInboundPacket implements InboundPacket {
     private final Ethernet parsed;
     private final ByteBuffer unparsed;
     private final Optional<Long> cookie;
-    private UUID entityUuid;
+    private long entityId = ProvIdGenerator.NO_ID;
 
     /**
      * Creates an immutable inbound packet.
@@ -112,11 +113,22 @@ public final class DefaultInboundPacket implements InboundPacket {
 
     @Override
     public UUID getEntityUuid() {
-        return entityUuid;
+        return entityId == ProvIdGenerator.NO_ID ? null : new UUID(0, entityId);
     }
 
     @Override
     public void setEntityUuid(UUID uuid) {
-        entityUuid = uuid;
+        entityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getEntityId() {
+        return entityId;
+    }
+
+    @Override
+    public void setEntityId(long id) {
+        entityId = id;
     }
 }
@@ -25,6 +25,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import org.onosproject.net.flow.DefaultTrafficTreatment;
 import org.onosproject.net.flow.TrafficTreatment;
 import org.onosproject.net.flow.TrafficTreatment.Builder;
+import org.onosproject.security.ProvIdGenerator;
 
 /**
  * Default implementation of a packet context.
@@ -37,7 +38,7 @@ public abstract class DefaultPacketContext implements PacketContext {
     private final TrafficTreatment.Builder builder;
 
     private final AtomicBoolean block;
-    private UUID activityUuid = null;
+    private long activityId = ProvIdGenerator.NO_ID;
 
     /**
      * Creates a new packet context.
@@ -98,12 +99,23 @@ public abstract class DefaultPacketContext implements PacketContext {
 
     @Override
     public UUID getActivityUuid() {
-        return activityUuid;
+        return activityId == ProvIdGenerator.NO_ID ? null : new UUID(0, activityId);
     }
 
     @Override
     public void setActivityUuid(UUID uuid) {
-        activityUuid = uuid;
+        activityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getActivityId() {
+        return activityId;
+    }
+
+    @Override
+    public void setActivityId(long id) {
+        activityId = id;
     }
 
 }
\ No newline at end of file
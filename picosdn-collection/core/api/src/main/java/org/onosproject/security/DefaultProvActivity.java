@@ -19,16 +19,27 @@ import java.util.UUID;
 
 public class DefaultProvActivity implements ProvActivity {
 
-    private UUID activityUuid = null;
+    private long activityId = ProvIdGenerator.NO_ID;
 
     @Override
     public UUID getActivityUuid() {
-        return activityUuid;
+        return activityId == ProvIdGenerator.NO_ID ? null : new UUID(0, activityId);
     }
 
     @Override
     public void setActivityUuid(UUID uuid) {
-        activityUuid = uuid;
+        activityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getActivityId() {
+        return activityId;
+    }
+
+    @Override
+    public void setActivityId(long id) {
+        activityId = id;
     }
 
 }
@@ -19,16 +19,27 @@ import java.util.UUID;
 
 public class DefaultProvEntity implements ProvEntity {
 
-    private UUID entityUuid = null;
+    private long entityId = ProvIdGenerator.NO_ID;
 
     @Override
     public UUID getEntityUuid() {
-        return entityUuid;
+        return entityId == ProvIdGenerator.NO_ID ? null : new UUID(0, entityId);
     }
 
     @Override
     public void setEntityUuid(UUID uuid) {
-        entityUuid = uuid;
+        entityId = uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    @Override
+    public long getEntityId() {
+        return entityId;
+    }
+
+    @Override
+    public void setEntityId(long id) {
+        entityId = id;
     }
 
 }
@@ -21,4 +21,20 @@ public interface ProvActivity {
     public UUID getActivityUuid();
 
     public void setActivityUuid(UUID uuid);
+
+    /*
+     * Primitive id assigned by the provenance service when the activity is
+     * dispatched (see ProvIdGenerator), or ProvIdGenerator.NO_ID.
+     * Implementations should override both methods to hold the id in a long
+     * field; by default the id is kept in the low 64 bits of the UUID.
+     */
+    public default long getActivityId() {
+        UUID uuid = getActivityUuid();
+        return uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    public default void setActivityId(long id) {
+        setActivityUuid(id == ProvIdGenerator.NO_ID ? null : new UUID(0, id));
+    }
 }
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.security;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+
+/**
+ * Thread-scoped slot holding the provenance activity currently in progress.
+ *
+ * The provenance service places its activity object here when a listener or
+ * packet processor starts handling an event or packet, and the dispatcher
+ * clears it when the listener returns. API calls made in between can then be
+ * attributed to that activity with a single lookup instead of a call stack
+ * capture. Tasks handed off to executors carry the slot across with
+ * {@link #wrap(Runnable)}.
+ */
+public final class ProvContext {
+
+    private static final ThreadLocal<Object> CURRENT = new ThreadLocal<>();
+
+    /* Prevent instantiation */
+    private ProvContext() {
+    }
+
+    /**
+     * Returns the activity in progress on the calling thread.
+     *
+     * @return activity object or null if none
+     */
+    public static Object current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Sets the activity in progress on the calling thread.
+     *
+     * @param activity activity object; null clears the slot
+     */
+    public static void set(Object activity) {
+        if (activity == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(activity);
+        }
+    }
+
+    /**
+     * Clears the activity in progress on the calling thread.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Wraps a task so that it runs with the caller's current activity.
+     *
+     * @param task task to wrap
+     * @return wrapped task, or the task itself if there is no current activity
+     */
+    public static Runnable wrap(Runnable task) {
+        Object activity = CURRENT.get();
+        if (activity == null) {
+            return task;
+        }
+        return () -> {
+            Object previous = CURRENT.get();
+            set(activity);
+            try {
+                task.run();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps a task so that it runs with the caller's current activity.
+     *
+     * @param task task to wrap
+     * @param <T>  result type
+     * @return wrapped task, or the task itself if there is no current activity
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Object activity = CURRENT.get();
+        if (activity == null) {
+            return task;
+        }
+        return () -> {
+            Object previous = CURRENT.get();
+            set(activity);
+            try {
+                return task.call();
+            } finally {
+                set(previous);
+            }
+        };
+    }
+
+    /**
+     * Wraps an executor so that every task runs with the activity current at
+     * the time the task was submitted.
+     *
+     * @param executor executor to wrap
+     * @return wrapped executor
+     */
+    public static Executor wrap(Executor executor) {
+        return command -> executor.execute(wrap(command));
+    }
+
+}
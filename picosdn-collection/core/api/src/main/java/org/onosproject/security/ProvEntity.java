@@ -21,4 +21,20 @@ public interface ProvEntity {
     public UUID getEntityUuid();
 
     public void setEntityUuid(UUID uuid);
+
+    /*
+     * Primitive id assigned by the provenance service (see ProvIdGenerator),
+     * or ProvIdGenerator.NO_ID. Implementations should override both methods
+     * to hold the id in a long field; by default the id is kept in the low 64
+     * bits of the entity UUID.
+     */
+    public default long getEntityId() {
+        UUID uuid = getEntityUuid();
+        return uuid == null ? ProvIdGenerator.NO_ID
+                : uuid.getLeastSignificantBits();
+    }
+
+    public default void setEntityId(long id) {
+        setEntityUuid(id == ProvIdGenerator.NO_ID ? null : new UUID(0, id));
+    }
 }
@@ -19,8 +19,12 @@ import org.onlab.osgi.DefaultServiceDirectory;
 import org.onlab.osgi.ServiceDirectory;
 
 public final class ProvHook {
+    /* Default of ProvService's stackWalkFallback property */
+    public static final boolean DEFAULT_STACK_FALLBACK = false;
+
     private static ServiceDirectory services = new DefaultServiceDirectory();
     private static ProvService svc = null;
+    private static volatile boolean stackFallback = DEFAULT_STACK_FALLBACK;
 
     /* Prevent instantiation */
     private ProvHook() {
@@ -40,6 +44,23 @@ public final class ProvHook {
         svc = null;
     }
 
+    /*
+     * Capture the call stack for API calls made outside of any activity
+     * context (see ProvContext), so that ProvService can attribute them by
+     * stack walking
+     */
+    public static void setStackFallback(boolean enabled) {
+        stackFallback = enabled;
+    }
+
+    /* Capture call stack only if there is no activity context to use */
+    private static Throwable location(Object context) {
+        if (context == null && stackFallback) {
+            return new Throwable();
+        }
+        return null;
+    }
+
     /* Record a dispatch at the start of an activity */
     public static void recordDispatch(ProvActivity activity)
             throws RuntimeException {
@@ -58,14 +79,22 @@ public final class ProvHook {
         svc.recordListen(activity, listener);
     }
 
+    /*
+     * Record the end of a listen (clears the thread's activity context, even
+     * if ProvService was stopped since the listen started)
+     */
+    public static void recordListenEnd() throws RuntimeException {
+        ProvContext.clear();
+    }
+
     /* Record an API call (no entity) */
     public static void recordApiCall(ProvApiCallType type)
             throws RuntimeException {
         if (svc == null) {
             return;
         }
-        Throwable location = new Throwable();
-        svc.recordApiCall(type, null, null, location);
+        Object context = ProvContext.current();
+        svc.recordApiCall(type, null, null, context, location(context));
     }
 
     /* Record an API call (single create, read, delete) */
@@ -74,8 +103,8 @@ public final class ProvHook {
         if (svc == null) {
             return;
         }
-        Throwable location = new Throwable();
-        svc.recordApiCall(type, entity, null, location);
+        Object context = ProvContext.current();
+        svc.recordApiCall(type, entity, null, context, location(context));
     }
 
     /* Record an API call (iterable creates, reads, deletes) */
@@ -84,10 +113,8 @@ public final class ProvHook {
         if (svc == null) {
             return;
         }
-        Throwable location = new Throwable();
-        for (ProvEntity entity : entities) {
-            svc.recordApiCall(type, entity, null, location);
-        }
+        Object context = ProvContext.current();
+        svc.recordApiCalls(type, entities, context, location(context));
     }
 
     /* Record an API call (single create, read, update, delete) */
@@ -96,8 +123,9 @@ public final class ProvHook {
         if (svc == null) {
             return;
         }
-        Throwable location = new Throwable();
-        svc.recordApiCall(type, entity, afterUpdateEntity, location);
+        Object context = ProvContext.current();
+        svc.recordApiCall(type, entity, afterUpdateEntity, context,
+                location(context));
     }
 
     /* Record a derivation (one object derived from one parent object) */
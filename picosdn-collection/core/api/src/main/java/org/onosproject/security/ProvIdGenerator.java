@@ -0,0 +1,38 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.security;
+
+/**
+ * Generator of the primitive ids that the provenance service assigns to
+ * entities and activities.
+ *
+ * Implementations must be thread-safe and must never return {@link #NO_ID}.
+ * Generators intended for clustered deployments should embed a node
+ * identifier so that ids assigned on different nodes do not collide.
+ */
+public interface ProvIdGenerator {
+
+    /* Id of an entity or activity that has not been assigned one */
+    public static final long NO_ID = 0;
+
+    /**
+     * Returns a new id.
+     *
+     * @return id other than NO_ID
+     */
+    public long nextId();
+
+}
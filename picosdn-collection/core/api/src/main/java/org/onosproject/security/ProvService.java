@@ -22,8 +22,30 @@ public interface ProvService {
     public void recordListen(ProvActivity activity, Class listener);
 
     public void recordApiCall(ProvApiCallType type, ProvEntity entity,
-            ProvEntity afterUpdateEntity, Throwable location);
+            ProvEntity afterUpdateEntity, Object context, Throwable location);
+
+    /* Record an API call attributed by call stack only */
+    public default void recordApiCall(ProvApiCallType type, ProvEntity entity,
+            ProvEntity afterUpdateEntity, Throwable location) {
+        recordApiCall(type, entity, afterUpdateEntity, null, location);
+    }
+
+    /*
+     * Record one API call over a collection of entities (e.g., a read that
+     * returns many flow entries); implementations may record the collection
+     * as a whole rather than each entity
+     */
+    public default void recordApiCalls(ProvApiCallType type,
+            Iterable<? extends ProvEntity> entities, Object context,
+            Throwable location) {
+        for (ProvEntity entity : entities) {
+            recordApiCall(type, entity, null, context, location);
+        }
+    }
 
     public void recordDerivation(ProvEntity child, ProvEntity parent);
 
+    /* Replace the generator of entity and activity ids */
+    public void setIdGenerator(ProvIdGenerator generator);
+
 }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onosproject.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Test of ProvContext.
+ */
+public class ProvContextTest {
+
+    @After
+    public void tearDown() {
+        ProvContext.clear();
+    }
+
+    @Test
+    public void testSetAndClear() {
+        assertNull(ProvContext.current());
+        Object activity = new Object();
+        ProvContext.set(activity);
+        assertSame(activity, ProvContext.current());
+        ProvContext.clear();
+        assertNull(ProvContext.current());
+    }
+
+    @Test
+    public void testWrapWithoutContext() {
+        Runnable task = () -> { };
+        assertSame(task, ProvContext.wrap(task));
+    }
+
+    @Test
+    public void testWrapCarriesContext() throws Exception {
+        Object activity = new Object();
+        AtomicReference<Object> seen = new AtomicReference<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ProvContext.set(activity);
+            executor.submit(ProvContext.wrap(
+                    () -> seen.set(ProvContext.current()))).get(5,
+                            TimeUnit.SECONDS);
+            assertSame(activity, seen.get());
+
+            /* the worker thread does not keep the context afterwards */
+            ProvContext.clear();
+            executor.submit(() -> seen.set(ProvContext.current())).get(5,
+                    TimeUnit.SECONDS);
+            assertNull(seen.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testWrapExecutor() throws Exception {
+        Object activity = new Object();
+        AtomicReference<Object> seen = new AtomicReference<>();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ProvContext.set(activity);
+            ProvContext.wrap(executor)
+                    .execute(() -> seen.set(ProvContext.current()));
+            executor.shutdown();
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+            assertEquals(activity, seen.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
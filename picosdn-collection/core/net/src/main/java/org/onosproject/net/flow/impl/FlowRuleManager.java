@@ -81,6 +81,7 @@ import org.onosproject.net.provider.AbstractListenerProviderRegistry;
 import org.onosproject.net.provider.AbstractProviderService;
 import org.onosproject.net.provider.ProviderId;
 import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
 import org.onosproject.security.ProvHook;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
@@ -751,7 +752,8 @@ public class FlowRuleManager extends
                 final FlowRuleBatchOperation b = new FlowRuleBatchOperation(
                         perDeviceBatches.get(deviceId), deviceId, id);
                 pendingFlowOperations.put(id, this);
-                deviceInstallers.execute(() -> store.storeBatch(b));
+                deviceInstallers.execute(
+                        ProvContext.wrap(() -> store.storeBatch(b)));
             }
         }
 
@@ -87,6 +87,7 @@ import org.onosproject.net.intent.impl.phase.Skipped;
 import org.onosproject.net.resource.ResourceConsumer;
 import org.onosproject.net.resource.ResourceService;
 import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
 import org.onosproject.security.ProvHook;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
@@ -561,7 +562,7 @@ public class IntentManager
                                 .thenApply(
                                         IntentManager.this::createInitialPhase)
                                 .thenApplyAsync(IntentProcessPhase::process,
-                                        workerExecutor)
+                                        ProvContext.wrap(workerExecutor))
                                 .thenApply(FinalIntentProcessPhase::data)
                                 .exceptionally(e -> {
                                     // When the future fails, we update the
@@ -594,7 +595,7 @@ public class IntentManager
                 // write multiple data to store in order
                 store.batchWrite(Tools.allOf(futures).join().stream()
                         .filter(Objects::nonNull).collect(Collectors.toList()));
-            }, batchExecutor).exceptionally(e -> {
+            }, ProvContext.wrap(batchExecutor)).exceptionally(e -> {
                 log.error("Error submitting batches:", e);
                 // FIXME incomplete Intents should be cleaned up
                 // (transition to FAILED, etc.)
@@ -425,7 +425,11 @@ public class PacketManager
                     long start = System.nanoTime();
                     ProvHook.recordListen(context,
                             entry.processor().getClass());
-                    entry.processor().process(context);
+                    try {
+                        entry.processor().process(context);
+                    } finally {
+                        ProvHook.recordListenEnd();
+                    }
                     entry.addNanos(System.nanoTime() - start);
 
                     if (log.isTraceEnabled()) {
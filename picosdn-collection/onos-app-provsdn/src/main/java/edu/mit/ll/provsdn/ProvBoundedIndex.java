@@ -0,0 +1,193 @@
+package edu.mit.ll.provsdn;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Size- and age-bounded index used by ProvManager to remember which W3C PROV
+ * objects it has already generated.
+ *
+ * Entries are kept in least-recently-used order. An entry is evicted when the
+ * index grows beyond its maximum size or when it has not been used for longer
+ * than the maximum age. Evicting an entry only means that the object will be
+ * regenerated (with the same identifier) if it is seen again; it does not
+ * change the provenance graph. Eviction counts are kept for monitoring (see
+ * ProvMetrics).
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ *
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class ProvBoundedIndex<K, V> {
+
+    private final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16,
+            0.75f, true);
+    private final LongSupplier clock;
+
+    private int maxSize;
+    private long maxAgeMillis;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long sizeEvictions = 0;
+    private long ageEvictions = 0;
+    private long removals = 0;
+
+    /**
+     * Create a bounded index.
+     *
+     * @param maxSize      maximum number of entries
+     * @param maxAgeMillis maximum time since last use; 0 disables age eviction
+     */
+    public ProvBoundedIndex(int maxSize, long maxAgeMillis) {
+        this(maxSize, maxAgeMillis, System::currentTimeMillis);
+    }
+
+    ProvBoundedIndex(int maxSize, long maxAgeMillis, LongSupplier clock) {
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Look up a value, refreshing its last use.
+     *
+     * @param key
+     * @return value or null
+     */
+    public synchronized V get(K key) {
+        long now = clock.getAsLong();
+        evictExpired(now);
+        Entry<V> entry = map.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        entry.lastUsed = now;
+        return entry.value;
+    }
+
+    /**
+     * Add or replace a value.
+     *
+     * @param key
+     * @param value
+     */
+    public synchronized void put(K key, V value) {
+        long now = clock.getAsLong();
+        map.put(key, new Entry<>(value, now));
+        evictExpired(now);
+        Iterator<Entry<V>> it = map.values().iterator();
+        while (map.size() > maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+            sizeEvictions++;
+        }
+    }
+
+    /**
+     * Remove a value (e.g., because the object it describes was removed from
+     * the control plane).
+     *
+     * @param key
+     * @return removed value or null
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = map.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        removals++;
+        return entry.value;
+    }
+
+    /**
+     * Change the bounds; excess entries are evicted on the next update.
+     *
+     * @param newMaxSize
+     * @param newMaxAgeMillis
+     */
+    public synchronized void setBounds(int newMaxSize, long newMaxAgeMillis) {
+        maxSize = newMaxSize;
+        maxAgeMillis = newMaxAgeMillis;
+    }
+
+    /**
+     * Number of live entries; expired entries are evicted first.
+     *
+     * @return size
+     */
+    public synchronized int size() {
+        evictExpired(clock.getAsLong());
+        return map.size();
+    }
+
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long sizeEvictions() {
+        return sizeEvictions;
+    }
+
+    public synchronized long ageEvictions() {
+        return ageEvictions;
+    }
+
+    public synchronized long removals() {
+        return removals;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "size=" + map.size() + ", hits=" + hits + ", misses=" + misses
+                + ", sizeEvictions=" + sizeEvictions + ", ageEvictions="
+                + ageEvictions + ", removals=" + removals;
+    }
+
+    /**
+     * Evict least-recently-used entries older than the maximum age. Since the
+     * map is in access order, we can stop at the first entry that is recent
+     * enough.
+     *
+     * @param now
+     */
+    private void evictExpired(long now) {
+        if (maxAgeMillis <= 0) {
+            return;
+        }
+        Iterator<Map.Entry<K, Entry<V>>> it = map.entrySet().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().getValue().lastUsed <= maxAgeMillis) {
+                break;
+            }
+            it.remove();
+            ageEvictions++;
+        }
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private long lastUsed;
+
+        private Entry(V value, long lastUsed) {
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Table of compact integer ids for listener and event classes.
+ *
+ * A class is registered the first time it is seen and keeps its id for the
+ * lifetime of the table. Looking up the id of a class goes through a
+ * ClassValue, i.e., a field cached on the class itself, so the hot path
+ * neither hashes class names nor takes a lock. Ids are dense, starting at 0,
+ * so they can index arrays. Classes with the same name share an id.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvClassTable {
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> byName = new ConcurrentHashMap<>();
+
+    private final ClassValue<Integer> ids = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            return register(type.getName());
+        }
+    };
+
+    /**
+     * Id of a class, registering the class if necessary.
+     *
+     * @param type
+     * @return id
+     */
+    public int idOf(Class<?> type) {
+        return ids.get(type);
+    }
+
+    /**
+     * Id of an already registered class name (e.g., from a call stack).
+     *
+     * @param name class name
+     * @return id, or -1 if no class of that name has been registered
+     */
+    public int idOf(String name) {
+        Integer id = byName.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Name of a registered class.
+     *
+     * @param id
+     * @return class name
+     */
+    public synchronized String nameOf(int id) {
+        return names.get(id);
+    }
+
+    /**
+     * Number of registered classes.
+     *
+     * @return count
+     */
+    public synchronized int size() {
+        return names.size();
+    }
+
+    private synchronized Integer register(String name) {
+        /* a class may be computed twice by racing threads */
+        Integer id = byName.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            byName.put(name, id);
+        }
+        return id;
+    }
+
+}
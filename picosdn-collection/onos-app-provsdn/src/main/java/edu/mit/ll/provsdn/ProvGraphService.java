@@ -0,0 +1,18 @@
+package edu.mit.ll.provsdn;
+
+/**
+ * Access to the live provenance graph maintained by ProvManager.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public interface ProvGraphService {
+
+    /**
+     * Live provenance graph of recent activity.
+     *
+     * @return graph, or null if the liveGraph property is disabled
+     */
+    public ProvLiveGraph getLiveGraph();
+}
@@ -0,0 +1,115 @@
+package edu.mit.ll.provsdn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free hybrid logical clock for ordering provenance across cluster nodes.
+ *
+ * A timestamp packs milliseconds since the Unix epoch (upper 48 bits) and a
+ * logical counter (lower 16 bits) into a long, so timestamps compare as longs
+ * and stay close to physical time. Each local record takes a timestamp greater
+ * than any timestamp the clock has handed out or received; observing a
+ * timestamp from another node moves the clock past it, so a record that
+ * causally follows a remote record is ordered after it. A logical counter that
+ * overflows carries into the milliseconds.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvHybridClock {
+
+    public static final int LOGICAL_BITS = 16;
+
+    private final LongSupplier clock;
+    private final AtomicLong last = new AtomicLong();
+
+    public ProvHybridClock() {
+        this(System::currentTimeMillis);
+    }
+
+    ProvHybridClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Timestamp of a local event happening now.
+     *
+     * @return timestamp
+     */
+    public long now() {
+        return tick(clock.getAsLong());
+    }
+
+    /**
+     * Timestamp of a local event that happened at the given time, e.g., when
+     * the record was created rather than when it is written out.
+     *
+     * @param millis milliseconds since the Unix epoch
+     * @return timestamp
+     */
+    public long tick(long millis) {
+        return advance(fromMillis(millis));
+    }
+
+    /**
+     * Timestamp of a local event caused by a remote event.
+     *
+     * @param remote timestamp observed from another node
+     * @return timestamp, greater than remote
+     */
+    public long receive(long remote) {
+        return advance(Math.max(remote + 1, fromMillis(clock.getAsLong())));
+    }
+
+    /**
+     * Last timestamp handed out.
+     *
+     * @return timestamp
+     */
+    public long last() {
+        return last.get();
+    }
+
+    private long advance(long floor) {
+        for (;;) {
+            long previous = last.get();
+            long next = Math.max(previous + 1, floor);
+            if (last.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Earliest timestamp within a millisecond.
+     *
+     * @param millis milliseconds since the Unix epoch
+     * @return timestamp
+     */
+    public static long fromMillis(long millis) {
+        return millis << LOGICAL_BITS;
+    }
+
+    /**
+     * Latest timestamp within a millisecond.
+     *
+     * @param millis milliseconds since the Unix epoch
+     * @return timestamp
+     */
+    public static long endOfMillis(long millis) {
+        return fromMillis(millis + 1) - 1;
+    }
+
+    /**
+     * Physical part of a timestamp.
+     *
+     * @param timestamp
+     * @return milliseconds since the Unix epoch
+     */
+    public static long millisOf(long timestamp) {
+        return timestamp >>> LOGICAL_BITS;
+    }
+
+}
@@ -0,0 +1,230 @@
+package edu.mit.ll.provsdn;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.onosproject.security.ProvIdGenerator;
+
+/**
+ * Id generators for entities and activities.
+ *
+ * None of the generators take a lock or draw from a shared SecureRandom:
+ *
+ * <pre>
+ * counter: node(16) sequence(48)
+ * time:    milliseconds since 2019-01-01 (41) node(10) sequence(12)
+ * random:  64 random bits from the calling thread's generator
+ * </pre>
+ *
+ * Counter ids increase monotonically on one node and restart with each
+ * session. Time-ordered ids increase monotonically on one node, also across
+ * restarts, and sort approximately by creation time across nodes; if more
+ * than 4096 ids are requested within a millisecond, the generator borrows
+ * from the next millisecond rather than waiting.
+ *
+ * Time-ordered ids are unique across the cluster (as long as node numbers
+ * differ) and across restarts, so W3C PROV objects with such ids can use
+ * CLUSTER_PREFIX rather than a per-session prefix: every node then derives
+ * the same UUID from an entity's id, and can tell from the id whether the
+ * entity was created on another node.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public final class ProvIdGenerators {
+
+    /* 2019-01-01T00:00:00Z */
+    public static final long TIME_EPOCH = 1546300800000L;
+
+    /* UUID prefix of objects with cluster-unique ids ("provsdn\0") */
+    public static final long CLUSTER_PREFIX = 0x70726f7673646e00L;
+
+    private static final int TIME_NODE_BITS = 10;
+
+    /* Number of node numbers that every generator tells apart */
+    public static final int MAX_NODES = 1 << TIME_NODE_BITS;
+    private static final int TIME_SEQUENCE_BITS = 12;
+    private static final int COUNTER_SEQUENCE_BITS = 48;
+
+    /* Prevent instantiation */
+    private ProvIdGenerators() {
+    }
+
+    /**
+     * Create a generator by name.
+     *
+     * @param name counter, time or random
+     * @param node node number (e.g., the cluster node's index among all
+     *             cluster nodes)
+     * @return generator
+     * @throws IllegalArgumentException if the name is unknown
+     */
+    public static ProvIdGenerator forName(String name, int node) {
+        switch (name.trim().toLowerCase()) {
+        case "counter":
+            return counter(node);
+        case "time":
+            return timeOrdered(node, System::currentTimeMillis);
+        case "random":
+            return random();
+        default:
+            throw new IllegalArgumentException("Unknown id generator " + name);
+        }
+    }
+
+    /**
+     * Node-prefixed counter: the low 16 bits of the node number followed by a
+     * 48-bit sequence starting at 1.
+     *
+     * @param node
+     * @return generator
+     */
+    public static ProvIdGenerator counter(int node) {
+        final long prefix = (node & 0xffffL) << COUNTER_SEQUENCE_BITS;
+        final AtomicLong sequence = new AtomicLong();
+        return new ProvIdGenerator() {
+            @Override
+            public long nextId() {
+                return prefix | (sequence.incrementAndGet()
+                        & ((1L << COUNTER_SEQUENCE_BITS) - 1));
+            }
+
+            @Override
+            public String toString() {
+                return "counter";
+            }
+        };
+    }
+
+    /**
+     * Time-ordered ids: milliseconds since TIME_EPOCH, the low 10 bits of the
+     * node number and a 12-bit sequence within the millisecond.
+     *
+     * @param node
+     * @param clock milliseconds since the Unix epoch
+     * @return generator
+     */
+    public static ProvIdGenerator timeOrdered(int node, LongSupplier clock) {
+        return new TimeOrdered(node, clock);
+    }
+
+    /**
+     * Random ids from ThreadLocalRandom.
+     *
+     * @return generator
+     */
+    public static ProvIdGenerator random() {
+        return new ProvIdGenerator() {
+            @Override
+            public long nextId() {
+                long id;
+                do {
+                    id = ThreadLocalRandom.current().nextLong();
+                } while (id == NO_ID);
+                return id;
+            }
+
+            @Override
+            public String toString() {
+                return "random";
+            }
+        };
+    }
+
+    /**
+     * Whether a generator's ids are unique across the cluster and across
+     * restarts.
+     *
+     * @param generator
+     * @return true for time-ordered generators
+     */
+    public static boolean isClusterUnique(ProvIdGenerator generator) {
+        return generator instanceof TimeOrdered;
+    }
+
+    /**
+     * Whether an id was generated on another node than the given generator,
+     * e.g., because the entity carrying it was replicated from that node. Only
+     * known for time-ordered generators.
+     *
+     * @param generator generator of this node
+     * @param id
+     * @return true if the id has another node number
+     */
+    public static boolean isForeign(ProvIdGenerator generator, long id) {
+        return generator instanceof TimeOrdered && id != ProvIdGenerator.NO_ID
+                && timeOrderedNode(id) != ((TimeOrdered) generator).node;
+    }
+
+    /**
+     * Node number of a time-ordered id.
+     *
+     * @param id
+     * @return node number
+     */
+    public static int timeOrderedNode(long id) {
+        return (int) ((id >>> TIME_SEQUENCE_BITS)
+                & ((1L << TIME_NODE_BITS) - 1));
+    }
+
+    /**
+     * Whether two node numbers would tag ids alike, i.e., agree in the bits
+     * that every generator keeps.
+     *
+     * @param node
+     * @param otherNode
+     * @return true if ids of the two nodes could collide
+     */
+    public static boolean sameNode(int node, int otherNode) {
+        return ((node ^ otherNode) & (MAX_NODES - 1)) == 0;
+    }
+
+    /**
+     * Creation time of a time-ordered id.
+     *
+     * @param id
+     * @return milliseconds since the Unix epoch
+     */
+    public static long timeOrderedMillis(long id) {
+        return (id >>> (TIME_NODE_BITS + TIME_SEQUENCE_BITS)) + TIME_EPOCH;
+    }
+
+    private static final class TimeOrdered implements ProvIdGenerator {
+        private final int node;
+        private final long nodeBits;
+        private final LongSupplier clock;
+        /* last (milliseconds << TIME_SEQUENCE_BITS | sequence) handed out */
+        private final AtomicLong last = new AtomicLong();
+
+        private TimeOrdered(int node, LongSupplier clock) {
+            this.node = (int) (node & ((1L << TIME_NODE_BITS) - 1));
+            this.nodeBits = (long) this.node << TIME_SEQUENCE_BITS;
+            this.clock = clock;
+        }
+
+        @Override
+        public long nextId() {
+            long now = (clock.getAsLong() - TIME_EPOCH) << TIME_SEQUENCE_BITS;
+            long next;
+            for (;;) {
+                long previous = last.get();
+                next = Math.max(previous + 1, now);
+                if (last.compareAndSet(previous, next)) {
+                    break;
+                }
+            }
+            long millis = next >>> TIME_SEQUENCE_BITS;
+            long sequence = next & ((1L << TIME_SEQUENCE_BITS) - 1);
+            return (millis << (TIME_NODE_BITS + TIME_SEQUENCE_BITS)) | nodeBits
+                    | sequence;
+        }
+
+        @Override
+        public String toString() {
+            return "time";
+        }
+    }
+
+}
@@ -0,0 +1,378 @@
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Striped, lock-free provenance ingestion pipeline.
+ *
+ * Producers (i.e., the threads calling ProvService) append immutable
+ * ProvRecords to one of several ring buffers chosen by thread id, so that
+ * records from one thread stay in order and producers on different threads
+ * rarely touch the same ring. One or more background consumers drain the rings
+ * and hand each record to a handler that builds the W3C PROV objects. Each ring
+ * is owned by exactly one consumer.
+ *
+ * What a producer does when its ring is full is chosen by an Overload policy,
+ * so that a slow consumer can be kept from stalling the event dispatch and
+ * packet processing threads that call ProvService.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvIngestPipeline {
+
+    private static final int DRAIN_BATCH = 256;
+    /**
+     * Behavior of producers whose ring buffer is full.
+     */
+    public enum Overload {
+        /* wait for a free slot; nothing is lost */
+        BLOCK,
+        /* discard the oldest queued record to make room */
+        DROP_OLDEST,
+        /*
+         * discard low priority records (reads) once a ring is three quarters
+         * full, keeping the rest of the ring for other records, which wait
+         * for a free slot
+         */
+        DROP_BY_PRIORITY,
+        /*
+         * stop queueing once a ring is full and only count the records for
+         * that ring by kind until it has drained to a quarter of its capacity
+         */
+        COUNT_ONLY;
+
+        /**
+         * Parse an overload policy name, e.g., "drop-oldest".
+         *
+         * @param name
+         * @return overload policy
+         * @throws IllegalArgumentException if the name is unknown
+         */
+        public static Overload parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(1);
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ProvRingBuffer<ProvRecord>[] stripes;
+    private final int stripeMask;
+    private final Consumer<ProvRecord> handler;
+    private final List<Thread> consumers = new ArrayList<>();
+    private final int consumerCount;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    /* records counted but not queued, by kind, in COUNT_ONLY mode */
+    private final LongAdder[] countedOnly = new LongAdder[ProvRecord.Kind
+            .values().length];
+
+    private volatile Overload overload = Overload.BLOCK;
+    /* per ring, 1 while COUNT_ONLY counts instead of queueing */
+    private final AtomicIntegerArray degraded;
+
+    private volatile boolean running = false;
+
+    /**
+     * Create an ingestion pipeline.
+     *
+     * @param stripeCount   number of ring buffers; rounded up to a power of two
+     * @param stripeSize    capacity of each ring buffer
+     * @param consumerCount number of consumer threads
+     * @param handler       builds W3C PROV objects from a record
+     */
+    @SuppressWarnings("unchecked")
+    public ProvIngestPipeline(int stripeCount, int stripeSize,
+            int consumerCount, Consumer<ProvRecord> handler) {
+        int count = stripeCount <= 1 ? 1
+                : Integer.highestOneBit(stripeCount - 1) << 1;
+        this.stripes = new ProvRingBuffer[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new ProvRingBuffer<>(stripeSize);
+        }
+        this.stripeMask = count - 1;
+        this.degraded = new AtomicIntegerArray(count);
+        this.consumerCount = Math.max(1, Math.min(consumerCount, count));
+        this.handler = handler;
+        for (int i = 0; i < countedOnly.length; i++) {
+            countedOnly[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Start the consumer threads.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (int i = 0; i < consumerCount; i++) {
+            final int id = i;
+            Thread consumer = new Thread(() -> consume(id),
+                    "provsdn-ingest-" + i);
+            consumer.setDaemon(true);
+            consumers.add(consumer);
+            consumer.start();
+        }
+        log.info("Started provenance ingestion with {} stripes and {} consumers",
+                stripes.length, consumerCount);
+    }
+
+    /**
+     * Stop the consumer threads after draining any remaining records.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        for (Thread consumer : consumers) {
+            LockSupport.unpark(consumer);
+            try {
+                consumer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        consumers.clear();
+        /* pick up anything appended while the consumers were exiting */
+        for (ProvRingBuffer<ProvRecord> stripe : stripes) {
+            while (drain(stripe) > 0) {
+                continue;
+            }
+        }
+        log.info("Stopped provenance ingestion; {} records processed, {} "
+                + "dropped, {} only counted", processed.sum(), dropped.sum(),
+                countedOnlyCount());
+    }
+
+    /**
+     * Set the behavior of producers whose ring buffer is full.
+     *
+     * @param overload
+     */
+    public void setOverload(Overload overload) {
+        this.overload = overload;
+        if (overload != Overload.COUNT_ONLY) {
+            for (int i = 0; i < stripes.length; i++) {
+                degraded.set(i, 0);
+            }
+        }
+    }
+
+    public Overload getOverload() {
+        return overload;
+    }
+
+    /**
+     * Append a record to the calling thread's ring buffer.
+     *
+     * If the ring is full, the current Overload policy decides whether the
+     * caller backs off until a consumer frees a slot or a record is dropped.
+     *
+     * @param record
+     */
+    public void submit(ProvRecord record) {
+        int index = stripeIndex(Thread.currentThread());
+        ProvRingBuffer<ProvRecord> stripe = stripes[index];
+        Overload policy = overload;
+        if (policy == Overload.COUNT_ONLY && degraded.get(index) != 0) {
+            if (stripe.size() > stripe.capacity() >> 2) {
+                countedOnly[record.getKind().ordinal()].increment();
+                return;
+            }
+            degraded.set(index, 0);
+        } else if (policy == Overload.DROP_BY_PRIORITY
+                && record.isLowPriority()
+                && stripe.size() >= stripe.capacity() - (stripe.capacity() >> 2)) {
+            dropped.increment();
+            return;
+        }
+        submitted.increment();
+        while (!stripe.offer(record)) {
+            if (!running) {
+                /* nobody will drain the ring, so handle the record here */
+                handleQuietly(record);
+                return;
+            }
+            if (policy == Overload.DROP_OLDEST) {
+                if (stripe.poll() != null) {
+                    /* the discarded record will never be processed */
+                    dropped.increment();
+                    processed.increment();
+                }
+            } else if (policy == Overload.COUNT_ONLY) {
+                degraded.set(index, 1);
+                submitted.decrement();
+                countedOnly[record.getKind().ordinal()].increment();
+                return;
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Number of records submitted so far.
+     *
+     * @return count
+     */
+    public long submittedCount() {
+        return submitted.sum();
+    }
+
+    /**
+     * Number of records handled (or discarded by DROP_OLDEST) so far.
+     *
+     * @return count
+     */
+    public long processedCount() {
+        return processed.sum();
+    }
+
+    /**
+     * Number of records dropped by the DROP_OLDEST and DROP_BY_PRIORITY
+     * policies so far.
+     *
+     * @return count
+     */
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Number of records of a kind that were only counted by the COUNT_ONLY
+     * policy so far.
+     *
+     * @param kind
+     * @return count
+     */
+    public long countedOnlyCount(ProvRecord.Kind kind) {
+        return countedOnly[kind.ordinal()].sum();
+    }
+
+    /**
+     * Number of records of all kinds that were only counted so far.
+     *
+     * @return count
+     */
+    public long countedOnlyCount() {
+        long count = 0;
+        for (LongAdder adder : countedOnly) {
+            count += adder.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Whether the COUNT_ONLY policy is currently counting instead of queueing
+     * for any ring.
+     *
+     * @return true if degraded
+     */
+    public boolean isDegraded() {
+        for (int i = 0; i < stripes.length; i++) {
+            if (degraded.get(i) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Approximate number of records waiting in all ring buffers.
+     *
+     * @return depth
+     */
+    public int depth() {
+        int depth = 0;
+        for (ProvRingBuffer<ProvRecord> stripe : stripes) {
+            depth += stripe.size();
+        }
+        return depth;
+    }
+
+    /**
+     * Wait until every submitted record has been handled.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if drained before the timeout
+     */
+    public boolean awaitDrained(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (processed.sum() < submitted.sum()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(MAX_IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    private int stripeIndex(Thread thread) {
+        return (int) (thread.getId() & stripeMask);
+    }
+
+    /**
+     * Consumer loop: drain owned stripes round-robin, backing off when idle.
+     *
+     * @param id consumer index
+     */
+    private void consume(int id) {
+        long idleNanos = 0;
+        for (;;) {
+            int handled = 0;
+            for (int s = id; s < stripes.length; s += consumerCount) {
+                handled += drain(stripes[s]);
+            }
+            if (handled > 0) {
+                idleNanos = 0;
+            } else if (!running) {
+                return;
+            } else {
+                idleNanos = Math.min(MAX_IDLE_PARK_NANOS,
+                        Math.max(1000, idleNanos << 1));
+                LockSupport.parkNanos(idleNanos);
+            }
+        }
+    }
+
+    private int drain(ProvRingBuffer<ProvRecord> stripe) {
+        int handled = 0;
+        ProvRecord record;
+        while (handled < DRAIN_BATCH && (record = stripe.poll()) != null) {
+            handleQuietly(record);
+            handled++;
+        }
+        return handled;
+    }
+
+    private void handleQuietly(ProvRecord record) {
+        try {
+            handler.accept(record);
+        } catch (RuntimeException e) {
+            log.warn("Unable to process provenance record {}", record.getKind(),
+                    e);
+        } finally {
+            processed.increment();
+        }
+    }
+
+}
@@ -0,0 +1,1063 @@
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import edu.mit.ll.provsdnquery.ProvQuery;
+import edu.mit.ll.provsdnquery.ProvQuery.EdgePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Kind;
+import edu.mit.ll.provsdnquery.ProvQuery.NodePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Predicate;
+
+/**
+ * Provenance graph of recent control plane activity, maintained while
+ * provenance is collected so that it can be queried live (e.g., from the ONOS
+ * CLI) rather than only offline with picosdn-analysis.
+ *
+ * ProvManager hands each W3C PROV object it writes out to add(), which only
+ * appends a reference to a lock-free ring buffer (see ProvRingBuffer); when
+ * the ring is full, the object is dropped from the live graph (it is still in
+ * the provenance log) and counted. A background updater thread drains the
+ * ring and applies the objects to the graph under a write lock; queries take
+ * the read lock, so they see a consistent graph and delay updates for as long
+ * as they run.
+ *
+ * Retention is bounded both by time and by size: a node is evicted once it has
+ * not been written or related for longer than the window, and the least
+ * recently seen nodes are evicted while there are more than the maximum number
+ * of nodes. Relations to evicted or unknown nodes are dropped and counted.
+ * Evicted nodes release their values and edges at once, and the references to
+ * them from other nodes are purged when those nodes gain edges.
+ *
+ * Queries follow the same conventions as W3CProvGraph in picosdn-analysis:
+ * edges go from a node to what it depends on, and traces skip non-dependency
+ * (revision and invalidation) edges.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvLiveGraph {
+
+    public static final int DEFAULT_MAX_NODES = 200_000;
+    public static final int DEFAULT_WINDOW_SECONDS = 600;
+    public static final int DEFAULT_QUEUE_SIZE = 65_536;
+
+    private static final int APPLY_BATCH = 1024;
+    private static final long MAX_IDLE_PARK_NANOS = TimeUnit.MILLISECONDS
+            .toNanos(10);
+    private static final long EXPIRY_CHECK_NANOS = TimeUnit.SECONDS
+            .toNanos(1);
+    private static final int INITIAL_DEGREE = 2;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final ProvRingBuffer<Object> queue;
+    private final LongSupplier clock;
+
+    // Nodes by UUID, least recently seen first (guarded by lock)
+    private final LinkedHashMap<UUID, Node> nodes = new LinkedHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long edgeCount = 0;
+
+    private volatile int maxNodes;
+    private volatile long windowMillis;
+
+    private Thread updater = null;
+    private volatile boolean running = false;
+
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder danglingRelations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a live provenance graph.
+     *
+     * @param maxNodes     maximum number of nodes
+     * @param windowMillis time after which an unused node is evicted; 0
+     *                     disables time-based eviction
+     * @param queueSize    capacity of the ring of objects waiting to be
+     *                     applied
+     */
+    public ProvLiveGraph(int maxNodes, long windowMillis, int queueSize) {
+        this(maxNodes, windowMillis, queueSize, System::currentTimeMillis);
+    }
+
+    ProvLiveGraph(int maxNodes, long windowMillis, int queueSize,
+            LongSupplier clock) {
+        this.queue = new ProvRingBuffer<>(queueSize);
+        this.clock = clock;
+        setBounds(maxNodes, windowMillis);
+    }
+
+    /**
+     * Change the retention bounds; nodes beyond them are evicted with the next
+     * update.
+     *
+     * @param maxNodes     maximum number of nodes
+     * @param windowMillis time after which an unused node is evicted; 0
+     *                     disables time-based eviction
+     */
+    public void setBounds(int maxNodes, long windowMillis) {
+        if (maxNodes < 1) {
+            throw new IllegalArgumentException("maxNodes must be positive");
+        }
+        this.maxNodes = maxNodes;
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Start the updater thread.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        updater = new Thread(this::update, "provsdn-live-graph");
+        updater.setDaemon(true);
+        updater.start();
+        log.info("Started live provenance graph of at most {} nodes for {} s",
+                maxNodes, TimeUnit.MILLISECONDS.toSeconds(windowMillis));
+    }
+
+    /**
+     * Stop the updater thread after applying any queued objects.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(updater);
+        try {
+            updater.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        updater = null;
+        while (apply() > 0) {
+            continue;
+        }
+        log.info("Stopped live provenance graph; {}", this);
+    }
+
+    /*
+     * Producers: never block, never take the lock
+     */
+
+    public void add(W3CProvEntity entity) {
+        offer(entity);
+    }
+
+    public void add(W3CProvActivity activity) {
+        offer(activity);
+    }
+
+    public void add(W3CProvRelation relation) {
+        offer(relation);
+    }
+
+    public void add(W3CProvMembership membership) {
+        offer(membership);
+    }
+
+    private void offer(Object object) {
+        if (queue.offer(object)) {
+            accepted.increment();
+        } else {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Wait until every accepted object has been applied.
+     *
+     * @param timeout
+     * @param unit
+     * @return true if applied before the timeout
+     */
+    public boolean awaitApplied(long timeout, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (applied.sum() < accepted.sum()) {
+            if (System.nanoTime() - deadline > 0) {
+                return false;
+            }
+            LockSupport.parkNanos(MAX_IDLE_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /*
+     * Updater
+     */
+
+    private void update() {
+        long idleNanos = 0;
+        long lastExpiryCheck = System.nanoTime();
+        for (;;) {
+            int handled = apply();
+            if (handled > 0) {
+                idleNanos = 0;
+            } else if (!running) {
+                return;
+            } else {
+                /* age out nodes even when nothing is written */
+                if (System.nanoTime() - lastExpiryCheck > EXPIRY_CHECK_NANOS) {
+                    lastExpiryCheck = System.nanoTime();
+                    lock.writeLock().lock();
+                    try {
+                        evict(clock.getAsLong());
+                    } finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+                idleNanos = Math.min(MAX_IDLE_PARK_NANOS,
+                        Math.max(1000, idleNanos << 1));
+                LockSupport.parkNanos(idleNanos);
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of queued objects.
+     *
+     * @return number of objects applied
+     */
+    int apply() {
+        Object object = queue.poll();
+        if (object == null) {
+            return 0;
+        }
+        int handled = 0;
+        lock.writeLock().lock();
+        try {
+            long now = clock.getAsLong();
+            do {
+                try {
+                    applyObject(object, now);
+                } catch (RuntimeException e) {
+                    log.warn("Unable to add {} to the live provenance graph",
+                            object, e);
+                }
+                handled++;
+            } while (handled < APPLY_BATCH
+                    && (object = queue.poll()) != null);
+            evict(now);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        applied.add(handled);
+        return handled;
+    }
+
+    private void applyObject(Object object, long now) {
+        /*
+         * values of entities that change in place are fixed when the objects
+         * are created (see ProvManager); others are rendered here
+         */
+        if (object instanceof W3CProvEntity) {
+            W3CProvEntity entity = (W3CProvEntity) object;
+            addNode(entity.getUuid(), false, entity.getName(),
+                    entity.getValue(), entity.getHlc(), now);
+        } else if (object instanceof W3CProvActivity) {
+            W3CProvActivity activity = (W3CProvActivity) object;
+            addNode(activity.getUuid(), true, activity.getName(),
+                    activity.getValue(), activity.getHlc(), now);
+        } else if (object instanceof W3CProvRelation) {
+            W3CProvRelation relation = (W3CProvRelation) object;
+            addEdge(relation.getFrom().getUuid(), relation.getTo().getUuid(),
+                    relation.getType(), now);
+        } else if (object instanceof W3CProvMembership) {
+            W3CProvMembership membership = (W3CProvMembership) object;
+            UUID collection = membership.getCollection().getUuid();
+            for (W3CProvEntity member : membership.getMembers()) {
+                addEdge(collection, member.getUuid(),
+                        W3CProvRelationType.HAD_MEMBER, now);
+            }
+        }
+    }
+
+    private void addNode(UUID uuid, boolean activity, String name,
+            String value, long hlc, long now) {
+        Node node = nodes.remove(uuid);
+        if (node == null) {
+            node = new Node(uuid, activity, name, value, hlc);
+        }
+        node.lastSeen = now;
+        nodes.put(uuid, node);
+    }
+
+    private void addEdge(UUID fromUuid, UUID toUuid, W3CProvRelationType type,
+            long now) {
+        Node from = touch(fromUuid, now);
+        Node to = touch(toUuid, now);
+        if (from == null || to == null || from == to) {
+            danglingRelations.increment();
+            return;
+        }
+        from.addTarget(to, type);
+        to.addSource(from, type);
+        edgeCount++;
+    }
+
+    /**
+     * Look up a node and mark it as just seen.
+     */
+    private Node touch(UUID uuid, long now) {
+        Node node = nodes.remove(uuid);
+        if (node != null) {
+            node.lastSeen = now;
+            nodes.put(uuid, node);
+        }
+        return node;
+    }
+
+    private void evict(long now) {
+        int max = maxNodes;
+        long window = windowMillis;
+        Iterator<Node> it = nodes.values().iterator();
+        while (it.hasNext()) {
+            Node node = it.next();
+            if (nodes.size() <= max
+                    && (window <= 0 || now - node.lastSeen <= window)) {
+                break;
+            }
+            it.remove();
+            edgeCount -= node.liveDegree();
+            node.evict();
+            evictions.increment();
+        }
+    }
+
+    /*
+     * Queries
+     */
+
+    /**
+     * Get a node by UUID.
+     *
+     * @param uuid
+     * @return node or null
+     */
+    public Node getNode(UUID uuid) {
+        lock.readLock().lock();
+        try {
+            return nodes.get(uuid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get nodes whose value contains a string, most recently seen first.
+     *
+     * @param value
+     * @param limit maximum number of nodes
+     * @return nodes
+     */
+    public List<Node> findNodes(String value, int limit) {
+        Deque<Node> found = new ArrayDeque<>();
+        lock.readLock().lock();
+        try {
+            for (Node node : nodes.values()) {
+                if (node.value.contains(value)) {
+                    found.addFirst(node);
+                    if (found.size() > limit) {
+                        found.removeLast();
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Get ancestry of node (i.e., all things that went into affecting this
+     * node).
+     *
+     * @param node
+     * @return nodes
+     */
+    public Set<Node> getAncestryOfNode(Node node) {
+        lock.readLock().lock();
+        try {
+            return reachable(node, true, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get descendants of node (i.e., all things this node affected).
+     *
+     * @param node
+     * @return nodes
+     */
+    public Set<Node> getDescendantsOfNode(Node node) {
+        lock.readLock().lock();
+        try {
+            return reachable(node, false, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Perform an entity-centric backward-forward trace, as
+     * W3CProvGraph.backwardForwardTrace() does offline: each entity that
+     * depends on the node of interest is mapped to the entities it depends
+     * on.
+     *
+     * @param node node of interest
+     * @return map of ancestor, descendants
+     */
+    public Map<Node, Set<Node>> backwardForwardTrace(Node node) {
+        Map<Node, Set<Node>> results = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Node ancestor : reachable(node, false, true)) {
+                if (ancestor.activity) {
+                    continue;
+                }
+                Set<Node> descendants = new LinkedHashSet<>();
+                for (Node descendant : reachable(ancestor, true, true)) {
+                    if (!descendant.activity) {
+                        descendants.add(descendant);
+                    }
+                }
+                results.put(ancestor, descendants);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Run a path query (see ProvQuery in provsdn-query, which documents the
+     * language), as W3CProvQueryExecutor does offline with indexes.
+     *
+     * The graph is bounded, so the query is evaluated without indexes: the
+     * pivot pattern (the one given by UUID, or else the one with the most
+     * conditions) is matched against every node, the other patterns against
+     * the nodes reached from their neighbour's, and the node sets are then
+     * reduced by semi-joins inwards to the pivot and outwards again.
+     *
+     * Timestamps are the milliseconds of the nodes' hybrid logical clock
+     * timestamps and, as offline, "ts within" is relative to the latest of
+     * them, not to the current time. The graph only holds entities and
+     * activities, whose ids are UUIDs, so "agent" patterns and "uuid ="
+     * predicates that are not UUIDs match nothing.
+     *
+     * @param query
+     * @return nodes matched by the query's returned pattern, most recently
+     *         seen first, up to the query's limit
+     * @throws IllegalArgumentException if the query names an unknown relation
+     *                                  type
+     */
+    public List<Node> query(ProvQuery query) {
+        QueryPlan plan = new QueryPlan(query);
+        int limit = query.getLimit() < 0 ? Integer.MAX_VALUE
+                : query.getLimit();
+        Deque<Node> found = new ArrayDeque<>();
+        lock.readLock().lock();
+        try {
+            Set<Node> matched = plan.evaluate();
+            for (Node node : nodes.values()) {
+                if (matched.contains(node)) {
+                    found.addFirst(node);
+                    if (found.size() > limit) {
+                        found.removeLast();
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return new ArrayList<>(found);
+    }
+
+    /**
+     * Add the nodes adjacent to a node through edges of the allowed types
+     * (by code) to a set; to be called with the lock held.
+     */
+    private static void addAdjacent(Node node, boolean outgoing,
+            boolean[] allowed, Set<Node> into) {
+        Node[] adjacent = outgoing ? node.targets : node.sources;
+        byte[] types = outgoing ? node.targetTypes : node.sourceTypes;
+        int count = outgoing ? node.outCount : node.inCount;
+        for (int i = 0; i < count; i++) {
+            if (!adjacent[i].evicted && allowed[types[i]]) {
+                into.add(adjacent[i]);
+            }
+        }
+    }
+
+    private Set<Node> reachable(Node node, boolean outgoing,
+            boolean dependenciesOnly) {
+        Set<Node> seen = new LinkedHashSet<>();
+        if (node.evicted) {
+            return seen;
+        }
+        Deque<Node> stack = new ArrayDeque<>();
+        stack.push(node);
+        while (!stack.isEmpty()) {
+            Node v = stack.pop();
+            Node[] adjacent = outgoing ? v.targets : v.sources;
+            byte[] types = outgoing ? v.targetTypes : v.sourceTypes;
+            int count = outgoing ? v.outCount : v.inCount;
+            for (int i = 0; i < count; i++) {
+                Node next = adjacent[i];
+                if (next.evicted || next == node
+                        || (dependenciesOnly && !isDependency(types[i]))) {
+                    continue;
+                }
+                if (seen.add(next)) {
+                    stack.push(next);
+                }
+            }
+        }
+        return seen;
+    }
+
+    static boolean isDependency(byte type) {
+        return type != W3CProvRelationType.WAS_REVISION_OF.code()
+                && type != W3CProvRelationType.INVALIDATES.code();
+    }
+
+    /**
+     * Split a value into lower-case tokens, adding the suffixes of tokens
+     * after each colon, as W3CProvAttributeIndex does.
+     */
+    private static void tokenize(String value, Set<String> parts) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTokenChar(value.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && isTokenChar(value.charAt(i))) {
+                i++;
+            }
+            /* trailing punctuation (e.g., "of:1." at the end of a sentence) */
+            int end = i;
+            while (end > start && isTrailing(value.charAt(end - 1))) {
+                end--;
+            }
+            if (end > start) {
+                String token = value.substring(start, end)
+                        .toLowerCase(Locale.ROOT);
+                parts.add(token);
+                for (int c = token.indexOf(':'); c >= 0 && c + 1 < token
+                        .length(); c = token.indexOf(':', c + 1)) {
+                    parts.add(token.substring(c + 1));
+                }
+            }
+        }
+    }
+
+    private static boolean isTokenChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '.' || c == ':'
+                || c == '_' || c == '-' || c == '/';
+    }
+
+    private static boolean isTrailing(char c) {
+        return c == '.' || c == ':' || c == '-' || c == '/';
+    }
+
+    /*
+     * Statistics
+     */
+
+    /**
+     * Number of nodes.
+     *
+     * @return count
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Number of edges from nodes in the graph (including edges to nodes
+     * evicted since).
+     *
+     * @return count
+     */
+    public long edgeCount() {
+        lock.readLock().lock();
+        try {
+            return edgeCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long acceptedCount() {
+        return accepted.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long danglingRelationCount() {
+        return danglingRelations.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    public int queueDepth() {
+        return queue.size();
+    }
+
+    @Override
+    public String toString() {
+        return "ProvLiveGraph{nodes=" + size() + ", edges=" + edgeCount()
+                + ", maxNodes=" + maxNodes + ", windowMillis=" + windowMillis
+                + ", accepted=" + acceptedCount() + ", dropped="
+                + droppedCount() + ", dangling=" + danglingRelationCount()
+                + ", evicted=" + evictionCount() + "}";
+    }
+
+    /**
+     * Node of the live provenance graph: a W3C PROV entity or activity.
+     *
+     * The UUID, kind, name and value of a node do not change; its edges are
+     * only read by the graph's queries.
+     */
+    public static final class Node {
+
+        private final UUID uuid;
+        private final boolean activity;
+        private final String name;
+        private volatile String value;
+        private final long hlc;
+
+        // Guarded by the graph's lock
+        private long lastSeen;
+        private volatile boolean evicted = false;
+        private Node[] targets = new Node[INITIAL_DEGREE];
+        private byte[] targetTypes = new byte[INITIAL_DEGREE];
+        private int outCount = 0;
+        private Node[] sources = new Node[INITIAL_DEGREE];
+        private byte[] sourceTypes = new byte[INITIAL_DEGREE];
+        private int inCount = 0;
+
+        private Node(UUID uuid, boolean activity, String name, String value,
+                long hlc) {
+            this.uuid = uuid;
+            this.activity = activity;
+            this.name = name;
+            this.value = value;
+            this.hlc = hlc;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public boolean isActivity() {
+            return activity;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Value of the node, or "" once evicted.
+         *
+         * @return value
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * Hybrid logical clock timestamp (see ProvHybridClock) at which the
+         * node was first written out.
+         *
+         * @return timestamp
+         */
+        public long getHlc() {
+            return hlc;
+        }
+
+        public boolean isEvicted() {
+            return evicted;
+        }
+
+        private void addTarget(Node target, W3CProvRelationType type) {
+            if (outCount == targets.length) {
+                outCount = purge(targets, targetTypes, outCount);
+                if (outCount > targets.length / 2) {
+                    targets = Arrays.copyOf(targets, targets.length << 1);
+                    targetTypes = Arrays.copyOf(targetTypes,
+                            targetTypes.length << 1);
+                }
+            }
+            targets[outCount] = target;
+            targetTypes[outCount++] = type.code();
+        }
+
+        private void addSource(Node source, W3CProvRelationType type) {
+            if (inCount == sources.length) {
+                inCount = purge(sources, sourceTypes, inCount);
+                if (inCount > sources.length / 2) {
+                    sources = Arrays.copyOf(sources, sources.length << 1);
+                    sourceTypes = Arrays.copyOf(sourceTypes,
+                            sourceTypes.length << 1);
+                }
+            }
+            sources[inCount] = source;
+            sourceTypes[inCount++] = type.code();
+        }
+
+        /**
+         * Number of edges between this node and nodes that are not evicted,
+         * in either direction.
+         */
+        private int liveDegree() {
+            int degree = 0;
+            for (int i = 0; i < outCount; i++) {
+                if (!targets[i].evicted) {
+                    degree++;
+                }
+            }
+            for (int i = 0; i < inCount; i++) {
+                if (!sources[i].evicted) {
+                    degree++;
+                }
+            }
+            return degree;
+        }
+
+        /**
+         * Remove references to evicted nodes.
+         *
+         * @return number of references kept
+         */
+        private static int purge(Node[] adjacent, byte[] types, int count) {
+            int kept = 0;
+            for (int i = 0; i < count; i++) {
+                if (!adjacent[i].evicted) {
+                    adjacent[kept] = adjacent[i];
+                    types[kept++] = types[i];
+                }
+            }
+            Arrays.fill(adjacent, kept, count, null);
+            return kept;
+        }
+
+        private void evict() {
+            evicted = true;
+            value = "";
+            targets = new Node[0];
+            targetTypes = new byte[0];
+            outCount = 0;
+            sources = new Node[0];
+            sourceTypes = new byte[0];
+            inCount = 0;
+        }
+
+        @Override
+        public String toString() {
+            return (activity ? "activity " : "entity ") + uuid + " " + name
+                    + " " + value;
+        }
+    }
+
+    /**
+     * Evaluation of a path query: node sets of its patterns, computed
+     * outwards from the pivot and reduced by semi-joins, as
+     * W3CProvQueryExecutor does offline.
+     */
+    private final class QueryPlan {
+
+        private final ProvQuery query;
+        private final List<PatternMatcher> patterns = new ArrayList<>();
+        /* per edge pattern: whether edges of each type code are followed */
+        private final boolean[][] allowed;
+        private final int pivot;
+        /* whether a predicate is relative to the latest timestamp */
+        private final boolean within;
+
+        private QueryPlan(ProvQuery query) {
+            this.query = query;
+            boolean relative = false;
+            for (NodePattern pattern : query.getNodes()) {
+                PatternMatcher matcher = new PatternMatcher(pattern);
+                patterns.add(matcher);
+                relative |= matcher.within;
+            }
+            this.within = relative;
+            int best = 0;
+            for (int i = 0; i < patterns.size(); i++) {
+                if (patterns.get(i).uuid != null) {
+                    best = i;
+                    break;
+                }
+                if (patterns.get(i).weight() > patterns.get(best).weight()) {
+                    best = i;
+                }
+            }
+            this.pivot = best;
+            List<EdgePattern> edges = query.getEdges();
+            this.allowed = new boolean[edges.size()][];
+            for (int i = 0; i < allowed.length; i++) {
+                allowed[i] = allowed(edges.get(i).getTypes());
+            }
+        }
+
+        /**
+         * Whether edges of each relation type code are followed;
+         * dependencies if no types are given.
+         */
+        private boolean[] allowed(List<String> types) {
+            W3CProvRelationType[] all = W3CProvRelationType.values();
+            boolean[] allowed = new boolean[Byte.MAX_VALUE + 1];
+            for (W3CProvRelationType type : all) {
+                allowed[type.code()] = types.isEmpty()
+                        ? isDependency(type.code())
+                        : types.contains(type.provName());
+            }
+            for (String name : types) {
+                boolean known = false;
+                for (W3CProvRelationType type : all) {
+                    known |= type.provName().equals(name);
+                }
+                if (!known) {
+                    throw new IllegalArgumentException(
+                            "Unknown relation type " + name);
+                }
+            }
+            return allowed;
+        }
+
+        /**
+         * Nodes matched by the returned pattern; to be called with the lock
+         * held.
+         */
+        private Set<Node> evaluate() {
+            long latest = within ? latest() : Long.MIN_VALUE;
+            int n = patterns.size();
+            List<Set<Node>> sets = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                sets.add(null);
+            }
+            PatternMatcher first = patterns.get(pivot);
+            Set<Node> matched = new HashSet<>();
+            if (first.uuid != null) {
+                Node node = nodes.get(first.uuid);
+                if (node != null && first.matches(node, latest)) {
+                    matched.add(node);
+                }
+            } else {
+                for (Node node : nodes.values()) {
+                    if (first.matches(node, latest)) {
+                        matched.add(node);
+                    }
+                }
+            }
+            sets.set(pivot, matched);
+            /* outwards from the pivot */
+            for (int i = pivot + 1; i < n; i++) {
+                sets.set(i, restrict(i, step(sets.get(i - 1), i - 1, true),
+                        latest));
+            }
+            for (int i = pivot - 1; i >= 0; i--) {
+                sets.set(i, restrict(i, step(sets.get(i + 1), i, false),
+                        latest));
+            }
+            /* inwards to the pivot, then outwards again */
+            for (int i = n - 2; i >= pivot; i--) {
+                sets.get(i).retainAll(step(sets.get(i + 1), i, false));
+            }
+            for (int i = 1; i <= pivot; i++) {
+                sets.get(i).retainAll(step(sets.get(i - 1), i - 1, true));
+            }
+            for (int i = pivot + 1; i < n; i++) {
+                sets.get(i).retainAll(step(sets.get(i - 1), i - 1, true));
+            }
+            for (int i = pivot - 1; i >= 0; i--) {
+                sets.get(i).retainAll(step(sets.get(i + 1), i, false));
+            }
+            return sets.get(query.getReturnedIndex());
+        }
+
+        /**
+         * Latest timestamp of the nodes, in milliseconds, which "ts within"
+         * is relative to.
+         */
+        private long latest() {
+            long latest = Long.MIN_VALUE;
+            for (Node node : nodes.values()) {
+                latest = Math.max(latest, ProvHybridClock.millisOf(node.hlc));
+            }
+            return latest;
+        }
+
+        private Set<Node> restrict(int i, Set<Node> reached, long latest) {
+            PatternMatcher pattern = patterns.get(i);
+            reached.removeIf(node -> !pattern.matches(node, latest));
+            return reached;
+        }
+
+        /**
+         * Nodes reached from nodes by an edge pattern, from its left node
+         * pattern to its right one (rightwards) or the other way.
+         */
+        private Set<Node> step(Set<Node> from, int e, boolean rightwards) {
+            EdgePattern edge = query.getEdges().get(e);
+            boolean outgoing = edge.isForward() == rightwards;
+            Set<Node> reached = new HashSet<>();
+            if (edge.getMin() == 0) {
+                reached.addAll(from);
+            }
+            /* with walks of 1 edge or more, each node is expanded once */
+            Set<Node> visited = edge.getMin() <= 1 ? new HashSet<>() : null;
+            Set<Node> frontier = from;
+            for (int depth = 1; depth <= edge.getMax()
+                    && !frontier.isEmpty(); depth++) {
+                Set<Node> next = new HashSet<>();
+                for (Node node : frontier) {
+                    addAdjacent(node, outgoing, allowed[e], next);
+                }
+                if (visited != null) {
+                    next.removeAll(visited);
+                    visited.addAll(next);
+                }
+                if (depth >= edge.getMin()) {
+                    reached.addAll(next);
+                }
+                frontier = next;
+            }
+            return reached;
+        }
+    }
+
+    /**
+     * Node pattern of a query, with the UUIDs and tokens of its predicates
+     * parsed once.
+     */
+    private static final class PatternMatcher {
+
+        private final String type;
+        private final List<Predicate> predicates;
+        /* per predicate: UUID of a UUID predicate, or null */
+        private final List<UUID> uuids = new ArrayList<>();
+        /* per predicate: tokens of a TOKEN predicate, or null */
+        private final List<Set<String>> tokens = new ArrayList<>();
+        /* node given by UUID, or null */
+        private final UUID uuid;
+        private final boolean within;
+
+        private PatternMatcher(NodePattern pattern) {
+            this.type = pattern.getType();
+            this.predicates = pattern.getPredicates();
+            UUID given = null;
+            boolean relative = false;
+            for (Predicate predicate : predicates) {
+                UUID id = predicate.getKind() == Kind.UUID
+                        ? uuidOf(predicate.getText())
+                        : null;
+                uuids.add(id);
+                if (id != null && !predicate.isNegated()) {
+                    given = id;
+                }
+                Set<String> parts = null;
+                if (predicate.getKind() == Kind.TOKEN) {
+                    parts = new HashSet<>();
+                    tokenize(predicate.getText(), parts);
+                }
+                tokens.add(parts);
+                relative |= predicate.getKind() == Kind.WITHIN;
+            }
+            this.uuid = given;
+            this.within = relative;
+        }
+
+        /* ids that are not UUIDs (e.g., of agents offline) match nothing */
+        private static UUID uuidOf(String text) {
+            try {
+                return UUID.fromString(text);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        /* number of conditions, to choose the pivot */
+        private int weight() {
+            return predicates.size() + (type == null ? 0 : 1);
+        }
+
+        private boolean matches(Node node, long latest) {
+            if (type != null && (type.equals("agent")
+                    || node.activity != type.equals("activity"))) {
+                return false;
+            }
+            for (int i = 0; i < predicates.size(); i++) {
+                if (matches(i, node, latest) == predicates.get(i)
+                        .isNegated()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean matches(int i, Node node, long latest) {
+            Predicate predicate = predicates.get(i);
+            long ts = ProvHybridClock.millisOf(node.hlc);
+            switch (predicate.getKind()) {
+            case CONTAINS:
+                return node.getValue().contains(predicate.getText());
+            case EQUALS:
+                return node.getValue().equals(predicate.getText());
+            case TOKEN:
+                Set<String> parts = new HashSet<>();
+                tokenize(node.getValue(), parts);
+                return parts.containsAll(tokens.get(i));
+            case UUID:
+                return uuids.get(i) != null && node.uuid.equals(uuids.get(i));
+            case TIME:
+                return ts >= predicate.getFrom() && ts <= predicate.getTo();
+            default:
+                return ts >= latest - predicate.getDuration();
+            }
+        }
+    }
+
+}
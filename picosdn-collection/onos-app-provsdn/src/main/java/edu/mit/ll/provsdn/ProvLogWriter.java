@@ -0,0 +1,557 @@
+package edu.mit.ll.provsdn;
+
+import static org.onlab.util.Tools.groupedThreads;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, segmented, memory-mapped provenance log.
+ *
+ * In the binary format, each segment file ("prov-<sequence>.seg") starts with
+ * a 16-byte header (magic, version, reserved, segment sequence) followed by
+ * records. Each record is framed by its payload length and the CRC32 of its
+ * payload; a zero length marks the end of the written part of a segment. All
+ * numbers are big endian. Payloads are:
+ *
+ * <pre>
+ * node:            type(1) nodeId(str)
+ * entity/activity: type(1) uuidMsb(8) uuidLsb(8) ts(8) nameRef(4)
+ *                  [name(str) if nameRef &lt; 0] value(str)
+ * relation:        type(1) relationType(1) fromMsb(8) fromLsb(8)
+ *                  toMsb(8) toLsb(8) ts(8)
+ * membership:      type(1) collectionMsb(8) collectionLsb(8) ts(8) count(4)
+ *                  count * (memberMsb(8) memberLsb(8))
+ * str:             length(4, -1 for null) UTF-8 bytes
+ * </pre>
+ *
+ * Timestamps are hybrid logical clock timestamps (see ProvHybridClock). When
+ * the writer belongs to a cluster node, each segment starts with a node record
+ * naming that node, so that the logs of all nodes can be merged by
+ * picosdn-analysis.
+ *
+ * Names are dictionary-coded per segment: a negative nameRef defines name id
+ * -nameRef-1 inline, and a non-negative nameRef refers to an earlier
+ * definition in the same segment.
+ *
+ * In the JSON format, segment files ("prov-<sequence>.jsonl") hold one JSON
+ * object per line, as produced by the W3C PROV objects' toJson methods,
+ * preceded by a {"segment":...,"node":...} line when the node is known.
+ *
+ * Records are encoded by a ProvRecordEncoder and appending only copies them
+ * into the mapped segment. Forcing segments to disk (group commit), closing
+ * rotated segments and deleting old segments beyond the retention limit
+ * happen on a background flusher thread, so appending threads never wait on
+ * disk I/O other than mapping a new segment.
+ *
+ * picosdn-analysis reads this format with ProvLogReader.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvLogWriter {
+
+    public static final int MAGIC = 0x50524f56; // "PROV"
+    public static final short VERSION = 3;
+    public static final int SEGMENT_HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE = 8;
+
+    public static final byte TYPE_ENTITY = 1;
+    public static final byte TYPE_ACTIVITY = 2;
+    public static final byte TYPE_RELATION = 3;
+    public static final byte TYPE_MEMBERSHIP = 4;
+    public static final byte TYPE_NODE = 5;
+
+    public static final String SEGMENT_PREFIX = "prov-";
+    public static final String SEGMENT_SUFFIX = ".seg";
+    public static final String JSON_SEGMENT_SUFFIX = ".jsonl";
+
+    /**
+     * Record format of a provenance log.
+     */
+    public enum Format {
+        BINARY, JSON
+    }
+
+    private static final long RETIRE_CHECK_MILLIS = 1000;
+
+    private final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int retainSegments;
+    private final long fsyncIntervalMillis;
+    private final Format format;
+    private final String node;
+    private final int tagSize;
+
+    private final CRC32 crc = new CRC32();
+    private final ProvRecordEncoder encoder = new ProvRecordEncoder();
+
+    // Segment currently appended to (guarded by this)
+    private Segment current = null;
+    private long nextSequence = 0;
+    private boolean open = false;
+    private boolean dirty = false;
+    private boolean failing = false;
+
+    // Rotated segments waiting to be forced and closed by the flusher
+    private final Queue<Segment> retired = new ConcurrentLinkedQueue<>();
+
+    private ScheduledExecutorService flusher;
+
+    private final LongAdder records = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder forces = new LongAdder();
+    private final LongAdder rotations = new LongAdder();
+    private final LongAdder deletions = new LongAdder();
+
+    /**
+     * Create a provenance log writer.
+     *
+     * @param directory           directory holding the segment files
+     * @param segmentSize         size of each segment in bytes
+     * @param retainSegments      number of segments kept on disk; 0 keeps all
+     * @param fsyncIntervalMillis interval between forcing appended records to
+     *                            disk; 0 leaves write-back to the OS
+     */
+    public ProvLogWriter(Path directory, int segmentSize, int retainSegments,
+            long fsyncIntervalMillis) {
+        this(directory, segmentSize, retainSegments, fsyncIntervalMillis,
+                Format.BINARY);
+    }
+
+    /**
+     * Create a provenance log writer.
+     *
+     * @param directory           directory holding the segment files
+     * @param segmentSize         size of each segment in bytes
+     * @param retainSegments      number of segments kept on disk; 0 keeps all
+     * @param fsyncIntervalMillis interval between forcing appended records to
+     *                            disk; 0 leaves write-back to the OS
+     * @param format              record format
+     */
+    public ProvLogWriter(Path directory, int segmentSize, int retainSegments,
+            long fsyncIntervalMillis, Format format) {
+        this(directory, segmentSize, retainSegments, fsyncIntervalMillis,
+                format, null);
+    }
+
+    /**
+     * Create a provenance log writer for a cluster node.
+     *
+     * @param directory           directory holding the segment files
+     * @param segmentSize         size of each segment in bytes
+     * @param retainSegments      number of segments kept on disk; 0 keeps all
+     * @param fsyncIntervalMillis interval between forcing appended records to
+     *                            disk; 0 leaves write-back to the OS
+     * @param format              record format
+     * @param node                id of the cluster node writing the log, with
+     *                            which each segment is tagged; null for none
+     */
+    public ProvLogWriter(Path directory, int segmentSize, int retainSegments,
+            long fsyncIntervalMillis, Format format, String node) {
+        this.directory = directory;
+        this.format = format;
+        this.node = node;
+        if (node == null) {
+            this.tagSize = 0;
+        } else if (format == Format.JSON) {
+            this.tagSize = ProvRecordEncoder.maxJsonNodeSize(node);
+        } else {
+            this.tagSize = frameSize(ProvRecordEncoder.maxNodeSize(node));
+        }
+        this.segmentSize = Math.max(segmentSize,
+                SEGMENT_HEADER_SIZE + RECORD_HEADER_SIZE);
+        this.retainSegments = retainSegments;
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+
+    /**
+     * Open the log, starting a new segment after any existing ones.
+     *
+     * @throws IOException if the directory or first segment cannot be created
+     */
+    public synchronized void open() throws IOException {
+        if (open) {
+            return;
+        }
+        Files.createDirectories(directory);
+        List<Path> existing = listSegments(directory, format);
+        if (!existing.isEmpty()) {
+            nextSequence = sequenceOf(existing.get(existing.size() - 1)) + 1;
+        }
+        startSegment(0);
+        open = true;
+
+        long period = fsyncIntervalMillis > 0 ? fsyncIntervalMillis
+                : RETIRE_CHECK_MILLIS;
+        flusher = Executors.newSingleThreadScheduledExecutor(
+                groupedThreads("provsdn", "log-flush", log));
+        flusher.scheduleWithFixedDelay(this::flushQuietly, period, period,
+                TimeUnit.MILLISECONDS);
+        log.info("Opened provenance log in {}", directory);
+    }
+
+    /**
+     * Close the log, forcing and closing all segments.
+     */
+    public void close() {
+        ScheduledExecutorService oldFlusher;
+        synchronized (this) {
+            if (!open) {
+                return;
+            }
+            open = false;
+            retire();
+            oldFlusher = flusher;
+            flusher = null;
+        }
+        oldFlusher.shutdown();
+        try {
+            oldFlusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushQuietly();
+        log.info("Closed provenance log in {}; {}", directory, this);
+    }
+
+    /**
+     * Append an entity record.
+     *
+     * @param entity
+     */
+    public void append(W3CProvEntity entity) {
+        appendObject(ProvLogWriter.TYPE_ENTITY, "entity", entity.getUuid(),
+                entity.getTs(), entity.getHlc(), entity.getName(),
+                entity.getValue());
+    }
+
+    /**
+     * Append an activity record.
+     *
+     * @param activity
+     */
+    public void append(W3CProvActivity activity) {
+        appendObject(ProvLogWriter.TYPE_ACTIVITY, "activity",
+                activity.getUuid(), activity.getTs(), activity.getHlc(),
+                activity.getName(), activity.getValue());
+    }
+
+    /**
+     * Append a relation record.
+     *
+     * @param relation
+     */
+    public synchronized void append(W3CProvRelation relation) {
+        if (format == Format.JSON) {
+            if (ensureSegment(ProvRecordEncoder.maxJsonRelationSize())) {
+                write(encoder.jsonRelation(relation));
+            }
+        } else if (ensureSegment(frameSize(ProvRecordEncoder.relationSize()))) {
+            write(encoder.relation(relation));
+        }
+    }
+
+    /**
+     * Append a collection membership record.
+     *
+     * @param membership
+     */
+    public synchronized void append(W3CProvMembership membership) {
+        int members = membership.getMembers().length;
+        if (format == Format.JSON) {
+            if (ensureSegment(ProvRecordEncoder.jsonMembershipSize(members))) {
+                write(encoder.jsonMembership(membership));
+            }
+        } else if (ensureSegment(
+                frameSize(ProvRecordEncoder.membershipSize(members)))) {
+            write(encoder.membership(membership));
+        }
+    }
+
+    private synchronized void appendObject(byte type, String w3cProvType,
+            UUID uuid, long ts, long hlc, String name, String value) {
+        /*
+         * make room before encoding, so that a name is defined in the
+         * segment that the record ends up in
+         */
+        if (format == Format.JSON) {
+            if (ensureSegment(
+                    ProvRecordEncoder.maxJsonObjectSize(name, value))) {
+                write(encoder.jsonObject(w3cProvType, uuid, ts, hlc, name,
+                        value));
+            }
+        } else if (ensureSegment(
+                frameSize(ProvRecordEncoder.maxObjectSize(name, value)))) {
+            write(encoder.object(type, uuid, hlc, name, value));
+        }
+    }
+
+    private static int frameSize(int payloadSize) {
+        return RECORD_HEADER_SIZE + payloadSize;
+    }
+
+    /**
+     * Copy an encoded record into the current segment, framing it in the
+     * binary format.
+     *
+     * @param record
+     */
+    private void write(ByteBuffer record) {
+        int length = frame(record);
+        dirty = true;
+        records.increment();
+        bytes.add(length);
+    }
+
+    /**
+     * Copy a record into the current segment without counting it.
+     *
+     * @param record
+     * @return number of bytes written
+     */
+    private int frame(ByteBuffer record) {
+        int length = record.remaining();
+        MappedByteBuffer buffer = current.buffer;
+        if (format == Format.BINARY) {
+            crc.reset();
+            crc.update(record);
+            record.rewind();
+            buffer.putInt(length);
+            buffer.putInt((int) crc.getValue());
+            length += RECORD_HEADER_SIZE;
+        }
+        buffer.put(record);
+        return length;
+    }
+
+    /**
+     * Make sure the current segment has room for a record; a record bigger
+     * than a segment gets a segment of its own.
+     *
+     * @param needed upper bound on the record size
+     * @return false if the record has to be dropped
+     */
+    private boolean ensureSegment(int needed) {
+        if (!open) {
+            dropped.increment();
+            return false;
+        }
+        if (current != null && current.buffer.remaining() >= needed + 4) {
+            return true;
+        }
+        retire();
+        try {
+            startSegment(needed);
+            rotations.increment();
+            failing = false;
+            return true;
+        } catch (IOException e) {
+            if (!failing) {
+                log.error("Unable to open provenance log segment in {}",
+                        directory, e);
+                failing = true;
+            }
+            dropped.increment();
+            return false;
+        }
+    }
+
+    /**
+     * Start a new segment with room for a record, tagged with the node if one
+     * is set.
+     *
+     * @param needed upper bound on the record size
+     * @throws IOException if the segment cannot be created
+     */
+    private void startSegment(int needed) throws IOException {
+        long sequence = nextSequence++;
+        current = new Segment(directory, sequence, Math.max(segmentSize,
+                SEGMENT_HEADER_SIZE + tagSize + needed + 4), format);
+        encoder.resetDictionary();
+        if (node != null) {
+            frame(format == Format.JSON ? encoder.jsonNode(node, sequence)
+                    : encoder.node(node));
+        }
+    }
+
+    private void retire() {
+        if (current != null) {
+            current.written = current.buffer.position();
+            retired.add(current);
+            current = null;
+        }
+    }
+
+    /**
+     * Group commit: force everything appended since the last flush, close
+     * rotated segments, and apply retention.
+     */
+    private void flushQuietly() {
+        try {
+            Segment segment;
+            boolean force;
+            synchronized (this) {
+                segment = current;
+                force = dirty && fsyncIntervalMillis > 0;
+                dirty = false;
+            }
+            Segment old;
+            boolean rotated = false;
+            while ((old = retired.poll()) != null) {
+                old.close();
+                rotated = true;
+            }
+            if (force && segment != null) {
+                segment.buffer.force();
+                forces.increment();
+            }
+            if (rotated) {
+                applyRetention();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to flush provenance log in {}", directory, e);
+        }
+    }
+
+    private void applyRetention() throws IOException {
+        if (retainSegments <= 0) {
+            return;
+        }
+        List<Path> segments = listSegments(directory, format);
+        for (int i = 0; i < segments.size() - retainSegments; i++) {
+            Files.deleteIfExists(segments.get(i));
+            deletions.increment();
+        }
+    }
+
+    /**
+     * Binary segment files in a directory, oldest first.
+     *
+     * @param directory
+     * @return segment paths
+     * @throws IOException
+     */
+    public static List<Path> listSegments(Path directory) throws IOException {
+        return listSegments(directory, Format.BINARY);
+    }
+
+    /**
+     * Segment files of a format in a directory, oldest first.
+     *
+     * @param directory
+     * @param format
+     * @return segment paths
+     * @throws IOException
+     */
+    public static List<Path> listSegments(Path directory, Format format)
+            throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+                SEGMENT_PREFIX + "*" + suffixOf(format))) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static String suffixOf(Format format) {
+        return format == Format.JSON ? JSON_SEGMENT_SUFFIX : SEGMENT_SUFFIX;
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                name.lastIndexOf('.')));
+    }
+
+    public long recordCount() {
+        return records.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum();
+    }
+
+    public long forceCount() {
+        return forces.sum();
+    }
+
+    public long rotationCount() {
+        return rotations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "records=" + records.sum() + ", bytes=" + bytes.sum()
+                + ", dropped=" + dropped.sum() + ", forces=" + forces.sum()
+                + ", rotations=" + rotations.sum() + ", deletions="
+                + deletions.sum();
+    }
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private static final class Segment {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int terminator;
+        private int written;
+
+        private Segment(Path directory, long sequence, int size,
+                Format format) throws IOException {
+            Path path = directory.resolve(String.format("%s%020d%s",
+                    SEGMENT_PREFIX, sequence, suffixOf(format)));
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            terminator = format == Format.BINARY ? 4 : 0;
+            if (format == Format.BINARY) {
+                buffer.putInt(MAGIC);
+                buffer.putShort(VERSION);
+                buffer.putShort((short) 0);
+                buffer.putLong(sequence);
+            }
+        }
+
+        /**
+         * Force the segment and trim the unused, preallocated tail (keeping
+         * a zero length terminator in the binary format).
+         *
+         * @throws IOException
+         */
+        private void close() throws IOException {
+            buffer.force();
+            channel.truncate(
+                    Math.min(buffer.capacity(), written + terminator));
+            channel.close();
+        }
+    }
+
+}
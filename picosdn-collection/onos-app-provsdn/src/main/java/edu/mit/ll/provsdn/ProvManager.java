@@ -1,27 +1,54 @@
 package edu.mit.ll.provsdn;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.Objects;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Modified;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.Service;
+import org.onlab.metrics.MetricsService;
+import org.onlab.util.Tools;
+import org.onosproject.cfg.ComponentConfigService;
+import org.onosproject.cluster.ClusterService;
+import org.onosproject.cluster.ControllerNode;
 import org.onosproject.event.Event;
 import org.onosproject.net.Host;
+import org.onosproject.net.config.Config;
+import org.onosproject.net.flow.FlowEntry;
 import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.flow.FlowRuleEvent;
+import org.onosproject.net.flow.FlowRuleListener;
+import org.onosproject.net.flow.FlowRuleService;
+import org.onosproject.net.group.Group;
 import org.onosproject.net.host.HostEvent;
+import org.onosproject.net.meter.Meter;
 import org.onosproject.net.packet.InboundPacket;
 import org.onosproject.net.packet.PacketContext;
 import org.onosproject.security.ProvActivity;
 import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
 import org.onosproject.security.ProvEntity;
 import org.onosproject.security.ProvHook;
+import org.onosproject.security.ProvIdGenerator;
 import org.onosproject.security.ProvService;
+import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -37,37 +64,219 @@ import org.slf4j.LoggerFactory;
  */
 @Component(immediate = true)
 @Service
-public class ProvManager implements ProvService {
+public class ProvManager implements ProvService, ProvGraphService {
 
     /*
      * Internal state
      */
 
-    // ProvManager's view of active control plane state objects
-    private Map<ProvEntity, W3CProvEntity> provEntityToW3CProvEntity = Collections
-            .synchronizedMap(new HashMap<>());
+    // ProvManager's view of active control plane state objects, keyed by the
+    // id assigned to each ProvEntity instance
+    private final ProvBoundedIndex<Long, W3CProvEntity> entityIndex = new ProvBoundedIndex<>(
+            DEFAULT_ENTITY_INDEX_MAX_SIZE,
+            TimeUnit.SECONDS.toMillis(DEFAULT_ENTITY_INDEX_MAX_AGE));
 
-    // Current instance of a listener
-    private Map<String, W3CProvActivity> activeListeners = Collections
-            .synchronizedMap(new HashMap<>());
+    // Compact ids of listener and event classes
+    private final ProvClassTable classTable = new ProvClassTable();
 
-    // Map of OpenFlow identifiers (cookies) to associated flow rules
-    private Map<Long, W3CProvEntity> cookieToFlowRule = Collections
-            .synchronizedMap(new HashMap<>());
+    // Current instance of a listener, indexed by listener id
+    private volatile AtomicReferenceArray<W3CProvActivity> activeListeners = new AtomicReferenceArray<>(
+            INITIAL_LISTENER_IDS);
+
+    // Generator of entity and activity ids
+    private volatile ProvIdGenerator idGenerator = ProvIdGenerators.random();
+    private String idGeneratorConfig = null;
+
+    // UUIDs of W3C PROV objects are a prefix followed by the object's id: the
+    // cluster-wide prefix for cluster-unique ids, so that all nodes derive the
+    // same UUID from an id, otherwise a session prefix, so that UUIDs from
+    // different sessions do not collide
+    private final long sessionPrefix = UUID.randomUUID()
+            .getMostSignificantBits();
+    private volatile long idPrefix = sessionPrefix;
+
+    // Hybrid logical clock with which W3C PROV objects are written out
+    private final ProvHybridClock clock = new ProvHybridClock();
+
+    // Map of OpenFlow identifiers (cookies) to associated flow rules; entries
+    // are dropped when the flow rule is removed
+    private final ProvBoundedIndex<Long, W3CProvEntity> cookieToFlowRule = new ProvBoundedIndex<>(
+            DEFAULT_COOKIE_INDEX_MAX_SIZE, 0);
+
+    // Collection entities of bulk reads, keyed by their set of members, so
+    // that repeated reads of an unchanged collection reuse one entity
+    private final ProvBoundedIndex<CollectionKey, W3CProvEntity> collectionIndex = new ProvBoundedIndex<>(
+            DEFAULT_ENTITY_INDEX_MAX_SIZE,
+            TimeUnit.SECONDS.toMillis(DEFAULT_ENTITY_INDEX_MAX_AGE));
+
+    private final FlowRuleListener flowRuleListener = new InternalFlowRuleListener();
+
+    // Asynchronous ingestion pipeline (null when ingesting synchronously)
+    private volatile ProvIngestPipeline pipeline = null;
+
+    // Guards (re)configuration of the pipeline; never held while processing
+    private final Object ingestLock = new Object();
+
+    // Sampling and rate-limit policy applied to listener invocations
+    private volatile ProvPolicy policy = ProvPolicy
+            .parse(ProvPolicy.DEFAULT_RULES, classTable);
+
+    // Behavior of the ingestion pipeline when a ring buffer is full
+    private volatile ProvIngestPipeline.Overload overload = ProvIngestPipeline.Overload.BLOCK;
+
+    // Metrics (null when no MetricsService is available)
+    private volatile ProvMetrics metrics = null;
+
+    // Binary provenance log (null when writing to the debug log)
+    private volatile ProvLogWriter logWriter = null;
+    private String logWriterConfig = null;
+
+    // Live provenance graph of recent activity (null when disabled)
+    private volatile ProvLiveGraph liveGraph = null;
 
     private final Logger log = LoggerFactory.getLogger(getClass());
 
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ComponentConfigService cfgService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected FlowRuleService flowRuleService;
+
+    @Reference(cardinality = ReferenceCardinality.MANDATORY_UNARY)
+    protected ClusterService clusterService;
+
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY)
+    protected MetricsService metricsService;
+
     /*
      * Configuration
      */
-    private static final boolean IGNORE_STATS = true;
-    private static final boolean IGNORE_RESOURCES = true;
+    private static final String OWN_LISTENER_PREFIX = ProvManager.class
+            .getName() + "$";
+
+    private static final int INITIAL_LISTENER_IDS = 256;
+    private static final int DEFAULT_INGEST_STRIPES = 8;
+    private static final int DEFAULT_INGEST_BUFFER_SIZE = 8192;
+    private static final int DEFAULT_INGEST_CONSUMERS = 1;
+    private static final String DEFAULT_INGEST_OVERLOAD = "block";
+    private static final String DEFAULT_ID_GENERATOR = "time";
+    private static final int DEFAULT_ENTITY_INDEX_MAX_SIZE = 500_000;
+    private static final int DEFAULT_ENTITY_INDEX_MAX_AGE = 3600; // s
+    private static final int DEFAULT_COOKIE_INDEX_MAX_SIZE = 500_000;
+    private static final String DEFAULT_LOG_FORMAT = "binary";
+    private static final int DEFAULT_LOG_SEGMENT_SIZE = 64; // MiB
+    private static final int DEFAULT_LOG_RETAIN_SEGMENTS = 64;
+    private static final int DEFAULT_LOG_FSYNC_INTERVAL = 1000; // ms
+    private static final int DEFAULT_LIVE_GRAPH_MAX_NODES = ProvLiveGraph.DEFAULT_MAX_NODES;
+    private static final int DEFAULT_LIVE_GRAPH_WINDOW = ProvLiveGraph.DEFAULT_WINDOW_SECONDS;
+
+    @Property(name = "stackWalkFallback", boolValue = ProvHook.DEFAULT_STACK_FALLBACK,
+            label = "Capture and walk the call stack to attribute API calls "
+                    + "made outside of any activity context; default is false")
+    private boolean stackWalkFallback = ProvHook.DEFAULT_STACK_FALLBACK;
+
+    @Property(name = "idGenerator", value = DEFAULT_ID_GENERATOR,
+            label = "Generator of entity and activity ids: time (time-ordered, "
+                    + "node-tagged), counter (node-prefixed) or random; "
+                    + "default is time")
+    private String idGeneratorName = DEFAULT_ID_GENERATOR;
+
+    @Property(name = "policyRules", value = ProvPolicy.DEFAULT_RULES,
+            label = "Sampling and rate-limit rules for listener invocations, "
+                    + "separated by semicolons; default drops statistics and "
+                    + "resource events")
+    private String policyRules = ProvPolicy.DEFAULT_RULES;
+
+    @Property(name = "entityIndexMaxSize", intValue = DEFAULT_ENTITY_INDEX_MAX_SIZE,
+            label = "Maximum number of entities remembered as already written "
+                    + "out; default is 500000")
+    private int entityIndexMaxSize = DEFAULT_ENTITY_INDEX_MAX_SIZE;
+
+    @Property(name = "entityIndexMaxAge", intValue = DEFAULT_ENTITY_INDEX_MAX_AGE,
+            label = "Seconds after its last use that an entity is forgotten "
+                    + "(0 disables); default is 3600")
+    private int entityIndexMaxAge = DEFAULT_ENTITY_INDEX_MAX_AGE;
+
+    @Property(name = "logDirectory", value = "",
+            label = "Directory of the binary provenance log; default is "
+                    + "provsdn under the Karaf data directory")
+    private String logDirectory = "";
+
+    @Property(name = "logFormat", value = DEFAULT_LOG_FORMAT,
+            label = "Format of the provenance log, binary or json; default "
+                    + "is binary")
+    private String logFormat = DEFAULT_LOG_FORMAT;
+
+    @Property(name = "logSegmentSize", intValue = DEFAULT_LOG_SEGMENT_SIZE,
+            label = "Size of each provenance log segment in MiB; default is 64")
+    private int logSegmentSize = DEFAULT_LOG_SEGMENT_SIZE;
+
+    @Property(name = "logRetainSegments", intValue = DEFAULT_LOG_RETAIN_SEGMENTS,
+            label = "Number of provenance log segments kept on disk (0 keeps "
+                    + "all); default is 64")
+    private int logRetainSegments = DEFAULT_LOG_RETAIN_SEGMENTS;
+
+    @Property(name = "logFsyncInterval", intValue = DEFAULT_LOG_FSYNC_INTERVAL,
+            label = "Milliseconds between forcing the provenance log to disk "
+                    + "(0 leaves write-back to the OS); default is 1000")
+    private int logFsyncInterval = DEFAULT_LOG_FSYNC_INTERVAL;
+
+    @Property(name = "asyncIngest", boolValue = false,
+            label = "Ingest provenance through lock-free ring buffers drained "
+                    + "by background consumers; default is false")
+    private boolean asyncIngest = false;
+
+    @Property(name = "ingestStripes", intValue = DEFAULT_INGEST_STRIPES,
+            label = "Number of ingestion ring buffers (rounded up to a power "
+                    + "of two); default is 8")
+    private int ingestStripes = DEFAULT_INGEST_STRIPES;
+
+    @Property(name = "ingestBufferSize", intValue = DEFAULT_INGEST_BUFFER_SIZE,
+            label = "Capacity of each ingestion ring buffer; default is 8192")
+    private int ingestBufferSize = DEFAULT_INGEST_BUFFER_SIZE;
+
+    @Property(name = "ingestConsumers", intValue = DEFAULT_INGEST_CONSUMERS,
+            label = "Number of ingestion consumer threads; default is 1")
+    private int ingestConsumers = DEFAULT_INGEST_CONSUMERS;
+
+    @Property(name = "ingestOverload", value = DEFAULT_INGEST_OVERLOAD,
+            label = "Behavior when an ingestion ring buffer is full: block, "
+                    + "drop-oldest, drop-by-priority (shed reads first) or "
+                    + "count-only; default is block")
+    private String ingestOverload = DEFAULT_INGEST_OVERLOAD;
+
+    @Property(name = "liveGraph", boolValue = false,
+            label = "Maintain a live provenance graph of recent activity for "
+                    + "queries from the CLI; default is false")
+    private boolean liveGraphEnabled = false;
+
+    @Property(name = "liveGraphMaxNodes", intValue = DEFAULT_LIVE_GRAPH_MAX_NODES,
+            label = "Maximum number of nodes of the live provenance graph; "
+                    + "default is 200000")
+    private int liveGraphMaxNodes = DEFAULT_LIVE_GRAPH_MAX_NODES;
+
+    @Property(name = "liveGraphWindow", intValue = DEFAULT_LIVE_GRAPH_WINDOW,
+            label = "Seconds after its last use that a node leaves the live "
+                    + "provenance graph (0 disables); default is 600")
+    private int liveGraphWindow = DEFAULT_LIVE_GRAPH_WINDOW;
 
     /**
      * Activate provenance collection.
+     *
+     * @param context
      */
     @Activate
-    protected void activate() {
+    protected void activate(ComponentContext context) {
+        cfgService.registerProperties(getClass());
+        readComponentConfiguration(context);
+        flowRuleService.addListener(flowRuleListener);
+        if (metricsService != null) {
+            metrics = new ProvMetrics(metricsService, this::ingestPipeline);
+            metrics.registerIndex("EntityIndex", entityIndex);
+            metrics.registerIndex("CookieIndex", cookieToFlowRule);
+            metrics.registerIndex("CollectionIndex", collectionIndex);
+        }
+
         /* Start provenance hook */
         Timer tmr = new Timer();
         TimerTask action = new TimerTask() {
@@ -88,9 +297,483 @@ public class ProvManager implements ProvService {
     protected void deactivate() {
         ProvHook.stop();
         log.info("Disabled provenance hooks");
+        configureIngest(false, ingestStripes, ingestBufferSize,
+                ingestConsumers);
+        closeLog();
+        configureLiveGraph(false, liveGraphMaxNodes, liveGraphWindow);
+        flowRuleService.removeListener(flowRuleListener);
+        if (metrics != null) {
+            metrics.remove();
+            metrics = null;
+        }
+        log.info("Policy: {}", policy);
+        log.info("Entity index: {}", entityIndex);
+        log.info("Cookie index: {}", cookieToFlowRule);
+        log.info("Collection index: {}", collectionIndex);
+        cfgService.unregisterProperties(getClass(), false);
         log.info("Stopped");
     }
 
+    /**
+     * Reconfigure provenance collection.
+     *
+     * @param context
+     */
+    @Modified
+    protected void modified(ComponentContext context) {
+        readComponentConfiguration(context);
+    }
+
+    /**
+     * Extracts properties from the component configuration context.
+     *
+     * @param context the component context
+     */
+    private void readComponentConfiguration(ComponentContext context) {
+        if (context == null) {
+            configureIdGenerator(idGeneratorName);
+            configureLog();
+            ProvHook.setStackFallback(stackWalkFallback);
+            configureIngest(asyncIngest, ingestStripes, ingestBufferSize,
+                    ingestConsumers);
+            configureLiveGraph(liveGraphEnabled, liveGraphMaxNodes,
+                    liveGraphWindow);
+            return;
+        }
+        Dictionary<?, ?> properties = context.getProperties();
+
+        entityIndexMaxSize = Tools.getIntegerProperty(properties,
+                "entityIndexMaxSize", entityIndexMaxSize);
+        entityIndexMaxAge = Tools.getIntegerProperty(properties,
+                "entityIndexMaxAge", entityIndexMaxAge);
+        entityIndex.setBounds(entityIndexMaxSize,
+                TimeUnit.SECONDS.toMillis(entityIndexMaxAge));
+        collectionIndex.setBounds(entityIndexMaxSize,
+                TimeUnit.SECONDS.toMillis(entityIndexMaxAge));
+        log.info("Configured. Entity index holds at most {} entities for {} s",
+                entityIndexMaxSize, entityIndexMaxAge);
+
+        String newPolicyRules = Tools.get(properties, "policyRules");
+        configurePolicy(newPolicyRules == null ? ProvPolicy.DEFAULT_RULES
+                : newPolicyRules);
+
+        String newIdGenerator = Tools.get(properties, "idGenerator");
+        configureIdGenerator(newIdGenerator == null ? DEFAULT_ID_GENERATOR
+                : newIdGenerator);
+
+        String newLogDirectory = Tools.get(properties, "logDirectory");
+        logDirectory = newLogDirectory == null ? "" : newLogDirectory;
+        String newLogFormat = Tools.get(properties, "logFormat");
+        logFormat = newLogFormat == null ? DEFAULT_LOG_FORMAT : newLogFormat;
+        logSegmentSize = Tools.getIntegerProperty(properties, "logSegmentSize",
+                logSegmentSize);
+        logRetainSegments = Tools.getIntegerProperty(properties,
+                "logRetainSegments", logRetainSegments);
+        logFsyncInterval = Tools.getIntegerProperty(properties,
+                "logFsyncInterval", logFsyncInterval);
+        configureLog();
+
+        Boolean stackWalkFallbackEnabled = Tools.isPropertyEnabled(properties,
+                "stackWalkFallback");
+        if (stackWalkFallbackEnabled != null) {
+            stackWalkFallback = stackWalkFallbackEnabled;
+        }
+        ProvHook.setStackFallback(stackWalkFallback);
+        log.info("Configured. Stack walking fallback is {}",
+                stackWalkFallback ? "enabled" : "disabled");
+
+        Boolean asyncIngestEnabled = Tools.isPropertyEnabled(properties,
+                "asyncIngest");
+        boolean newAsyncIngest = asyncIngestEnabled == null ? asyncIngest
+                : asyncIngestEnabled;
+        int newStripes = Tools.getIntegerProperty(properties, "ingestStripes",
+                ingestStripes);
+        int newBufferSize = Tools.getIntegerProperty(properties,
+                "ingestBufferSize", ingestBufferSize);
+        int newConsumers = Tools.getIntegerProperty(properties,
+                "ingestConsumers", ingestConsumers);
+
+        String newIngestOverload = Tools.get(properties, "ingestOverload");
+        configureOverload(newIngestOverload == null ? DEFAULT_INGEST_OVERLOAD
+                : newIngestOverload);
+
+        configureIngest(newAsyncIngest, newStripes, newBufferSize,
+                newConsumers);
+
+        Boolean liveGraphPropertyEnabled = Tools.isPropertyEnabled(properties,
+                "liveGraph");
+        configureLiveGraph(liveGraphPropertyEnabled == null ? liveGraphEnabled
+                : liveGraphPropertyEnabled,
+                Tools.getIntegerProperty(properties, "liveGraphMaxNodes",
+                        liveGraphMaxNodes),
+                Tools.getIntegerProperty(properties, "liveGraphWindow",
+                        liveGraphWindow));
+    }
+
+    /**
+     * Switch between synchronous (monitor-based) and asynchronous (ring
+     * buffer) ingestion.
+     *
+     * Records already queued are drained before the old pipeline is released.
+     *
+     * @param async      use asynchronous ingestion
+     * @param stripes    number of ring buffers
+     * @param bufferSize capacity of each ring buffer
+     * @param consumers  number of consumer threads
+     */
+    void configureIngest(boolean async, int stripes, int bufferSize,
+            int consumers) {
+        synchronized (ingestLock) {
+            boolean changed = async != (pipeline != null)
+                    || stripes != ingestStripes
+                    || bufferSize != ingestBufferSize
+                    || consumers != ingestConsumers;
+            asyncIngest = async;
+            ingestStripes = stripes;
+            ingestBufferSize = bufferSize;
+            ingestConsumers = consumers;
+            if (!changed) {
+                return;
+            }
+
+            ProvIngestPipeline oldPipeline = pipeline;
+            if (async) {
+                ProvIngestPipeline newPipeline = new ProvIngestPipeline(
+                        stripes, bufferSize, consumers, this::process);
+                newPipeline.setOverload(overload);
+                newPipeline.start();
+                pipeline = newPipeline;
+            } else {
+                pipeline = null;
+            }
+            if (oldPipeline != null) {
+                oldPipeline.stop();
+            }
+            log.info("Configured. Asynchronous ingestion is {}",
+                    async ? "enabled" : "disabled");
+        }
+    }
+
+    /**
+     * Enable, disable or resize the live provenance graph. Resizing keeps the
+     * graph; disabling discards it.
+     *
+     * @param enabled  maintain a live graph
+     * @param maxNodes maximum number of nodes
+     * @param window   seconds after its last use that a node is evicted
+     */
+    void configureLiveGraph(boolean enabled, int maxNodes, int window) {
+        synchronized (ingestLock) {
+            if (maxNodes < 1) {
+                log.warn("Invalid live graph size {}; keeping {}", maxNodes,
+                        liveGraphMaxNodes);
+                maxNodes = liveGraphMaxNodes;
+            }
+            liveGraphEnabled = enabled;
+            liveGraphMaxNodes = maxNodes;
+            liveGraphWindow = window;
+
+            ProvLiveGraph oldGraph = liveGraph;
+            if (enabled && oldGraph != null) {
+                oldGraph.setBounds(maxNodes, TimeUnit.SECONDS.toMillis(window));
+                return;
+            }
+            if (enabled) {
+                ProvLiveGraph newGraph = new ProvLiveGraph(maxNodes,
+                        TimeUnit.SECONDS.toMillis(window),
+                        ProvLiveGraph.DEFAULT_QUEUE_SIZE);
+                newGraph.start();
+                liveGraph = newGraph;
+            } else if (oldGraph != null) {
+                liveGraph = null;
+                oldGraph.stop();
+            }
+        }
+    }
+
+    @Override
+    public ProvLiveGraph getLiveGraph() {
+        return liveGraph;
+    }
+
+    /**
+     * Replace the sampling and rate-limit policy; a malformed policy is
+     * rejected and the current one is kept.
+     *
+     * @param rules policy text
+     */
+    void configurePolicy(String rules) {
+        if (rules.equals(policy.getRules())) {
+            return;
+        }
+        try {
+            ProvPolicy newPolicy = ProvPolicy.parse(rules, classTable);
+            log.info("Replacing policy; previous policy {}", policy);
+            policy = newPolicy;
+            policyRules = rules;
+            log.info("Configured. Policy is \"{}\"", rules);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed policy \"{}\": {}", rules,
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Switch to a named id generator (see ProvIdGenerators), tagging ids with
+     * this cluster node (see nodeNumber()). Ids already assigned are kept; an
+     * unknown generator leaves the current generator in place.
+     *
+     * @param name generator name
+     */
+    void configureIdGenerator(String name) {
+        int node = nodeNumber();
+        String config = name + "," + node;
+        if (config.equals(idGeneratorConfig)) {
+            return;
+        }
+        try {
+            useIdGenerator(ProvIdGenerators.forName(name, node));
+            idGeneratorName = name;
+            idGeneratorConfig = config;
+            log.info("Configured. Ids are generated by {} for node {} ({})",
+                    idGenerator, clusterService.getLocalNode().id(), node);
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring unknown id generator \"{}\"", name);
+        }
+    }
+
+    /**
+     * Number with which this cluster node tags the ids it generates: its index
+     * among the ids of all cluster nodes, sorted, which differs on every node
+     * of a cluster of at most ProvIdGenerators.MAX_NODES nodes. Otherwise
+     * (e.g., if this node is not a member), it is a hash of the node's id, and
+     * nodes whose hashes collide are logged, since they would generate the
+     * same ids and be mistaken for each other when their logs are merged.
+     *
+     * @return node number
+     */
+    int nodeNumber() {
+        String local = clusterService.getLocalNode().id().toString();
+        List<String> members = new ArrayList<>();
+        for (ControllerNode node : clusterService.getNodes()) {
+            members.add(node.id().toString());
+        }
+        Collections.sort(members);
+        int index = members.indexOf(local);
+        if (index >= 0 && members.size() <= ProvIdGenerators.MAX_NODES) {
+            return index;
+        }
+        int node = local.hashCode();
+        for (String member : members) {
+            if (!member.equals(local)
+                    && ProvIdGenerators.sameNode(node, member.hashCode())) {
+                log.warn(
+                        "Cluster nodes {} and {} have the same node number; their ids may collide",
+                        local, member);
+            }
+        }
+        return node;
+    }
+
+    /**
+     * Replace the generator of entity and activity ids, e.g., with one that
+     * is not configurable by name.
+     *
+     * @param generator
+     */
+    @Override
+    public void setIdGenerator(ProvIdGenerator generator) {
+        useIdGenerator(generator);
+        idGeneratorConfig = null;
+        log.info("Configured. Ids are generated by {}", generator);
+    }
+
+    private void useIdGenerator(ProvIdGenerator generator) {
+        idPrefix = ProvIdGenerators.isClusterUnique(generator)
+                ? ProvIdGenerators.CLUSTER_PREFIX : sessionPrefix;
+        idGenerator = generator;
+    }
+
+    /**
+     * Current id generator.
+     *
+     * @return generator
+     */
+    ProvIdGenerator idGenerator() {
+        return idGenerator;
+    }
+
+    /**
+     * Hybrid logical clock of this node.
+     *
+     * @return clock
+     */
+    ProvHybridClock clock() {
+        return clock;
+    }
+
+    /**
+     * Sampling and rate-limit policy.
+     *
+     * @return policy
+     */
+    ProvPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * (Re)open the binary provenance log if its configuration changed.
+     *
+     * Without a configured directory, the log goes under the Karaf data
+     * directory; outside of Karaf (e.g., in unit tests), provenance is written
+     * to the debug log instead. Each cluster node writes its own log, in a
+     * subdirectory named after the node and tagged with its id, so that nodes
+     * may share a log directory and picosdn-analysis can merge their logs.
+     */
+    private void configureLog() {
+        synchronized (ingestLock) {
+            String node = clusterService.getLocalNode().id().toString();
+            Path directory = null;
+            if (!logDirectory.isEmpty()) {
+                directory = Paths.get(logDirectory, node);
+            } else if (System.getProperty("karaf.data") != null) {
+                directory = Paths.get(System.getProperty("karaf.data"),
+                        "provsdn", node);
+            }
+            ProvLogWriter.Format format = "json".equalsIgnoreCase(logFormat)
+                    ? ProvLogWriter.Format.JSON : ProvLogWriter.Format.BINARY;
+            String config = directory == null ? null
+                    : directory + "," + format + "," + logSegmentSize + ","
+                            + logRetainSegments + "," + logFsyncInterval;
+            if (Objects.equals(config, logWriterConfig)) {
+                return;
+            }
+
+            ProvLogWriter newWriter = null;
+            if (directory != null) {
+                newWriter = new ProvLogWriter(directory,
+                        logSegmentSize << 20, logRetainSegments,
+                        logFsyncInterval, format, node);
+                try {
+                    newWriter.open();
+                } catch (IOException e) {
+                    log.error("Unable to open provenance log in {}; writing "
+                            + "provenance to the debug log", directory, e);
+                    newWriter = null;
+                    config = null;
+                }
+            }
+            ProvLogWriter oldWriter = logWriter;
+            logWriter = newWriter;
+            logWriterConfig = config;
+            if (oldWriter != null) {
+                oldWriter.close();
+            }
+            log.info("Configured. Provenance is written to {}",
+                    newWriter == null ? "the debug log" : directory);
+        }
+    }
+
+    private void closeLog() {
+        synchronized (ingestLock) {
+            ProvLogWriter oldWriter = logWriter;
+            logWriter = null;
+            logWriterConfig = null;
+            if (oldWriter != null) {
+                oldWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Binary provenance log, if open.
+     *
+     * @return writer or null
+     */
+    ProvLogWriter logWriter() {
+        return logWriter;
+    }
+
+    /**
+     * Set the behavior of the ingestion pipeline when a ring buffer is full;
+     * an unknown policy leaves the current policy in place.
+     *
+     * @param name overload policy name, e.g., "drop-oldest"
+     */
+    void configureOverload(String name) {
+        synchronized (ingestLock) {
+            try {
+                overload = ProvIngestPipeline.Overload.parse(name);
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid ingestion overload policy {}; keeping {}",
+                        name, overload);
+                return;
+            }
+            ingestOverload = name;
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.setOverload(overload);
+            }
+            log.info("Configured. Ingestion overload policy is {}", overload);
+        }
+    }
+
+    /**
+     * Metrics, if a MetricsService is available.
+     *
+     * @return metrics or null
+     */
+    ProvMetrics metrics() {
+        return metrics;
+    }
+
+    private void hookDone(long start) {
+        ProvMetrics m = metrics;
+        if (m != null) {
+            m.hookDone(start);
+        }
+    }
+
+    /**
+     * Asynchronous ingestion pipeline, if enabled.
+     *
+     * @return pipeline or null
+     */
+    ProvIngestPipeline ingestPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Build W3C PROV objects for a record taken off the ingestion pipeline.
+     *
+     * @param record
+     */
+    private void process(ProvRecord record) {
+        switch (record.getKind()) {
+        case DISPATCH:
+            processDispatch(record.getActivity());
+            break;
+        case LISTEN:
+            processListen(record.getActivity(), record.getListener(),
+                    record.getW3CActivity());
+            break;
+        case API_CALL:
+            processApiCall(record.getApiCallType(), record.getEntity(),
+                    record.getOtherEntity(), record.getContext(),
+                    record.getLocation());
+            break;
+        case API_CALLS:
+            processApiCalls(record.getApiCallType(), record.getEntities(),
+                    record.getContext(), record.getLocation());
+            break;
+        case DERIVATION:
+            processDerivation(record.getEntity(), record.getOtherEntity());
+            break;
+        default:
+            break;
+        }
+    }
+
     /**
      * Record an activity being dispatched.
      *
@@ -104,7 +787,29 @@ public class ProvManager implements ProvService {
      * @param activity
      */
     @Override
-    synchronized public void recordDispatch(ProvActivity activity) {
+    public void recordDispatch(ProvActivity activity) {
+        long start = System.nanoTime();
+        try {
+            /*
+             * initialize on the calling thread, so that recordListen() sees
+             * whether the activity was dispatched before the record is
+             * processed
+             */
+            if (activity != null) {
+                activity.setActivityId(idGenerator.nextId());
+            }
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.submit(ProvRecord.dispatch(activity));
+            } else {
+                processDispatch(activity);
+            }
+        } finally {
+            hookDone(start);
+        }
+    }
+
+    synchronized private void processDispatch(ProvActivity activity) {
 
         /* skip if we don't have this information already */
         if (activity == null) {
@@ -112,9 +817,6 @@ public class ProvManager implements ProvService {
             return;
         }
 
-        /* initialize */
-        activity.setActivityUuid(UUID.randomUUID());
-
         if (activity instanceof Event) {
             Event event = (Event) activity;
 
@@ -135,7 +837,7 @@ public class ProvManager implements ProvService {
                     W3CProvRelation wasRevisionOf = new W3CProvRelation(
                             w3cEntityNewHost, w3cEntityOldHost,
                             W3CProvRelationType.WAS_REVISION_OF);
-                    writeOut(wasRevisionOf.toJson());
+                    writeOut(wasRevisionOf);
                 }
             }
 
@@ -151,15 +853,14 @@ public class ProvManager implements ProvService {
                 InboundPacket inPacket = context.inPacket();
 
                 Long cookie = inPacket.cookie().get();
-                if (cookieToFlowRule.containsKey(cookie)) {
+                W3CProvEntity w3cEntityFlowRule = cookieToFlowRule.get(cookie);
+                if (w3cEntityFlowRule != null) {
                     W3CProvEntity w3cEntityPacket = getOrInitializeEntity(
                             inPacket);
-                    W3CProvEntity w3cEntityFlowRule = cookieToFlowRule
-                            .get(cookie);
                     W3CProvRelation wasDerivedFrom = new W3CProvRelation(
                             w3cEntityPacket, w3cEntityFlowRule,
                             W3CProvRelationType.WAS_DERIVED_FROM);
-                    writeOut(wasDerivedFrom.toJson());
+                    writeOut(wasDerivedFrom);
                 }
 
             }
@@ -180,39 +881,69 @@ public class ProvManager implements ProvService {
      * @param listener
      */
     @Override
-    synchronized public void recordListen(ProvActivity activity,
-            Class listener) {
+    public void recordListen(ProvActivity activity, Class listener) {
+        long start = System.nanoTime();
+        try {
+            /* skip if we don't have this information already */
+            if (activity == null || listener == null) {
+                log.warn(
+                        "recordListen: Activity or listener is null; skipping.");
+                ProvContext.clear();
+                return;
+            }
 
-        /* skip if we don't have this information already */
-        if (activity == null || listener == null) {
-            log.warn("recordListen: Activity or listener is null; skipping.");
-            return;
-        } else if (activity.getActivityUuid() == null) {
-            log.warn("recordListen: Activity has no UUID; skipping.");
-            return;
-        }
+            /*
+             * skip if the activity was never dispatched: nothing is written
+             * for it, so API calls must not be attributed to it either
+             */
+            if (activity.getActivityId() == ProvIdGenerator.NO_ID) {
+                log.warn("recordListen: Activity has no id; skipping.");
+                ProvContext.clear();
+                return;
+            }
 
-        /*
-         * stats-related events are numerous and may not always affect the
-         * control plane, so skip these as needed
-         */
-        if (IGNORE_STATS && isStatsRelated(activity, listener)) {
-            return;
-        }
+            /* our own bookkeeping listeners are not part of control plane */
+            if (listener.getName().startsWith(OWN_LISTENER_PREFIX)) {
+                ProvContext.clear();
+                return;
+            }
 
-        /*
-         * resource-related events are numerous and not particularly
-         * descriptive, so skip these as needed
-         */
-        if (IGNORE_RESOURCES && isResourceRelated(activity, listener)) {
-            return;
+            /*
+             * apply the sampling and rate-limit policy (by default, skip
+             * numerous stats-related and resource-related events)
+             */
+            if (!policy.admit(activity, listener)) {
+                ProvContext.clear();
+                return;
+            }
+
+            /*
+             * create W3CProvActivity for this listener invocation (done once)
+             * and make it the calling thread's activity context, so that API
+             * calls made by the listener are attributed to it without stack
+             * walking
+             */
+            W3CProvActivity w3cActivity = new W3CProvActivity(
+                    idPrefix, idGenerator.nextId(),
+                    classTable.idOf(listener), activity, listener.getName());
+            ProvContext.set(w3cActivity);
+
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.submit(ProvRecord.listen(activity, listener, w3cActivity));
+            } else {
+                processListen(activity, listener, w3cActivity);
+            }
+        } finally {
+            hookDone(start);
         }
+    }
+
+    synchronized private void processListen(ProvActivity activity,
+            Class listener, W3CProvActivity w3cActivity) {
 
-        /* create W3CProvActivity for this listener invocation (done once) */
-        W3CProvActivity w3cActivity = new W3CProvActivity(UUID.randomUUID(),
-                activity, listener.getName(), "");
-        writeOut(w3cActivity.toJson());
-        updateActiveListener(listener, w3cActivity);
+        writeOut(w3cActivity);
+        updateActiveListener(w3cActivity);
 
         /* W3CProvActivity 'used' the entity related to that dispatch */
         if (activity instanceof Event) {
@@ -223,7 +954,7 @@ public class ProvManager implements ProvService {
                 W3CProvEntity w3cEntity = getOrInitializeEntity(entity);
                 W3CProvRelation used = new W3CProvRelation(w3cActivity,
                         w3cEntity, W3CProvRelationType.USED);
-                writeOut(used.toJson());
+                writeOut(used);
             }
         } else if (activity instanceof PacketContext) {
             PacketContext context = (PacketContext) activity;
@@ -233,7 +964,7 @@ public class ProvManager implements ProvService {
                 W3CProvEntity w3cEntity = getOrInitializeEntity(entity);
                 W3CProvRelation used = new W3CProvRelation(w3cActivity,
                         w3cEntity, W3CProvRelationType.USED);
-                writeOut(used.toJson());
+                writeOut(used);
             }
         }
 
@@ -242,31 +973,45 @@ public class ProvManager implements ProvService {
     /**
      * Record an API call.
      *
-     * Based on the call stack, we can infer which listener this belonged to so
-     * that we can build the provenance graph appropriately.
+     * The API call is attributed to the activity context of the calling
+     * thread, as set by recordListen(). If there is no activity context and a
+     * call stack was captured (stack walking fallback), we infer which
+     * listener this belonged to from the call stack instead, so that we can
+     * build the provenance graph appropriately.
      *
      * @param type              API call type
      * @param entity            entity related to this API call (can be null)
      * @param afterUpdateEntity (optional) updated entity related to this API
      *                          call, otherwise null
-     * @param location          call stack
+     * @param context           activity context (see ProvContext), or null
+     * @param location          call stack, or null
      */
     @Override
     public void recordApiCall(ProvApiCallType type, ProvEntity entity,
-            ProvEntity afterUpdateEntity, Throwable location) {
-
-        /*
-         * find the most recent listener in the call stack and if it has an
-         * associated W3CProvActivity, link it accordingly
-         */
-        StackTraceElement[] stackTrace = location.getStackTrace();
-        W3CProvActivity w3cActivity = null;
-        for (StackTraceElement element : stackTrace) {
-            if (activeListeners.containsKey(element.getClassName())) {
-                w3cActivity = activeListeners.get(element.getClassName());
-                break;
+            ProvEntity afterUpdateEntity, Object context, Throwable location) {
+        long start = System.nanoTime();
+        try {
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.submit(ProvRecord.apiCall(type, entity, afterUpdateEntity,
+                        context, location));
+            } else {
+                processApiCall(type, entity, afterUpdateEntity, context,
+                        location);
             }
+        } finally {
+            hookDone(start);
+        }
+    }
+
+    private void processApiCall(ProvApiCallType type, ProvEntity entity,
+            ProvEntity afterUpdateEntity, Object context, Throwable location) {
 
+        W3CProvActivity w3cActivity = null;
+        if (context instanceof W3CProvActivity) {
+            w3cActivity = (W3CProvActivity) context;
+        } else if (location != null) {
+            w3cActivity = findActiveListener(location);
         }
 
         /*
@@ -296,6 +1041,140 @@ public class ProvManager implements ProvService {
 
     }
 
+    /**
+     * Record one API call over a collection of entities, e.g., a read that
+     * returns all flow rules of a device.
+     *
+     * A read is recorded as a single USED relation to a collection entity
+     * whose members are written out once, as one membership record, rather
+     * than as one USED relation per member. Repeated reads of the same set of
+     * members reuse the same collection entity. Other API call types are
+     * recorded per entity, as by recordApiCall().
+     *
+     * @param type     API call type
+     * @param entities entities returned by or passed to this API call
+     * @param context  activity context (see ProvContext), or null
+     * @param location call stack, or null
+     */
+    @Override
+    public void recordApiCalls(ProvApiCallType type,
+            Iterable<? extends ProvEntity> entities, Object context,
+            Throwable location) {
+        long start = System.nanoTime();
+        try {
+            if (entities == null) {
+                return;
+            }
+            /* snapshot now, since the collection may change after we return */
+            List<ProvEntity> snapshot = new ArrayList<>();
+            for (ProvEntity entity : entities) {
+                if (entity != null) {
+                    snapshot.add(entity);
+                }
+            }
+            if (snapshot.isEmpty()) {
+                return;
+            }
+            ProvEntity[] array = snapshot
+                    .toArray(new ProvEntity[snapshot.size()]);
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.submit(ProvRecord.apiCalls(type, array, context, location));
+            } else {
+                processApiCalls(type, array, context, location);
+            }
+        } finally {
+            hookDone(start);
+        }
+    }
+
+    private void processApiCalls(ProvApiCallType type, ProvEntity[] entities,
+            Object context, Throwable location) {
+
+        W3CProvActivity w3cActivity = null;
+        if (context instanceof W3CProvActivity) {
+            w3cActivity = (W3CProvActivity) context;
+        } else if (location != null) {
+            w3cActivity = findActiveListener(location);
+        }
+
+        synchronized (this) {
+
+            switch (type) {
+            case READ:
+                handleBulkRead(entities, w3cActivity);
+                break;
+            case CREATE:
+                for (ProvEntity entity : entities) {
+                    handleCreate(entity, w3cActivity);
+                }
+                break;
+            case UPDATE:
+                /*
+                 * bulk updates carry no updated entities, so like
+                 * handleUpdate() treat them as deletions, warning once per
+                 * batch rather than once per entity
+                 */
+                if (entities.length > 0) {
+                    log.warn(
+                            "recordApiCalls(UPDATE): Updated entities are unknown; treating {} entities as deleted.",
+                            entities.length);
+                }
+                for (ProvEntity entity : entities) {
+                    if (entity != null) {
+                        handleDelete(entity, w3cActivity);
+                    }
+                }
+                break;
+            case DELETE:
+                for (ProvEntity entity : entities) {
+                    handleDelete(entity, w3cActivity);
+                }
+                break;
+            default:
+                break;
+            }
+        }
+
+    }
+
+    /**
+     * Handle a read of a collection of entities: the activity used a
+     * collection entity that had the entities as members.
+     *
+     * @param entities
+     * @param w3cActivity
+     */
+    private void handleBulkRead(ProvEntity[] entities,
+            W3CProvActivity w3cActivity) {
+
+        W3CProvEntity[] members = new W3CProvEntity[entities.length];
+        for (int i = 0; i < entities.length; i++) {
+            members[i] = getOrInitializeEntity(entities[i]);
+        }
+        if (w3cActivity == null) {
+            log.warn(
+                    "handleBulkRead: Could not find activity related to {} ProvEntities; skipping relation.",
+                    entities.length);
+            return;
+        }
+
+        CollectionKey key = new CollectionKey(members);
+        W3CProvEntity w3cCollection = collectionIndex.get(key);
+        if (w3cCollection == null) {
+            w3cCollection = new W3CProvEntity(idPrefix,
+                    idGenerator.nextId(), null, "",
+                    "Collection{size=" + members.length + "}");
+            collectionIndex.put(key, w3cCollection);
+            writeOut(w3cCollection);
+            writeOut(new W3CProvMembership(w3cCollection, members));
+        }
+        W3CProvRelation used = new W3CProvRelation(w3cActivity, w3cCollection,
+                W3CProvRelationType.USED);
+        writeOut(used);
+
+    }
+
     /**
      * Record a derivation from an entity to another entity (WAS_DERIVED_FROM).
      *
@@ -311,13 +1190,27 @@ public class ProvManager implements ProvService {
      */
     @Override
     public void recordDerivation(ProvEntity child, ProvEntity parent) {
+        long start = System.nanoTime();
+        try {
+            ProvIngestPipeline p = pipeline;
+            if (p != null) {
+                p.submit(ProvRecord.derivation(child, parent));
+            } else {
+                processDerivation(child, parent);
+            }
+        } finally {
+            hookDone(start);
+        }
+    }
+
+    private void processDerivation(ProvEntity child, ProvEntity parent) {
 
         if (child != null && parent != null) {
             W3CProvEntity w3cEntityChild = getOrInitializeEntity(child);
             W3CProvEntity w3cEntityParent = getOrInitializeEntity(parent);
             W3CProvRelation wasDerivedFrom = new W3CProvRelation(w3cEntityChild,
                     w3cEntityParent, W3CProvRelationType.WAS_DERIVED_FROM);
-            writeOut(wasDerivedFrom.toJson());
+            writeOut(wasDerivedFrom);
         } else {
             log.warn("recordDerivation: Child or parent is null; skipping.");
         }
@@ -327,11 +1220,23 @@ public class ProvManager implements ProvService {
     /**
      * Get or initialize ProvEntity.
      *
-     * Initializes ProvEntity object's UUID if it does not already contain one.
+     * Initializes ProvEntity object's id if it does not already contain one.
      * Generates W3CProvEntity object and PROV-N serialization if this has not
      * already happened. Returns respective W3CProvEntity object.
      *
-     * Since this sets UUIDs and stores a mapping, this method should be
+     * Entities are identified by their id rather than by equality, so an
+     * entity is only looked up once it has been initialized. If the entity
+     * index has since evicted the entity, it is regenerated and written out
+     * again under the same id.
+     *
+     * An entity whose id was generated on another cluster node (i.e., a
+     * replica of an entity created there, such as a flow rule or host from a
+     * distributed store) is written out as a local entity under a new id that
+     * is an alternate of the entity on the other node. The clock moves past
+     * the time the id was generated, so that the replica is ordered after the
+     * original when the logs of both nodes are merged.
+     *
+     * Since this sets ids and stores a mapping, this method should be
      * synchronized to avoid re-initialization.
      *
      * @param entity
@@ -344,62 +1249,120 @@ public class ProvManager implements ProvService {
          * if we have ProvEntity already, then this means we don't need to
          * regenerate anything (or output it again)
          */
-        if (provEntityToW3CProvEntity.containsKey(entity)) {
-            return provEntityToW3CProvEntity.get(entity);
-        } else {
-            /* set UUID if not already set */
-            if (entity.getEntityUuid() == null) {
-                entity.setEntityUuid(UUID.randomUUID());
+        long id = entity.getEntityId();
+        if (id != ProvIdGenerator.NO_ID) {
+            W3CProvEntity w3cEntity = entityIndex.get(id);
+            if (w3cEntity != null) {
+                return w3cEntity;
             }
+        } else {
+            /* set id if not already set */
+            id = idGenerator.nextId();
+            entity.setEntityId(id);
+        }
 
+        W3CProvEntity w3cEntity;
+        if (ProvIdGenerators.isForeign(idGenerator, id)) {
+            /* replica: link to the original, which is not written out here */
+            clock.receive(ProvHybridClock
+                    .endOfMillis(ProvIdGenerators.timeOrderedMillis(id)));
+            W3CProvEntity w3cOriginal = new W3CProvEntity(idPrefix, id, null,
+                    "", "");
+            w3cEntity = new W3CProvEntity(idPrefix, idGenerator.nextId(),
+                    entity, "", mutableValueOf(entity));
+            entityIndex.put(id, w3cEntity);
+            writeOut(w3cEntity);
+            writeOut(new W3CProvRelation(w3cEntity, w3cOriginal,
+                    W3CProvRelationType.ALTERNATE_OF));
+        } else {
             /* set up W3CProvEntity object */
-            W3CProvEntity w3cEntity = new W3CProvEntity(entity.getEntityUuid(),
-                    entity, "", entity.toString());
-            provEntityToW3CProvEntity.put(entity, w3cEntity);
-            /* only time we should write out this W3CProvEntity */
-            writeOut(w3cEntity.toJson());
+            w3cEntity = new W3CProvEntity(idPrefix, id, entity, "",
+                    mutableValueOf(entity));
+            entityIndex.put(id, w3cEntity);
+            /*
+             * only time we should write out this W3CProvEntity (unless
+             * evicted)
+             */
+            writeOut(w3cEntity);
+        }
 
-            /* if flow rule, add to cookie map (used by packets later) */
-            if (entity instanceof FlowRule) {
-                FlowRule flowRule = (FlowRule) entity;
-                cookieToFlowRule.put(flowRule.id().id(), w3cEntity);
-            }
+        /* if flow rule, add to cookie map (used by packets later) */
+        if (entity instanceof FlowRule) {
+            FlowRule flowRule = (FlowRule) entity;
+            cookieToFlowRule.put(flowRule.id().id(), w3cEntity);
+        }
 
-            return w3cEntity;
+        return w3cEntity;
 
+    }
+
+    /**
+     * Value of an entity that changes in place after it is recorded (flow
+     * entries, groups and meters update their counters and state; network
+     * configurations are backed by a mutable JSON tree), captured now so that
+     * the state logged and shown in the live graph is the state at this time.
+     * Other entities are immutable, so their value is left to be rendered
+     * when they are encoded.
+     *
+     * @param entity
+     * @return value, or null to render it when encoded
+     */
+    private static String mutableValueOf(ProvEntity entity) {
+        if (entity instanceof FlowEntry || entity instanceof Group
+                || entity instanceof Meter || entity instanceof Config) {
+            return entity.toString();
         }
+        return null;
+    }
 
+    /**
+     * Entity index, for monitoring.
+     *
+     * @return entity index
+     */
+    ProvBoundedIndex<Long, W3CProvEntity> entityIndex() {
+        return entityIndex;
     }
 
     /**
-     * Determine if activity relates to resource events.
+     * Cookie index, for monitoring.
      *
-     * @param activity
-     * @param listener
-     * @return
+     * @return cookie index
      */
-    private boolean isResourceRelated(ProvActivity activity, Class listener) {
-        if (activity instanceof Event) {
-            Event event = (Event) activity;
-            if (event.type().toString().startsWith("RESOURCE")) {
-                return true;
-            }
-        }
-        return false;
+    ProvBoundedIndex<Long, W3CProvEntity> cookieIndex() {
+        return cookieToFlowRule;
     }
 
     /**
-     * Determine if activity relates to statistics.
+     * Collection index, for monitoring.
      *
-     * @param activity
-     * @param listener
-     * @return
+     * @return collection index
+     */
+    ProvBoundedIndex<CollectionKey, W3CProvEntity> collectionIndex() {
+        return collectionIndex;
+    }
+
+    /**
+     * Find the most recent listener in the call stack that has an associated
+     * W3CProvActivity (stack walking fallback for API calls made without an
+     * activity context).
+     *
+     * @param location call stack
+     * @return W3CProvActivity or null
      */
-    private boolean isStatsRelated(ProvActivity activity, Class listener) {
-        if (listener.getName().contains("Statistic")) {
-            return true;
+    private W3CProvActivity findActiveListener(Throwable location) {
+        StackTraceElement[] stackTrace = location.getStackTrace();
+        AtomicReferenceArray<W3CProvActivity> listeners = activeListeners;
+        for (StackTraceElement element : stackTrace) {
+            int listenerId = classTable.idOf(element.getClassName());
+            if (listenerId >= 0 && listenerId < listeners.length()) {
+                W3CProvActivity w3cActivity = listeners.get(listenerId);
+                if (w3cActivity != null) {
+                    return w3cActivity;
+                }
+            }
         }
-        return false;
+        return null;
     }
 
     /**
@@ -409,19 +1372,30 @@ public class ProvManager implements ProvService {
      * with the new W3CProvActivity. Thus, recordListen() sets activeListeners
      * and recordApiCall() uses activeListeners.
      *
-     * Since the listener check and listener removal steps are not atomic, this
-     * method should be synchronized.
+     * Active listeners are indexed by listener id, so replacing the previous
+     * W3CProvActivity is a single array store. Since growing the array is not
+     * atomic, this method should be synchronized.
      *
-     * @param listener
      * @param w3cActivity
      */
-    synchronized private void updateActiveListener(Class listener,
+    synchronized private void updateActiveListener(
             W3CProvActivity w3cActivity) {
-        /* remove previous W3CProvActivity reference if it exists */
-        if (activeListeners.containsKey(listener.getName())) {
-            activeListeners.remove(listener.getName());
+        int listenerId = w3cActivity.getListenerId();
+        AtomicReferenceArray<W3CProvActivity> listeners = activeListeners;
+        if (listenerId >= listeners.length()) {
+            int length = listeners.length();
+            while (length <= listenerId) {
+                length <<= 1;
+            }
+            AtomicReferenceArray<W3CProvActivity> grown = new AtomicReferenceArray<>(
+                    length);
+            for (int i = 0; i < listeners.length(); i++) {
+                grown.set(i, listeners.get(i));
+            }
+            listeners = grown;
+            activeListeners = grown;
         }
-        activeListeners.put(listener.getName(), w3cActivity);
+        listeners.set(listenerId, w3cActivity);
     }
 
     /**
@@ -508,7 +1482,7 @@ public class ProvManager implements ProvService {
             /* revision: new entity was revision of old entity */
             W3CProvRelation wasRevisionOf = new W3CProvRelation(w3cEntityNew,
                     w3cEntityOld, W3CProvRelationType.WAS_REVISION_OF);
-            writeOut(wasRevisionOf.toJson());
+            writeOut(wasRevisionOf);
 
             /*
              * if we can find a related activity, we can also add generation and
@@ -517,13 +1491,13 @@ public class ProvManager implements ProvService {
             if (w3cActivity == null) {
                 log.warn(
                         "handleUpdate: Could not find activity related to ProvEntity {}; skipping relations.",
-                        afterUpdateEntity.toString());
+                        afterUpdateEntity);
                 return;
             }
             /* generation: new entity was generated by activity */
             W3CProvRelation wasGeneratedBy = new W3CProvRelation(w3cEntityNew,
                     w3cActivity, W3CProvRelationType.WAS_GENERATED_BY);
-            writeOut(wasGeneratedBy.toJson());
+            writeOut(wasGeneratedBy);
 
         }
 
@@ -549,12 +1523,12 @@ public class ProvManager implements ProvService {
         if (w3cActivity == null) {
             log.warn(
                     "handleRead: Could not find activity related to ProvEntity {}; skipping relation.",
-                    entity.toString());
+                    entity);
             return;
         }
         W3CProvRelation used = new W3CProvRelation(w3cActivity, w3cEntity,
                 W3CProvRelationType.USED);
-        writeOut(used.toJson());
+        writeOut(used);
 
     }
 
@@ -574,23 +1548,159 @@ public class ProvManager implements ProvService {
         if (w3cActivity == null) {
             log.warn(
                     "handleCreate: Could not find activity related to ProvEntity {}; skipping relation.",
-                    entity.toString());
+                    entity);
             return;
         }
         W3CProvRelation wasGeneratedBy = new W3CProvRelation(w3cEntity,
                 w3cActivity, W3CProvRelationType.WAS_GENERATED_BY);
-        writeOut(wasGeneratedBy.toJson());
+        writeOut(wasGeneratedBy);
 
     }
 
     /**
-     * Write out provenance to output.
+     * Write out an entity to the provenance log, or to the debug log if no
+     * provenance log is open, and to the live graph if enabled.
      *
-     * @param strOut
+     * @param w3cEntity
      */
-    private void writeOut(String strOut) {
-        // FIXME: write to file; for now, write to debug
-        log.debug("{}", strOut);
+    private void writeOut(W3CProvEntity w3cEntity) {
+        w3cEntity.setHlc(clock.tick(w3cEntity.getTs()));
+        ProvLogWriter writer = logWriter;
+        if (writer != null) {
+            writer.append(w3cEntity);
+        } else {
+            log.debug("{}", w3cEntity.toJson());
+        }
+        ProvLiveGraph graph = liveGraph;
+        if (graph != null) {
+            graph.add(w3cEntity);
+        }
+    }
+
+    /**
+     * Write out an activity to the provenance log, or to the debug log if no
+     * provenance log is open, and to the live graph if enabled.
+     *
+     * @param w3cActivity
+     */
+    private void writeOut(W3CProvActivity w3cActivity) {
+        w3cActivity.setHlc(clock.tick(w3cActivity.getTs()));
+        ProvLogWriter writer = logWriter;
+        if (writer != null) {
+            writer.append(w3cActivity);
+        } else {
+            log.debug("{}", w3cActivity.toJson());
+        }
+        ProvLiveGraph graph = liveGraph;
+        if (graph != null) {
+            graph.add(w3cActivity);
+        }
+    }
+
+    /**
+     * Write out a relation to the provenance log, or to the debug log if no
+     * provenance log is open, and to the live graph if enabled.
+     *
+     * @param w3cRelation
+     */
+    private void writeOut(W3CProvRelation w3cRelation) {
+        w3cRelation.setHlc(clock.tick(w3cRelation.getTs()));
+        ProvLogWriter writer = logWriter;
+        if (writer != null) {
+            writer.append(w3cRelation);
+        } else {
+            log.debug("{}", w3cRelation.toJson());
+        }
+        ProvLiveGraph graph = liveGraph;
+        if (graph != null) {
+            graph.add(w3cRelation);
+        }
+    }
+
+    /**
+     * Write out a collection membership to the provenance log, or to the
+     * debug log if no provenance log is open, and to the live graph if
+     * enabled.
+     *
+     * @param w3cMembership
+     */
+    private void writeOut(W3CProvMembership w3cMembership) {
+        w3cMembership.setHlc(clock.tick(w3cMembership.getTs()));
+        ProvLogWriter writer = logWriter;
+        if (writer != null) {
+            writer.append(w3cMembership);
+        } else {
+            log.debug("{}", w3cMembership.toJson());
+        }
+        ProvLiveGraph graph = liveGraph;
+        if (graph != null) {
+            graph.add(w3cMembership);
+        }
+    }
+
+    /**
+     * Set of members of a collection entity. Member order does not matter:
+     * keys are hashed and first compared by two differently mixed sums of the
+     * members' UUIDs and the number of members, and only then by the sorted
+     * member UUIDs.
+     */
+    static final class CollectionKey {
+        private final long sum1;
+        private final long sum2;
+        private final int size;
+        private final UUID[] uuids;
+
+        CollectionKey(W3CProvEntity[] members) {
+            long s1 = 0;
+            long s2 = 0;
+            uuids = new UUID[members.length];
+            for (int i = 0; i < members.length; i++) {
+                UUID uuid = members[i].getUuid();
+                uuids[i] = uuid;
+                s1 += mix(uuid.getMostSignificantBits() ^ 0x9e3779b97f4a7c15L
+                        * uuid.getLeastSignificantBits());
+                s2 += mix(uuid.getLeastSignificantBits()
+                        + 0xc2b2ae3d27d4eb4fL * uuid.getMostSignificantBits());
+            }
+            this.sum1 = s1;
+            this.sum2 = s2;
+            this.size = members.length;
+            Arrays.sort(uuids);
+        }
+
+        private static long mix(long z) {
+            z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+            z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+            return z ^ (z >>> 33);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (sum1 ^ (sum1 >>> 32)) * 31 + size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CollectionKey)) {
+                return false;
+            }
+            CollectionKey other = (CollectionKey) obj;
+            return sum1 == other.sum1 && sum2 == other.sum2
+                    && size == other.size && Arrays.equals(uuids, other.uuids);
+        }
+    }
+
+    /**
+     * Drops flow rules from the cookie index once they are removed, since no
+     * further packets can be derived from them.
+     */
+    private class InternalFlowRuleListener implements FlowRuleListener {
+        @Override
+        public void event(FlowRuleEvent event) {
+            if (event.type() == FlowRuleEvent.Type.RULE_REMOVED) {
+                cookieToFlowRule.remove(event.subject().id().id());
+            }
+        }
     }
 
 }
@@ -0,0 +1,166 @@
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.onlab.metrics.MetricsComponent;
+import org.onlab.metrics.MetricsFeature;
+import org.onlab.metrics.MetricsService;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Timer;
+
+/**
+ * Provenance collection metrics exposed through the MetricsService (component
+ * "provsdn", feature "ingest"): time spent in ProvService calls on the calling
+ * thread, and the depth, drops and overload state of the ingestion pipeline.
+ *
+ * The gauges read the pipeline that is current when they are sampled, so they
+ * survive reconfiguration of the pipeline; without a pipeline they read zero.
+ *
+ * The size and eviction counts of ProvManager's bounded indexes are exposed
+ * under feature "index", one set of gauges per registered index.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvMetrics {
+
+    public static final String COMPONENT_NAME = "provsdn";
+    public static final String FEATURE_NAME = "ingest";
+    public static final String INDEX_FEATURE_NAME = "index";
+
+    public static final String HOOK_LATENCY = "HookLatency";
+    public static final String QUEUE_DEPTH = "QueueDepth";
+    public static final String DROPPED = "Dropped";
+    public static final String COUNTED_ONLY = "CountedOnly";
+    public static final String DEGRADED = "Degraded";
+    public static final String INDEX_SIZE = "Size";
+    public static final String INDEX_SIZE_EVICTIONS = "SizeEvictions";
+    public static final String INDEX_AGE_EVICTIONS = "AgeEvictions";
+
+    private static final String[] GAUGES = { QUEUE_DEPTH, DROPPED,
+            COUNTED_ONLY, DEGRADED };
+
+    private final MetricsService metricsService;
+    private final MetricsComponent component;
+    private final MetricsFeature feature;
+    private final MetricsFeature indexFeature;
+    private final Timer hookLatency = new Timer();
+    private final List<String> indexGauges = new ArrayList<>();
+
+    /**
+     * Register the metrics.
+     *
+     * @param metricsService
+     * @param pipeline       supplies the current ingestion pipeline, or null
+     */
+    public ProvMetrics(MetricsService metricsService,
+            final Supplier<ProvIngestPipeline> pipeline) {
+        this.metricsService = metricsService;
+        this.component = metricsService.registerComponent(COMPONENT_NAME);
+        this.feature = component.registerFeature(FEATURE_NAME);
+        this.indexFeature = component.registerFeature(INDEX_FEATURE_NAME);
+
+        metricsService.registerMetric(component, feature, HOOK_LATENCY,
+                hookLatency);
+        metricsService.registerMetric(component, feature, QUEUE_DEPTH,
+                new Gauge<Integer>() {
+                    @Override
+                    public Integer getValue() {
+                        ProvIngestPipeline p = pipeline.get();
+                        return p == null ? 0 : p.depth();
+                    }
+                });
+        metricsService.registerMetric(component, feature, DROPPED,
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        ProvIngestPipeline p = pipeline.get();
+                        return p == null ? 0L : p.droppedCount();
+                    }
+                });
+        metricsService.registerMetric(component, feature, COUNTED_ONLY,
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        ProvIngestPipeline p = pipeline.get();
+                        return p == null ? 0L : p.countedOnlyCount();
+                    }
+                });
+        metricsService.registerMetric(component, feature, DEGRADED,
+                new Gauge<Boolean>() {
+                    @Override
+                    public Boolean getValue() {
+                        ProvIngestPipeline p = pipeline.get();
+                        return p != null && p.isDegraded();
+                    }
+                });
+    }
+
+    /**
+     * Register the size and eviction counts of a bounded index, as gauges
+     * named after the index (e.g., "EntityIndexSizeEvictions").
+     *
+     * @param name  index name
+     * @param index
+     */
+    public synchronized void registerIndex(String name,
+            final ProvBoundedIndex<?, ?> index) {
+        registerIndexGauge(name + INDEX_SIZE, new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return index.size();
+            }
+        });
+        registerIndexGauge(name + INDEX_SIZE_EVICTIONS, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return index.sizeEvictions();
+            }
+        });
+        registerIndexGauge(name + INDEX_AGE_EVICTIONS, new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return index.ageEvictions();
+            }
+        });
+    }
+
+    private void registerIndexGauge(String name, Gauge<?> gauge) {
+        metricsService.registerMetric(component, indexFeature, name, gauge);
+        indexGauges.add(name);
+    }
+
+    /**
+     * Record the time spent in a ProvService call.
+     *
+     * @param startNanos System.nanoTime() when the call started
+     */
+    public void hookDone(long startNanos) {
+        hookLatency.update(System.nanoTime() - startNanos,
+                TimeUnit.NANOSECONDS);
+    }
+
+    public Timer hookLatency() {
+        return hookLatency;
+    }
+
+    /**
+     * Remove the metrics.
+     */
+    public synchronized void remove() {
+        metricsService.removeMetric(component, feature, HOOK_LATENCY);
+        for (String gauge : GAUGES) {
+            metricsService.removeMetric(component, feature, gauge);
+        }
+        for (String gauge : indexGauges) {
+            metricsService.removeMetric(component, indexFeature, gauge);
+        }
+        indexGauges.clear();
+    }
+
+}
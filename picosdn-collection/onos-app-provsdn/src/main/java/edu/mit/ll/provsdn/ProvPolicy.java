@@ -0,0 +1,417 @@
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+import org.onlab.packet.Ethernet;
+import org.onosproject.event.Event;
+import org.onosproject.net.ConnectPoint;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.flow.FlowRule;
+import org.onosproject.net.packet.InboundPacket;
+import org.onosproject.net.packet.PacketContext;
+import org.onosproject.security.ProvActivity;
+
+/**
+ * Sampling and rate-limit policy for provenance collection.
+ *
+ * A policy is an ordered list of rules separated by semicolons; the first rule
+ * that matches an activity/listener invocation decides whether it is
+ * collected, and invocations that match no rule are collected. Each rule is an
+ * action followed by zero or more matchers, e.g.:
+ *
+ * <pre>
+ * drop listener=*Statistic*;
+ * drop event=org.onosproject.net.resource.ResourceEvent;
+ * limit:100 app=org.onosproject.fwd ethType=0x0800;
+ * sample:0.01 device=of:0000000000000001
+ * </pre>
+ *
+ * Actions are keep, drop, sample:&lt;fraction&gt; and limit:&lt;per
+ * second&gt;. Matchers are event (event or packet context class), listener
+ * (listener class), app (listener package prefix), device and ethType (of a
+ * packet); values may use * as a wildcard. Rate limits use one token bucket
+ * per rule and event class.
+ *
+ * Class matchers are resolved once per (event class, listener class) pair.
+ * Pairs are indexed by the classes' ids in a ProvClassTable, so the hot path
+ * is two array lookups, followed by instance matchers (device, ethType) only
+ * for pairs that have rules using them.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public final class ProvPolicy {
+
+    private static final int INITIAL_IDS = 64;
+
+    public static final String DEFAULT_RULES = "drop listener=*Statistic*;"
+            + "drop event=org.onosproject.net.resource.ResourceEvent";
+
+    private final String rules;
+    private final List<Rule> ruleList;
+    private final ProvClassTable classes;
+    /* candidate rules indexed by listener id, then by event class id */
+    private volatile AtomicReferenceArray<AtomicReferenceArray<Rule[]>> decisions = new AtomicReferenceArray<>(
+            INITIAL_IDS);
+    private final AtomicInteger pairs = new AtomicInteger();
+
+    private final LongAdder kept = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder sampledOut = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+
+    private ProvPolicy(String rules, List<Rule> ruleList,
+            ProvClassTable classes) {
+        this.rules = rules;
+        this.ruleList = ruleList;
+        this.classes = classes;
+    }
+
+    /**
+     * Parse a policy.
+     *
+     * @param rules policy text; null or empty collects everything
+     * @return policy
+     * @throws IllegalArgumentException if the policy is malformed
+     */
+    public static ProvPolicy parse(String rules) {
+        return parse(rules, new ProvClassTable());
+    }
+
+    /**
+     * Parse a policy that identifies classes by their ids in a shared table.
+     *
+     * @param rules   policy text; null or empty collects everything
+     * @param classes class id table
+     * @return policy
+     * @throws IllegalArgumentException if the policy is malformed
+     */
+    public static ProvPolicy parse(String rules, ProvClassTable classes) {
+        List<Rule> ruleList = new ArrayList<>();
+        if (rules != null) {
+            for (String text : rules.split(";")) {
+                if (!text.trim().isEmpty()) {
+                    ruleList.add(Rule.parse(text.trim()));
+                }
+            }
+        }
+        return new ProvPolicy(rules == null ? "" : rules,
+                Collections.unmodifiableList(ruleList), classes);
+    }
+
+    /**
+     * Decide whether to collect provenance for a listener invocation.
+     *
+     * @param activity
+     * @param listener
+     * @return true to collect
+     */
+    public boolean admit(ProvActivity activity, Class listener) {
+        Class eventClass = activity.getClass();
+        int listenerId = classes.idOf(listener);
+        int eventId = classes.idOf(eventClass);
+        Rule[] candidates = null;
+        AtomicReferenceArray<AtomicReferenceArray<Rule[]>> rows = decisions;
+        if (listenerId < rows.length()) {
+            AtomicReferenceArray<Rule[]> row = rows.get(listenerId);
+            if (row != null && eventId < row.length()) {
+                candidates = row.get(eventId);
+            }
+        }
+        if (candidates == null) {
+            candidates = resolve(eventClass, eventId, listener, listenerId);
+        }
+        for (Rule rule : candidates) {
+            if (rule.matchesInstance(activity)) {
+                return apply(rule, activity.getClass());
+            }
+        }
+        kept.increment();
+        return true;
+    }
+
+    private boolean apply(Rule rule, Class eventClass) {
+        switch (rule.action) {
+        case DROP:
+            dropped.increment();
+            return false;
+        case SAMPLE:
+            if (ThreadLocalRandom.current().nextDouble() < rule.argument) {
+                kept.increment();
+                return true;
+            }
+            sampledOut.increment();
+            return false;
+        case LIMIT:
+            if (rule.bucket(eventClass).tryAcquire()) {
+                kept.increment();
+                return true;
+            }
+            rateLimited.increment();
+            return false;
+        case KEEP:
+        default:
+            kept.increment();
+            return true;
+        }
+    }
+
+    /**
+     * Rules that may apply to a pair, i.e., whose class matchers match. Rules
+     * after the first rule without instance matchers can never be reached.
+     * The result is stored for later lookups, growing the table if needed.
+     *
+     * @param eventClass
+     * @param eventId
+     * @param listener
+     * @param listenerId
+     * @return candidate rules in order
+     */
+    private synchronized Rule[] resolve(Class eventClass, int eventId,
+            Class listener, int listenerId) {
+        AtomicReferenceArray<AtomicReferenceArray<Rule[]>> rows = decisions;
+        if (listenerId >= rows.length()) {
+            rows = grow(rows, listenerId);
+            decisions = rows;
+        }
+        AtomicReferenceArray<Rule[]> row = rows.get(listenerId);
+        if (row == null || eventId >= row.length()) {
+            row = row == null ? new AtomicReferenceArray<>(
+                    Math.max(INITIAL_IDS, eventId + 1)) : grow(row, eventId);
+            rows.set(listenerId, row);
+        }
+        Rule[] resolved = row.get(eventId);
+        if (resolved != null) {
+            return resolved;
+        }
+
+        List<Rule> candidates = new ArrayList<>();
+        for (Rule rule : ruleList) {
+            if (rule.matchesClasses(eventClass, listener)) {
+                candidates.add(rule);
+                if (!rule.hasInstanceMatchers()) {
+                    break;
+                }
+            }
+        }
+        resolved = candidates.toArray(new Rule[candidates.size()]);
+        row.set(eventId, resolved);
+        pairs.incrementAndGet();
+        return resolved;
+    }
+
+    private static <T> AtomicReferenceArray<T> grow(
+            AtomicReferenceArray<T> array, int index) {
+        int length = array.length();
+        while (length <= index) {
+            length <<= 1;
+        }
+        AtomicReferenceArray<T> grown = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < array.length(); i++) {
+            grown.set(i, array.get(i));
+        }
+        return grown;
+    }
+
+    public String getRules() {
+        return rules;
+    }
+
+    public long keptCount() {
+        return kept.sum();
+    }
+
+    public long droppedCount() {
+        return dropped.sum() + sampledOut.sum() + rateLimited.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "kept=" + kept.sum() + ", dropped=" + dropped.sum()
+                + ", sampledOut=" + sampledOut.sum() + ", rateLimited="
+                + rateLimited.sum() + ", pairs=" + pairs.get();
+    }
+
+    private enum Action {
+        KEEP, DROP, SAMPLE, LIMIT
+    }
+
+    /**
+     * One policy rule.
+     */
+    private static final class Rule {
+        private final Action action;
+        private final double argument;
+        private Pattern event;
+        private Pattern listener;
+        private String app;
+        private Pattern device;
+        private Short ethType;
+        private final Map<Class, ProvTokenBucket> buckets = new ConcurrentHashMap<>();
+
+        private Rule(Action action, double argument) {
+            this.action = action;
+            this.argument = argument;
+        }
+
+        private static Rule parse(String text) {
+            String[] tokens = text.split("\\s+");
+            Rule rule = new Rule(parseAction(tokens[0]),
+                    parseArgument(tokens[0]));
+            for (int i = 1; i < tokens.length; i++) {
+                int eq = tokens[i].indexOf('=');
+                if (eq <= 0) {
+                    throw new IllegalArgumentException(
+                            "Malformed matcher in rule: " + text);
+                }
+                String key = tokens[i].substring(0, eq);
+                String value = tokens[i].substring(eq + 1);
+                switch (key) {
+                case "event":
+                    rule.event = glob(value);
+                    break;
+                case "listener":
+                    rule.listener = glob(value);
+                    break;
+                case "app":
+                    rule.app = value;
+                    break;
+                case "device":
+                    rule.device = glob(value);
+                    break;
+                case "ethType":
+                    rule.ethType = Integer.decode(value).shortValue();
+                    break;
+                default:
+                    throw new IllegalArgumentException(
+                            "Unknown matcher " + key + " in rule: " + text);
+                }
+            }
+            return rule;
+        }
+
+        private static Action parseAction(String token) {
+            String name = token.contains(":")
+                    ? token.substring(0, token.indexOf(':')) : token;
+            switch (name) {
+            case "keep":
+                return Action.KEEP;
+            case "drop":
+                return Action.DROP;
+            case "sample":
+                return Action.SAMPLE;
+            case "limit":
+                return Action.LIMIT;
+            default:
+                throw new IllegalArgumentException("Unknown action " + token);
+            }
+        }
+
+        private static double parseArgument(String token) {
+            int colon = token.indexOf(':');
+            Action action = parseAction(token);
+            if (action != Action.SAMPLE && action != Action.LIMIT) {
+                return 0;
+            }
+            if (colon < 0) {
+                throw new IllegalArgumentException(
+                        "Missing argument for " + token);
+            }
+            double argument = Double.parseDouble(token.substring(colon + 1));
+            if (argument < 0 || (action == Action.SAMPLE && argument > 1)
+                    || (action == Action.LIMIT && argument == 0)) {
+                throw new IllegalArgumentException(
+                        "Argument out of range for " + token);
+            }
+            return argument;
+        }
+
+        private static Pattern glob(String value) {
+            StringBuilder regex = new StringBuilder();
+            String[] parts = value.split("\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) {
+                    regex.append(".*");
+                }
+                regex.append(Pattern.quote(parts[i]));
+            }
+            return Pattern.compile(regex.toString());
+        }
+
+        private boolean matchesClasses(Class eventClass, Class listenerClass) {
+            return (event == null
+                    || event.matcher(eventClass.getName()).matches())
+                    && (listener == null || listener
+                            .matcher(listenerClass.getName()).matches())
+                    && (app == null
+                            || listenerClass.getName().startsWith(app + "."));
+        }
+
+        private boolean hasInstanceMatchers() {
+            return device != null || ethType != null;
+        }
+
+        private boolean matchesInstance(ProvActivity activity) {
+            if (device != null) {
+                DeviceId deviceId = deviceOf(activity);
+                if (deviceId == null
+                        || !device.matcher(deviceId.toString()).matches()) {
+                    return false;
+                }
+            }
+            if (ethType != null) {
+                Ethernet eth = packetOf(activity);
+                if (eth == null || eth.getEtherType() != ethType) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private ProvTokenBucket bucket(Class eventClass) {
+            return buckets.computeIfAbsent(eventClass,
+                    c -> new ProvTokenBucket(argument));
+        }
+    }
+
+    private static DeviceId deviceOf(ProvActivity activity) {
+        if (activity instanceof PacketContext) {
+            InboundPacket inPacket = ((PacketContext) activity).inPacket();
+            return inPacket == null || inPacket.receivedFrom() == null ? null
+                    : inPacket.receivedFrom().deviceId();
+        }
+        if (activity instanceof Event) {
+            Object subject = ((Event) activity).subject();
+            if (subject instanceof Device) {
+                return ((Device) subject).id();
+            } else if (subject instanceof DeviceId) {
+                return (DeviceId) subject;
+            } else if (subject instanceof FlowRule) {
+                return ((FlowRule) subject).deviceId();
+            } else if (subject instanceof ConnectPoint) {
+                return ((ConnectPoint) subject).deviceId();
+            }
+        }
+        return null;
+    }
+
+    private static Ethernet packetOf(ProvActivity activity) {
+        if (activity instanceof PacketContext) {
+            InboundPacket inPacket = ((PacketContext) activity).inPacket();
+            return inPacket == null ? null : inPacket.parsed();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,198 @@
+package edu.mit.ll.provsdn;
+
+import org.onosproject.security.ProvActivity;
+import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvEntity;
+
+/**
+ * Immutable record of a single ProvService call.
+ *
+ * In asynchronous ingestion mode, ProvService calls only capture their
+ * arguments into a ProvRecord and append it to the ingestion pipeline; the
+ * W3C PROV entities, activities, and relations are built later by a consumer
+ * thread.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public final class ProvRecord {
+
+    /**
+     * Kind of ProvService call captured by a record.
+     */
+    public enum Kind {
+        DISPATCH, LISTEN, API_CALL, API_CALLS, DERIVATION
+    }
+
+    private final Kind kind;
+    private final ProvActivity activity;
+    private final Class listener;
+    private final ProvApiCallType apiCallType;
+    private final ProvEntity entity;
+    private final ProvEntity otherEntity;
+    private final ProvEntity[] entities;
+    private final Object context;
+    private final Throwable location;
+
+    private ProvRecord(Kind kind, ProvActivity activity, Class listener,
+            ProvApiCallType apiCallType, ProvEntity entity,
+            ProvEntity otherEntity, ProvEntity[] entities, Object context,
+            Throwable location) {
+        this.kind = kind;
+        this.activity = activity;
+        this.listener = listener;
+        this.apiCallType = apiCallType;
+        this.entity = entity;
+        this.otherEntity = otherEntity;
+        this.entities = entities;
+        this.context = context;
+        this.location = location;
+    }
+
+    /**
+     * Record of an activity being dispatched.
+     *
+     * @param activity
+     * @return record
+     */
+    public static ProvRecord dispatch(ProvActivity activity) {
+        return new ProvRecord(Kind.DISPATCH, activity, null, null, null, null,
+                null, null, null);
+    }
+
+    /**
+     * Record of an activity being listened to.
+     *
+     * @param activity
+     * @param listener
+     * @param w3cActivity W3CProvActivity created for this listener invocation
+     * @return record
+     */
+    public static ProvRecord listen(ProvActivity activity, Class listener,
+            W3CProvActivity w3cActivity) {
+        return new ProvRecord(Kind.LISTEN, activity, listener, null, null,
+                null, null, w3cActivity, null);
+    }
+
+    /**
+     * Record of an API call.
+     *
+     * @param type              API call type
+     * @param entity            entity related to this API call (can be null)
+     * @param afterUpdateEntity updated entity, otherwise null
+     * @param context           activity context, or null
+     * @param location          call stack, or null
+     * @return record
+     */
+    public static ProvRecord apiCall(ProvApiCallType type, ProvEntity entity,
+            ProvEntity afterUpdateEntity, Object context, Throwable location) {
+        return new ProvRecord(Kind.API_CALL, null, null, type, entity,
+                afterUpdateEntity, null, context, location);
+    }
+
+    /**
+     * Record of one API call over a collection of entities.
+     *
+     * @param type     API call type
+     * @param entities entities returned by or passed to this API call
+     * @param context  activity context, or null
+     * @param location call stack, or null
+     * @return record
+     */
+    public static ProvRecord apiCalls(ProvApiCallType type,
+            ProvEntity[] entities, Object context, Throwable location) {
+        return new ProvRecord(Kind.API_CALLS, null, null, type, null, null,
+                entities, context, location);
+    }
+
+    /**
+     * Record of a derivation from a parent entity to a child entity.
+     *
+     * @param child
+     * @param parent
+     * @return record
+     */
+    public static ProvRecord derivation(ProvEntity child, ProvEntity parent) {
+        return new ProvRecord(Kind.DERIVATION, null, null, null, child, parent,
+                null, null, null);
+    }
+
+    /**
+     * Whether this record may be shed before others under overload. Reads do
+     * not change control plane state and other records do not refer to them,
+     * so dropping one only loses a USED relation.
+     *
+     * @return true for reads
+     */
+    public boolean isLowPriority() {
+        return (kind == Kind.API_CALL || kind == Kind.API_CALLS)
+                && apiCallType == ProvApiCallType.READ;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public ProvActivity getActivity() {
+        return activity;
+    }
+
+    public Class getListener() {
+        return listener;
+    }
+
+    public ProvApiCallType getApiCallType() {
+        return apiCallType;
+    }
+
+    /**
+     * Entity of an API call, or child entity of a derivation.
+     *
+     * @return entity
+     */
+    public ProvEntity getEntity() {
+        return entity;
+    }
+
+    /**
+     * Updated entity of an API call, or parent entity of a derivation.
+     *
+     * @return entity
+     */
+    public ProvEntity getOtherEntity() {
+        return otherEntity;
+    }
+
+    /**
+     * Entities of an API call over a collection.
+     *
+     * @return entities or null
+     */
+    public ProvEntity[] getEntities() {
+        return entities;
+    }
+
+    /**
+     * Activity context of an API call.
+     *
+     * @return context or null
+     */
+    public Object getContext() {
+        return context;
+    }
+
+    /**
+     * W3CProvActivity created for a listener invocation.
+     *
+     * @return W3CProvActivity or null
+     */
+    public W3CProvActivity getW3CActivity() {
+        return kind == Kind.LISTEN ? (W3CProvActivity) context : null;
+    }
+
+    public Throwable getLocation() {
+        return location;
+    }
+
+}
@@ -0,0 +1,562 @@
+package edu.mit.ll.provsdn;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Encoder of W3C PROV objects into a reusable direct buffer.
+ *
+ * Binary records follow the payload format of ProvLogWriter: UUIDs are two
+ * longs, timestamps are longs (hybrid logical clock timestamps in the log),
+ * relation types are a byte, and names (i.e.,
+ * listener class names) are dictionary-coded. The first record that uses a
+ * name defines it inline; later records only refer to its id. Text records are
+ * single-line JSON with proper string escaping.
+ *
+ * Strings are written character by character, so encoding does not allocate
+ * once the buffer has grown to fit the largest record. The returned buffer is
+ * only valid until the next call. Instances are not thread-safe.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public final class ProvRecordEncoder {
+
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] DIGITS = "0123456789".getBytes();
+    private static final int UUID_CHARS = 36;
+    private static final int MAX_DECIMAL_CHARS = 20; // Long.MIN_VALUE
+    private static final int MAX_JSON_RELATION_SIZE = jsonRelationSizeBound();
+
+    private ByteBuffer buffer;
+    private final Map<String, Integer> names = new HashMap<>();
+
+    public ProvRecordEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ProvRecordEncoder(int initialCapacity) {
+        this.buffer = ByteBuffer.allocateDirect(initialCapacity);
+    }
+
+    /**
+     * Upper bound on the size of an encoded entity or activity record.
+     *
+     * @param name
+     * @param value
+     * @return size in bytes
+     */
+    public static int maxObjectSize(String name, String value) {
+        return 29 + maxStringSize(name) + maxStringSize(value);
+    }
+
+    /**
+     * Size of an encoded relation record.
+     *
+     * @return size in bytes
+     */
+    public static int relationSize() {
+        return 42;
+    }
+
+    /**
+     * Size of an encoded membership record.
+     *
+     * @param members number of members
+     * @return size in bytes
+     */
+    public static int membershipSize(int members) {
+        return 29 + 16 * members;
+    }
+
+    /**
+     * Upper bound on the size of an encoded node record.
+     *
+     * @param node cluster node id
+     * @return size in bytes
+     */
+    public static int maxNodeSize(String node) {
+        return 1 + maxStringSize(node);
+    }
+
+    /**
+     * Forget all dictionary-coded names, e.g., when starting a new segment, so
+     * that each segment is readable on its own.
+     */
+    public void resetDictionary() {
+        names.clear();
+    }
+
+    /**
+     * Number of dictionary-coded names.
+     *
+     * @return count
+     */
+    public int dictionarySize() {
+        return names.size();
+    }
+
+    /**
+     * Encode an entity or activity record.
+     *
+     * @param type  ProvLogWriter.TYPE_ENTITY or TYPE_ACTIVITY
+     * @param uuid
+     * @param ts
+     * @param name
+     * @param value
+     * @return buffer holding the record
+     */
+    public ByteBuffer object(byte type, UUID uuid, long ts, String name,
+            String value) {
+        reset(maxObjectSize(name, value));
+        buffer.put(type);
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+        buffer.putLong(ts);
+        Integer id = names.get(name);
+        if (id != null) {
+            buffer.putInt(id);
+        } else {
+            /* first use: negative reference followed by the definition */
+            id = names.size();
+            names.put(name, id);
+            buffer.putInt(-id - 1);
+            putString(name);
+        }
+        putString(value);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode a node record, which tags the records of a segment with the
+     * cluster node that wrote them.
+     *
+     * @param node cluster node id
+     * @return buffer holding the record
+     */
+    public ByteBuffer node(String node) {
+        reset(maxNodeSize(node));
+        buffer.put(ProvLogWriter.TYPE_NODE);
+        putString(node);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode a relation record.
+     *
+     * @param relation
+     * @return buffer holding the record
+     */
+    public ByteBuffer relation(W3CProvRelation relation) {
+        UUID from = relation.getFrom().getUuid();
+        UUID to = relation.getTo().getUuid();
+        reset(relationSize());
+        buffer.put(ProvLogWriter.TYPE_RELATION);
+        buffer.put(relation.getType().code());
+        buffer.putLong(from.getMostSignificantBits());
+        buffer.putLong(from.getLeastSignificantBits());
+        buffer.putLong(to.getMostSignificantBits());
+        buffer.putLong(to.getLeastSignificantBits());
+        buffer.putLong(relation.getHlc());
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Encode a collection membership record.
+     *
+     * @param membership
+     * @return buffer holding the record
+     */
+    public ByteBuffer membership(W3CProvMembership membership) {
+        W3CProvEntity[] members = membership.getMembers();
+        UUID collection = membership.getCollection().getUuid();
+        reset(membershipSize(members.length));
+        buffer.put(ProvLogWriter.TYPE_MEMBERSHIP);
+        buffer.putLong(collection.getMostSignificantBits());
+        buffer.putLong(collection.getLeastSignificantBits());
+        buffer.putLong(membership.getHlc());
+        buffer.putInt(members.length);
+        for (W3CProvEntity member : members) {
+            buffer.putLong(member.getUuid().getMostSignificantBits());
+            buffer.putLong(member.getUuid().getLeastSignificantBits());
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Upper bound on the size of an entity or activity JSON line.
+     *
+     * @param name
+     * @param value
+     * @return size in bytes
+     */
+    public static int maxJsonObjectSize(String name, String value) {
+        return 160 + maxJsonStringSize(name) + maxJsonStringSize(value);
+    }
+
+    /**
+     * Encode an entity or activity as a JSON line, e.g.
+     * {"w3cProvType":"entity","uuid":"...","name":"...","value":"...",
+     * "ts":"...","hlc":"..."}.
+     *
+     * @param w3cProvType "entity" or "activity"
+     * @param uuid
+     * @param ts          creation time
+     * @param hlc         hybrid logical clock timestamp
+     * @param name
+     * @param value
+     * @return buffer holding the line, including the trailing newline
+     */
+    public ByteBuffer jsonObject(String w3cProvType, UUID uuid, long ts,
+            long hlc, String name, String value) {
+        reset(maxJsonObjectSize(name, value));
+        putAscii("{\"w3cProvType\":\"");
+        putAscii(w3cProvType);
+        putAscii("\",\"uuid\":\"");
+        putUuid(uuid);
+        putAscii("\",\"name\":\"");
+        putJsonString(name);
+        putAscii("\",\"value\":\"");
+        putJsonString(value);
+        putAscii("\",\"ts\":\"");
+        putDecimal(ts);
+        putAscii("\",\"hlc\":\"");
+        putDecimal(hlc);
+        putAscii("\"}\n");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Size bound of a relation JSON line.
+     *
+     * @return size in bytes
+     */
+    public static int maxJsonRelationSize() {
+        return MAX_JSON_RELATION_SIZE;
+    }
+
+    private static int jsonRelationSizeBound() {
+        int type = 0;
+        for (W3CProvRelationType relationType : W3CProvRelationType.values()) {
+            type = Math.max(type, relationType.provName().length());
+        }
+        return "{\"w3cProvType\":\"".length() + type
+                + "\",\"from\":\"".length() + UUID_CHARS
+                + "\",\"to\":\"".length() + UUID_CHARS
+                + "\",\"ts\":\"".length() + MAX_DECIMAL_CHARS
+                + "\",\"hlc\":\"".length() + MAX_DECIMAL_CHARS
+                + "\"}\n".length();
+    }
+
+    /**
+     * Encode a relation as a JSON line, e.g.
+     * {"w3cProvType":"used","from":"...","to":"...","ts":"...","hlc":"..."}.
+     *
+     * @param relation
+     * @return buffer holding the line, including the trailing newline
+     */
+    public ByteBuffer jsonRelation(W3CProvRelation relation) {
+        reset(MAX_JSON_RELATION_SIZE);
+        putAscii("{\"w3cProvType\":\"");
+        putAscii(relation.getType().provName());
+        putAscii("\",\"from\":\"");
+        putUuid(relation.getFrom().getUuid());
+        putAscii("\",\"to\":\"");
+        putUuid(relation.getTo().getUuid());
+        putAscii("\",\"ts\":\"");
+        putDecimal(relation.getTs());
+        putAscii("\",\"hlc\":\"");
+        putDecimal(relation.getHlc());
+        putAscii("\"}\n");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Size bound of a membership JSON line.
+     *
+     * @param members number of members
+     * @return size in bytes
+     */
+    public static int jsonMembershipSize(int members) {
+        return 160 + 39 * members;
+    }
+
+    /**
+     * Encode a collection membership as a JSON line, e.g.
+     * {"w3cProvType":"hadMembers","from":"...","members":["..."],"ts":"...",
+     * "hlc":"..."}.
+     *
+     * @param membership
+     * @return buffer holding the line, including the trailing newline
+     */
+    public ByteBuffer jsonMembership(W3CProvMembership membership) {
+        W3CProvEntity[] members = membership.getMembers();
+        reset(jsonMembershipSize(members.length));
+        putAscii("{\"w3cProvType\":\"hadMembers\",\"from\":\"");
+        putUuid(membership.getCollection().getUuid());
+        putAscii("\",\"members\":[");
+        for (int i = 0; i < members.length; i++) {
+            if (i > 0) {
+                buffer.put((byte) ',');
+            }
+            buffer.put((byte) '"');
+            putUuid(members[i].getUuid());
+            buffer.put((byte) '"');
+        }
+        putAscii("],\"ts\":\"");
+        putDecimal(membership.getTs());
+        putAscii("\",\"hlc\":\"");
+        putDecimal(membership.getHlc());
+        putAscii("\"}\n");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Upper bound on the size of a node JSON line.
+     *
+     * @param node cluster node id
+     * @return size in bytes
+     */
+    public static int maxJsonNodeSize(String node) {
+        return 64 + maxJsonStringSize(node);
+    }
+
+    /**
+     * Encode the JSON line that starts a segment written by a cluster node,
+     * e.g. {"segment":"0","node":"..."}. It has no w3cProvType, so readers of
+     * W3C PROV objects skip it.
+     *
+     * @param node     cluster node id
+     * @param sequence segment sequence number
+     * @return buffer holding the line, including the trailing newline
+     */
+    public ByteBuffer jsonNode(String node, long sequence) {
+        reset(maxJsonNodeSize(node));
+        putAscii("{\"segment\":\"");
+        putDecimal(sequence);
+        putAscii("\",\"node\":\"");
+        putJsonString(node);
+        putAscii("\"}\n");
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Escape a string for use inside a JSON string literal.
+     *
+     * @param s
+     * @return escaped string
+     */
+    public static String escapeJson(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder sb = null;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape = jsonEscape(c);
+            if (escape == null && c >= 0x20) {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(s.length() + 16);
+                sb.append(s, 0, i);
+            }
+            if (escape != null) {
+                sb.append(escape);
+            } else {
+                sb.append("\\u00").append((char) HEX[c >> 4])
+                        .append((char) HEX[c & 0xf]);
+            }
+        }
+        return sb == null ? s : sb.toString();
+    }
+
+    private static String jsonEscape(char c) {
+        switch (c) {
+        case '"':
+            return "\\\"";
+        case '\\':
+            return "\\\\";
+        case '\n':
+            return "\\n";
+        case '\r':
+            return "\\r";
+        case '\t':
+            return "\\t";
+        case '\b':
+            return "\\b";
+        case '\f':
+            return "\\f";
+        default:
+            return null;
+        }
+    }
+
+    private static int maxStringSize(String s) {
+        return 4 + (s == null ? 0 : 3 * s.length());
+    }
+
+    private static int maxJsonStringSize(String s) {
+        return s == null ? 0 : 6 * s.length();
+    }
+
+    /**
+     * Clear the buffer, growing it if it cannot hold the given size.
+     *
+     * @param size
+     */
+    private void reset(int size) {
+        if (buffer.capacity() < size) {
+            int capacity = buffer.capacity();
+            while (capacity < size) {
+                capacity <<= 1;
+            }
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write a length-prefixed UTF-8 string (-1 for null).
+     *
+     * @param s
+     */
+    private void putString(String s) {
+        if (s == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        int lengthPosition = buffer.position();
+        buffer.putInt(0);
+        putUtf8(s, false);
+        buffer.putInt(lengthPosition, buffer.position() - lengthPosition - 4);
+    }
+
+    private void putJsonString(String s) {
+        if (s != null) {
+            putUtf8(s, true);
+        }
+    }
+
+    private void putUtf8(String s, boolean json) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                if (json && (c < 0x20 || c == '"' || c == '\\')) {
+                    putJsonEscape(c);
+                } else {
+                    buffer.put((byte) c);
+                }
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | (c >> 6)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | (cp >> 18)));
+                buffer.put((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                buffer.put((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (cp & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                /* unpaired surrogate, as String.getBytes does */
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | (c >> 12)));
+                buffer.put((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buffer.put((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    private void putJsonEscape(char c) {
+        buffer.put((byte) '\\');
+        switch (c) {
+        case '"':
+        case '\\':
+            buffer.put((byte) c);
+            break;
+        case '\n':
+            buffer.put((byte) 'n');
+            break;
+        case '\r':
+            buffer.put((byte) 'r');
+            break;
+        case '\t':
+            buffer.put((byte) 't');
+            break;
+        case '\b':
+            buffer.put((byte) 'b');
+            break;
+        case '\f':
+            buffer.put((byte) 'f');
+            break;
+        default:
+            buffer.put((byte) 'u');
+            buffer.put((byte) '0');
+            buffer.put((byte) '0');
+            buffer.put(HEX[c >> 4]);
+            buffer.put(HEX[c & 0xf]);
+        }
+    }
+
+    private void putAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            buffer.put((byte) s.charAt(i));
+        }
+    }
+
+    private void putUuid(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        putHex(msb >>> 32, 8);
+        buffer.put((byte) '-');
+        putHex(msb >>> 16, 4);
+        buffer.put((byte) '-');
+        putHex(msb, 4);
+        buffer.put((byte) '-');
+        putHex(lsb >>> 48, 4);
+        buffer.put((byte) '-');
+        putHex(lsb, 12);
+    }
+
+    private void putHex(long bits, int digits) {
+        for (int shift = (digits - 1) * 4; shift >= 0; shift -= 4) {
+            buffer.put(HEX[(int) ((bits >>> shift) & 0xf)]);
+        }
+    }
+
+    private void putDecimal(long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            if (value == Long.MIN_VALUE) {
+                putAscii("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+        long divisor = 1;
+        while (divisor <= value / 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put(DIGITS[(int) ((value / divisor) % 10)]);
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+package edu.mit.ll.provsdn;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lock-free ring buffer of provenance records.
+ *
+ * Each slot carries a sequence number that tells producers whether the slot
+ * is free and consumers whether it has been published (D. Vyukov's bounded
+ * queue). Producers claim slots with a single CAS on the tail and never take a
+ * monitor. Although the ingestion pipeline drains each ring from a single
+ * consumer thread, polling is also CAS-based so that producers may discard the
+ * oldest record when the ring is full.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ *
+ * @param <E> element type
+ */
+public class ProvRingBuffer<E> {
+
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Create a ring buffer.
+     *
+     * @param capacity requested capacity; rounded up to a power of two
+     */
+    public ProvRingBuffer(int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException(
+                    "Ring buffer capacity must be at least 2");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.buffer = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Append an element if there is room.
+     *
+     * @param element
+     * @return true if appended, false if the ring is full
+     */
+    public boolean offer(E element) {
+        long pos = tail.get();
+        int index;
+        for (;;) {
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        buffer.lazySet(index, element);
+        /* publish: release store ordered after the element store */
+        sequences.lazySet(index, pos + 1);
+        return true;
+    }
+
+    /**
+     * Remove the oldest element, if any.
+     *
+     * @return element or null if the ring is empty
+     */
+    public E poll() {
+        long pos = head.get();
+        int index;
+        for (;;) {
+            index = (int) (pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+        E element = buffer.get(index);
+        buffer.lazySet(index, null);
+        sequences.lazySet(index, pos + mask + 1);
+        return element;
+    }
+
+    /**
+     * Approximate number of elements in the ring.
+     *
+     * @return size
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity());
+    }
+
+    /**
+     * Capacity of the ring.
+     *
+     * @return capacity
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+}
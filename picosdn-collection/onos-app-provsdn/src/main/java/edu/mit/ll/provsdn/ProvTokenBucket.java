@@ -0,0 +1,65 @@
+package edu.mit.ll.provsdn;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Lock-free token bucket used to rate limit provenance collection.
+ *
+ * Implemented as a generic cell rate algorithm: a single atomic holds the
+ * theoretical arrival time of the next permit, so acquiring a permit is one
+ * CAS. The bucket holds up to one second's worth of permits.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class ProvTokenBucket {
+
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final LongSupplier clock;
+    private final AtomicLong theoreticalArrival;
+
+    /**
+     * Create a token bucket.
+     *
+     * @param permitsPerSecond sustained rate (and burst size)
+     */
+    public ProvTokenBucket(double permitsPerSecond) {
+        this(permitsPerSecond, System::nanoTime);
+    }
+
+    ProvTokenBucket(double permitsPerSecond, LongSupplier clock) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException(
+                    "Rate must be positive: " + permitsPerSecond);
+        }
+        this.intervalNanos = Math.max(1,
+                (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+        this.burstNanos = TimeUnit.SECONDS.toNanos(1) - intervalNanos;
+        this.clock = clock;
+        this.theoreticalArrival = new AtomicLong(clock.getAsLong());
+    }
+
+    /**
+     * Take a permit if one is available.
+     *
+     * @return true if a permit was taken
+     */
+    public boolean tryAcquire() {
+        long now = clock.getAsLong();
+        for (;;) {
+            long tat = theoreticalArrival.get();
+            long start = Math.max(tat, now);
+            if (start - now > burstNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+}
@@ -12,6 +12,10 @@ import org.onosproject.security.ProvActivity;
  * considered as one ProvActivity, while each listener of that event (i.e., each
  * loop) is a W3CProvActivity.
  *
+ * Activities created by ProvManager carry a 64-bit id that increases
+ * monotonically within a session (the UUID is the session prefix followed by
+ * the id) and the id of their listener class in a ProvClassTable.
+ *
  * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
  * @author Samuel Jero <samuel.jero@ll.mit.edu>
  * @version 2.0
@@ -19,10 +23,13 @@ import org.onosproject.security.ProvActivity;
 public class W3CProvActivity implements W3CProvObject {
 
     private UUID uuid;
+    private long id;
+    private int listenerId = -1;
     private ProvActivity activity;
     private String name;
     private String value;
     private long ts;
+    private long hlc;
 
     public W3CProvActivity(UUID uuid, ProvActivity activity, String name,
             String value) {
@@ -32,6 +39,23 @@ public class W3CProvActivity implements W3CProvObject {
         this.name = name;
         this.value = value;
         this.ts = System.currentTimeMillis();
+        this.hlc = ProvHybridClock.fromMillis(ts);
+    }
+
+    /**
+     * Create an activity with a sequential id.
+     *
+     * @param idPrefix   session prefix (most significant bits of the UUID)
+     * @param id         sequential id (least significant bits of the UUID)
+     * @param listenerId id of the listener class
+     * @param activity
+     * @param name       listener class name
+     */
+    public W3CProvActivity(long idPrefix, long id, int listenerId,
+            ProvActivity activity, String name) {
+        this(new UUID(idPrefix, id), activity, name, "");
+        this.id = id;
+        this.listenerId = listenerId;
     }
 
     @Override
@@ -44,6 +68,37 @@ public class W3CProvActivity implements W3CProvObject {
         this.uuid = uuid;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * Id of the listener class in a ProvClassTable.
+     *
+     * @return id, or -1 if not known
+     */
+    public int getListenerId() {
+        return listenerId;
+    }
+
+    public long getTs() {
+        return ts;
+    }
+
+    /**
+     * Hybrid logical clock timestamp (see ProvHybridClock), assigned when the
+     * activity is written out; until then, the creation time.
+     *
+     * @return timestamp
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    public void setHlc(long hlc) {
+        this.hlc = hlc;
+    }
+
     public ProvActivity getActivity() {
         return activity;
     }
@@ -81,8 +136,10 @@ public class W3CProvActivity implements W3CProvObject {
     @Override
     public String toJson() {
         return "{\"w3cProvType\":\"activity\",\"uuid\":\"" + uuid.toString()
-                + "\",\"name\":\"" + name + "\",\"value\":\"" + value
-                + "\",\"ts\":\"" + String.valueOf(ts) + "\"}";
+                + "\",\"name\":\"" + ProvRecordEncoder.escapeJson(name)
+                + "\",\"value\":\"" + ProvRecordEncoder.escapeJson(getValue())
+                + "\",\"ts\":\"" + String.valueOf(ts)
+                + "\",\"hlc\":\"" + String.valueOf(hlc) + "\"}";
     }
 
 }
@@ -9,6 +9,9 @@ import org.onosproject.security.ProvEntity;
  *
  * W3CProvEntity and ProvEntity have a one-to-one relationship.
  *
+ * Entities created by ProvManager carry the id assigned to their ProvEntity;
+ * the UUID is a session prefix followed by the id.
+ *
  * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
  * @author Samuel Jero <samuel.jero@ll.mit.edu>
  * @version 2.0
@@ -16,10 +19,12 @@ import org.onosproject.security.ProvEntity;
 public class W3CProvEntity implements W3CProvObject {
 
     private UUID uuid;
+    private long id;
     private ProvEntity entity;
     private String name;
     private String value;
     private long ts;
+    private long hlc;
 
     public W3CProvEntity(UUID uuid, ProvEntity entity, String name,
             String value) {
@@ -29,6 +34,22 @@ public class W3CProvEntity implements W3CProvObject {
         this.name = name;
         this.value = value;
         this.ts = System.currentTimeMillis();
+        this.hlc = ProvHybridClock.fromMillis(ts);
+    }
+
+    /**
+     * Create an entity with a generated id.
+     *
+     * @param idPrefix session prefix (most significant bits of the UUID)
+     * @param id       id (least significant bits of the UUID)
+     * @param entity
+     * @param name
+     * @param value
+     */
+    public W3CProvEntity(long idPrefix, long id, ProvEntity entity,
+            String name, String value) {
+        this(new UUID(idPrefix, id), entity, name, value);
+        this.id = id;
     }
 
     @Override
@@ -41,6 +62,28 @@ public class W3CProvEntity implements W3CProvObject {
         this.uuid = uuid;
     }
 
+    public long getId() {
+        return id;
+    }
+
+    public long getTs() {
+        return ts;
+    }
+
+    /**
+     * Hybrid logical clock timestamp (see ProvHybridClock), assigned when the
+     * entity is written out; until then, the creation time.
+     *
+     * @return timestamp
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    public void setHlc(long hlc) {
+        this.hlc = hlc;
+    }
+
     public ProvEntity getEntity() {
         return entity;
     }
@@ -59,9 +102,20 @@ public class W3CProvEntity implements W3CProvObject {
         this.name = name;
     }
 
+    /**
+     * Value of the entity. Unless given when this W3CProvEntity was created
+     * (as ProvManager does for entities that change in place), this is the
+     * entity's string representation, rendered on demand by whoever encodes
+     * the entity rather than on the calling thread.
+     *
+     * @return value
+     */
     @Override
     public String getValue() {
-        return value;
+        if (value != null) {
+            return value;
+        }
+        return entity == null ? "" : entity.toString();
     }
 
     @Override
@@ -72,15 +126,17 @@ public class W3CProvEntity implements W3CProvObject {
     @Override
     public String toProvN() {
         return "entity(" + uuid.toString() + ", [name=\"" + name
-                + "\", value=\"" + value + "\", ts=\"" + String.valueOf(ts)
+                + "\", value=\"" + getValue() + "\", ts=\"" + String.valueOf(ts)
                 + "\"])";
     }
 
     @Override
     public String toJson() {
         return "{\"w3cProvType\":\"entity\",\"uuid\":\"" + uuid.toString()
-                + "\",\"name\":\"" + name + "\",\"value\":\"" + value
-                + "\",\"ts\":\"" + String.valueOf(ts) + "\"}";
+                + "\",\"name\":\"" + ProvRecordEncoder.escapeJson(name)
+                + "\",\"value\":\"" + ProvRecordEncoder.escapeJson(getValue())
+                + "\",\"ts\":\"" + String.valueOf(ts)
+                + "\",\"hlc\":\"" + String.valueOf(hlc) + "\"}";
     }
 
 }
@@ -0,0 +1,80 @@
+package edu.mit.ll.provsdn;
+
+/**
+ * W3C PROV membership of entities in a collection entity (one hadMember
+ * relation per member), kept as a single record.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public class W3CProvMembership {
+
+    private W3CProvEntity collection;
+    private W3CProvEntity[] members;
+    private long ts;
+    private long hlc;
+
+    public W3CProvMembership(W3CProvEntity collection,
+            W3CProvEntity[] members) {
+        super();
+        this.collection = collection;
+        this.members = members;
+        this.ts = System.currentTimeMillis();
+        this.hlc = ProvHybridClock.fromMillis(ts);
+    }
+
+    public W3CProvEntity getCollection() {
+        return collection;
+    }
+
+    public W3CProvEntity[] getMembers() {
+        return members;
+    }
+
+    public long getTs() {
+        return ts;
+    }
+
+    /**
+     * Hybrid logical clock timestamp (see ProvHybridClock), assigned when the
+     * membership is written out; until then, the creation time.
+     *
+     * @return timestamp
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    public void setHlc(long hlc) {
+        this.hlc = hlc;
+    }
+
+    public String toProvN() {
+        StringBuilder sb = new StringBuilder();
+        for (W3CProvEntity member : members) {
+            sb.append("hadMember(").append(collection.getUuid().toString())
+                    .append(", ").append(member.getUuid().toString())
+                    .append(")\n");
+        }
+        return sb.toString();
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"w3cProvType\":\"hadMembers\",\"from\":\"")
+                .append(collection.getUuid().toString())
+                .append("\",\"members\":[");
+        for (int i = 0; i < members.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(members[i].getUuid().toString()).append('"');
+        }
+        sb.append("],\"ts\":\"").append(String.valueOf(ts))
+                .append("\",\"hlc\":\"").append(String.valueOf(hlc))
+                .append("\"}");
+        return sb.toString();
+    }
+
+}
@@ -13,6 +13,7 @@ public class W3CProvRelation {
     private W3CProvObject to;
     private W3CProvRelationType type;
     private long ts;
+    private long hlc;
 
     public W3CProvRelation(W3CProvObject from, W3CProvObject to,
             W3CProvRelationType type) {
@@ -21,6 +22,7 @@ public class W3CProvRelation {
         this.to = to;
         this.type = type;
         this.ts = System.currentTimeMillis();
+        this.hlc = ProvHybridClock.fromMillis(ts);
     }
 
     public W3CProvObject getFrom() {
@@ -35,6 +37,24 @@ public class W3CProvRelation {
         return type;
     }
 
+    public long getTs() {
+        return ts;
+    }
+
+    /**
+     * Hybrid logical clock timestamp (see ProvHybridClock), assigned when the
+     * relation is written out; until then, the creation time.
+     *
+     * @return timestamp
+     */
+    public long getHlc() {
+        return hlc;
+    }
+
+    public void setHlc(long hlc) {
+        this.hlc = hlc;
+    }
+
     public String toProvN() {
         return getTypeString() + "(" + from.getUuid().toString() + ", "
                 + to.getUuid().toString() + ")";
@@ -44,30 +64,11 @@ public class W3CProvRelation {
         return "{\"w3cProvType\":\"" + getTypeString() + "\",\"from\":\""
                 + from.getUuid().toString() + "\",\"to\":\""
                 + to.getUuid().toString() + "\",\"ts\":\"" + String.valueOf(ts)
-                + "\"}";
+                + "\",\"hlc\":\"" + String.valueOf(hlc) + "\"}";
     }
 
     private String getTypeString() {
-        switch (type) {
-        case USED:
-            return "used";
-        case ACTED_ON_BEHALF_OF:
-            return "actedOnBehalfOf";
-        case WAS_ASSOCIATED_WITH:
-            return "wasAssociatedWith";
-        case WAS_DERIVED_FROM:
-            return "wasDerivedFrom";
-        case WAS_GENERATED_BY:
-            return "wasGeneratedBy";
-        case WAS_INFORMED_BY:
-            return "wasInformedBy";
-        case WAS_REVISION_OF:
-            return "wasRevisionOf";
-        case INVALIDATES:
-            return "invalidates";
-        default:
-            return "";
-        }
+        return type.provName();
     }
 
 }
@@ -1,6 +1,36 @@
 package edu.mit.ll.provsdn;
 
 public enum W3CProvRelationType {
-    USED, WAS_GENERATED_BY, WAS_DERIVED_FROM, WAS_INFORMED_BY,
-    WAS_ASSOCIATED_WITH, ACTED_ON_BEHALF_OF, INVALIDATES, WAS_REVISION_OF
+    USED(1, "used"), WAS_GENERATED_BY(2, "wasGeneratedBy"),
+    WAS_DERIVED_FROM(3, "wasDerivedFrom"), WAS_INFORMED_BY(4, "wasInformedBy"),
+    WAS_ASSOCIATED_WITH(5, "wasAssociatedWith"),
+    ACTED_ON_BEHALF_OF(6, "actedOnBehalfOf"), INVALIDATES(7, "invalidates"),
+    WAS_REVISION_OF(8, "wasRevisionOf"), HAD_MEMBER(9, "hadMember"),
+    ALTERNATE_OF(10, "alternateOf");
+
+    private final byte code;
+    private final String provName;
+
+    W3CProvRelationType(int code, String provName) {
+        this.code = (byte) code;
+        this.provName = provName;
+    }
+
+    /**
+     * Stable code of this relation type in the binary provenance log.
+     *
+     * @return code
+     */
+    public byte code() {
+        return code;
+    }
+
+    /**
+     * Name of this relation type in PROV-N and JSON output.
+     *
+     * @return name
+     */
+    public String provName() {
+        return provName;
+    }
 }
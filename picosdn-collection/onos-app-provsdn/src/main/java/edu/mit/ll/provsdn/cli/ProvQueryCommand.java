@@ -0,0 +1,63 @@
+package edu.mit.ll.provsdn.cli;
+
+import java.util.List;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+
+import edu.mit.ll.provsdn.ProvGraphService;
+import edu.mit.ll.provsdn.ProvLiveGraph;
+import edu.mit.ll.provsdnquery.ProvQuery;
+
+/**
+ * Runs a path query (see ProvQuery) on the live provenance graph, e.g.,
+ * provsdn-query '(f:entity "DefaultFlowRule") -[wasGeneratedBy]-> (a:activity
+ * "org.onosproject.fwd") -[used]-> (p:entity token "port=2" ts within 1m)'.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+@Command(scope = "onos", name = "provsdn-query",
+        description = "Runs a path query on the live provenance graph")
+public class ProvQueryCommand extends AbstractShellCommand {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    @Argument(index = 0, name = "query",
+            description = "Path query, e.g., (a:activity \"fwd\") -[used]-> (p)",
+            required = true, multiValued = true)
+    List<String> words = null;
+
+    @Option(name = "-n", aliases = "--limit",
+            description = "Maximum number of nodes listed, unless the query "
+                    + "has a limit",
+            required = false, multiValued = false)
+    int limit = DEFAULT_LIMIT;
+
+    @Override
+    protected void execute() {
+        ProvLiveGraph graph = get(ProvGraphService.class).getLiveGraph();
+        if (graph == null) {
+            print("Live provenance graph is disabled; set liveGraph of %s",
+                    "edu.mit.ll.provsdn.ProvManager");
+            return;
+        }
+        ProvQuery query;
+        List<ProvLiveGraph.Node> found;
+        try {
+            query = ProvQuery.parse(String.join(" ", words));
+            found = graph.query(query);
+        } catch (IllegalArgumentException e) {
+            print("Invalid query: %s", e.getMessage());
+            return;
+        }
+        print("%s nodes matching %s, most recent first:", found.size(),
+                query.getReturned());
+        found.stream().limit(query.getLimit() < 0 ? limit : found.size())
+                .forEach(n -> print("  %s", n));
+    }
+
+}
@@ -0,0 +1,106 @@
+package edu.mit.ll.provsdn.cli;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.karaf.shell.commands.Argument;
+import org.apache.karaf.shell.commands.Command;
+import org.apache.karaf.shell.commands.Option;
+import org.onosproject.cli.AbstractShellCommand;
+
+import edu.mit.ll.provsdn.ProvGraphService;
+import edu.mit.ll.provsdn.ProvLiveGraph;
+
+/**
+ * Queries the live provenance graph: a backward-forward trace of a node by
+ * default, or its ancestry or descendants. Without a node, prints the state of
+ * the graph.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+@Command(scope = "onos", name = "provsdn-trace",
+        description = "Queries the live provenance graph of recent activity")
+public class ProvTraceCommand extends AbstractShellCommand {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    @Argument(index = 0, name = "node",
+            description = "UUID of a node, or part of its value",
+            required = false, multiValued = false)
+    String query = null;
+
+    @Option(name = "-a", aliases = "--ancestry",
+            description = "List everything that affected the node",
+            required = false, multiValued = false)
+    boolean ancestry = false;
+
+    @Option(name = "-d", aliases = "--descendants",
+            description = "List everything the node affected",
+            required = false, multiValued = false)
+    boolean descendants = false;
+
+    @Option(name = "-n", aliases = "--limit",
+            description = "Maximum number of matching nodes listed",
+            required = false, multiValued = false)
+    int limit = DEFAULT_LIMIT;
+
+    @Override
+    protected void execute() {
+        ProvLiveGraph graph = get(ProvGraphService.class).getLiveGraph();
+        if (graph == null) {
+            print("Live provenance graph is disabled; set liveGraph of %s",
+                    "edu.mit.ll.provsdn.ProvManager");
+            return;
+        }
+        if (query == null) {
+            print("%s", graph);
+            return;
+        }
+
+        ProvLiveGraph.Node node = null;
+        try {
+            node = graph.getNode(UUID.fromString(query));
+        } catch (IllegalArgumentException e) {
+            List<ProvLiveGraph.Node> found = graph.findNodes(query, limit);
+            if (found.size() == 1) {
+                node = found.get(0);
+            } else if (found.size() > 1) {
+                print("Nodes matching %s, most recent first:", query);
+                found.forEach(n -> print("  %s", n));
+                return;
+            }
+        }
+        if (node == null) {
+            print("No node %s in the live provenance graph", query);
+            return;
+        }
+
+        print("%s", node);
+        if (ancestry) {
+            print("Ancestry:");
+            printNodes(graph.getAncestryOfNode(node));
+        }
+        if (descendants) {
+            print("Descendants:");
+            printNodes(graph.getDescendantsOfNode(node));
+        }
+        if (!ancestry && !descendants) {
+            Map<ProvLiveGraph.Node, Set<ProvLiveGraph.Node>> trace = graph
+                    .backwardForwardTrace(node);
+            for (Map.Entry<ProvLiveGraph.Node, Set<ProvLiveGraph.Node>> e : trace
+                    .entrySet()) {
+                print("Ancestor: %s", e.getKey());
+                printNodes(e.getValue());
+            }
+        }
+    }
+
+    private void printNodes(Set<ProvLiveGraph.Node> nodes) {
+        nodes.forEach(n -> print("  %s", n));
+    }
+
+}
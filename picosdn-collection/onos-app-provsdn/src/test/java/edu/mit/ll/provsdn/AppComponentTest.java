@@ -18,6 +18,9 @@ package edu.mit.ll.provsdn;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
 
 /**
  * Set of tests of the ONOS application component.
@@ -29,7 +32,10 @@ public class AppComponentTest {
     @Before
     public void setUp() {
         component = new ProvManager();
-        component.activate();
+        component.cfgService = new ComponentConfigAdapter();
+        component.flowRuleService = new FlowRuleServiceAdapter();
+        component.clusterService = new ClusterServiceAdapter();
+        component.activate(null);
 
     }
 
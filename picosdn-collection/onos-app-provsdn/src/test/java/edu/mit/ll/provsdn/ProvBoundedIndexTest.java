@@ -0,0 +1,77 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests of the bounded entity index.
+ */
+public class ProvBoundedIndexTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ProvBoundedIndex<Integer, String> index = new ProvBoundedIndex<>(2, 0);
+        index.put(1, "a");
+        index.put(2, "b");
+        assertEquals("a", index.get(1));
+        index.put(3, "c");
+
+        assertEquals(2, index.size());
+        assertNull(index.get(2));
+        assertEquals("a", index.get(1));
+        assertEquals("c", index.get(3));
+        assertEquals(1, index.sizeEvictions());
+    }
+
+    @Test
+    public void evictsByAge() {
+        AtomicLong now = new AtomicLong();
+        ProvBoundedIndex<Integer, String> index = new ProvBoundedIndex<>(10,
+                100, now::get);
+        index.put(1, "a");
+        now.set(50);
+        index.put(2, "b");
+        now.set(120);
+        assertNull(index.get(1));
+        assertEquals("b", index.get(2));
+        now.set(300);
+        assertEquals(0, index.size());
+        assertEquals(2, index.ageEvictions());
+    }
+
+    @Test
+    public void removeAndShrink() {
+        ProvBoundedIndex<Integer, String> index = new ProvBoundedIndex<>(10, 0);
+        for (int i = 0; i < 5; i++) {
+            index.put(i, "v" + i);
+        }
+        assertEquals("v0", index.remove(0));
+        assertNull(index.remove(0));
+        assertEquals(1, index.removals());
+
+        index.setBounds(2, 0);
+        index.put(5, "v5");
+        assertEquals(2, index.size());
+        assertEquals("v5", index.get(5));
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+/**
+ * Tests of the class id table.
+ */
+public class ProvClassTableTest {
+
+    @Test
+    public void assignsDenseIds() {
+        ProvClassTable table = new ProvClassTable();
+        int a = table.idOf(String.class);
+        int b = table.idOf(Integer.class);
+        assertEquals(0, a);
+        assertEquals(1, b);
+        assertEquals(a, table.idOf(String.class));
+        assertEquals(2, table.size());
+        assertEquals(String.class.getName(), table.nameOf(a));
+    }
+
+    @Test
+    public void looksUpRegisteredNames() {
+        ProvClassTable table = new ProvClassTable();
+        assertEquals(-1, table.idOf(Long.class.getName()));
+        int id = table.idOf(Long.class);
+        assertEquals(id, table.idOf(Long.class.getName()));
+    }
+
+    @Test
+    public void tablesAreIndependent() {
+        ProvClassTable first = new ProvClassTable();
+        ProvClassTable second = new ProvClassTable();
+        first.idOf(String.class);
+        assertNotEquals(first.idOf(Integer.class), second.idOf(Integer.class));
+    }
+
+}
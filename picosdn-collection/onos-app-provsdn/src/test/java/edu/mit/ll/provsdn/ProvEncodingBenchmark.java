@@ -0,0 +1,105 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH comparison of the string (toJson) path with the buffer encoder for one
+ * entity, one activity and one relation per operation.
+ *
+ * Run with the GC profiler to see allocations per operation
+ * (gc.alloc.rate.norm): java edu.mit.ll.provsdn.ProvEncodingBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProvEncodingBenchmark {
+
+    private W3CProvEntity entity;
+    private W3CProvActivity activity;
+    private W3CProvRelation relation;
+    private ProvRecordEncoder encoder;
+
+    @Setup
+    public void setUp() {
+        entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "DefaultFlowRule{id=a0000f1e5a3a1e, deviceId=of:0000000000000001, "
+                        + "priority=10, selector=[IN_PORT:1, ETH_DST:00:00:00:00:00:02], "
+                        + "treatment=[OUTPUT:2], tableId=0, created=1556912345678}");
+        activity = new W3CProvActivity(UUID.randomUUID(), null,
+                "org.onosproject.fwd.ReactiveForwarding$ReactivePacketProcessor",
+                "");
+        relation = new W3CProvRelation(activity, entity,
+                W3CProvRelationType.USED);
+        encoder = new ProvRecordEncoder();
+    }
+
+    @Benchmark
+    public void stringJson(Blackhole bh) {
+        bh.consume(entity.toJson());
+        bh.consume(activity.toJson());
+        bh.consume(relation.toJson());
+    }
+
+    @Benchmark
+    public void encoderJson(Blackhole bh) {
+        bh.consume(encoder.jsonObject("entity", entity.getUuid(),
+                entity.getTs(), entity.getHlc(), entity.getName(),
+                entity.getValue()));
+        bh.consume(encoder.jsonObject("activity", activity.getUuid(),
+                activity.getTs(), activity.getHlc(), activity.getName(),
+                activity.getValue()));
+        bh.consume(encoder.jsonRelation(relation));
+    }
+
+    @Benchmark
+    public void encoderBinary(Blackhole bh) {
+        bh.consume(encoder.object(ProvLogWriter.TYPE_ENTITY, entity.getUuid(),
+                entity.getHlc(), entity.getName(), entity.getValue()));
+        bh.consume(encoder.object(ProvLogWriter.TYPE_ACTIVITY,
+                activity.getUuid(), activity.getHlc(), activity.getName(),
+                activity.getValue()));
+        bh.consume(encoder.relation(relation));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ProvEncodingBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class).build()).run();
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests of the hybrid logical clock.
+ */
+public class ProvHybridClockTest {
+
+    private final AtomicLong millis = new AtomicLong(1_000_000L);
+    private final ProvHybridClock clock = new ProvHybridClock(millis::get);
+
+    @Test
+    public void followsPhysicalTime() {
+        long first = clock.now();
+        assertEquals(ProvHybridClock.fromMillis(millis.get()), first);
+        millis.addAndGet(5);
+        long second = clock.now();
+        assertEquals(millis.get(), ProvHybridClock.millisOf(second));
+        assertTrue(second > first);
+    }
+
+    @Test
+    public void countsWithinMillisecond() {
+        long first = clock.now();
+        long second = clock.now();
+        /* also when the physical clock steps back */
+        millis.addAndGet(-10);
+        long third = clock.now();
+        assertEquals(first + 1, second);
+        assertEquals(second + 1, third);
+    }
+
+    @Test
+    public void ticksAtCreationTime() {
+        long later = clock.tick(millis.get() + 100);
+        assertEquals(ProvHybridClock.fromMillis(millis.get() + 100), later);
+        /* an older creation time still gets a later timestamp */
+        assertEquals(later + 1, clock.tick(millis.get()));
+    }
+
+    @Test
+    public void movesPastReceivedTimestamps() {
+        long remote = ProvHybridClock.endOfMillis(millis.get() + 50);
+        long received = clock.receive(remote);
+        assertTrue(received > remote);
+        assertEquals(millis.get() + 51, ProvHybridClock.millisOf(received));
+        assertTrue(clock.now() > received);
+
+        /* a remote timestamp behind the clock does not move it back */
+        long last = clock.last();
+        assertEquals(last + 1, clock.receive(remote - 100));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import org.junit.Test;
+import org.onosproject.security.ProvIdGenerator;
+
+/**
+ * Tests of the entity and activity id generators.
+ */
+public class ProvIdGeneratorsTest {
+
+    @Test
+    public void counterIsNodePrefixed() {
+        ProvIdGenerator generator = ProvIdGenerators.counter(7);
+        long first = generator.nextId();
+        long second = generator.nextId();
+        assertEquals(7, first >>> 48);
+        assertEquals(1, first & 0xffffffffffffL);
+        assertEquals(first + 1, second);
+    }
+
+    @Test
+    public void timeOrderedIsMonotonic() {
+        AtomicLong clock = new AtomicLong(ProvIdGenerators.TIME_EPOCH + 1000);
+        ProvIdGenerator generator = ProvIdGenerators.timeOrdered(5,
+                clock::get);
+        long previous = ProvIdGenerator.NO_ID;
+        /* more ids than fit in one millisecond */
+        for (int i = 0; i < 5000; i++) {
+            long id = generator.nextId();
+            assertTrue(id > previous);
+            assertEquals(5, ProvIdGenerators.timeOrderedNode(id));
+            previous = id;
+        }
+        assertEquals(clock.get() + 1,
+                ProvIdGenerators.timeOrderedMillis(previous));
+
+        /* a clock that steps back does not reorder ids */
+        clock.addAndGet(-500);
+        assertTrue(generator.nextId() > previous);
+
+        clock.addAndGet(10000);
+        long id = generator.nextId();
+        assertEquals(clock.get(), ProvIdGenerators.timeOrderedMillis(id));
+    }
+
+    @Test
+    public void randomNeverReturnsNoId() {
+        ProvIdGenerator generator = ProvIdGenerators.random();
+        for (int i = 0; i < 1000; i++) {
+            assertNotEquals(ProvIdGenerator.NO_ID, generator.nextId());
+        }
+    }
+
+    @Test
+    public void sameNodeComparesKeptBits() {
+        assertTrue(ProvIdGenerators.sameNode(3,
+                3 + ProvIdGenerators.MAX_NODES));
+        assertFalse(ProvIdGenerators.sameNode(3, 4));
+        LongSupplier clock = () -> ProvIdGenerators.TIME_EPOCH;
+        ProvIdGenerator a = ProvIdGenerators.timeOrdered(3, clock);
+        ProvIdGenerator b = ProvIdGenerators
+                .timeOrdered(3 + ProvIdGenerators.MAX_NODES, clock);
+        assertEquals(a.nextId(), b.nextId());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownGenerator() {
+        ProvIdGenerators.forName("uuid", 0);
+    }
+
+    @Test
+    public void createsGeneratorsByName() {
+        assertEquals("counter", ProvIdGenerators.forName("Counter", 1)
+                .toString());
+        assertEquals("time", ProvIdGenerators.forName("time", 1).toString());
+        assertEquals("random", ProvIdGenerators.forName("random", 1)
+                .toString());
+    }
+
+}
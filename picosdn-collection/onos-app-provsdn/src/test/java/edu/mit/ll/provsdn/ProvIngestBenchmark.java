@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.security.DefaultProvActivity;
+import org.onosproject.security.DefaultProvEntity;
+import org.onosproject.security.ProvActivity;
+import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvEntity;
+
+/**
+ * Throughput comparison of monitor-based (synchronous) and ring buffer
+ * (asynchronous) provenance ingestion under multi-threaded load.
+ *
+ * Each producer thread mimics a dispatch loop: one dispatch, one listen, and a
+ * handful of API calls per activity against a shared pool of entities. Two
+ * numbers are reported per mode: producer throughput (how quickly hook callers
+ * get control back) and end-to-end throughput (until every record has been
+ * turned into W3C PROV objects).
+ *
+ * Run with: java edu.mit.ll.provsdn.ProvIngestBenchmark [threads] [activities]
+ */
+public final class ProvIngestBenchmark {
+
+    private static final int API_CALLS_PER_ACTIVITY = 4;
+    private static final int ENTITY_POOL = 4096;
+
+    private ProvIngestBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int activities = args.length > 1 ? Integer.parseInt(args[1])
+                : 100_000;
+
+        List<ProvEntity> pool = new ArrayList<>();
+        for (int i = 0; i < ENTITY_POOL; i++) {
+            pool.add(new DefaultProvEntity());
+        }
+
+        /* warm up both paths before measuring */
+        run(false, threads, activities / 10, pool);
+        run(true, threads, activities / 10, pool);
+
+        Result sync = run(false, threads, activities, pool);
+        Result async = run(true, threads, activities, pool);
+
+        System.out.printf("%-6s %10s %16s %16s%n", "mode", "records",
+                "producer rec/s", "end-to-end rec/s");
+        sync.print("sync");
+        async.print("async");
+        System.out.printf("producer speedup: %.2fx, end-to-end speedup: %.2fx%n",
+                async.producerRate() / sync.producerRate(),
+                async.endToEndRate() / sync.endToEndRate());
+    }
+
+    private static Result run(boolean async, int threads, int activities,
+            List<ProvEntity> pool) throws InterruptedException {
+        ProvManager manager = new ProvManager();
+        manager.cfgService = new ComponentConfigAdapter();
+        manager.flowRuleService = new FlowRuleServiceAdapter();
+        manager.clusterService = new ClusterServiceAdapter();
+        manager.activate(null);
+        manager.configureIngest(async, 8, 8192, 1);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int offset = t * 31;
+            Thread producer = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < activities; i++) {
+                    ProvActivity activity = new DefaultProvActivity();
+                    manager.recordDispatch(activity);
+                    manager.recordListen(activity, ProvIngestBenchmark.class);
+                    Throwable location = new Throwable();
+                    for (int c = 0; c < API_CALLS_PER_ACTIVITY; c++) {
+                        ProvEntity entity = pool
+                                .get((offset + i * API_CALLS_PER_ACTIVITY + c)
+                                        % pool.size());
+                        manager.recordApiCall(ProvApiCallType.READ, entity,
+                                null, location);
+                    }
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long produced = System.nanoTime();
+        ProvIngestPipeline pipeline = manager.ingestPipeline();
+        if (pipeline != null) {
+            pipeline.awaitDrained(5, TimeUnit.MINUTES);
+        }
+        long drained = System.nanoTime();
+        manager.deactivate();
+
+        long records = (long) threads * activities
+                * (2 + API_CALLS_PER_ACTIVITY);
+        return new Result(records, produced - begin, drained - begin);
+    }
+
+    private static final class Result {
+        private final long records;
+        private final long producerNanos;
+        private final long endToEndNanos;
+
+        private Result(long records, long producerNanos, long endToEndNanos) {
+            this.records = records;
+            this.producerNanos = producerNanos;
+            this.endToEndNanos = endToEndNanos;
+        }
+
+        private double producerRate() {
+            return records * 1e9 / producerNanos;
+        }
+
+        private double endToEndRate() {
+            return records * 1e9 / endToEndNanos;
+        }
+
+        private void print(String mode) {
+            System.out.printf("%-6s %10d %16.0f %16.0f%n", mode, records,
+                    producerRate(), endToEndRate());
+        }
+    }
+
+}
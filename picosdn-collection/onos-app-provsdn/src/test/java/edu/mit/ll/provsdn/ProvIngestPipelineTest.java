@@ -0,0 +1,188 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.security.DefaultProvEntity;
+import org.onosproject.security.ProvApiCallType;
+
+/**
+ * Tests of the ingestion pipeline's overload policies.
+ */
+public class ProvIngestPipelineTest {
+
+    private static final int CAPACITY = 8;
+
+    private final CountDownLatch busy = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final AtomicInteger handled = new AtomicInteger();
+    private ProvIngestPipeline pipeline;
+
+    @Before
+    public void setUp() throws InterruptedException {
+        pipeline = new ProvIngestPipeline(1, CAPACITY, 1, record -> {
+            busy.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.incrementAndGet();
+        });
+        pipeline.start();
+        /* park the consumer inside the handler, leaving the ring empty */
+        pipeline.submit(create());
+        assertTrue(busy.await(10, TimeUnit.SECONDS));
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        pipeline.stop();
+    }
+
+    private static ProvRecord create() {
+        return ProvRecord.apiCall(ProvApiCallType.CREATE,
+                new DefaultProvEntity(), null, null, null);
+    }
+
+    private static ProvRecord read() {
+        return ProvRecord.apiCall(ProvApiCallType.READ,
+                new DefaultProvEntity(), null, null, null);
+    }
+
+    @Test
+    public void blockWaitsForRoom() throws InterruptedException {
+        for (int i = 0; i < CAPACITY; i++) {
+            pipeline.submit(create());
+        }
+        Thread producer = new Thread(() -> pipeline.submit(create()));
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(10_000);
+        assertFalse(producer.isAlive());
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 2, handled.get());
+        assertEquals(0, pipeline.droppedCount());
+    }
+
+    @Test
+    public void dropOldestMakesRoom() {
+        pipeline.setOverload(ProvIngestPipeline.Overload.DROP_OLDEST);
+        for (int i = 0; i < CAPACITY + 4; i++) {
+            pipeline.submit(create());
+        }
+        assertEquals(4, pipeline.droppedCount());
+        assertEquals(CAPACITY, pipeline.depth());
+
+        release.countDown();
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 1, handled.get());
+    }
+
+    @Test
+    public void dropByPriorityShedsReads() {
+        pipeline.setOverload(ProvIngestPipeline.Overload.DROP_BY_PRIORITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            pipeline.submit(read());
+        }
+        /* reads only fill three quarters of the ring */
+        assertEquals(2, pipeline.droppedCount());
+        pipeline.submit(create());
+        pipeline.submit(create());
+        assertEquals(CAPACITY, pipeline.depth());
+        assertEquals(2, pipeline.droppedCount());
+
+        release.countDown();
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 1, handled.get());
+    }
+
+    @Test
+    public void countOnlyDegradesUntilDrained() {
+        pipeline.setOverload(ProvIngestPipeline.Overload.COUNT_ONLY);
+        for (int i = 0; i < CAPACITY + 3; i++) {
+            pipeline.submit(create());
+        }
+        assertTrue(pipeline.isDegraded());
+        assertEquals(3, pipeline.countedOnlyCount(ProvRecord.Kind.API_CALL));
+        assertEquals(0, pipeline.droppedCount());
+
+        release.countDown();
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 1, handled.get());
+
+        /* once drained, records are queued again */
+        pipeline.submit(create());
+        assertFalse(pipeline.isDegraded());
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 2, handled.get());
+        assertEquals(3, pipeline.countedOnlyCount());
+    }
+
+    @Test
+    public void countOnlyDegradesPerRing() throws InterruptedException {
+        CountDownLatch stripedBusy = new CountDownLatch(1);
+        ProvIngestPipeline striped = new ProvIngestPipeline(2, CAPACITY, 1,
+                record -> {
+                    stripedBusy.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+        striped.setOverload(ProvIngestPipeline.Overload.COUNT_ONLY);
+        striped.start();
+        striped.submit(create());
+        assertTrue(stripedBusy.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < CAPACITY + 1; i++) {
+            striped.submit(create());
+        }
+        assertTrue(striped.isDegraded());
+        assertEquals(1, striped.countedOnlyCount());
+
+        /* a thread whose ring is empty queues without ending degraded mode */
+        Thread other;
+        do {
+            other = new Thread(() -> striped.submit(create()));
+        } while (((other.getId() ^ Thread.currentThread().getId()) & 1) == 0);
+        other.start();
+        other.join();
+        assertTrue(striped.isDegraded());
+        striped.submit(create());
+        assertEquals(2, striped.countedOnlyCount());
+
+        release.countDown();
+        assertTrue(striped.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(CAPACITY + 2, striped.processedCount());
+        striped.stop();
+    }
+
+}
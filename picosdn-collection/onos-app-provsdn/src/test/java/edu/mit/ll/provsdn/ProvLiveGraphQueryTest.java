@@ -0,0 +1,164 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnquery.ProvQuery;
+
+/**
+ * Tests of path queries on the live provenance graph; queries are parsed (and
+ * tested) by ProvQuery in provsdn-query.
+ */
+public class ProvLiveGraphQueryTest {
+
+    private static final long NOW = 10_000_000;
+
+    private final AtomicLong now = new AtomicLong(NOW);
+    private final ProvLiveGraph graph = new ProvLiveGraph(100, 0, 64,
+            now::get);
+
+    private W3CProvEntity entity(String value, long millis) {
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                value);
+        entity.setHlc(ProvHybridClock.fromMillis(millis));
+        graph.add(entity);
+        return entity;
+    }
+
+    private W3CProvActivity activity(String value, long millis) {
+        W3CProvActivity activity = new W3CProvActivity(UUID.randomUUID(), null,
+                "", value);
+        activity.setHlc(ProvHybridClock.fromMillis(millis));
+        graph.add(activity);
+        return activity;
+    }
+
+    private void relate(W3CProvObject from, W3CProvObject to,
+            W3CProvRelationType type) {
+        graph.add(new W3CProvRelation(from, to, type));
+    }
+
+    private Set<UUID> query(String text) {
+        while (graph.apply() > 0) {
+            continue;
+        }
+        Set<UUID> uuids = new HashSet<>();
+        graph.query(ProvQuery.parse(text))
+                .forEach(n -> uuids.add(n.getUuid()));
+        return uuids;
+    }
+
+    private static Set<UUID> uuids(W3CProvObject... objects) {
+        Set<UUID> uuids = new HashSet<>();
+        for (W3CProvObject object : objects) {
+            uuids.add(object.getUuid());
+        }
+        return uuids;
+    }
+
+    @Test
+    public void matchesPaths() {
+        W3CProvEntity packet = entity("DefaultInboundPacket{port=2}",
+                NOW - 1000);
+        W3CProvEntity oldPacket = entity("DefaultInboundPacket{port=2}",
+                NOW - 7_200_000);
+        W3CProvEntity otherPacket = entity("DefaultInboundPacket{port=3}",
+                NOW - 1000);
+        W3CProvActivity fwd = activity("org.onosproject.fwd", NOW - 900);
+        W3CProvActivity oldFwd = activity("org.onosproject.fwd", NOW - 900);
+        W3CProvActivity otherFwd = activity("org.onosproject.fwd", NOW - 900);
+        W3CProvEntity rule = entity("DefaultFlowRule{id=1}", NOW - 800);
+        W3CProvEntity oldRule = entity("DefaultFlowRule{id=2}", NOW - 800);
+        W3CProvEntity otherRule = entity("DefaultFlowRule{id=3}", NOW - 800);
+        relate(fwd, packet, W3CProvRelationType.USED);
+        relate(oldFwd, oldPacket, W3CProvRelationType.USED);
+        relate(otherFwd, otherPacket, W3CProvRelationType.USED);
+        relate(rule, fwd, W3CProvRelationType.WAS_GENERATED_BY);
+        relate(oldRule, oldFwd, W3CProvRelationType.WAS_GENERATED_BY);
+        relate(otherRule, otherFwd, W3CProvRelationType.WAS_GENERATED_BY);
+
+        assertEquals(uuids(rule), query("(f:entity \"DefaultFlowRule\")"
+                + " -[wasGeneratedBy]-> (a:activity \"org.onosproject.fwd\")"
+                + " -[used]-> (p:entity token \"port=2\" ts within 1h)"));
+        assertEquals(uuids(rule, oldRule),
+                query("(p token \"port=2\") <-[*2]- (f) return f"));
+        assertEquals(uuids(packet),
+                query("(f value = \"DefaultFlowRule{id=1}\") -[*..3]->"
+                        + " (p:entity) return p"));
+        assertEquals(uuids(rule, oldRule), query("(f:entity) -->"
+                + " (:activity) --> (not \"port=3\") return f"));
+        assertEquals(uuids(fwd), query("(a:activity) -[used*0..1]->"
+                + " (x uuid = \"" + packet.getUuid() + "\")"));
+        assertTrue(query("(a:agent) --> (b)").isEmpty());
+    }
+
+    @Test
+    public void followsDependenciesByDefault() {
+        W3CProvEntity rule = entity("rule", NOW);
+        W3CProvEntity oldRule = entity("oldRule", NOW);
+        relate(rule, oldRule, W3CProvRelationType.WAS_REVISION_OF);
+        assertTrue(query("(r \"rule\") --> (o)").isEmpty());
+        assertEquals(uuids(oldRule),
+                query("(r value = \"rule\") -[wasRevisionOf]-> (o) return o"));
+    }
+
+    @Test
+    public void withinIsRelativeToLatestRecord() {
+        W3CProvEntity packet = entity("packet", NOW - 3 * 3_600_000);
+        W3CProvEntity oldPacket = entity("packet", NOW - 5 * 3_600_000);
+        W3CProvActivity fwd = activity("fwd", NOW - 3 * 3_600_000);
+        relate(fwd, packet, W3CProvRelationType.USED);
+        relate(fwd, oldPacket, W3CProvRelationType.USED);
+        assertEquals(uuids(packet),
+                query("(p \"packet\" ts within 1h) <-- (a)"));
+        assertEquals(uuids(packet, oldPacket),
+                query("(p \"packet\" ts within 3h) <-- (a)"));
+        assertEquals(uuids(oldPacket),
+                query("(p \"packet\" not ts within 1h) <-- (a)"));
+    }
+
+    @Test
+    public void idsThatAreNotUuidsMatchNothing() {
+        W3CProvEntity packet = entity("packet", NOW);
+        assertTrue(query("(a uuid = \"orgonosprojectfwd\")").isEmpty());
+        assertEquals(uuids(packet),
+                query("(a not uuid = \"orgonosprojectfwd\")"));
+    }
+
+    @Test
+    public void checksRelationTypesWhenRun() {
+        for (String type : Arrays.asList("bogus", "wasAttributedTo")) {
+            try {
+                query("(a) -[used|" + type + "]-> (b)");
+                fail("Ran relation type " + type);
+            } catch (IllegalArgumentException e) {
+                assertEquals("Unknown relation type " + type, e.getMessage());
+            }
+        }
+    }
+
+}
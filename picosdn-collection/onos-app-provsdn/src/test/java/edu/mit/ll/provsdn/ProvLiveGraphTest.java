@@ -0,0 +1,174 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+/**
+ * Tests of the live provenance graph.
+ */
+public class ProvLiveGraphTest {
+
+    private static W3CProvEntity entity(String value) {
+        return new W3CProvEntity(UUID.randomUUID(), null, "", value);
+    }
+
+    private static W3CProvActivity activity(String value) {
+        return new W3CProvActivity(UUID.randomUUID(), null, "", value);
+    }
+
+    private static Set<UUID> uuids(Set<ProvLiveGraph.Node> nodes) {
+        Set<UUID> uuids = new HashSet<>();
+        nodes.forEach(n -> uuids.add(n.getUuid()));
+        return uuids;
+    }
+
+    @Test
+    public void traceSkipsNonDependencies() {
+        ProvLiveGraph graph = new ProvLiveGraph(100, 0, 64);
+        W3CProvEntity packet = entity("packet");
+        W3CProvActivity listener = activity("listener");
+        W3CProvEntity flowRule = entity("flowRule");
+        W3CProvEntity oldFlowRule = entity("oldFlowRule");
+        graph.add(packet);
+        graph.add(listener);
+        graph.add(flowRule);
+        graph.add(oldFlowRule);
+        graph.add(new W3CProvRelation(listener, packet,
+                W3CProvRelationType.USED));
+        graph.add(new W3CProvRelation(flowRule, listener,
+                W3CProvRelationType.WAS_GENERATED_BY));
+        graph.add(new W3CProvRelation(flowRule, oldFlowRule,
+                W3CProvRelationType.WAS_REVISION_OF));
+        while (graph.apply() > 0) {
+            continue;
+        }
+
+        assertEquals(4, graph.size());
+        assertEquals(3, graph.edgeCount());
+        ProvLiveGraph.Node node = graph.getNode(packet.getUuid());
+        assertEquals(
+                new HashSet<>(Arrays.asList(listener.getUuid(),
+                        flowRule.getUuid())),
+                uuids(graph.getDescendantsOfNode(node)));
+
+        Map<ProvLiveGraph.Node, Set<ProvLiveGraph.Node>> trace = graph
+                .backwardForwardTrace(node);
+        assertEquals(1, trace.size());
+        ProvLiveGraph.Node ancestor = trace.keySet().iterator().next();
+        assertEquals(flowRule.getUuid(), ancestor.getUuid());
+        assertEquals(Collections.singleton(packet.getUuid()),
+                uuids(trace.get(ancestor)));
+        assertEquals(3, graph.getAncestryOfNode(ancestor).size());
+        assertEquals(1, graph.findNodes("oldFlowRule", 10).size());
+        assertEquals(2, graph.findNodes("low", 10).size());
+    }
+
+    @Test
+    public void evictsBySizeAndWindow() {
+        AtomicLong now = new AtomicLong();
+        ProvLiveGraph graph = new ProvLiveGraph(2, 100, 64, now::get);
+        W3CProvEntity a = entity("a");
+        W3CProvEntity b = entity("b");
+        W3CProvEntity c = entity("c");
+        graph.add(a);
+        graph.add(b);
+        graph.apply();
+        now.set(50);
+        graph.add(new W3CProvRelation(b, a, W3CProvRelationType.WAS_DERIVED_FROM));
+        graph.add(c);
+        graph.apply();
+
+        /* a was related after b, so b is the least recently seen */
+        assertEquals(2, graph.size());
+        assertNull(graph.getNode(b.getUuid()));
+        ProvLiveGraph.Node node = graph.getNode(a.getUuid());
+        assertNotNull(node);
+        assertTrue(graph.getDescendantsOfNode(node).isEmpty());
+
+        graph.add(new W3CProvRelation(c, b, W3CProvRelationType.WAS_DERIVED_FROM));
+        graph.apply();
+        assertEquals(1, graph.danglingRelationCount());
+        now.set(200);
+        graph.add(entity("d"));
+        graph.apply();
+        assertEquals(1, graph.size());
+        assertTrue(node.isEvicted());
+        assertEquals("", node.getValue());
+        assertEquals(3, graph.evictionCount());
+    }
+
+    @Test
+    public void evictionRemovesIncomingEdges() {
+        AtomicLong now = new AtomicLong();
+        ProvLiveGraph graph = new ProvLiveGraph(2, 0, 64, now::get);
+        W3CProvEntity a = entity("a");
+        W3CProvEntity b = entity("b");
+        W3CProvEntity c = entity("c");
+        graph.add(a);
+        graph.add(b);
+        graph.add(new W3CProvRelation(b, a, W3CProvRelationType.WAS_DERIVED_FROM));
+        graph.add(new W3CProvRelation(a, b, W3CProvRelationType.WAS_DERIVED_FROM));
+        graph.add(new W3CProvRelation(a, b, W3CProvRelationType.WAS_DERIVED_FROM));
+        graph.apply();
+        assertEquals(3, graph.edgeCount());
+
+        /* b was related last, so a is evicted with its edges in both directions */
+        graph.add(c);
+        graph.apply();
+        assertNull(graph.getNode(a.getUuid()));
+        assertEquals(0, graph.edgeCount());
+
+        /* b's stale references to a are purged as it gains edges */
+        for (int i = 0; i < 4; i++) {
+            graph.add(new W3CProvRelation(b, c, W3CProvRelationType.WAS_DERIVED_FROM));
+        }
+        graph.apply();
+        assertEquals(4, graph.edgeCount());
+        assertEquals(2, graph.size());
+    }
+
+    @Test
+    public void dropsWhenQueueIsFull() {
+        ProvLiveGraph graph = new ProvLiveGraph(100, 0, 4);
+        for (int i = 0; i < 6; i++) {
+            graph.add(entity("e" + i));
+        }
+        assertEquals(4, graph.acceptedCount());
+        assertEquals(2, graph.droppedCount());
+        graph.start();
+        assertTrue(graph.awaitApplied(5, TimeUnit.SECONDS));
+        graph.stop();
+        assertEquals(4, graph.size());
+        assertFalse(graph.getNode(UUID.randomUUID()) != null);
+    }
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests of the binary provenance log writer.
+ */
+public class ProvLogWriterTest {
+
+    private Path directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("provsdn-log");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (Path segment : ProvLogWriter.listSegments(directory)) {
+            Files.delete(segment);
+        }
+        Files.delete(directory);
+    }
+
+    /**
+     * picosdn-analysis decodes the log with its own copy of these codes;
+     * ProvLogReaderTest there pins the same values.
+     */
+    @Test
+    public void pinsFormatCodes() {
+        String[] relationCodes = { null, "used", "wasGeneratedBy",
+            "wasDerivedFrom", "wasInformedBy", "wasAssociatedWith",
+            "actedOnBehalfOf", "invalidates", "wasRevisionOf", "hadMember",
+            "alternateOf" };
+        assertEquals(0x50524f56, ProvLogWriter.MAGIC);
+        assertEquals(3, ProvLogWriter.VERSION);
+        assertEquals(1, ProvLogWriter.TYPE_ENTITY);
+        assertEquals(2, ProvLogWriter.TYPE_ACTIVITY);
+        assertEquals(3, ProvLogWriter.TYPE_RELATION);
+        assertEquals(4, ProvLogWriter.TYPE_MEMBERSHIP);
+        assertEquals(5, ProvLogWriter.TYPE_NODE);
+        assertEquals(relationCodes.length - 1,
+                W3CProvRelationType.values().length);
+        for (W3CProvRelationType type : W3CProvRelationType.values()) {
+            assertEquals(relationCodes[type.code()], type.provName());
+        }
+    }
+
+    @Test
+    public void writesFramedRecords() throws IOException {
+        ProvLogWriter writer = new ProvLogWriter(directory, 1 << 20, 0, 0);
+        writer.open();
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "DefaultFlowRule{id=1}");
+        W3CProvActivity activity = new W3CProvActivity(UUID.randomUUID(),
+                null, "org.onosproject.fwd.ReactiveForwarding$Processor", "");
+        writer.append(entity);
+        writer.append(activity);
+        writer.append(new W3CProvRelation(activity, entity,
+                W3CProvRelationType.USED));
+        writer.close();
+
+        List<Path> segments = ProvLogWriter.listSegments(directory);
+        assertEquals(1, segments.size());
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segments.get(0)));
+        assertEquals(ProvLogWriter.MAGIC, buffer.getInt());
+        assertEquals(ProvLogWriter.VERSION, buffer.getShort());
+        buffer.position(ProvLogWriter.SEGMENT_HEADER_SIZE);
+
+        assertEquals(ProvLogWriter.TYPE_ENTITY, nextRecord(buffer).get());
+        assertEquals(ProvLogWriter.TYPE_ACTIVITY, nextRecord(buffer).get());
+        ByteBuffer relation = nextRecord(buffer);
+        assertEquals(ProvLogWriter.TYPE_RELATION, relation.get());
+        assertEquals(W3CProvRelationType.USED.code(), relation.get());
+        assertEquals(activity.getUuid().getMostSignificantBits(),
+                relation.getLong());
+        assertEquals(0, buffer.getInt());
+        assertEquals(3, writer.recordCount());
+    }
+
+    @Test
+    public void rotatesAndRetainsSegments() throws IOException {
+        ProvLogWriter writer = new ProvLogWriter(directory, 256, 2, 0);
+        writer.open();
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "DefaultInboundPacket{receivedFrom=of:0000000000000001/1}");
+        for (int i = 0; i < 50; i++) {
+            writer.append(entity);
+        }
+        writer.close();
+
+        assertTrue(writer.rotationCount() > 2);
+        assertEquals(0, writer.droppedCount());
+        assertEquals(2, ProvLogWriter.listSegments(directory).size());
+    }
+
+    @Test
+    public void oversizedRecordGetsOwnSegment() throws IOException {
+        ProvLogWriter writer = new ProvLogWriter(directory, 128, 0, 0);
+        writer.open();
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            value.append("0123456789");
+        }
+        writer.append(new W3CProvEntity(UUID.randomUUID(), null, "",
+                value.toString()));
+        writer.close();
+
+        assertEquals(1, writer.recordCount());
+        assertEquals(0, writer.droppedCount());
+    }
+
+    @Test
+    public void tagsSegmentsWithNode() throws IOException {
+        ProvLogWriter writer = new ProvLogWriter(directory, 256, 0, 0,
+                ProvLogWriter.Format.BINARY, "10.0.0.1");
+        writer.open();
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "DefaultHost{id=00:00:00:00:00:01/None}");
+        entity.setHlc(ProvHybridClock.fromMillis(entity.getTs()) + 3);
+        for (int i = 0; i < 20; i++) {
+            writer.append(entity);
+        }
+        writer.close();
+
+        assertEquals(20, writer.recordCount());
+        List<Path> segments = ProvLogWriter.listSegments(directory);
+        assertTrue(segments.size() > 1);
+        for (Path segment : segments) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment));
+            buffer.position(ProvLogWriter.SEGMENT_HEADER_SIZE);
+            ByteBuffer node = nextRecord(buffer);
+            assertEquals(ProvLogWriter.TYPE_NODE, node.get());
+            assertEquals(8, node.getInt());
+            ByteBuffer record = nextRecord(buffer);
+            assertEquals(ProvLogWriter.TYPE_ENTITY, record.get());
+            record.position(17);
+            assertEquals(entity.getHlc(), record.getLong());
+        }
+    }
+
+    /**
+     * Read the next framed record, checking its length.
+     */
+    private ByteBuffer nextRecord(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.getInt();
+        assertTrue(length > 0);
+        ByteBuffer payload = buffer.slice();
+        payload.limit(length);
+        buffer.position(buffer.position() + length);
+        return payload;
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.security.DefaultProvActivity;
+import org.onosproject.security.DefaultProvEntity;
+import org.onosproject.security.ProvActivity;
+import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
+import org.onosproject.security.ProvEntity;
+
+/**
+ * Tests of provenance for API calls over collections of entities.
+ */
+public class ProvManagerBulkReadTest {
+
+    private ProvManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new ProvManager();
+        manager.cfgService = new ComponentConfigAdapter();
+        manager.flowRuleService = new FlowRuleServiceAdapter();
+        manager.clusterService = new ClusterServiceAdapter();
+        manager.activate(null);
+    }
+
+    @After
+    public void tearDown() {
+        ProvContext.clear();
+        manager.deactivate();
+    }
+
+    private Object listen() {
+        ProvActivity activity = new DefaultProvActivity();
+        manager.recordDispatch(activity);
+        manager.recordListen(activity, getClass());
+        return ProvContext.current();
+    }
+
+    private static List<ProvEntity> entities(int n) {
+        List<ProvEntity> entities = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            entities.add(new DefaultProvEntity());
+        }
+        return entities;
+    }
+
+    @Test
+    public void readsShareCollectionEntity() {
+        List<ProvEntity> entities = entities(10);
+        manager.recordApiCalls(ProvApiCallType.READ, entities, listen(), null);
+        for (ProvEntity entity : entities) {
+            assertNotNull(entity.getEntityUuid());
+        }
+        assertEquals(1, manager.collectionIndex().size());
+        assertEquals(10, manager.entityIndex().size());
+
+        /* same members in another order, read by another activity */
+        List<ProvEntity> shuffled = new ArrayList<>(entities);
+        Collections.reverse(shuffled);
+        manager.recordApiCalls(ProvApiCallType.READ, shuffled, listen(), null);
+        assertEquals(1, manager.collectionIndex().size());
+
+        /* a different set of members */
+        manager.recordApiCalls(ProvApiCallType.READ,
+                shuffled.subList(0, 9), listen(), null);
+        assertEquals(2, manager.collectionIndex().size());
+    }
+
+    @Test
+    public void collectionKeysCompareMembers() {
+        W3CProvEntity a = new W3CProvEntity(UUID.randomUUID(), null, "", "a");
+        W3CProvEntity b = new W3CProvEntity(UUID.randomUUID(), null, "", "b");
+        ProvManager.CollectionKey key = new ProvManager.CollectionKey(
+                new W3CProvEntity[] {a, a, b});
+        ProvManager.CollectionKey reordered = new ProvManager.CollectionKey(
+                new W3CProvEntity[] {b, a, a});
+        assertEquals(key, reordered);
+        assertEquals(key.hashCode(), reordered.hashCode());
+        assertFalse(key.equals(new ProvManager.CollectionKey(
+                new W3CProvEntity[] {a, b, b})));
+    }
+
+    @Test
+    public void skipsEmptyCollections() {
+        manager.recordApiCalls(ProvApiCallType.READ,
+                Collections.<ProvEntity>emptyList(), listen(), null);
+        assertEquals(0, manager.collectionIndex().size());
+    }
+
+    @Test
+    public void createsArePerEntity() {
+        List<ProvEntity> entities = entities(3);
+        manager.recordApiCalls(ProvApiCallType.CREATE, entities, listen(),
+                null);
+        assertEquals(0, manager.collectionIndex().size());
+        assertEquals(3, manager.entityIndex().size());
+    }
+
+    @Test
+    public void asynchronousBulkRead() {
+        manager.configureIngest(true, 2, 16, 1);
+        ProvIngestPipeline pipeline = manager.ingestPipeline();
+        List<ProvEntity> entities = entities(5);
+        manager.recordApiCalls(ProvApiCallType.READ,
+                Arrays.asList(entities.toArray(new ProvEntity[0])), listen(),
+                null);
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(1, manager.collectionIndex().size());
+    }
+
+}
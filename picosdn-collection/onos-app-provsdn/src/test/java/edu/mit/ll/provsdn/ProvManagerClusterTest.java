@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onlab.packet.IpAddress;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.cluster.ControllerNode;
+import org.onosproject.cluster.DefaultControllerNode;
+import org.onosproject.cluster.NodeId;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.security.DefaultProvActivity;
+import org.onosproject.security.DefaultProvEntity;
+import org.onosproject.security.ProvActivity;
+import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
+import org.onosproject.security.ProvEntity;
+import org.onosproject.security.ProvIdGenerator;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Tests of provenance for entities replicated between cluster nodes.
+ */
+public class ProvManagerClusterTest {
+
+    private static final int LOCAL_NODE = 1;
+    private static final int REMOTE_NODE = 2;
+
+    private ProvManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new ProvManager();
+        manager.cfgService = new ComponentConfigAdapter();
+        manager.flowRuleService = new FlowRuleServiceAdapter();
+        manager.clusterService = new ClusterServiceAdapter();
+        manager.activate(null);
+        manager.setIdGenerator(ProvIdGenerators.timeOrdered(LOCAL_NODE,
+                System::currentTimeMillis));
+    }
+
+    @After
+    public void tearDown() {
+        ProvContext.clear();
+        manager.deactivate();
+    }
+
+    private void read(ProvEntity entity) {
+        ProvActivity activity = new DefaultProvActivity();
+        manager.recordDispatch(activity);
+        manager.recordListen(activity, getClass());
+        manager.recordApiCall(ProvApiCallType.READ, entity, null,
+                ProvContext.current(), null);
+    }
+
+    @Test
+    public void localEntityKeepsItsId() {
+        ProvEntity entity = new DefaultProvEntity();
+        read(entity);
+        long id = entity.getEntityId();
+        W3CProvEntity w3cEntity = manager.entityIndex().get(id);
+        assertEquals(id, w3cEntity.getId());
+        assertEquals(ProvIdGenerators.CLUSTER_PREFIX,
+                w3cEntity.getUuid().getMostSignificantBits());
+        assertEquals(id, w3cEntity.getUuid().getLeastSignificantBits());
+    }
+
+    @Test
+    public void replicatedEntityIsAlternate() {
+        /* an entity created on another node in the future */
+        long createdAt = System.currentTimeMillis() + 60_000;
+        ProvIdGenerator remote = ProvIdGenerators.timeOrdered(REMOTE_NODE,
+                () -> createdAt);
+        ProvEntity entity = new DefaultProvEntity();
+        long id = remote.nextId();
+        entity.setEntityId(id);
+
+        read(entity);
+        read(entity);
+
+        /* the replica has a local id and the original keeps its id */
+        W3CProvEntity replica = manager.entityIndex().get(id);
+        assertNotEquals(id, replica.getId());
+        assertEquals(LOCAL_NODE,
+                ProvIdGenerators.timeOrderedNode(replica.getId()));
+        assertEquals(id, entity.getEntityId());
+        assertSame(replica, manager.entityIndex().get(id));
+
+        /* the replica is ordered after the original was created */
+        assertTrue(replica.getHlc() > ProvHybridClock
+                .endOfMillis(ProvIdGenerators.timeOrderedMillis(id)));
+        assertTrue(manager.clock().last() >= replica.getHlc());
+    }
+
+    @Test
+    public void nodeNumberIsIndexInCluster() {
+        manager.clusterService = new ClusterServiceAdapter() {
+            @Override
+            public ControllerNode getLocalNode() {
+                return node("onos-2");
+            }
+
+            @Override
+            public Set<ControllerNode> getNodes() {
+                return ImmutableSet.of(node("onos-3"), node("onos-1"),
+                        node("onos-2"));
+            }
+        };
+        assertEquals(1, manager.nodeNumber());
+        manager.configureIdGenerator("time");
+        ProvEntity entity = new DefaultProvEntity();
+        read(entity);
+        assertEquals(1, ProvIdGenerators.timeOrderedNode(entity.getEntityId()));
+    }
+
+    private static ControllerNode node(String id) {
+        return new DefaultControllerNode(new NodeId(id),
+                IpAddress.valueOf("127.0.0.1"));
+    }
+
+    @Test
+    public void sessionPrefixWithoutClusterUniqueIds() {
+        manager.setIdGenerator(ProvIdGenerators.counter(LOCAL_NODE));
+        ProvEntity entity = new DefaultProvEntity();
+        read(entity);
+        W3CProvEntity w3cEntity = manager.entityIndex()
+                .get(entity.getEntityId());
+        assertNotEquals(ProvIdGenerators.CLUSTER_PREFIX,
+                w3cEntity.getUuid().getMostSignificantBits());
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onosproject.cfg.ComponentConfigAdapter;
+import org.onosproject.cluster.ClusterServiceAdapter;
+import org.onosproject.net.flow.FlowRuleServiceAdapter;
+import org.onosproject.security.DefaultProvActivity;
+import org.onosproject.security.DefaultProvEntity;
+import org.onosproject.security.ProvActivity;
+import org.onosproject.security.ProvApiCallType;
+import org.onosproject.security.ProvContext;
+import org.onosproject.security.ProvEntity;
+
+/**
+ * Tests of synchronous and asynchronous provenance ingestion.
+ */
+public class ProvManagerIngestTest {
+
+    private static final int THREADS = 4;
+    private static final int ACTIVITIES = 500;
+
+    private ProvManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new ProvManager();
+        manager.cfgService = new ComponentConfigAdapter();
+        manager.flowRuleService = new FlowRuleServiceAdapter();
+        manager.clusterService = new ClusterServiceAdapter();
+        manager.activate(null);
+    }
+
+    @After
+    public void tearDown() {
+        manager.deactivate();
+    }
+
+    @Test
+    public void synchronousByDefault() {
+        assertNull(manager.ingestPipeline());
+        ProvEntity entity = new DefaultProvEntity();
+        manager.recordApiCall(ProvApiCallType.READ, entity, null,
+                new Throwable());
+        assertNotNull(entity.getEntityUuid());
+    }
+
+    /* stand-in for a listener class */
+    private static class StatisticListener {
+    }
+
+    @Test
+    public void defaultPolicyDropsStatistics() {
+        ProvActivity activity = new DefaultProvActivity();
+        manager.recordDispatch(activity);
+        manager.recordListen(activity, StatisticListener.class);
+        assertNull(ProvContext.current());
+        manager.recordListen(activity, getClass());
+        assertNotNull(ProvContext.current());
+        ProvContext.clear();
+    }
+
+    @Test
+    public void undispatchedActivityHasNoContext() {
+        ProvActivity activity = new DefaultProvActivity();
+        manager.recordDispatch(activity);
+        manager.recordListen(activity, getClass());
+        assertNotNull(ProvContext.current());
+        manager.recordListen(new DefaultProvActivity(), getClass());
+        assertNull(ProvContext.current());
+    }
+
+    @Test
+    public void activitiesHaveOrderedIds() {
+        manager.setIdGenerator(ProvIdGenerators.counter(3));
+        W3CProvActivity[] w3cActivities = new W3CProvActivity[3];
+        for (int i = 0; i < w3cActivities.length; i++) {
+            ProvActivity activity = new DefaultProvActivity();
+            manager.recordDispatch(activity);
+            manager.recordListen(activity, getClass());
+            w3cActivities[i] = (W3CProvActivity) ProvContext.current();
+        }
+        ProvContext.clear();
+        for (int i = 1; i < w3cActivities.length; i++) {
+            assertTrue(w3cActivities[i - 1].getId() < w3cActivities[i].getId());
+            assertEquals(3, w3cActivities[i].getId() >>> 48);
+            assertEquals(w3cActivities[0].getListenerId(),
+                    w3cActivities[i].getListenerId());
+            assertEquals(w3cActivities[0].getUuid().getMostSignificantBits(),
+                    w3cActivities[i].getUuid().getMostSignificantBits());
+        }
+    }
+
+    @Test
+    public void asynchronousIngestion() throws InterruptedException {
+        manager.configureIngest(true, 4, 64, 2);
+        ProvIngestPipeline pipeline = manager.ingestPipeline();
+        assertNotNull(pipeline);
+
+        List<ProvEntity> entities = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final List<ProvEntity> mine = new ArrayList<>();
+            for (int i = 0; i < ACTIVITIES; i++) {
+                mine.add(new DefaultProvEntity());
+            }
+            entities.addAll(mine);
+            Thread thread = new Thread(() -> {
+                for (ProvEntity entity : mine) {
+                    ProvActivity activity = new DefaultProvActivity();
+                    manager.recordDispatch(activity);
+                    manager.recordListen(activity, getClass());
+                    manager.recordApiCall(ProvApiCallType.CREATE, entity, null,
+                            new Throwable());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(pipeline.awaitDrained(10, TimeUnit.SECONDS));
+        assertEquals(3L * THREADS * ACTIVITIES, pipeline.processedCount());
+        for (ProvEntity entity : entities) {
+            assertNotNull(entity.getEntityUuid());
+        }
+    }
+
+    @Test
+    public void switchBackToSynchronous() {
+        manager.configureIngest(true, 2, 16, 1);
+        ProvIngestPipeline pipeline = manager.ingestPipeline();
+        ProvEntity entity = new DefaultProvEntity();
+        manager.recordApiCall(ProvApiCallType.READ, entity, null,
+                new Throwable());
+        manager.configureIngest(false, 2, 16, 1);
+        assertNull(manager.ingestPipeline());
+        /* stopping the pipeline drains what was already queued */
+        assertEquals(pipeline.submittedCount(), pipeline.processedCount());
+        assertNotNull(entity.getEntityUuid());
+    }
+
+}
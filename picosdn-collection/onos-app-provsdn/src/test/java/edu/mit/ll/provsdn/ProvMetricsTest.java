@@ -0,0 +1,63 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+import org.onlab.metrics.MetricsManager;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricFilter;
+
+/**
+ * Tests of the metrics registered with the MetricsService.
+ */
+public class ProvMetricsTest {
+
+    @Test
+    public void exposesIndexEvictions() {
+        MetricsManager metricsService = new MetricsManager();
+        ProvMetrics metrics = new ProvMetrics(metricsService, () -> null);
+        ProvBoundedIndex<Integer, String> index = new ProvBoundedIndex<>(1, 0);
+        metrics.registerIndex("EntityIndex", index);
+        index.put(1, "a");
+        index.put(2, "b");
+
+        assertEquals(1, gauge(metricsService, "EntityIndexSize").getValue());
+        assertEquals(1L,
+                gauge(metricsService, "EntityIndexSizeEvictions").getValue());
+        assertEquals(0L,
+                gauge(metricsService, "EntityIndexAgeEvictions").getValue());
+
+        metrics.remove();
+        assertTrue(metricsService.getGauges(MetricFilter.ALL).isEmpty());
+    }
+
+    private static Gauge<?> gauge(MetricsManager metricsService, String name) {
+        for (Map.Entry<String, Gauge> entry : metricsService
+                .getGauges(MetricFilter.ALL).entrySet()) {
+            if (entry.getKey().endsWith("." + name)) {
+                return entry.getValue();
+            }
+        }
+        throw new AssertionError("No gauge " + name);
+    }
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+import org.onlab.packet.ChassisId;
+import org.onosproject.net.DefaultDevice;
+import org.onosproject.net.Device;
+import org.onosproject.net.DeviceId;
+import org.onosproject.net.device.DeviceEvent;
+import org.onosproject.net.provider.ProviderId;
+import org.onosproject.security.DefaultProvActivity;
+import org.onosproject.security.ProvActivity;
+
+/**
+ * Tests of the provenance sampling and rate-limit policy.
+ */
+public class ProvPolicyTest {
+
+    private static final ProviderId PID = new ProviderId("of", "foo");
+
+    /* stand-ins for listener classes */
+    private static class StatisticListener {
+    }
+
+    private static class FwdListener {
+    }
+
+    @Test
+    public void defaultPolicyDropsStatistics() {
+        ProvPolicy policy = ProvPolicy.parse(ProvPolicy.DEFAULT_RULES);
+        ProvActivity activity = new DefaultProvActivity();
+        assertFalse(policy.admit(activity, StatisticListener.class));
+        assertTrue(policy.admit(activity, FwdListener.class));
+        assertEquals(1, policy.keptCount());
+        assertEquals(1, policy.droppedCount());
+    }
+
+    @Test
+    public void firstMatchingRuleWins() {
+        ProvPolicy policy = ProvPolicy.parse(
+                "keep listener=*Fwd*; drop event=*ProvActivity");
+        ProvActivity activity = new DefaultProvActivity();
+        assertTrue(policy.admit(activity, FwdListener.class));
+        assertFalse(policy.admit(activity, StatisticListener.class));
+    }
+
+    @Test
+    public void matchesDeviceAndApp() {
+        ProvPolicy policy = ProvPolicy.parse("drop device=of:0000000000000001"
+                + " app=edu.mit.ll.provsdn");
+        ProvActivity event1 = new DeviceEvent(DeviceEvent.Type.DEVICE_ADDED,
+                device("of:0000000000000001"));
+        ProvActivity event2 = new DeviceEvent(DeviceEvent.Type.DEVICE_ADDED,
+                device("of:0000000000000002"));
+        assertFalse(policy.admit(event1, FwdListener.class));
+        assertTrue(policy.admit(event2, FwdListener.class));
+        assertTrue(policy.admit(event1, Object.class));
+    }
+
+    @Test
+    public void samplesAll() {
+        ProvPolicy policy = ProvPolicy.parse("sample:0 listener=*Statistic*;"
+                + " sample:1");
+        ProvActivity activity = new DefaultProvActivity();
+        for (int i = 0; i < 100; i++) {
+            assertFalse(policy.admit(activity, StatisticListener.class));
+            assertTrue(policy.admit(activity, FwdListener.class));
+        }
+    }
+
+    @Test
+    public void rateLimitsPerSecond() {
+        ProvPolicy policy = ProvPolicy.parse("limit:10");
+        ProvActivity activity = new DefaultProvActivity();
+        int admitted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (policy.admit(activity, FwdListener.class)) {
+                admitted++;
+            }
+        }
+        /* burst of one second's worth, plus whatever trickled in */
+        assertTrue(admitted >= 10 && admitted < 20);
+    }
+
+    @Test
+    public void tokenBucketRefills() {
+        AtomicLong now = new AtomicLong();
+        ProvTokenBucket bucket = new ProvTokenBucket(2, now::get);
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+        now.set(500_000_000L);
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownMatcher() {
+        ProvPolicy.parse("drop vlan=10");
+    }
+
+    private static Device device(String id) {
+        return new DefaultDevice(PID, DeviceId.deviceId(id), Device.Type.SWITCH,
+                "m", "h", "s", "n", new ChassisId());
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.Test;
+
+/**
+ * Tests of the W3C PROV record encoder.
+ */
+public class ProvRecordEncoderTest {
+
+    private final ProvRecordEncoder encoder = new ProvRecordEncoder(16);
+
+    @Test
+    public void jsonMatchesStringPath() {
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "DefaultFlowRule{id=1, selector=\"a\\b\"}\n");
+        W3CProvActivity activity = new W3CProvActivity(UUID.randomUUID(),
+                null, "org.onosproject.fwd.ReactiveForwarding$Processor", "");
+        W3CProvRelation relation = new W3CProvRelation(activity, entity,
+                W3CProvRelationType.USED);
+
+        assertEquals(entity.toJson() + "\n",
+                text(encoder.jsonObject("entity", entity.getUuid(),
+                        entity.getTs(), entity.getHlc(), entity.getName(),
+                        entity.getValue())));
+        assertEquals(activity.toJson() + "\n",
+                text(encoder.jsonObject("activity", activity.getUuid(),
+                        activity.getTs(), activity.getHlc(),
+                        activity.getName(), activity.getValue())));
+        assertEquals(relation.toJson() + "\n",
+                text(encoder.jsonRelation(relation)));
+    }
+
+    @Test
+    public void jsonRelationFitsBound() {
+        W3CProvEntity entity = new W3CProvEntity(UUID.randomUUID(), null, "",
+                "");
+        for (W3CProvRelationType type : W3CProvRelationType.values()) {
+            W3CProvRelation relation = new W3CProvRelation(entity, entity,
+                    type);
+            assertTrue(encoder.jsonRelation(relation)
+                    .remaining() <= ProvRecordEncoder.maxJsonRelationSize());
+        }
+    }
+
+    @Test
+    public void encodesMembership() {
+        W3CProvEntity collection = new W3CProvEntity(UUID.randomUUID(), null,
+                "", "Collection{size=2}");
+        W3CProvEntity[] members = {
+            new W3CProvEntity(UUID.randomUUID(), null, "", "a"),
+            new W3CProvEntity(UUID.randomUUID(), null, "", "b") };
+        W3CProvMembership membership = new W3CProvMembership(collection,
+                members);
+
+        assertEquals(membership.toJson() + "\n",
+                text(encoder.jsonMembership(membership)));
+
+        ByteBuffer binary = encoder.membership(membership);
+        assertEquals(ProvRecordEncoder.membershipSize(2), binary.remaining());
+        assertEquals(ProvLogWriter.TYPE_MEMBERSHIP, binary.get());
+        assertEquals(collection.getUuid().getMostSignificantBits(),
+                binary.getLong());
+        assertEquals(collection.getUuid().getLeastSignificantBits(),
+                binary.getLong());
+        assertEquals(membership.getHlc(), binary.getLong());
+        assertEquals(2, binary.getInt());
+        for (W3CProvEntity member : members) {
+            assertEquals(member.getUuid().getMostSignificantBits(),
+                    binary.getLong());
+            assertEquals(member.getUuid().getLeastSignificantBits(),
+                    binary.getLong());
+        }
+    }
+
+    @Test
+    public void encodesNode() {
+        String node = "10.0.0.1";
+        ByteBuffer binary = encoder.node(node);
+        assertEquals(ProvLogWriter.TYPE_NODE, binary.get());
+        assertEquals(node, string(binary));
+
+        assertEquals("{\"segment\":\"7\",\"node\":\"10.0.0.1\"}\n",
+                text(encoder.jsonNode(node, 7)));
+    }
+
+    @Test
+    public void escapesJson() {
+        assertEquals("a\\\"b\\\\c\\nd\\u0001é",
+                ProvRecordEncoder.escapeJson("a\"b\\c\nd\u0001é"));
+        assertEquals("plain", ProvRecordEncoder.escapeJson("plain"));
+    }
+
+    @Test
+    public void dictionaryCodesNames() {
+        UUID uuid = UUID.randomUUID();
+        String name = "org.onosproject.fwd.ReactiveForwarding$Processor";
+        String value = "DeviceId{of:0000000000000001} ☃";
+
+        ByteBuffer first = encoder.object(ProvLogWriter.TYPE_ACTIVITY, uuid,
+                42L, name, value);
+        assertEquals(ProvLogWriter.TYPE_ACTIVITY, first.get());
+        assertEquals(uuid.getMostSignificantBits(), first.getLong());
+        assertEquals(uuid.getLeastSignificantBits(), first.getLong());
+        assertEquals(42L, first.getLong());
+        assertEquals(-1, first.getInt());
+        assertEquals(name, string(first));
+        assertEquals(value, string(first));
+
+        ByteBuffer second = encoder.object(ProvLogWriter.TYPE_ACTIVITY, uuid,
+                43L, name, value);
+        second.position(25);
+        assertEquals(0, second.getInt());
+        assertEquals(value, string(second));
+
+        encoder.resetDictionary();
+        ByteBuffer third = encoder.object(ProvLogWriter.TYPE_ACTIVITY, uuid,
+                44L, name, value);
+        third.position(25);
+        assertEquals(-1, third.getInt());
+    }
+
+    private static String text(ByteBuffer buffer) {
+        byte[] b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return new String(b, UTF_8);
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] b = new byte[buffer.getInt()];
+        buffer.get(b);
+        return new String(b, UTF_8);
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-present Open Networking Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package edu.mit.ll.provsdn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests of the lock-free provenance ring buffer.
+ */
+public class ProvRingBufferTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(8, new ProvRingBuffer<Integer>(5).capacity());
+        assertEquals(8, new ProvRingBuffer<Integer>(8).capacity());
+    }
+
+    @Test
+    public void fifoAndFull() {
+        ProvRingBuffer<Integer> ring = new ProvRingBuffer<>(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void concurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int perProducer = 50_000;
+        final ProvRingBuffer<Long> ring = new ProvRingBuffer<>(1024);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final long base = (long) p << 32;
+            Thread t = new Thread(() -> {
+                for (int i = 0; i < perProducer; i++) {
+                    while (!ring.offer(base | i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+
+        /* each producer's records must come out in the order they went in */
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * perProducer) {
+            Long value = ring.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = (int) (value >>> 32);
+            assertEquals(next[producer], (int) (value & 0xffffffffL));
+            next[producer]++;
+            received++;
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertNull(ring.poll());
+    }
+
+}
@@ -0,0 +1,780 @@
+package edu.mit.ll.provsdnquery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Declarative path query over a W3C PROV graph, parsed from text such as:
+ *
+ * <pre>
+ * (f:entity "DefaultFlowRule") -[wasGeneratedBy]-> (a:activity "org.onosproject.fwd")
+ *     -[used]-> (p:entity "DefaultInboundPacket" token "port=2" ts within 1h)
+ *     return f limit 20
+ * </pre>
+ *
+ * i.e., the flow rules generated by activities of an application that used a
+ * packet received on a port in the hour before the latest record. A query is a
+ * path of node patterns joined by edge patterns; it matches the nodes that
+ * can be bound to the returned pattern (by default, the first) in some match
+ * of the whole path.
+ *
+ * <pre>
+ * query     := node { edge node } [ "return" NAME ] [ "limit" NUMBER ]
+ * node      := "(" [ NAME ] [ ":" ( "agent" | "activity" | "entity" ) ]
+ *              { [ "not" ] predicate } ")"
+ * predicate := STRING                     value contains the string
+ *            | "value" "~" STRING         value contains the string
+ *            | "value" "=" STRING         value is the string
+ *            | "token" STRING             value contains the token(s)
+ *            | "uuid" "=" STRING
+ *            | "ts" ( "<" | "<=" | ">" | ">=" | "=" ) NUMBER
+ *            | "ts" "within" DURATION     e.g., 500ms, 30s, 10m, 1h or 2d
+ *                                         before the latest timestamp in
+ *                                         the graph (not the current time)
+ * edge      := "-" [ "[" spec "]" ] "->"  the left node depends on the right
+ *            | "&lt;-" [ "[" spec "]" ] "-"  the right node depends on the left
+ * spec      := [ RELATION { "|" RELATION } ] [ "*" [ NUMBER ] [ ".." [ NUMBER ] ] ]
+ * </pre>
+ *
+ * Predicates of a node are all required. An edge without relation types
+ * follows dependency edges only (i.e., not wasRevisionOf or invalidates), as
+ * traces do. "*" repeats an edge: "*" alone is 1 to DEFAULT_MAX_DEPTH times,
+ * "*n" exactly n times, "*m..n" m to n times (m may be 0, matching the node
+ * itself), "*m.." m to DEFAULT_MAX_DEPTH times, and no more than MAX_DEPTH
+ * times in any case. Keywords are case-insensitive; names of patterns are not
+ * and each may be used once. Relation types are checked when the query is
+ * run, against those of the graph it is run on.
+ *
+ * Queries are parsed here and evaluated where the graph is: offline by
+ * W3CProvQueryExecutor in picosdn-analysis, and on the controller by
+ * ProvLiveGraph.query() in onos-app-provsdn.
+ *
+ * @author Benjamin Ujcich <benjamin.ujcich@ll.mit.edu> <ujcich2@illinois.edu>
+ * @author Samuel Jero <samuel.jero@ll.mit.edu>
+ * @version 2.0
+ */
+public final class ProvQuery {
+
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    public static final int MAX_DEPTH = 64;
+
+    private final List<NodePattern> nodes;
+    private final List<EdgePattern> edges;
+    private final int returned;
+    private final int limit;
+
+    private ProvQuery(List<NodePattern> nodes, List<EdgePattern> edges,
+            int returned, int limit) {
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.edges = Collections.unmodifiableList(edges);
+        this.returned = returned;
+        this.limit = limit;
+    }
+
+    /**
+     * Parse a query.
+     *
+     * @param text
+     * @return query
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    public static ProvQuery parse(String text) {
+        return new Parser(text).query();
+    }
+
+    /**
+     * Names of the node patterns, in path order; unnamed patterns are named
+     * "_1", "_2", ... by position.
+     *
+     * @return names
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<String>();
+        for (NodePattern node : nodes) {
+            names.add(node.name);
+        }
+        return names;
+    }
+
+    /**
+     * Name of the node pattern whose matches are returned.
+     *
+     * @return name
+     */
+    public String getReturned() {
+        return nodes.get(returned).name;
+    }
+
+    /**
+     * Maximum number of nodes to return.
+     *
+     * @return limit, or -1 if there is none
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Node patterns, in path order.
+     *
+     * @return patterns
+     */
+    public List<NodePattern> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Edge patterns; the i-th joins the i-th and (i+1)-th node patterns.
+     *
+     * @return patterns
+     */
+    public List<EdgePattern> getEdges() {
+        return edges;
+    }
+
+    /**
+     * Position of the node pattern whose matches are returned.
+     *
+     * @return index in getNodes()
+     */
+    public int getReturnedIndex() {
+        return returned;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(nodes.get(0).toString());
+        for (int i = 0; i < edges.size(); i++) {
+            text.append(' ').append(edges.get(i)).append(' ')
+                    .append(nodes.get(i + 1));
+        }
+        text.append(" return ").append(getReturned());
+        if (limit >= 0) {
+            text.append(" limit ").append(limit);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Pattern matching one node of a path.
+     */
+    public static final class NodePattern {
+
+        private final String name;
+        private final String type;
+        private final List<Predicate> predicates;
+
+        private NodePattern(String name, String type,
+                List<Predicate> predicates) {
+            this.name = name;
+            this.type = type;
+            this.predicates = Collections.unmodifiableList(predicates);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Node type.
+         *
+         * @return "agent", "activity" or "entity", or null for any type
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * Predicates, all of which a matching node satisfies.
+         *
+         * @return predicates
+         */
+        public List<Predicate> getPredicates() {
+            return predicates;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder("(").append(name);
+            if (type != null) {
+                text.append(':').append(type);
+            }
+            for (Predicate predicate : predicates) {
+                text.append(' ').append(predicate);
+            }
+            return text.append(')').toString();
+        }
+    }
+
+    /**
+     * Conditions of predicates: the value contains the text or is the text,
+     * contains its tokens, the UUID is the text, the timestamp is in a range
+     * or within a duration of the latest one.
+     */
+    public enum Kind {
+        CONTAINS, EQUALS, TOKEN, UUID, TIME, WITHIN
+    }
+
+    /**
+     * Condition on a node's attributes.
+     */
+    public static final class Predicate {
+
+        private final Kind kind;
+        private final boolean negated;
+        private final String text;
+        /* TIME: inclusive range; WITHIN: duration in from */
+        private final long from;
+        private final long to;
+
+        private Predicate(Kind kind, boolean negated, String text, long from,
+                long to) {
+            this.kind = kind;
+            this.negated = negated;
+            this.text = text;
+            this.from = from;
+            this.to = to;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Whether a matching node does not satisfy the condition.
+         *
+         * @return negated
+         */
+        public boolean isNegated() {
+            return negated;
+        }
+
+        /**
+         * String of a CONTAINS, EQUALS, TOKEN or UUID predicate.
+         *
+         * @return text, or null for time predicates
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * Start of the range of a TIME predicate.
+         *
+         * @return inclusive timestamp, or Long.MIN_VALUE if unbounded
+         */
+        public long getFrom() {
+            return from;
+        }
+
+        /**
+         * End of the range of a TIME predicate.
+         *
+         * @return inclusive timestamp, or Long.MAX_VALUE if unbounded
+         */
+        public long getTo() {
+            return to;
+        }
+
+        /**
+         * Duration of a WITHIN predicate, before the latest timestamp in the
+         * graph.
+         *
+         * @return milliseconds
+         */
+        public long getDuration() {
+            return from;
+        }
+
+        @Override
+        public String toString() {
+            String condition;
+            switch (kind) {
+            case CONTAINS:
+                condition = "value ~ " + quote(text);
+                break;
+            case EQUALS:
+                condition = "value = " + quote(text);
+                break;
+            case TOKEN:
+                condition = "token " + quote(text);
+                break;
+            case UUID:
+                condition = "uuid = " + quote(text);
+                break;
+            case WITHIN:
+                condition = "ts within " + from + "ms";
+                break;
+            default:
+                condition = from == to ? "ts = " + from
+                        : from == Long.MIN_VALUE ? "ts <= " + to
+                                : "ts >= " + from
+                                        + (to == Long.MAX_VALUE ? ""
+                                                : " ts <= " + to);
+            }
+            return negated ? "not " + condition : condition;
+        }
+    }
+
+    /**
+     * Pattern matching a path of 1 or more edges (or 0, for a minimum
+     * depth of 0) between two node patterns.
+     */
+    public static final class EdgePattern {
+
+        private final boolean forward;
+        private final List<String> types;
+        private final int min;
+        private final int max;
+
+        private EdgePattern(boolean forward, List<String> types, int min,
+                int max) {
+            this.forward = forward;
+            this.types = Collections.unmodifiableList(types);
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * Whether edges go from the left node pattern to the right one.
+         *
+         * @return forward
+         */
+        public boolean isForward() {
+            return forward;
+        }
+
+        /**
+         * Relation types followed.
+         *
+         * @return names, or empty for any dependency
+         */
+        public List<String> getTypes() {
+            return types;
+        }
+
+        /**
+         * Minimum number of edges of a matching path.
+         *
+         * @return depth, 0 if the node itself matches
+         */
+        public int getMin() {
+            return min;
+        }
+
+        /**
+         * Maximum number of edges of a matching path.
+         *
+         * @return depth
+         */
+        public int getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder spec = new StringBuilder(String.join("|", types));
+            if (min != 1 || max != 1) {
+                spec.append('*').append(min).append("..").append(max);
+            }
+            String inner = spec.length() == 0 ? "--" : "-[" + spec + "]-";
+            return forward ? inner + ">" : "<" + inner;
+        }
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    /**
+     * Recursive descent parser, reading tokens on demand.
+     */
+    private static final class Parser {
+
+        private static final int END = 0;
+        private static final int NAME = 1;
+        private static final int NUMBER = 2;
+        private static final int STRING = 3;
+        private static final int SYMBOL = 4;
+
+        private final String text;
+        private int pos = 0;
+        /* current token */
+        private int kind;
+        private String token;
+        private int start;
+
+        private Parser(String text) {
+            this.text = text;
+            next();
+        }
+
+        private ProvQuery query() {
+            List<NodePattern> nodes = new ArrayList<NodePattern>();
+            List<EdgePattern> edges = new ArrayList<EdgePattern>();
+            nodes.add(node(nodes));
+            while (isSymbol("-") || isSymbol("<-")) {
+                edges.add(edge());
+                nodes.add(node(nodes));
+            }
+            int returned = 0;
+            if (acceptKeyword("return")) {
+                String name = expect(NAME, "a pattern name");
+                returned = -1;
+                for (int i = 0; i < nodes.size(); i++) {
+                    if (nodes.get(i).name.equals(name)) {
+                        returned = i;
+                    }
+                }
+                if (returned < 0) {
+                    throw error("No pattern named " + name);
+                }
+            }
+            int limit = -1;
+            if (acceptKeyword("limit")) {
+                limit = number();
+            }
+            if (kind != END) {
+                throw error("Unexpected " + describe());
+            }
+            return new ProvQuery(nodes, edges, returned, limit);
+        }
+
+        private NodePattern node(List<NodePattern> previous) {
+            expectSymbol("(");
+            String name = "_" + (previous.size() + 1);
+            if (kind == NAME && !isReserved(token)) {
+                name = token;
+                for (NodePattern node : previous) {
+                    if (node.name.equals(name)) {
+                        throw error("Pattern " + name + " is used twice");
+                    }
+                }
+                next();
+            }
+            String type = null;
+            if (acceptSymbol(":")) {
+                type = expect(NAME, "a node type").toLowerCase(Locale.ROOT);
+                if (!type.equals("agent") && !type.equals("activity")
+                        && !type.equals("entity")) {
+                    throw error("Unknown node type " + type);
+                }
+            }
+            List<Predicate> predicates = new ArrayList<Predicate>();
+            while (!acceptSymbol(")")) {
+                boolean negated = acceptKeyword("not") || acceptSymbol("!");
+                predicates.add(predicate(negated));
+            }
+            return new NodePattern(name, type, predicates);
+        }
+
+        private Predicate predicate(boolean negated) {
+            if (kind == STRING) {
+                String value = token;
+                next();
+                return new Predicate(Kind.CONTAINS, negated, value, 0, 0);
+            }
+            if (acceptKeyword("value")) {
+                Kind match = Kind.CONTAINS;
+                if (!acceptSymbol("~")) {
+                    expectSymbol("=");
+                    match = Kind.EQUALS;
+                }
+                return new Predicate(match, negated,
+                        expect(STRING, "a string"), 0, 0);
+            }
+            if (acceptKeyword("token")) {
+                return new Predicate(Kind.TOKEN, negated,
+                        expect(STRING, "a string"), 0, 0);
+            }
+            if (acceptKeyword("uuid")) {
+                expectSymbol("=");
+                return new Predicate(Kind.UUID, negated,
+                        expect(STRING, "a string"), 0, 0);
+            }
+            if (acceptKeyword("ts")) {
+                if (acceptKeyword("within")) {
+                    return new Predicate(Kind.WITHIN, negated, null,
+                            duration(), 0);
+                }
+                if (kind != SYMBOL) {
+                    throw error("Expected a comparison after ts");
+                }
+                String op = token;
+                next();
+                long ts = timestamp();
+                switch (op) {
+                case "<":
+                    return time(negated, Long.MIN_VALUE, ts - 1);
+                case "<=":
+                    return time(negated, Long.MIN_VALUE, ts);
+                case ">":
+                    return time(negated, ts + 1, Long.MAX_VALUE);
+                case ">=":
+                    return time(negated, ts, Long.MAX_VALUE);
+                case "=":
+                    return time(negated, ts, ts);
+                default:
+                    throw error("Expected a comparison after ts");
+                }
+            }
+            throw error("Expected a predicate or ')' but found " + describe());
+        }
+
+        private Predicate time(boolean negated, long from, long to) {
+            return new Predicate(Kind.TIME, negated, null, from, to);
+        }
+
+        private EdgePattern edge() {
+            boolean forward = acceptSymbol("-");
+            if (!forward) {
+                expectSymbol("<-");
+            }
+            List<String> types = new ArrayList<String>();
+            int min = 1;
+            int max = 1;
+            if (acceptSymbol("[")) {
+                if (kind == NAME) {
+                    types.add(token);
+                    next();
+                    while (acceptSymbol("|")) {
+                        types.add(expect(NAME, "a relation type"));
+                    }
+                }
+                if (acceptSymbol("*")) {
+                    min = 1;
+                    max = DEFAULT_MAX_DEPTH;
+                    if (kind == NUMBER) {
+                        min = number();
+                        max = Math.max(min, DEFAULT_MAX_DEPTH);
+                        if (!isSymbol("..")) {
+                            max = min;
+                        }
+                    }
+                    if (acceptSymbol("..")) {
+                        if (kind == NUMBER) {
+                            max = number();
+                        }
+                    }
+                    if (max < min || max < 1) {
+                        throw error("Empty depth range " + min + ".." + max);
+                    }
+                    if (max > MAX_DEPTH) {
+                        throw error("Depth " + max + " is more than "
+                                + MAX_DEPTH);
+                    }
+                }
+                expectSymbol("]");
+            }
+            expectSymbol(forward ? "->" : "-");
+            return new EdgePattern(forward, types, min, max);
+        }
+
+        /**
+         * Duration in milliseconds, from a number and a unit.
+         */
+        private long duration() {
+            if (kind != NUMBER) {
+                throw error("Expected a duration such as 10m");
+            }
+            int split = 0;
+            while (split < token.length()
+                    && Character.isDigit(token.charAt(split))) {
+                split++;
+            }
+            long amount = Long.parseLong(token.substring(0, split));
+            String unit = token.substring(split).toLowerCase(Locale.ROOT);
+            long millis;
+            switch (unit) {
+            case "ms":
+                millis = 1;
+                break;
+            case "s":
+                millis = 1000;
+                break;
+            case "m":
+                millis = 60_000;
+                break;
+            case "h":
+                millis = 3_600_000;
+                break;
+            case "d":
+                millis = 86_400_000;
+                break;
+            default:
+                throw error("Unknown time unit '" + unit
+                        + "' (ms, s, m, h or d)");
+            }
+            next();
+            return amount * millis;
+        }
+
+        private long timestamp() {
+            if (kind != NUMBER || !isDigits(token)) {
+                throw error("Expected a timestamp but found " + describe());
+            }
+            try {
+                long ts = Long.parseLong(token);
+                next();
+                return ts;
+            } catch (NumberFormatException e) {
+                throw error("Timestamp out of range");
+            }
+        }
+
+        private int number() {
+            if (kind != NUMBER || !isDigits(token) || token.length() > 9) {
+                throw error("Expected a number but found " + describe());
+            }
+            int n = Integer.parseInt(token);
+            next();
+            return n;
+        }
+
+        private static boolean isDigits(String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (!Character.isDigit(s.charAt(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isReserved(String name) {
+            switch (name.toLowerCase(Locale.ROOT)) {
+            case "not":
+            case "value":
+            case "token":
+            case "uuid":
+            case "ts":
+                return true;
+            default:
+                return false;
+            }
+        }
+
+        /*
+         * Tokens
+         */
+
+        private boolean isSymbol(String symbol) {
+            return kind == SYMBOL && token.equals(symbol);
+        }
+
+        private boolean acceptSymbol(String symbol) {
+            if (isSymbol(symbol)) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        private void expectSymbol(String symbol) {
+            if (!acceptSymbol(symbol)) {
+                throw error("Expected '" + symbol + "' but found "
+                        + describe());
+            }
+        }
+
+        private boolean acceptKeyword(String keyword) {
+            if (kind == NAME && token.equalsIgnoreCase(keyword)) {
+                next();
+                return true;
+            }
+            return false;
+        }
+
+        private String expect(int expected, String what) {
+            if (kind != expected) {
+                throw error("Expected " + what + " but found " + describe());
+            }
+            String value = token;
+            next();
+            return value;
+        }
+
+        private String describe() {
+            switch (kind) {
+            case END:
+                return "end of query";
+            case STRING:
+                return quote(token);
+            default:
+                return "'" + token + "'";
+            }
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(
+                    message + " at position " + start);
+        }
+
+        private void next() {
+            int length = text.length();
+            while (pos < length && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            start = pos;
+            if (pos == length) {
+                kind = END;
+                token = "";
+                return;
+            }
+            char c = text.charAt(pos);
+            if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                pos++;
+                while (pos < length && text.charAt(pos) != '"') {
+                    if (text.charAt(pos) == '\\' && pos + 1 < length) {
+                        pos++;
+                    }
+                    value.append(text.charAt(pos++));
+                }
+                if (pos == length) {
+                    throw error("Unterminated string");
+                }
+                pos++;
+                kind = STRING;
+                token = value.toString();
+            } else if (Character.isDigit(c)) {
+                /* numbers, with the unit of durations */
+                while (pos < length
+                        && Character.isLetterOrDigit(text.charAt(pos))) {
+                    pos++;
+                }
+                kind = NUMBER;
+                token = text.substring(start, pos);
+            } else if (Character.isLetter(c) || c == '_') {
+                while (pos < length
+                        && (Character.isLetterOrDigit(text.charAt(pos))
+                                || text.charAt(pos) == '_')) {
+                    pos++;
+                }
+                kind = NAME;
+                token = text.substring(start, pos);
+            } else {
+                String two = text.substring(pos, Math.min(pos + 2, length));
+                switch (two) {
+                case "->":
+                case "<-":
+                case "<=":
+                case ">=":
+                case "..":
+                    pos += 2;
+                    token = two;
+                    break;
+                default:
+                    if ("()[]:|*-~=<>!".indexOf(c) < 0) {
+                        throw error("Unexpected character '" + c + "'");
+                    }
+                    pos++;
+                    token = String.valueOf(c);
+                }
+                kind = SYMBOL;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package edu.mit.ll.provsdnquery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.mit.ll.provsdnquery.ProvQuery.EdgePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Kind;
+import edu.mit.ll.provsdnquery.ProvQuery.NodePattern;
+import edu.mit.ll.provsdnquery.ProvQuery.Predicate;
+
+/**
+ * Tests of the query parser: the canonical text of queries, which parses back
+ * to itself, the errors of malformed queries, and the patterns parsed.
+ */
+public class ProvQueryTest {
+
+    @Test
+    public void printsCanonicalText() {
+        assertParsed("(f:entity \"DefaultFlowRule\") -[wasGeneratedBy]-> "
+                + "(a:activity \"org.onosproject.fwd\") -[used]-> "
+                + "(p:entity \"DefaultInboundPacket\" token \"port=2\" ts "
+                + "within 1h) return f limit 20",
+                "(f:entity value ~ \"DefaultFlowRule\") "
+                + "-[wasGeneratedBy]-> (a:activity value ~ "
+                + "\"org.onosproject.fwd\") -[used]-> (p:entity value ~ "
+                + "\"DefaultInboundPacket\" token \"port=2\" ts within "
+                + "3600000ms) return f limit 20");
+        assertParsed("(p token \"port=2\") <-[*2]- (f) return f",
+                "(p token \"port=2\") <-[*2..2]- (f) return f");
+        assertParsed("(f value = \"DefaultFlowRule{id=1}\") -[*..3]-> "
+                + "(p:entity) return p",
+                "(f value = \"DefaultFlowRule{id=1}\") -[*1..3]-> "
+                + "(p:entity) return p");
+        assertParsed("(f:entity) --> (:activity) --> (not \"port=3\") return f",
+                "(f:entity) --> (_2:activity) --> (_3 not value ~ "
+                + "\"port=3\") return f");
+        assertParsed("(a:ACTIVITY) -[used*0..1]-> (x uuid = "
+                + "\"5f0c5a1e-3b7d-4c1a-9a7e-2d4f6b8c0e12\")",
+                "(a:activity) -[used*0..1]-> (x uuid = "
+                + "\"5f0c5a1e-3b7d-4c1a-9a7e-2d4f6b8c0e12\") return a");
+        assertParsed("(a uuid = \"orgonosprojectfwdReactiveForwarding\")",
+                "(a uuid = \"orgonosprojectfwdReactiveForwarding\") return a");
+        assertParsed("(a ts > 5 ts <= 10 ! ts = 7)",
+                "(a ts >= 6 ts <= 10 not ts = 7) return a");
+        assertParsed("(a ts < 100) -[used|wasGeneratedBy*2..]-> (b ts >= 3)",
+                "(a ts <= 99) -[used|wasGeneratedBy*2..8]-> (b ts >= 3) "
+                + "return a");
+        assertParsed("(a value ~ \"say \\\"hi\\\" \\\\ ok\") RETURN a LIMIT 0",
+                "(a value ~ \"say \\\"hi\\\" \\\\ ok\") return a limit 0");
+        assertParsed("(a:agent) <-- (b) return b",
+                "(a:agent) <-- (b) return b");
+        assertParsed("(a ts within 500ms) --> (b not ts within 2D)",
+                "(a ts within 500ms) --> (b not ts within 172800000ms) "
+                + "return a");
+        assertParsed("(a) -[*]-> (b)", "(a) -[*1..8]-> (b) return a");
+        assertParsed("(a) -[*3..]-> (b)", "(a) -[*3..8]-> (b) return a");
+        assertParsed("(a) -[*10..]-> (b)", "(a) -[*10..10]-> (b) return a");
+        assertParsed("(a) -[*0..64]-> (b)", "(a) -[*0..64]-> (b) return a");
+        assertParsed("(_1) --> (_x) --> (Value_2)",
+                "(_1) --> (_x) --> (Value_2) return _1");
+        assertParsed("(a NOT token \"of:1/2\" not value = \"\")",
+                "(a not token \"of:1/2\" not value = \"\") return a");
+        assertParsed("()", "(_1) return _1");
+    }
+
+    @Test
+    public void rejectsMalformedQueries() {
+        assertRejected("(a) -[used]- (b)",
+                "Expected '->' but found '-' at position 11");
+        assertRejected("(a) (b)", "Unexpected '(' at position 4");
+        assertRejected("(a ts within 3y)",
+                "Unknown time unit 'y' (ms, s, m, h or d) at position 13");
+        assertRejected("(a ts within m)",
+                "Expected a duration such as 10m at position 13");
+        assertRejected("(a) -[*5..2]-> (b)",
+                "Empty depth range 5..2 at position 11");
+        assertRejected("(a) -[*0]-> (b)",
+                "Empty depth range 0..0 at position 8");
+        assertRejected("(a) -[*65]-> (b)",
+                "Depth 65 is more than 64 at position 9");
+        assertRejected("(a) --> (a)", "Pattern a is used twice at position 9");
+        assertRejected("(a) return b", "No pattern named b at position 12");
+        assertRejected("(a \"unterminated)",
+                "Unterminated string at position 3");
+        assertRejected("(a:thing)", "Unknown node type thing at position 8");
+        assertRejected("(a ts ~ 5)",
+                "Expected a comparison after ts at position 9");
+        assertRejected("(a ts < 99999999999999999999)",
+                "Timestamp out of range at position 8");
+        assertRejected("(a) limit 1234567890",
+                "Expected a number but found '1234567890' at position 10");
+        assertRejected("(a) extra", "Unexpected 'extra' at position 4");
+        assertRejected("(a #)", "Unexpected character '#' at position 3");
+        assertRejected("(a value \"x\")",
+                "Expected '=' but found \"x\" at position 9");
+        assertRejected("(a uuid \"x\")",
+                "Expected '=' but found \"x\" at position 8");
+        assertRejected("(a) -[used|]-> (b)",
+                "Expected a relation type but found ']' at position 11");
+        assertRejected("(not)",
+                "Expected a predicate or ')' but found ')' at position 4");
+        assertRejected("a", "Expected '(' but found 'a' at position 0");
+    }
+
+    @Test
+    public void parsesPatterns() {
+        ProvQuery query = ProvQuery.parse("(f:entity \"DefaultFlowRule\")"
+                + " <-[used|wasGeneratedBy*0..3]- (a ts > 5 not ts within 1s)"
+                + " return a limit 7");
+        assertEquals(Arrays.asList("f", "a"), query.getNames());
+        assertEquals(1, query.getReturnedIndex());
+        assertEquals("a", query.getReturned());
+        assertEquals(7, query.getLimit());
+
+        NodePattern f = query.getNodes().get(0);
+        assertEquals("entity", f.getType());
+        Predicate contains = f.getPredicates().get(0);
+        assertEquals(Kind.CONTAINS, contains.getKind());
+        assertEquals("DefaultFlowRule", contains.getText());
+        assertFalse(contains.isNegated());
+
+        EdgePattern edge = query.getEdges().get(0);
+        assertFalse(edge.isForward());
+        assertEquals(Arrays.asList("used", "wasGeneratedBy"), edge.getTypes());
+        assertEquals(0, edge.getMin());
+        assertEquals(3, edge.getMax());
+
+        NodePattern a = query.getNodes().get(1);
+        assertNull(a.getType());
+        Predicate after = a.getPredicates().get(0);
+        assertEquals(Kind.TIME, after.getKind());
+        assertEquals(6, after.getFrom());
+        assertEquals(Long.MAX_VALUE, after.getTo());
+        Predicate within = a.getPredicates().get(1);
+        assertEquals(Kind.WITHIN, within.getKind());
+        assertEquals(1000, within.getDuration());
+        assertTrue(within.isNegated());
+    }
+
+    private static void assertParsed(String query, String canonical) {
+        String parsed = ProvQuery.parse(query).toString();
+        assertEquals(canonical, parsed);
+        assertEquals(parsed, ProvQuery.parse(parsed).toString());
+    }
+
+    private static void assertRejected(String query, String error) {
+        try {
+            ProvQuery.parse(query);
+            fail("Parsed " + query);
+        } catch (IllegalArgumentException e) {
+            assertEquals(error, e.getMessage());
+        }
+    }
+
+}